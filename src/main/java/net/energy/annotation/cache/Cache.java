@@ -48,6 +48,34 @@ import net.energy.utils.Page;
  * 支持分页数据的缓存：
  * 只需要向Dao接口传入{@link Page}的子类，并设置每页记录数{@link Page#setSize(int)}，当前页码（从1开始，默认为1）{@link Page#setCurpage(int)}，就可以实现分页
  * 对于分页的集合系统会自动在原有的key值后面加上-pN用于区分页码，比如：解析后的key为photo-l-d-album1，而又是第2页，则实际key值将会是：photo-l-d-album1-p2
+ * 
+ * 缓存未命中时的并发控制：
+ * 同一个缓存key同一时刻只会有一个线程访问数据并重建缓存，其他线程最多等待waitTimeout毫秒来获取这个线程的结果，超时后自行访问数据
+ * 
+ * 异步刷新缓存（不支持分页的查询）：
+ * 1、staleFor大于0时，如果缓存对象的版本号和当前版本不一致，但缓存对象的存活时间还没有超过staleFor毫秒，
+ * 则直接返回旧的缓存对象，同时在后台重新访问数据并更新缓存；
+ * 2、refreshAhead大于0时，如果缓存对象距离过期时间已经不足refreshAhead毫秒，则在返回缓存对象的同时在后台重新访问数据并更新缓存。
+ * 
+ * 空结果缓存：
+ * 返回null（或者空集合）的结果同样会被缓存，使用nullExpire作为缓存时间，以免不存在的数据每次都访问数据库。
+ * 空结果的缓存和普通缓存使用相同的key，所以同样可以被@CacheDelete删除；集合的空结果同样关联vkey，可以被@VerUpdate更新。
+ * 单个对象的空结果由于无法生成vkey，只能通过@CacheDelete删除。
+ * 
+ * 整体缓存后分页（pageSlice=true，适用于中小规模的结果集）：
+ * 分页查询时不再按页缓存，而是去掉分页对象查询出全部（有序的）结果，使用不带-pN的key整体缓存一次，
+ * 每次查询时再在本地按{@link Page}截取当前页，总记录数直接取自结果集的大小，不再需要单独缓存分页对象，也不需要再次查询总数。
+ * 注意：DAO方法在分页对象为null时必须返回全部结果。
+ * 
+ * 按标签批量失效：
+ * 通过tags为缓存配置一个或多个标签，每个标签对应缓存池中的一个代数（generation），代数会被拼接到缓存的key值中。
+ * {@link CacheDelete#tag()}会将标签的代数加1，之后所有带有此标签的缓存都会使用新的key值，旧的缓存不再被访问并自然过期，
+ * 所以无论标签下有多少缓存，失效的代价都只是一次计数器的递增。例如：
+ * <code>@Cache(key="photo-l-d-album:albumId", vkey="PHOTO-:albumId-v", tags="user-:userId")
+ * public List<Photo> queryPhotos(@Param("albumId") long albumId, @Param("userId") long userId);
+ * 
+ * @CacheDelete(tag="user-:userId")
+ * public void deleteUser(@Param("userId") long userId);</code>
  * </pre>
  * 
  * @author wuqh
@@ -83,4 +111,46 @@ public @interface Cache {
 	 * @return
 	 */
 	String vkey() default "";
+
+	/**
+	 * 缓存未命中时，等待其他线程加载相同key数据的最长时间（单位：毫秒），小于等于0表示不合并加载
+	 * 
+	 * @return
+	 */
+	long waitTimeout() default 3000L;
+
+	/**
+	 * 版本不一致的缓存对象仍然可以返回的最长存活时间（单位：毫秒），小于等于0表示不返回版本不一致的缓存对象
+	 * 
+	 * @return
+	 */
+	long staleFor() default 0L;
+
+	/**
+	 * 缓存对象距离过期多长时间（单位：毫秒）以内被访问时，需要在后台提前刷新，小于等于0表示不提前刷新
+	 * 
+	 * @return
+	 */
+	long refreshAhead() default 0L;
+
+	/**
+	 * 空结果（null或者空集合）的缓存过期时间（单位：毫秒），小于等于0表示和expire一致
+	 * 
+	 * @return
+	 */
+	long nullExpire() default 0L;
+
+	/**
+	 * 分页查询时是否缓存全部结果，并在本地截取当前页，只对返回集合的方法有效
+	 * 
+	 * @return
+	 */
+	boolean pageSlice() default false;
+
+	/**
+	 * 缓存的标签，可以和key一样使用参数，通过{@link CacheDelete#tag()}可以使同一个标签下的所有缓存失效
+	 * 
+	 * @return
+	 */
+	String[] tags() default {};
 }
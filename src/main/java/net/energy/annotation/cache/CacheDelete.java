@@ -13,6 +13,12 @@ import java.lang.annotation.Target;
  * <code>@CacheDelete(key="album-d-:a.id")
  * public void updateAlbumInfo(@Param("a") Album newAlbum);</code>
  * 调用updateAlbumInfo(album)（其中album.getId()=1）后即可会将album-d-1对应的缓存删除。
+ * 
+ * 按标签批量失效：
+ * <code>@CacheDelete(tag="user-:u.id")
+ * public void updateUser(@Param("u") User user);</code>
+ * 调用updateUser(user)（其中user.getId()=1）后，所有配置了标签user-1（{@link Cache#tags()}）的缓存都会失效。
+ * key和tag至少需要配置一个。
  * </pre>
  * 
  * @author wuqh
@@ -33,6 +39,13 @@ public @interface CacheDelete {
 	 * 
 	 * @return
 	 */
-	String key();
+	String key() default "";
+
+	/**
+	 * 需要失效的缓存标签
+	 * 
+	 * @return
+	 */
+	String tag() default "";
 
 }
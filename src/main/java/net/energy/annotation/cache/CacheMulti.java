@@ -0,0 +1,67 @@
+package net.energy.annotation.cache;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 批量查询的逐个缓存配置。对于根据一组id查询一组对象的方法，每个对象使用独立的key缓存，而不是将整个结果集缓存在一个key下：
+ * 
+ * <pre>
+ * 1、先通过getMulti批量获取每个id对应的缓存；
+ * 2、只使用未命中的id重新绑定集合参数，调用DAO方法查询；
+ * 3、查询出的每个对象使用各自的key缓存；
+ * 4、结果按传入id的顺序返回，不存在的对象不会出现在结果中。
+ * 
+ * 例：
+ * <code>@CacheMulti(key="user-:id", param="ids")
+ * public List<User> getUsers(@Param("ids") List<Long> ids);</code>
+ * 调用getUsers([1,2,3])时会先获取user-1、user-2、user-3的缓存，如果只有user-2没有命中，则实际调用getUsers([2])，
+ * 并将结果按user.getId()缓存到user-2中。
+ * 
+ * key中有且只能有一个参数，它代表集合参数中的每个元素，同时也是返回对象中对应的属性名（如上例中的user.getId()），
+ * 用于将查询结果和传入的id对应起来。这样，这些缓存同样可以通过@CacheDelete(key="user-:u.id")删除或者通过@CachePut更新。
+ * </pre>
+ * 
+ * @author wuqh
+ * @see Cache
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface CacheMulti {
+	/**
+	 * 缓存池名
+	 * 
+	 * @return
+	 */
+	String pool() default "DEFAULT_CACHE";
+
+	/**
+	 * 单个对象的缓存键
+	 * 
+	 * @return
+	 */
+	String key();
+
+	/**
+	 * id集合参数的名称
+	 * 
+	 * @return
+	 */
+	String param();
+
+	/**
+	 * 缓存过期时间
+	 * 
+	 * @return
+	 */
+	long expire() default 1800000L; // 30min=1000*60*30
+
+	/**
+	 * 不存在的对象的缓存过期时间（单位：毫秒），小于等于0表示不缓存不存在的对象
+	 * 
+	 * @return
+	 */
+	long nullExpire() default 0L;
+}
@@ -0,0 +1,66 @@
+package net.energy.annotation.cache;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 写入缓存配置，在更新方法（如：@Update、@MongoUpdate）执行成功后，将方法参数中的新对象直接写入缓存，
+ * 使更新后的第一次查询就能够命中缓存，而不需要再访问数据库。
+ * 
+ * <pre>
+ * 例：
+ * <code>@CachePut(key="album-d-:a.id", value="a", vkey="ALBUM-:a.id-v")
+ * @VerUpdate(vkey="ALBUM-:a.id-v")
+ * public void updateAlbumInfo(@Param("a") Album newAlbum);</code>
+ * 调用updateAlbumInfo(album)（其中album.getId()=1）后，会将album写入album-d-1对应的缓存中。
+ * 
+ * 1、value为写入缓存的参数名，支持"."获取Bean的属性，写入的对象必须实现Serializable；
+ * 2、配置了vkey时，缓存对象的版本号为vkey对应的当前版本号。如果同一个方法中的@VerUpdate更新了同一个vkey，则使用更新后的版本号，
+ * 这样对应@Cache(key="album-d-:id", vkey="ALBUM-:result.id-v")的查询就可以直接命中缓存；
+ * 3、没有配置vkey时，只能被没有配置vkey的@Cache命中。
+ * </pre>
+ * 
+ * @author wuqh
+ * @see Cache
+ * @see VerUpdate
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface CachePut {
+	/**
+	 * 缓存池名
+	 * 
+	 * @return
+	 */
+	String pool() default "DEFAULT_CACHE";
+
+	/**
+	 * 缓存键
+	 * 
+	 * @return
+	 */
+	String key();
+
+	/**
+	 * 写入缓存的参数名
+	 * 
+	 * @return
+	 */
+	String value();
+
+	/**
+	 * 版本号键
+	 * 
+	 * @return
+	 */
+	String vkey() default "";
+
+	/**
+	 * 缓存过期时间
+	 * 
+	 * @return
+	 */
+	long expire() default 1800000L; // 30min=1000*60*30
+}
@@ -22,6 +22,7 @@ import java.lang.annotation.Target;
  * @author wuqh
  * @see CacheDelete
  * @see VerUpdate
+ * @see CachePut
  */
 @Target(ElementType.METHOD)
 @Retention(RetentionPolicy.RUNTIME)
@@ -41,4 +42,11 @@ public @interface CacheUpdate {
 	 */
 	VerUpdate[] update() default {};
 
+	/**
+	 * 需要写入缓存的注解
+	 * 
+	 * @return
+	 */
+	CachePut[] put() default {};
+
 }
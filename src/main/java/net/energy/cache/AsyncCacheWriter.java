@@ -0,0 +1,220 @@
+package net.energy.cache;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 异步写入高级别缓存的执行器，用于MultiLevelCache将写操作异步传播到高级别缓存（如：Memcached），避免调用线程等待网络往返。
+ * 
+ * <pre>
+ * 1、写操作按照缓存key的hash分配到不同的队列，每个队列只有一个后台线程，保证同一个key的写操作按顺序执行；
+ * 2、同一个key还在排队的写操作会被后来的写操作合并（只执行最后一次）；
+ * 3、队列是有界的，队列满时提交失败，由调用方决定丢弃或者同步执行。
+ * </pre>
+ * 
+ * @author wuqh
+ * @see MultiLevelCache
+ */
+public class AsyncCacheWriter {
+	private static final Logger LOGGER = LoggerFactory.getLogger(AsyncCacheWriter.class);
+	private static final int DEFAULT_THREADS = 2;
+	private static final int DEFAULT_QUEUE_SIZE = 10000;
+	private static final AtomicInteger WRITER_NUMBER = new AtomicInteger(1);
+
+	private final WriteQueue[] queues;
+	private final AtomicLong submittedCount = new AtomicLong();
+	private final AtomicLong mergedCount = new AtomicLong();
+	private final AtomicLong droppedCount = new AtomicLong();
+	private final AtomicLong failedCount = new AtomicLong();
+
+	public AsyncCacheWriter() {
+		this(DEFAULT_THREADS, DEFAULT_QUEUE_SIZE);
+	}
+
+	/**
+	 * @param threads
+	 *            后台线程数
+	 * @param queueSize
+	 *            所有队列的总长度
+	 */
+	public AsyncCacheWriter(int threads, int queueSize) {
+		int count = Math.max(1, threads);
+		int capacity = Math.max(1, queueSize / count);
+		int writerNumber = WRITER_NUMBER.getAndIncrement();
+
+		queues = new WriteQueue[count];
+		for (int i = 0; i < count; i++) {
+			queues[i] = new WriteQueue(capacity);
+			Thread thread = new Thread(queues[i], "energy-cache-writer-" + writerNumber + "-" + (i + 1));
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+	/**
+	 * 提交对缓存key的写操作
+	 * 
+	 * @param cache
+	 *            写入的目标缓存
+	 * @param key
+	 * @param write
+	 * @return 是否提交（或者合并）成功，队列已满时返回false
+	 */
+	public boolean submit(Cache cache, String key, Runnable write) {
+		WriteKey writeKey = new WriteKey(cache, key);
+		WriteQueue queue = queues[(writeKey.hashCode() & Integer.MAX_VALUE) % queues.length];
+		int result = queue.offer(writeKey, write);
+		if (result == WriteQueue.DROPPED) {
+			droppedCount.incrementAndGet();
+			return false;
+		}
+		if (result == WriteQueue.MERGED) {
+			mergedCount.incrementAndGet();
+		}
+		submittedCount.incrementAndGet();
+		return true;
+	}
+
+	/**
+	 * 当前排队等待执行的写操作数
+	 * 
+	 * @return
+	 */
+	public int getQueueDepth() {
+		int depth = 0;
+		for (WriteQueue queue : queues) {
+			depth += queue.size();
+		}
+		return depth;
+	}
+
+	public long getSubmittedCount() {
+		return submittedCount.get();
+	}
+
+	/**
+	 * 被后来的写操作合并掉的写操作数
+	 * 
+	 * @return
+	 */
+	public long getMergedCount() {
+		return mergedCount.get();
+	}
+
+	/**
+	 * 因为队列已满而提交失败的写操作数
+	 * 
+	 * @return
+	 */
+	public long getDroppedCount() {
+		return droppedCount.get();
+	}
+
+	/**
+	 * 执行时抛出异常的写操作数
+	 * 
+	 * @return
+	 */
+	public long getFailedCount() {
+		return failedCount.get();
+	}
+
+	@Override
+	public String toString() {
+		return "排队[" + getQueueDepth() + "]，提交[" + getSubmittedCount() + "]，合并[" + getMergedCount() + "]，丢弃["
+				+ getDroppedCount() + "]，失败[" + getFailedCount() + "]";
+	}
+
+	private class WriteQueue implements Runnable {
+		static final int QUEUED = 0;
+		static final int MERGED = 1;
+		static final int DROPPED = 2;
+
+		private final BlockingQueue<WriteKey> keys;
+		private final Map<WriteKey, Runnable> pendings = new HashMap<WriteKey, Runnable>();
+
+		WriteQueue(int capacity) {
+			keys = new ArrayBlockingQueue<WriteKey>(capacity);
+		}
+
+		synchronized int offer(WriteKey key, Runnable write) {
+			if (pendings.containsKey(key)) {
+				pendings.put(key, write);
+				return MERGED;
+			}
+			if (!keys.offer(key)) {
+				return DROPPED;
+			}
+			pendings.put(key, write);
+			return QUEUED;
+		}
+
+		private synchronized Runnable poll(WriteKey key) {
+			return pendings.remove(key);
+		}
+
+		int size() {
+			return keys.size();
+		}
+
+		@Override
+		public void run() {
+			while (true) {
+				WriteKey key;
+				try {
+					key = keys.take();
+				} catch (InterruptedException e) {
+					return;
+				}
+
+				Runnable write = poll(key);
+				if (write == null) {
+					continue;
+				}
+				try {
+					write.run();
+				} catch (Throwable e) {
+					failedCount.incrementAndGet();
+					LOGGER.info("异步写入缓存Key[" + key.key + "]失败", e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * 写操作合并使用的key，不同缓存实例中的相同key不能合并
+	 */
+	private static class WriteKey {
+		private final Cache cache;
+		private final String key;
+
+		WriteKey(Cache cache, String key) {
+			this.cache = cache;
+			this.key = key;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * System.identityHashCode(cache) + key.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof WriteKey)) {
+				return false;
+			}
+			WriteKey other = (WriteKey) obj;
+			return cache == other.cache && key.equals(other.key);
+		}
+	}
+}
@@ -0,0 +1,103 @@
+package net.energy.cache;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 高级别缓存命中后回填当前级别缓存的策略，包含准入过滤和本地缓存时间的计算：
+ * 
+ * <pre>
+ * 1、准入过滤：使用{@link FrequencySketch}近似统计每个key在高级别缓存中的命中次数，达到admissionHits次后才回填，
+ *    以免只访问一次的key挤占当前级别的缓存；
+ * 2、本地缓存时间：取缓存对象在高级别缓存中的剩余时间，但不超过maxTtl，剩余时间不足minTtl的不回填；
+ * 3、只回填{@link CacheObject}，版本号等计数器以及分页对象等不回填，回填的缓存对象在使用时仍然会比较版本号。
+ * </pre>
+ * 
+ * @author wuqh
+ * @see MultiLevelCache
+ */
+public class BackfillPolicy {
+	private final int admissionHits;
+	private final long maxTtl;
+	private final long minTtl;
+	private final FrequencySketch sketch;
+
+	private final AtomicLong admittedCount = new AtomicLong();
+	private final AtomicLong rejectedCount = new AtomicLong();
+
+	/**
+	 * @param admissionHits
+	 *            回填需要的最少命中次数，小于等于1表示每次命中都回填
+	 * @param maxTtl
+	 *            回填的最长缓存时间，单位：毫秒
+	 * @param minTtl
+	 *            剩余时间小于此值时不回填，单位：毫秒
+	 * @param width
+	 *            每行计数器的个数，会被调整为2的幂
+	 */
+	public BackfillPolicy(int admissionHits, long maxTtl, long minTtl, int width) {
+		this.admissionHits = Math.min(admissionHits, FrequencySketch.MAX_FREQUENCY);
+		this.maxTtl = maxTtl;
+		this.minTtl = minTtl;
+		this.sketch = new FrequencySketch(width);
+	}
+
+	/**
+	 * 计算回填的缓存时间
+	 * 
+	 * @param value
+	 *            高级别缓存中的对象
+	 * @return 小于等于0表示不回填
+	 */
+	public long getLocalTtl(Object value) {
+		if (!(value instanceof CacheObject)) {
+			return 0L;
+		}
+		long expireTime = ((CacheObject) value).getExpireTime();
+		if (expireTime <= 0) {
+			return maxTtl;
+		}
+		long remaining = expireTime - System.currentTimeMillis();
+		if (remaining < minTtl) {
+			return 0L;
+		}
+		return Math.min(remaining, maxTtl);
+	}
+
+	/**
+	 * 记录一次高级别缓存的命中，并判断是否允许回填
+	 * 
+	 * @param key
+	 * @return
+	 */
+	public boolean admit(String key) {
+		if (admissionHits <= 1) {
+			admittedCount.incrementAndGet();
+			return true;
+		}
+
+		if (sketch.increment(key) >= admissionHits) {
+			admittedCount.incrementAndGet();
+			return true;
+		}
+		rejectedCount.incrementAndGet();
+		return false;
+	}
+
+	/**
+	 * 允许回填的次数
+	 * 
+	 * @return
+	 */
+	public long getAdmittedCount() {
+		return admittedCount.get();
+	}
+
+	/**
+	 * 因命中次数不足而拒绝回填的次数
+	 * 
+	 * @return
+	 */
+	public long getRejectedCount() {
+		return rejectedCount.get();
+	}
+}
@@ -1,5 +1,7 @@
 package net.energy.cache;
 
+import java.util.Map;
+
 /**
  * Cache封装接口，操作过程中如果无法正常操作，将抛出CacheUnreachableException
  * 
@@ -31,6 +33,13 @@ public interface Cache {
 	 */
 	boolean delete(final String key);
 
+	/**
+	 * 批量删除Cache中的对象，尽可能在一次访问中删除所有key对应的对象
+	 * 
+	 * @param keys
+	 */
+	void deleteMulti(final String... keys);
+
 	/**
 	 * 删除Cache中的对象，请谨慎使用
 	 */
@@ -44,6 +53,37 @@ public interface Cache {
 	 */
 	Object get(final String key);
 
+	/**
+	 * 批量获取Cache中的对象，尽可能在一次访问中取回所有key对应的对象
+	 * 
+	 * @param keys
+	 * @return key值和缓存对象的对应关系，不存在的key不会出现在结果中
+	 */
+	Map<String, Object> getMulti(final String... keys);
+
+	/**
+	 * 原子的增加计数器的值，如果计数器不存在，则以initial为初始值创建（不再增加delta），并设置过期时间（单位：毫秒）
+	 * 
+	 * @param key
+	 * @param delta
+	 *            增加的值，为0时相当于原子的“获取或者创建”
+	 * @param initial
+	 * @param expiry
+	 * @return 计数器的当前值
+	 */
+	long incr(final String key, final long delta, final long initial, final long expiry);
+
+	/**
+	 * 批量增加计数器的值，尽可能在一次访问中完成，每个计数器的语义与{@link #incr(String, long, long, long)}相同
+	 * 
+	 * @param delta
+	 * @param initial
+	 * @param expiry
+	 * @param keys
+	 * @return key值和计数器当前值的对应关系
+	 */
+	Map<String, Long> incrMulti(final long delta, final long initial, final long expiry, final String... keys);
+
 	/**
 	 * Checks to see if key exists in cache.
 	 * 
@@ -0,0 +1,26 @@
+package net.energy.cache;
+
+/**
+ * 缓存对象的编解码接口，用于将缓存对象转换为字节数组存放到进程外（如：Memcached）或者堆外的缓存中。
+ * 编解码失败时抛出{@link net.energy.exception.CacheCodecException}
+ * 
+ * @author wuqh
+ * 
+ */
+public interface CacheCodec {
+	/**
+	 * 将对象编码为字节数组
+	 * 
+	 * @param value
+	 * @return
+	 */
+	byte[] encode(Object value);
+
+	/**
+	 * 将字节数组解码为对象
+	 * 
+	 * @param data
+	 * @return
+	 */
+	Object decode(byte[] data);
+}
@@ -1,6 +1,8 @@
 package net.energy.cache;
 
 import java.io.Serializable;
+import java.util.Collection;
+import java.util.Map;
 
 /**
  * 缓存对象封装类，包含Cache的内容实例，以及版本号
@@ -12,20 +14,91 @@ public class CacheObject implements Serializable {
 	private static final long serialVersionUID = 2284022570013430991L;
 	private final Serializable cacheObject;
 	private final long version;
+	/**
+	 * 缓存对象的创建时间，为0表示未知
+	 */
+	private final long createTime;
+	/**
+	 * 缓存对象的过期时间，为0表示未知
+	 */
+	private final long expireTime;
 
 	public Serializable getCacheObject() {
 		return cacheObject;
 	}
 
 	public CacheObject(Serializable object, long version) {
+		this(object, version, 0L);
+	}
+
+	/**
+	 * @param object
+	 * @param version
+	 * @param expire
+	 *            缓存最大生存时间，单位：毫秒
+	 */
+	public CacheObject(Serializable object, long version, long expire) {
 		this.cacheObject = object;
 		this.version = version;
+		this.createTime = System.currentTimeMillis();
+		this.expireTime = (expire > 0) ? createTime + expire : 0L;
+	}
+
+	/**
+	 * 用于从编码后的数据中还原缓存对象
+	 * 
+	 * @param object
+	 * @param version
+	 * @param createTime
+	 * @param expireTime
+	 */
+	public CacheObject(Serializable object, long version, long createTime, long expireTime) {
+		this.cacheObject = object;
+		this.version = version;
+		this.createTime = createTime;
+		this.expireTime = expireTime;
+	}
+
+	/**
+	 * 缓存的是否为空结果（null或者空集合、空Map）
+	 * 
+	 * @return
+	 */
+	public boolean isEmptyResult() {
+		return isEmptyResult(cacheObject);
+	}
+
+	/**
+	 * 判断数据访问的结果是否为空结果（null或者空集合、空Map）
+	 * 
+	 * @param result
+	 * @return
+	 */
+	public static boolean isEmptyResult(Object result) {
+		if (result == null) {
+			return true;
+		}
+		if (result instanceof Collection<?>) {
+			return ((Collection<?>) result).isEmpty();
+		}
+		if (result instanceof Map<?, ?>) {
+			return ((Map<?, ?>) result).isEmpty();
+		}
+		return false;
 	}
 
 	public long getVersion() {
 		return version;
 	}
 
+	public long getCreateTime() {
+		return createTime;
+	}
+
+	public long getExpireTime() {
+		return expireTime;
+	}
+
 	@Override
 	public String toString() {
 		String cacheObjectStr = "NULL";
@@ -1,5 +1,9 @@
 package net.energy.cache;
 
+import java.util.Map;
+
+import net.energy.utils.Page;
+
 /**
  * 缓存操作结果，包含缓存的客户端实例，当前的对象版本，版本的key值，分页对象的缓存key值，缓存是否命中，数据访问操作返回的结果
  * 
@@ -14,6 +18,9 @@ public class CacheResult {
 	private String key;
 	private boolean hit;
 	private Object retVal;
+	private Page page;
+	private boolean refresh;
+	private Map<String, Object> prefetchedValues;
 
 	public CacheResult(boolean hit) {
 		this.hit = hit;
@@ -91,6 +98,34 @@ public class CacheResult {
 		this.retVal = retVal;
 	}
 
+	/**
+	 * @return 数据访问时使用的分页对象
+	 */
+	public Page getPage() {
+		return page;
+	}
+
+	/**
+	 * @param page
+	 */
+	public void setPage(Page page) {
+		this.page = page;
+	}
+
+	/**
+	 * @return 命中的缓存是否需要在后台刷新
+	 */
+	public boolean isRefresh() {
+		return refresh;
+	}
+
+	/**
+	 * @param refresh
+	 */
+	public void setRefresh(boolean refresh) {
+		this.refresh = refresh;
+	}
+
 	public Cache getCache() {
 		return cache;
 	}
@@ -99,4 +134,31 @@ public class CacheResult {
 		this.cache = cache;
 	}
 
+	/**
+	 * @param prefetchedValues
+	 *            预先批量获取的缓存值，包含所有预取的key，未命中的key对应值为null
+	 */
+	public void setPrefetchedValues(Map<String, Object> prefetchedValues) {
+		this.prefetchedValues = prefetchedValues;
+	}
+
+	/**
+	 * @param key
+	 * @return key是否已经在批量获取中被预取过（无论是否命中）
+	 */
+	public boolean isPrefetched(String key) {
+		return prefetchedValues != null && prefetchedValues.containsKey(key);
+	}
+
+	/**
+	 * @param key
+	 * @return 预取的缓存值，未命中则为null
+	 */
+	public Object getPrefetchedValue(String key) {
+		if (prefetchedValues == null) {
+			return null;
+		}
+		return prefetchedValues.get(key);
+	}
+
 }
@@ -0,0 +1,345 @@
+package net.energy.cache;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 高级别缓存的断路器，无锁实现，包含关闭（CLOSED）、打开（OPEN）、半开（HALF_OPEN）三种状态：
+ * 
+ * <pre>
+ * 1、CLOSED：请求正常访问缓存，同时在滑动时间窗口内统计错误率和耗时分布，
+ *    当请求数达到minimumRequests，并且错误率达到errorRateThreshold或者耗时的latencyPercentile分位数超过latencyThreshold时打开断路器；
+ * 2、OPEN：请求不访问缓存，经过openTime后进入HALF_OPEN；
+ * 3、HALF_OPEN：只允许halfOpenProbes个探测请求访问缓存，探测请求全部成功（并且不慢）则关闭断路器，任意一个失败（或者慢）则重新打开。
+ * </pre>
+ * 
+ * @author wuqh
+ * @see MultiLevelCache
+ */
+public class CircuitBreaker {
+	private static final Logger LOGGER = LoggerFactory.getLogger(CircuitBreaker.class);
+	/**
+	 * 耗时分布的统计区间上限，单位：毫秒，最后一个区间为无穷大
+	 */
+	private static final long[] LATENCY_BOUNDS = { 1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, Long.MAX_VALUE };
+
+	public enum State {
+		CLOSED, OPEN, HALF_OPEN
+	}
+
+	private final String name;
+	private final double errorRateThreshold;
+	private final long latencyThreshold;
+	private final double latencyPercentile;
+	private final int minimumRequests;
+	private final long openTime;
+	private final int halfOpenProbes;
+	private final long bucketTime;
+	private final Bucket[] buckets;
+
+	private final AtomicReference<State> state = new AtomicReference<State>(State.CLOSED);
+	private volatile long openedTime = 0L;
+	private final AtomicInteger probePermits = new AtomicInteger();
+	private final AtomicInteger probeSuccesses = new AtomicInteger();
+
+	private final AtomicLong openedCount = new AtomicLong();
+	private final AtomicLong halfOpenedCount = new AtomicLong();
+	private final AtomicLong closedCount = new AtomicLong();
+	private final AtomicLong rejectedCount = new AtomicLong();
+	private volatile long lastTransitionTime = System.currentTimeMillis();
+
+	/**
+	 * @param name
+	 *            断路器名称，用于日志
+	 * @param errorRateThreshold
+	 *            打开断路器的错误率
+	 * @param latencyThreshold
+	 *            打开断路器的耗时，单位：毫秒，小于等于0表示不按耗时打开
+	 * @param latencyPercentile
+	 *            耗时统计的分位数，如：0.99
+	 * @param minimumRequests
+	 *            时间窗口内至少有这么多请求才会打开断路器
+	 * @param openTime
+	 *            断路器打开后多久进入半开状态，单位：毫秒
+	 * @param halfOpenProbes
+	 *            半开状态下的探测请求数
+	 * @param window
+	 *            滑动时间窗口，单位：毫秒
+	 */
+	public CircuitBreaker(String name, double errorRateThreshold, long latencyThreshold, double latencyPercentile,
+			int minimumRequests, long openTime, int halfOpenProbes, long window) {
+		this.name = name;
+		this.errorRateThreshold = errorRateThreshold;
+		this.latencyThreshold = latencyThreshold;
+		this.latencyPercentile = latencyPercentile;
+		this.minimumRequests = Math.max(1, minimumRequests);
+		this.openTime = openTime;
+		this.halfOpenProbes = Math.max(1, halfOpenProbes);
+
+		int bucketCount = 10;
+		this.bucketTime = Math.max(1L, window / bucketCount);
+		this.buckets = new Bucket[bucketCount];
+		for (int i = 0; i < bucketCount; i++) {
+			buckets[i] = new Bucket();
+		}
+	}
+
+	/**
+	 * 是否允许访问缓存。返回true时，访问结束后必须调用{@link #record(long, boolean)}
+	 * 
+	 * @return
+	 */
+	public boolean allowRequest() {
+		State current = state.get();
+		if (current == State.OPEN) {
+			if (System.currentTimeMillis() - openedTime < openTime) {
+				rejectedCount.incrementAndGet();
+				return false;
+			}
+			if (transition(State.OPEN, State.HALF_OPEN)) {
+				probeSuccesses.set(0);
+				probePermits.set(halfOpenProbes);
+			}
+			current = state.get();
+		}
+
+		if (current == State.HALF_OPEN) {
+			if (probePermits.getAndDecrement() > 0) {
+				return true;
+			}
+			rejectedCount.incrementAndGet();
+			return false;
+		}
+
+		if (current == State.CLOSED) {
+			return true;
+		}
+		// 探测请求失败，断路器已经重新打开
+		rejectedCount.incrementAndGet();
+		return false;
+	}
+
+	/**
+	 * 记录一次缓存访问的结果
+	 * 
+	 * @param latency
+	 *            耗时，单位：毫秒
+	 * @param failed
+	 *            是否失败
+	 */
+	public void record(long latency, boolean failed) {
+		boolean slow = latencyThreshold > 0 && latency > latencyThreshold;
+		State current = state.get();
+		if (current == State.HALF_OPEN) {
+			if (failed || slow) {
+				open(State.HALF_OPEN);
+			} else if (probeSuccesses.incrementAndGet() >= halfOpenProbes) {
+				if (transition(State.HALF_OPEN, State.CLOSED)) {
+					resetWindow();
+				}
+			}
+			return;
+		}
+
+		currentBucket().record(latency, failed);
+		// 只有失败或者慢的请求才可能导致断路器打开，没必要每次都计算
+		if (current == State.CLOSED && (failed || slow) && shouldTrip()) {
+			open(State.CLOSED);
+		}
+	}
+
+	private void open(State from) {
+		if (transition(from, State.OPEN)) {
+			openedTime = System.currentTimeMillis();
+		}
+	}
+
+	private boolean transition(State from, State to) {
+		if (!state.compareAndSet(from, to)) {
+			return false;
+		}
+
+		lastTransitionTime = System.currentTimeMillis();
+		if (to == State.OPEN) {
+			openedCount.incrementAndGet();
+		} else if (to == State.HALF_OPEN) {
+			halfOpenedCount.incrementAndGet();
+		} else {
+			closedCount.incrementAndGet();
+		}
+		LOGGER.info("断路器[" + name + "]状态从[" + from + "]变为[" + to + "]，" + this);
+		return true;
+	}
+
+	private boolean shouldTrip() {
+		long now = System.currentTimeMillis();
+		long total = getRequestCount(now);
+		if (total < minimumRequests) {
+			return false;
+		}
+		if ((double) getFailureCount(now) / total >= errorRateThreshold) {
+			return true;
+		}
+		return latencyThreshold > 0 && getPercentileLatency(now, total) > latencyThreshold;
+	}
+
+	private Bucket currentBucket() {
+		long epoch = System.currentTimeMillis() / bucketTime;
+		Bucket bucket = buckets[(int) (epoch % buckets.length)];
+		bucket.rollTo(epoch);
+		return bucket;
+	}
+
+	private boolean isInWindow(Bucket bucket, long now) {
+		long epoch = now / bucketTime;
+		return epoch - bucket.epoch.get() < buckets.length;
+	}
+
+	private void resetWindow() {
+		for (Bucket bucket : buckets) {
+			bucket.rollTo(Long.MAX_VALUE);
+		}
+	}
+
+	private long getRequestCount(long now) {
+		long total = 0;
+		for (Bucket bucket : buckets) {
+			if (isInWindow(bucket, now)) {
+				total += bucket.total.get();
+			}
+		}
+		return total;
+	}
+
+	private long getFailureCount(long now) {
+		long failures = 0;
+		for (Bucket bucket : buckets) {
+			if (isInWindow(bucket, now)) {
+				failures += bucket.failures.get();
+			}
+		}
+		return failures;
+	}
+
+	private long getPercentileLatency(long now, long total) {
+		long[] histogram = new long[LATENCY_BOUNDS.length];
+		for (Bucket bucket : buckets) {
+			if (isInWindow(bucket, now)) {
+				for (int i = 0; i < histogram.length; i++) {
+					histogram[i] += bucket.latencies.get(i);
+				}
+			}
+		}
+
+		long target = (long) Math.ceil(total * latencyPercentile);
+		long count = 0;
+		for (int i = 0; i < histogram.length; i++) {
+			count += histogram[i];
+			if (count >= target) {
+				return LATENCY_BOUNDS[i];
+			}
+		}
+		return LATENCY_BOUNDS[LATENCY_BOUNDS.length - 1];
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public State getState() {
+		return state.get();
+	}
+
+	/**
+	 * 时间窗口内的错误率
+	 * 
+	 * @return
+	 */
+	public double getErrorRate() {
+		long now = System.currentTimeMillis();
+		long total = getRequestCount(now);
+		return (total == 0) ? 0.0D : (double) getFailureCount(now) / total;
+	}
+
+	/**
+	 * 时间窗口内耗时的分位数（统计区间的上限），单位：毫秒
+	 * 
+	 * @return
+	 */
+	public long getPercentileLatency() {
+		long now = System.currentTimeMillis();
+		long total = getRequestCount(now);
+		return (total == 0) ? 0L : getPercentileLatency(now, total);
+	}
+
+	public long getOpenedCount() {
+		return openedCount.get();
+	}
+
+	public long getHalfOpenedCount() {
+		return halfOpenedCount.get();
+	}
+
+	public long getClosedCount() {
+		return closedCount.get();
+	}
+
+	/**
+	 * 因为断路器打开而被拒绝访问缓存的请求数
+	 * 
+	 * @return
+	 */
+	public long getRejectedCount() {
+		return rejectedCount.get();
+	}
+
+	public long getLastTransitionTime() {
+		return lastTransitionTime;
+	}
+
+	@Override
+	public String toString() {
+		return "状态[" + getState() + "]，错误率[" + String.format("%.3f", getErrorRate()) + "]，"
+				+ (int) (latencyPercentile * 100) + "分位耗时[" + getPercentileLatency() + "ms]，打开[" + getOpenedCount()
+				+ "]次，拒绝[" + getRejectedCount() + "]次";
+	}
+
+	/**
+	 * 滑动时间窗口中的一个统计区间
+	 */
+	private static class Bucket {
+		private final AtomicLong epoch = new AtomicLong(Long.MIN_VALUE);
+		private final AtomicLong total = new AtomicLong();
+		private final AtomicLong failures = new AtomicLong();
+		private final AtomicLongArray latencies = new AtomicLongArray(LATENCY_BOUNDS.length);
+
+		void rollTo(long newEpoch) {
+			long oldEpoch = epoch.get();
+			// 并发重置时只有一个线程清零，清零过程中的少量计数误差可以接受
+			if (oldEpoch != newEpoch && epoch.compareAndSet(oldEpoch, newEpoch)) {
+				total.set(0);
+				failures.set(0);
+				for (int i = 0; i < LATENCY_BOUNDS.length; i++) {
+					latencies.set(i, 0);
+				}
+			}
+		}
+
+		void record(long latency, boolean failed) {
+			total.incrementAndGet();
+			if (failed) {
+				failures.incrementAndGet();
+			}
+			int index = 0;
+			while (latency > LATENCY_BOUNDS[index]) {
+				index++;
+			}
+			latencies.incrementAndGet(index);
+		}
+	}
+}
@@ -0,0 +1,133 @@
+package net.energy.cache;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 近似统计访问频率的Count-Min Sketch：
+ * 
+ * <pre>
+ * 1、4行计数器，估计值取各行中的最小值，计数器默认最大为15；
+ * 2、计数器默认每经过10倍宽度次累加后全部减半，使统计反映最近的访问频率；
+ * 3、累加和减半都不加锁，并发时的误差可以忽略。
+ * </pre>
+ * 
+ * @author wuqh
+ * @see BackfillPolicy
+ */
+public class FrequencySketch {
+	public static final int MAX_FREQUENCY = 15;
+	private static final int DEPTH = 4;
+	private static final int[] SEEDS = { 0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F };
+
+	private final int width;
+	private final int widthMask;
+	private final int maxFrequency;
+	private final int sampleSize;
+	private final AtomicIntegerArray counters;
+	private final AtomicLong additions = new AtomicLong();
+
+	/**
+	 * @param width
+	 *            每行计数器的个数，会被调整为2的幂
+	 */
+	public FrequencySketch(int width) {
+		this(width, MAX_FREQUENCY, true);
+	}
+
+	/**
+	 * @param width
+	 *            每行计数器的个数，会被调整为2的幂
+	 * @param maxFrequency
+	 *            计数器的最大值
+	 * @param aging
+	 *            是否定期将计数器减半，不减半时由使用者调用{@link #clear()}
+	 */
+	public FrequencySketch(int width, int maxFrequency, boolean aging) {
+		this.width = Integer.highestOneBit(Math.max(width, 16) - 1) << 1;
+		this.widthMask = this.width - 1;
+		this.maxFrequency = maxFrequency;
+		this.sampleSize = aging ? this.width * 10 : 0;
+		this.counters = new AtomicIntegerArray(DEPTH * this.width);
+	}
+
+	/**
+	 * 记录一次访问
+	 * 
+	 * @param key
+	 * @return 记录后的频率估计值
+	 */
+	public int increment(Object key) {
+		int hash = spread(key.hashCode());
+		int min = maxFrequency;
+		for (int i = 0; i < DEPTH; i++) {
+			int count = increment(indexOf(hash, i));
+			if (count < min) {
+				min = count;
+			}
+		}
+		if (sampleSize > 0 && additions.incrementAndGet() % sampleSize == 0) {
+			reset();
+		}
+		return min;
+	}
+
+	/**
+	 * 获取频率估计值
+	 * 
+	 * @param key
+	 * @return
+	 */
+	public int frequency(Object key) {
+		int hash = spread(key.hashCode());
+		int min = maxFrequency;
+		for (int i = 0; i < DEPTH; i++) {
+			int count = counters.get(indexOf(hash, i));
+			if (count < min) {
+				min = count;
+			}
+		}
+		return min;
+	}
+
+	private int indexOf(int hash, int row) {
+		return row * width + (spread(hash ^ SEEDS[row]) & widthMask);
+	}
+
+	private int increment(int index) {
+		while (true) {
+			int count = counters.get(index);
+			if (count >= maxFrequency) {
+				return count;
+			}
+			if (counters.compareAndSet(index, count, count + 1)) {
+				return count + 1;
+			}
+		}
+	}
+
+	/**
+	 * 所有计数器减半（近似操作，不需要和并发的累加严格同步）
+	 */
+	private void reset() {
+		for (int i = 0; i < counters.length(); i++) {
+			counters.set(i, counters.get(i) >>> 1);
+		}
+	}
+
+	/**
+	 * 清空所有计数器（近似操作，不需要和并发的累加严格同步）
+	 */
+	public void clear() {
+		for (int i = 0; i < counters.length(); i++) {
+			counters.set(i, 0);
+		}
+	}
+
+	private static int spread(int hash) {
+		hash ^= hash >>> 16;
+		hash *= 0x85EBCA6B;
+		hash ^= hash >>> 13;
+		return hash;
+	}
+}
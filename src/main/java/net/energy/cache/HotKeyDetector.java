@@ -0,0 +1,252 @@
+package net.energy.cache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 缓存池的热点key统计，按固定的统计周期（window）进行：
+ * 
+ * <pre>
+ * 1、使用{@link FrequencySketch}近似统计每个key在当前周期内的访问次数，只保留访问次数最多的topK个key；
+ * 2、只有访问次数超过当前最少的key才需要加锁更新topK，已经在topK中的key不加锁，热点key的访问开销很低；
+ * 3、周期结束时保存本周期的topK，清空计数重新统计，访问次数达到hotThreshold的key作为热点key输出到日志；
+ * 4、当前周期内访问次数达到hotThreshold，或者在上一个周期是热点的key，都认为是热点key。
+ * </pre>
+ * 
+ * 可以通过{@link #getTopKeys()}或者JMX获取上一个周期的统计结果。
+ * 
+ * @author wuqh
+ * @see MultiLevelCache
+ */
+public class HotKeyDetector implements HotKeyDetectorMBean {
+	private static final Logger LOGGER = LoggerFactory.getLogger(HotKeyDetector.class);
+	private static final Comparator<HotKey> BY_COUNT_DESC = new Comparator<HotKey>() {
+
+		@Override
+		public int compare(HotKey o1, HotKey o2) {
+			return (o1.count < o2.count) ? 1 : ((o1.count == o2.count) ? 0 : -1);
+		}
+	};
+
+	private final String pool;
+	private final int topK;
+	private final long window;
+	private final int hotThreshold;
+	private final long pinTtl;
+	private final FrequencySketch sketch;
+	/**
+	 * 当前周期的topK，只在加锁时修改
+	 */
+	private final ConcurrentMap<String, Boolean> topKeys = new ConcurrentHashMap<String, Boolean>();
+	/**
+	 * 进入topK需要超过的访问次数，topK未满时为0
+	 */
+	private volatile int minCount;
+	private volatile long windowEnd;
+	private volatile List<HotKey> lastTopKeys = Collections.emptyList();
+	private volatile Set<String> lastHotKeys = Collections.emptySet();
+	private final AtomicLong pinnedCount = new AtomicLong();
+
+	/**
+	 * @param pool
+	 *            缓存池名
+	 * @param topK
+	 *            保留访问次数最多的key的个数
+	 * @param window
+	 *            统计周期，单位：毫秒
+	 * @param hotThreshold
+	 *            一个周期内访问多少次算热点key
+	 * @param pinTtl
+	 *            热点key在当前级别缓存中的缓存时间，单位：毫秒，小于等于0表示不缓存
+	 * @param width
+	 *            每行计数器的个数
+	 */
+	public HotKeyDetector(String pool, int topK, long window, int hotThreshold, long pinTtl, int width) {
+		this.pool = pool;
+		this.topK = topK;
+		this.window = window;
+		this.hotThreshold = hotThreshold;
+		this.pinTtl = pinTtl;
+		this.sketch = new FrequencySketch(width, Integer.MAX_VALUE, false);
+		this.windowEnd = System.currentTimeMillis() + window;
+	}
+
+	/**
+	 * 记录一次访问
+	 * 
+	 * @param key
+	 * @return 是否为热点key
+	 */
+	public boolean record(String key) {
+		long now = System.currentTimeMillis();
+		if (now >= windowEnd) {
+			rotate(now);
+		}
+
+		int count = sketch.increment(key);
+		if (count > minCount && !topKeys.containsKey(key)) {
+			offer(key, count);
+		}
+		return count >= hotThreshold || lastHotKeys.contains(key);
+	}
+
+	/**
+	 * 尝试将key加入topK，替换访问次数最少的key
+	 * 
+	 * @param key
+	 * @param count
+	 */
+	private synchronized void offer(String key, int count) {
+		if (topKeys.containsKey(key)) {
+			return;
+		}
+		if (topKeys.size() < topK) {
+			topKeys.put(key, Boolean.TRUE);
+			if (topKeys.size() == topK) {
+				minCount = findMin();
+			}
+			return;
+		}
+
+		String minKey = null;
+		int min = Integer.MAX_VALUE;
+		for (String topKey : topKeys.keySet()) {
+			int frequency = sketch.frequency(topKey);
+			if (frequency < min) {
+				min = frequency;
+				minKey = topKey;
+			}
+		}
+		if (count > min) {
+			topKeys.remove(minKey);
+			topKeys.put(key, Boolean.TRUE);
+			minCount = findMin();
+		} else {
+			minCount = min;
+		}
+	}
+
+	private int findMin() {
+		int min = Integer.MAX_VALUE;
+		for (String topKey : topKeys.keySet()) {
+			min = Math.min(min, sketch.frequency(topKey));
+		}
+		return min;
+	}
+
+	/**
+	 * 结束当前周期：保存统计结果，输出热点key，并清空计数
+	 * 
+	 * @param now
+	 */
+	private synchronized void rotate(long now) {
+		if (now < windowEnd) {
+			return;
+		}
+
+		List<HotKey> keys = new ArrayList<HotKey>(topKeys.size());
+		Set<String> hotKeys = new HashSet<String>();
+		for (String key : topKeys.keySet()) {
+			int count = sketch.frequency(key);
+			keys.add(new HotKey(key, count));
+			if (count >= hotThreshold) {
+				hotKeys.add(key);
+			}
+		}
+		Collections.sort(keys, BY_COUNT_DESC);
+
+		lastTopKeys = Collections.unmodifiableList(keys);
+		lastHotKeys = hotKeys;
+		topKeys.clear();
+		sketch.clear();
+		minCount = 0;
+		windowEnd = now + window;
+
+		if (!hotKeys.isEmpty()) {
+			List<HotKey> hotList = keys.subList(0, hotKeys.size());
+			LOGGER.info("缓存池[" + pool + "]在[" + window + "]毫秒内的热点Key：" + hotList);
+		}
+	}
+
+	/**
+	 * 记录一次热点key的本地缓存
+	 */
+	void pinned() {
+		pinnedCount.incrementAndGet();
+	}
+
+	/**
+	 * 上一个统计周期内访问次数最多的key，按访问次数从高到低排列
+	 * 
+	 * @return
+	 */
+	public List<HotKey> getLastTopKeys() {
+		return lastTopKeys;
+	}
+
+	@Override
+	public String getPool() {
+		return pool;
+	}
+
+	@Override
+	public String[] getTopKeys() {
+		List<HotKey> keys = lastTopKeys;
+		String[] result = new String[keys.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = keys.get(i).toString();
+		}
+		return result;
+	}
+
+	@Override
+	public String[] getHotKeys() {
+		Set<String> keys = lastHotKeys;
+		return keys.toArray(new String[keys.size()]);
+	}
+
+	@Override
+	public long getPinnedCount() {
+		return pinnedCount.get();
+	}
+
+	public long getPinTtl() {
+		return pinTtl;
+	}
+
+	/**
+	 * 一个key在统计周期内的访问次数
+	 */
+	public static class HotKey {
+		private final String key;
+		private final long count;
+
+		public HotKey(String key, long count) {
+			this.key = key;
+			this.count = count;
+		}
+
+		public String getKey() {
+			return key;
+		}
+
+		public long getCount() {
+			return count;
+		}
+
+		@Override
+		public String toString() {
+			return key + "=" + count;
+		}
+	}
+}
@@ -0,0 +1,37 @@
+package net.energy.cache;
+
+/**
+ * 热点key统计的JMX接口
+ * 
+ * @author wuqh
+ * @see HotKeyDetector
+ */
+public interface HotKeyDetectorMBean {
+	/**
+	 * 缓存池名
+	 * 
+	 * @return
+	 */
+	String getPool();
+
+	/**
+	 * 上一个统计周期内访问次数最多的key，格式为“key=访问次数”，按访问次数从高到低排列
+	 * 
+	 * @return
+	 */
+	String[] getTopKeys();
+
+	/**
+	 * 上一个统计周期内的热点key（访问次数达到hotThreshold）
+	 * 
+	 * @return
+	 */
+	String[] getHotKeys();
+
+	/**
+	 * 本地缓存热点key的次数
+	 * 
+	 * @return
+	 */
+	long getPinnedCount();
+}
@@ -1,45 +1,94 @@
 package net.energy.cache;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.energy.cache.invalidation.InvalidationBus;
 import net.energy.exception.CacheUnreachableException;
 
 public abstract class MultiLevelCache implements Cache {
 	private Cache highLevelCache;
-	private boolean highLevelCacheReachable = true;
-	private long lastUnreachableTime = 0L;
-	private long reconnectTime = 0L;
+	/**
+	 * 异步写入高级别缓存的执行器，为null时同步写入
+	 */
+	private AsyncCacheWriter highLevelWriter;
+	/**
+	 * 高级别缓存的断路器，为null时总是访问高级别缓存
+	 */
+	private CircuitBreaker highLevelBreaker;
+	/**
+	 * 高级别缓存命中后回填当前级别缓存的策略，为null时不回填
+	 */
+	private BackfillPolicy backfillPolicy;
+	/**
+	 * 向其他节点广播当前级别缓存失效的消息，为null时不广播
+	 */
+	private InvalidationBus invalidationBus;
+	private String pool;
+	/**
+	 * 已经提交到异步队列、还没有广播失效消息的key
+	 */
+	private final Set<String> pendingInvalidations = Collections
+			.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	/**
+	 * 热点key统计，为null时不统计
+	 */
+	private HotKeyDetector hotKeyDetector;
 
 	public void setHighLevelCache(Cache highLevelCache) {
 		this.highLevelCache = highLevelCache;
 	}
 
-	public void setReconnectTime(long reconnectTime) {
-		this.reconnectTime = reconnectTime;
+	public void setHighLevelWriter(AsyncCacheWriter highLevelWriter) {
+		this.highLevelWriter = highLevelWriter;
 	}
 
-	private boolean isHighLevelCacheEnable() {
-		if (highLevelCache == null) {
-			return false;
-		}
+	public void setHighLevelBreaker(CircuitBreaker highLevelBreaker) {
+		this.highLevelBreaker = highLevelBreaker;
+	}
 
-		// 如果上一次连接不成功，则判断是否超过重连时间
-		boolean reconnect = false;
-		if (!highLevelCacheReachable) {
-			long interval = System.currentTimeMillis() - lastUnreachableTime;
-			if (interval > reconnectTime) {
-				reconnect = true;
-			}
-		}
+	public void setBackfillPolicy(BackfillPolicy backfillPolicy) {
+		this.backfillPolicy = backfillPolicy;
+	}
 
-		return (highLevelCacheReachable || reconnect);
+	/**
+	 * 设置后add、delete、removeAll以及更新计数器（版本号）时，会通知其他节点删除各自当前级别缓存中的副本
+	 * 
+	 * @param invalidationBus
+	 * @param pool
+	 *            消息中的缓存池名
+	 */
+	public void setInvalidationBus(InvalidationBus invalidationBus, String pool) {
+		this.invalidationBus = invalidationBus;
+		this.pool = pool;
 	}
 
-	private void setHighLevelCacheDisable() {
-		highLevelCacheReachable = false;
-		lastUnreachableTime = System.currentTimeMillis();
+	public void setHotKeyDetector(HotKeyDetector hotKeyDetector) {
+		this.hotKeyDetector = hotKeyDetector;
 	}
 
-	private void setHighLevelCacheEnable() {
-		highLevelCacheReachable = true;
+	/**
+	 * 广播缓存失效消息
+	 * 
+	 * @param key
+	 *            为null表示整个缓存池失效
+	 */
+	private void publishInvalidation(String key) {
+		InvalidationBus bus = invalidationBus;
+		if (bus == null) {
+			return;
+		}
+		try {
+			bus.publish(pool, key);
+		} catch (RuntimeException e) {
+			CacheErrorHandler.handleError(e);
+		}
 	}
 
 	@Override
@@ -54,7 +103,7 @@ public abstract class MultiLevelCache implements Cache {
 				return null;
 			}
 		};
-		callback.process(highLevelCache);
+		writeHighLevelCache(key, callback, false, true);
 	}
 
 	protected abstract void doAdd(final String key, final Object value);
@@ -71,7 +120,7 @@ public abstract class MultiLevelCache implements Cache {
 				return null;
 			}
 		};
-		callback.process(highLevelCache);
+		writeHighLevelCache(key, callback, false, true);
 	}
 
 	protected abstract void doAdd(final String key, final Object value, final long expiry);
@@ -87,13 +136,63 @@ public abstract class MultiLevelCache implements Cache {
 				return cache.delete(key);
 			}
 		};
-		callback.process(highLevelCache);
+		writeHighLevelCache(key, callback, true, true);
 
 		return result;
 	}
 
 	protected abstract boolean doDelete(final String key);
 
+	@Override
+	public void deleteMulti(final String... keys) {
+		doDeleteMulti(keys);
+
+		if (highLevelCache == null) {
+			for (String key : keys) {
+				publishInvalidation(key);
+			}
+			return;
+		}
+		// 异步写入时仍然按key逐个提交，保证同一个key的写操作按顺序执行
+		if (highLevelWriter != null) {
+			for (final String key : keys) {
+				HighLevelCacheCallback callback = new HighLevelCacheCallback() {
+
+					@Override
+					protected Object doInCache(Cache cache) {
+						return cache.delete(key);
+					}
+				};
+				writeHighLevelCache(key, callback, true, true);
+			}
+			return;
+		}
+
+		HighLevelCacheCallback callback = new HighLevelCacheCallback() {
+
+			@Override
+			protected Object doInCache(Cache cache) {
+				cache.deleteMulti(keys);
+				return null;
+			}
+		};
+		callback.process(highLevelCache);
+		for (String key : keys) {
+			publishInvalidation(key);
+		}
+	}
+
+	/**
+	 * 批量删除当前级别缓存中的对象，默认逐个删除，支持批量操作的缓存可以覆盖此方法
+	 * 
+	 * @param keys
+	 */
+	protected void doDeleteMulti(final String... keys) {
+		for (String key : keys) {
+			doDelete(key);
+		}
+	}
+
 	@Override
 	public void removeAll() {
 		doRemoveAll();
@@ -107,14 +206,74 @@ public abstract class MultiLevelCache implements Cache {
 			}
 		};
 		callback.process(highLevelCache);
+		publishInvalidation(null);
 
 	}
 
 	protected abstract void doRemoveAll();
 
+	/**
+	 * 将写操作传播到高级别缓存。设置了highLevelWriter时异步执行，否则同步执行。
+	 * 异步队列已满时，add操作直接丢弃（高级别缓存中只是少了一个缓存对象，但仍然广播失效消息，其他节点不能保留旧值），
+	 * delete操作则在当前线程同步执行，避免高级别缓存中残留旧数据。
+	 * 需要广播失效消息时，在高级别缓存写入完成后再广播，否则其他节点收到消息后可能从高级别缓存中重新读到旧数据。
+	 * 
+	 * @param key
+	 * @param callback
+	 * @param syncIfDropped
+	 *            异步队列已满时是否同步执行
+	 * @param invalidate
+	 *            写入完成后是否广播key的失效消息
+	 */
+	private void writeHighLevelCache(final String key, final HighLevelCacheCallback callback, boolean syncIfDropped,
+			boolean invalidate) {
+		final Cache cache = highLevelCache;
+		if (cache == null) {
+			if (invalidate) {
+				publishInvalidation(key);
+			}
+			return;
+		}
+
+		AsyncCacheWriter writer = highLevelWriter;
+		if (writer != null) {
+			boolean pending = invalidate && pendingInvalidations.add(key);
+			boolean submitted = writer.submit(cache, key, new Runnable() {
+
+				@Override
+				public void run() {
+					callback.process(cache);
+					// 队列中同一个key的delete可能被后来的add合并掉，由最后执行的写操作广播
+					if (pendingInvalidations.remove(key)) {
+						publishInvalidation(key);
+					}
+				}
+			});
+			if (submitted) {
+				return;
+			}
+			if (!syncIfDropped) {
+				if (pending) {
+					pendingInvalidations.remove(key);
+				}
+				if (invalidate) {
+					publishInvalidation(key);
+				}
+				return;
+			}
+		}
+
+		callback.process(cache);
+		if (invalidate) {
+			pendingInvalidations.remove(key);
+			publishInvalidation(key);
+		}
+	}
+
 	@Override
 	public Object get(final String key) {
 		Object result = doGet(key);
+		boolean hot = recordAccess(key);
 
 		if (result != null) {
 			return result;
@@ -128,12 +287,203 @@ public abstract class MultiLevelCache implements Cache {
 			}
 		};
 		result = callback.process(highLevelCache);
+		if (result != null) {
+			backfillOrPin(key, result, hot);
+		}
 
 		return result;
 	}
 
+	/**
+	 * 记录一次访问
+	 * 
+	 * @param key
+	 * @return 是否为热点key
+	 */
+	private boolean recordAccess(String key) {
+		HotKeyDetector detector = hotKeyDetector;
+		return detector != null && detector.record(key);
+	}
+
+	/**
+	 * 高级别缓存命中后，热点key直接以较短的缓存时间写入当前级别的缓存，分担高级别缓存的压力；其他key按回填策略处理。
+	 * 只有查询结果（CacheObject）可以直接写入，版本号、标签代数等计数器必须以高级别缓存为准，不能在本地保留旧值
+	 * 
+	 * @param key
+	 * @param value
+	 * @param hot
+	 */
+	private void backfillOrPin(String key, Object value, boolean hot) {
+		HotKeyDetector detector = hotKeyDetector;
+		if (!hot || detector == null || detector.getPinTtl() <= 0 || !(value instanceof CacheObject)) {
+			backfill(key, value);
+			return;
+		}
+
+		long ttl = detector.getPinTtl();
+		long expireTime = ((CacheObject) value).getExpireTime();
+		if (expireTime > 0) {
+			ttl = Math.min(ttl, expireTime - System.currentTimeMillis());
+		}
+		if (ttl <= 0) {
+			return;
+		}
+		try {
+			doAdd(key, value, ttl);
+			detector.pinned();
+		} catch (CacheUnreachableException e) {
+			// 写入失败只是少了一个本地缓存对象，忽略
+		}
+	}
+
+	/**
+	 * 将高级别缓存中命中的对象回填到当前级别的缓存中
+	 * 
+	 * @param key
+	 * @param value
+	 */
+	private void backfill(String key, Object value) {
+		BackfillPolicy policy = backfillPolicy;
+		if (policy == null) {
+			return;
+		}
+		long ttl = policy.getLocalTtl(value);
+		if (ttl <= 0 || !policy.admit(key)) {
+			return;
+		}
+		try {
+			doAdd(key, value, ttl);
+		} catch (CacheUnreachableException e) {
+			// 回填失败只是少了一个本地缓存对象，忽略
+		}
+	}
+
 	protected abstract Object doGet(final String key);
 
+	@Override
+	public Map<String, Object> getMulti(final String... keys) {
+		Map<String, Object> result = doGetMulti(keys);
+		if (result == null) {
+			result = new HashMap<String, Object>(keys.length);
+		}
+
+		// 当前级别的缓存中没有找到的key，需要到更高级别的缓存中一次性获取
+		List<String> missedKeys = new ArrayList<String>(keys.length);
+		Set<String> hotKeys = null;
+		for (String key : keys) {
+			boolean hot = recordAccess(key);
+			if (result.get(key) == null) {
+				missedKeys.add(key);
+				if (hot) {
+					if (hotKeys == null) {
+						hotKeys = new HashSet<String>();
+					}
+					hotKeys.add(key);
+				}
+			}
+		}
+		if (missedKeys.isEmpty()) {
+			return result;
+		}
+
+		final String[] highLevelKeys = missedKeys.toArray(new String[missedKeys.size()]);
+		HighLevelCacheCallback callback = new HighLevelCacheCallback() {
+
+			@Override
+			protected Object doInCache(Cache cache) {
+				return cache.getMulti(highLevelKeys);
+			}
+		};
+		@SuppressWarnings("unchecked")
+		Map<String, Object> highLevelResult = (Map<String, Object>) callback.process(highLevelCache);
+		if (highLevelResult != null) {
+			result.putAll(highLevelResult);
+			for (Map.Entry<String, Object> entry : highLevelResult.entrySet()) {
+				if (entry.getValue() != null) {
+					backfillOrPin(entry.getKey(), entry.getValue(), hotKeys != null && hotKeys.contains(entry.getKey()));
+				}
+			}
+		}
+
+		return result;
+	}
+
+	protected abstract Map<String, Object> doGetMulti(final String... keys);
+
+	@Override
+	public long incr(final String key, final long delta, final long initial, final long expiry) {
+		// 计数器以最高级别的缓存为准，当前级别的缓存只保存一份副本
+		HighLevelCacheCallback callback = new HighLevelCacheCallback() {
+
+			@Override
+			protected Object doInCache(Cache cache) {
+				return cache.incr(key, delta, initial, expiry);
+			}
+		};
+		Long highLevelValue = (Long) callback.process(highLevelCache);
+		long result;
+		if (highLevelValue != null) {
+			doAdd(key, highLevelValue, expiry);
+			result = highLevelValue;
+		} else {
+			result = doIncr(key, delta, initial, expiry);
+		}
+
+		// 其他节点当前级别缓存中的计数器副本已经过时
+		if (delta != 0) {
+			publishInvalidation(key);
+		}
+		return result;
+	}
+
+	protected abstract long doIncr(final String key, final long delta, final long initial, final long expiry);
+
+	@Override
+	public Map<String, Long> incrMulti(final long delta, final long initial, final long expiry, final String... keys) {
+		// 与incr相同，计数器以最高级别的缓存为准
+		HighLevelCacheCallback callback = new HighLevelCacheCallback() {
+
+			@Override
+			protected Object doInCache(Cache cache) {
+				return cache.incrMulti(delta, initial, expiry, keys);
+			}
+		};
+		@SuppressWarnings("unchecked")
+		Map<String, Long> result = (Map<String, Long>) callback.process(highLevelCache);
+		if (result != null) {
+			for (Map.Entry<String, Long> entry : result.entrySet()) {
+				doAdd(entry.getKey(), entry.getValue(), expiry);
+			}
+		} else {
+			result = doIncrMulti(delta, initial, expiry, keys);
+		}
+
+		if (delta != 0) {
+			for (String key : keys) {
+				publishInvalidation(key);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * 批量增加当前级别缓存中的计数器，默认逐个增加，支持批量操作的缓存可以覆盖此方法
+	 * 
+	 * @param delta
+	 * @param initial
+	 * @param expiry
+	 * @param keys
+	 * @return
+	 */
+	protected Map<String, Long> doIncrMulti(final long delta, final long initial, final long expiry,
+			final String... keys) {
+		Map<String, Long> result = new HashMap<String, Long>(keys.length * 2);
+		for (String key : keys) {
+			result.put(key, doIncr(key, delta, initial, expiry));
+		}
+		return result;
+	}
+
 	@Override
 	public boolean keyExists(final String key) {
 		boolean exist = doKeyExists(key);
@@ -149,26 +499,37 @@ public abstract class MultiLevelCache implements Cache {
 				return cache.keyExists(key);
 			}
 		};
-		exist = (Boolean) callback.process(highLevelCache);
+		Boolean highLevelExist = (Boolean) callback.process(highLevelCache);
 
-		return exist;
+		return (highLevelExist != null && highLevelExist);
 	}
 
 	protected abstract boolean doKeyExists(final String key);
 
 	private abstract class HighLevelCacheCallback {
 		public Object process(Cache highLevelCache) {
-			if (isHighLevelCacheEnable()) {
-				try {
-					Object result = doInCache(highLevelCache);
-					setHighLevelCacheEnable();
-					return result;
-				} catch (CacheUnreachableException e) {
-					setHighLevelCacheDisable();
-				}
+			if (highLevelCache == null) {
+				return null;
+			}
+
+			CircuitBreaker breaker = highLevelBreaker;
+			if (breaker != null && !breaker.allowRequest()) {
+				return null;
 			}
 
-			return null;
+			long start = System.currentTimeMillis();
+			boolean failed = true;
+			try {
+				Object result = doInCache(highLevelCache);
+				failed = false;
+				return result;
+			} catch (CacheUnreachableException e) {
+				return null;
+			} finally {
+				if (breaker != null) {
+					breaker.record(System.currentTimeMillis() - start, failed);
+				}
+			}
 		}
 
 		protected abstract Object doInCache(Cache cache);
@@ -1,20 +1,327 @@
 package net.energy.cache;
 
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import net.energy.cache.invalidation.InvalidationBus;
+import net.energy.cache.invalidation.InvalidationListener;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 多级缓存的管理类，高级别缓存的断路器参数以及默认值：
+ * 
+ * <pre>
+ * 打开断路器的错误率（breakerErrorRate）：默认0.5，
+ * 打开断路器的耗时（单位：毫秒）（breakerLatencyThreshold）：默认500毫秒，小于等于0表示不按耗时打开，
+ * 耗时统计的分位数（breakerLatencyPercentile）：默认0.99，
+ * 打开断路器需要的最少请求数（breakerMinimumRequests）：默认20，
+ * 断路器打开后进入半开状态的时间（单位：毫秒）（breakerOpenTime）：默认10秒，
+ * 半开状态下的探测请求数（breakerHalfOpenProbes）：默认3，
+ * 统计的滑动时间窗口（单位：毫秒）（breakerWindow）：默认10秒，
+ * </pre>
+ * 
+ * 高级别缓存命中后回填当前级别缓存（{@link BackfillPolicy}）的参数以及默认值：
+ * 
+ * <pre>
+ * 是否回填（backfill）：默认false，
+ * 回填需要的最少命中次数（backfillAdmissionHits）：默认2，
+ * 回填的最长缓存时间（单位：毫秒）（backfillMaxTtl）：默认60秒，缓存对象的剩余时间更短时以剩余时间为准，
+ * 剩余时间不足多少时不回填（单位：毫秒）（backfillMinTtl）：默认1秒，
+ * 准入统计的计数器个数（backfillSketchWidth）：默认4096，
+ * </pre>
+ * 
+ * 热点key统计（{@link HotKeyDetector}）的参数以及默认值：
+ * 
+ * <pre>
+ * 是否统计（hotKeyDetection）：默认false，
+ * 保留访问次数最多的key的个数（hotKeyTopK）：默认20，
+ * 统计周期（单位：毫秒）（hotKeyWindow）：默认10秒，
+ * 一个周期内访问多少次算热点key（hotKeyThreshold）：默认1000，
+ * 热点key在当前级别缓存中的缓存时间（单位：毫秒）（hotKeyPinTtl）：默认0，即不缓存，
+ * 统计的计数器个数（hotKeySketchWidth）：默认4096，
+ * 是否注册JMX（hotKeyJmx）：默认false，ObjectName为net.energy.cache:type=HotKeyDetector,pool=缓存池名，
+ * </pre>
+ * 
+ * 设置了{@link InvalidationBus}后，当前级别缓存的写入、删除以及计数器（版本号）的更新会广播到其他节点，
+ * 同时本节点也会删除其他节点广播的失效缓存，这样当前级别缓存可以使用较长的缓存时间。
+ * 
+ * @author wuqh
+ * @see CircuitBreaker
+ */
 public abstract class MultiLevelCacheManager implements CacheManager {
+	private static final Logger LOGGER = LoggerFactory.getLogger(MultiLevelCacheManager.class);
+	private final ConcurrentMap<String, CircuitBreaker> breakers = new ConcurrentHashMap<String, CircuitBreaker>();
+	private final ConcurrentMap<String, BackfillPolicy> backfillPolicies = new ConcurrentHashMap<String, BackfillPolicy>();
+	private final ConcurrentMap<String, HotKeyDetector> hotKeyDetectors = new ConcurrentHashMap<String, HotKeyDetector>();
+	/**
+	 * 访问过的缓存池，失效消息丢失时需要清空
+	 */
+	private final ConcurrentMap<String, Boolean> pools = new ConcurrentHashMap<String, Boolean>();
 	private CacheManager highLevelManager;
+	private InvalidationBus invalidationBus;
+	private AsyncCacheWriter highLevelWriter;
+	private double breakerErrorRate = 0.5D;
+	private long breakerLatencyThreshold = 500L;
+	private double breakerLatencyPercentile = 0.99D;
+	private int breakerMinimumRequests = 20;
+	private long breakerOpenTime = 10000L;
+	private int breakerHalfOpenProbes = 3;
+	private long breakerWindow = 10000L;
+	private boolean backfill = false;
+	private int backfillAdmissionHits = 2;
+	private long backfillMaxTtl = 60000L;
+	private long backfillMinTtl = 1000L;
+	private int backfillSketchWidth = 4096;
+	private boolean hotKeyDetection = false;
+	private int hotKeyTopK = 20;
+	private long hotKeyWindow = 10000L;
+	private int hotKeyThreshold = 1000;
+	private long hotKeyPinTtl = 0L;
+	private int hotKeySketchWidth = 4096;
+	private boolean hotKeyJmx = false;
 	
 	public void setHighLevelManager(CacheManager highLevelManager) {
 		this.highLevelManager = highLevelManager;
 	}
 	
+	/**
+	 * 设置后写入高级别缓存的操作将异步执行，读取仍然是同步的
+	 * 
+	 * @param highLevelWriter
+	 */
+	public void setHighLevelWriter(AsyncCacheWriter highLevelWriter) {
+		this.highLevelWriter = highLevelWriter;
+	}
+	
+	public AsyncCacheWriter getHighLevelWriter() {
+		return highLevelWriter;
+	}
+	
+	/**
+	 * 设置缓存失效消息的广播，并订阅其他节点的失效消息
+	 * 
+	 * @param invalidationBus
+	 */
+	public void setInvalidationBus(InvalidationBus invalidationBus) {
+		this.invalidationBus = invalidationBus;
+		invalidationBus.subscribe(new InvalidationListener() {
+
+			@Override
+			public void onInvalidate(String pool, String key) {
+				// 本节点没有访问过的缓存池不存在副本
+				if (!pools.containsKey(pool)) {
+					return;
+				}
+				// 只删除当前级别的缓存，不能再次广播
+				MultiLevelCache cache = getCurrentLevelCache(pool);
+				if (key == null) {
+					cache.doRemoveAll();
+				} else {
+					cache.doDelete(key);
+				}
+			}
+
+			@Override
+			public void onLoss() {
+				LOGGER.info("缓存失效消息丢失，清空当前级别缓存" + pools.keySet());
+				for (String pool : pools.keySet()) {
+					getCurrentLevelCache(pool).doRemoveAll();
+				}
+			}
+		});
+	}
+	
+	public InvalidationBus getInvalidationBus() {
+		return invalidationBus;
+	}
+	
+	public void setBreakerErrorRate(double breakerErrorRate) {
+		this.breakerErrorRate = breakerErrorRate;
+	}
+	
+	public void setBreakerLatencyThreshold(long breakerLatencyThreshold) {
+		this.breakerLatencyThreshold = breakerLatencyThreshold;
+	}
+	
+	public void setBreakerLatencyPercentile(double breakerLatencyPercentile) {
+		this.breakerLatencyPercentile = breakerLatencyPercentile;
+	}
+	
+	public void setBreakerMinimumRequests(int breakerMinimumRequests) {
+		this.breakerMinimumRequests = breakerMinimumRequests;
+	}
+	
+	public void setBreakerOpenTime(long breakerOpenTime) {
+		this.breakerOpenTime = breakerOpenTime;
+	}
+	
+	public void setBreakerHalfOpenProbes(int breakerHalfOpenProbes) {
+		this.breakerHalfOpenProbes = breakerHalfOpenProbes;
+	}
+	
+	public void setBreakerWindow(long breakerWindow) {
+		this.breakerWindow = breakerWindow;
+	}
+	
+	public void setBackfill(boolean backfill) {
+		this.backfill = backfill;
+	}
+	
+	public void setBackfillAdmissionHits(int backfillAdmissionHits) {
+		this.backfillAdmissionHits = backfillAdmissionHits;
+	}
+	
+	public void setBackfillMaxTtl(long backfillMaxTtl) {
+		this.backfillMaxTtl = backfillMaxTtl;
+	}
+	
+	public void setBackfillMinTtl(long backfillMinTtl) {
+		this.backfillMinTtl = backfillMinTtl;
+	}
+	
+	public void setBackfillSketchWidth(int backfillSketchWidth) {
+		this.backfillSketchWidth = backfillSketchWidth;
+	}
+	
+	public void setHotKeyDetection(boolean hotKeyDetection) {
+		this.hotKeyDetection = hotKeyDetection;
+	}
+	
+	public void setHotKeyTopK(int hotKeyTopK) {
+		this.hotKeyTopK = hotKeyTopK;
+	}
+	
+	public void setHotKeyWindow(long hotKeyWindow) {
+		this.hotKeyWindow = hotKeyWindow;
+	}
+	
+	public void setHotKeyThreshold(int hotKeyThreshold) {
+		this.hotKeyThreshold = hotKeyThreshold;
+	}
+	
+	public void setHotKeyPinTtl(long hotKeyPinTtl) {
+		this.hotKeyPinTtl = hotKeyPinTtl;
+	}
+	
+	public void setHotKeySketchWidth(int hotKeySketchWidth) {
+		this.hotKeySketchWidth = hotKeySketchWidth;
+	}
+	
+	public void setHotKeyJmx(boolean hotKeyJmx) {
+		this.hotKeyJmx = hotKeyJmx;
+	}
+	
+	/**
+	 * 获取缓存池对应的热点key统计
+	 * 
+	 * @param pool
+	 * @return 没有开启统计或者还没有访问过该缓存池时返回null
+	 */
+	public HotKeyDetector getHotKeyDetector(String pool) {
+		return hotKeyDetectors.get(pool);
+	}
+	
+	private HotKeyDetector getOrCreateHotKeyDetector(String pool) {
+		HotKeyDetector detector = hotKeyDetectors.get(pool);
+		if (detector == null) {
+			detector = new HotKeyDetector(pool, hotKeyTopK, hotKeyWindow, hotKeyThreshold, hotKeyPinTtl,
+					hotKeySketchWidth);
+			HotKeyDetector existed = hotKeyDetectors.putIfAbsent(pool, detector);
+			if (existed != null) {
+				return existed;
+			}
+			if (hotKeyJmx) {
+				registerMBean(pool, detector);
+			}
+		}
+		return detector;
+	}
+	
+	private void registerMBean(String pool, HotKeyDetector detector) {
+		try {
+			ObjectName name = new ObjectName("net.energy.cache:type=HotKeyDetector,pool=" + ObjectName.quote(pool));
+			if (!ManagementFactory.getPlatformMBeanServer().isRegistered(name)) {
+				ManagementFactory.getPlatformMBeanServer().registerMBean(detector, name);
+			}
+		} catch (JMException e) {
+			LOGGER.info("注册缓存池[" + pool + "]的热点key统计到JMX失败", e);
+		}
+	}
+	
+	/**
+	 * 获取缓存池对应的回填策略
+	 * 
+	 * @param pool
+	 * @return 没有开启回填或者还没有访问过该缓存池时返回null
+	 */
+	public BackfillPolicy getBackfillPolicy(String pool) {
+		return backfillPolicies.get(pool);
+	}
+	
+	private BackfillPolicy getOrCreateBackfillPolicy(String pool) {
+		BackfillPolicy policy = backfillPolicies.get(pool);
+		if (policy == null) {
+			policy = new BackfillPolicy(backfillAdmissionHits, backfillMaxTtl, backfillMinTtl, backfillSketchWidth);
+			BackfillPolicy existed = backfillPolicies.putIfAbsent(pool, policy);
+			if (existed != null) {
+				policy = existed;
+			}
+		}
+		return policy;
+	}
+	
+	/**
+	 * 获取缓存池对应的高级别缓存的断路器
+	 * 
+	 * @param pool
+	 * @return 没有高级别缓存或者还没有访问过该缓存池时返回null
+	 */
+	public CircuitBreaker getCircuitBreaker(String pool) {
+		return breakers.get(pool);
+	}
+	
+	private CircuitBreaker getOrCreateBreaker(String pool) {
+		CircuitBreaker breaker = breakers.get(pool);
+		if (breaker == null) {
+			breaker = new CircuitBreaker(pool, breakerErrorRate, breakerLatencyThreshold, breakerLatencyPercentile,
+					breakerMinimumRequests, breakerOpenTime, breakerHalfOpenProbes, breakerWindow);
+			CircuitBreaker existed = breakers.putIfAbsent(pool, breaker);
+			if (existed != null) {
+				breaker = existed;
+			}
+		}
+		return breaker;
+	}
+	
 	
 	@Override
 	public MultiLevelCache getCache(String pool) {
 		MultiLevelCache cache = getCurrentLevelCache(pool);
 		
+		if (invalidationBus != null) {
+			pools.putIfAbsent(pool, Boolean.TRUE);
+			cache.setInvalidationBus(invalidationBus, pool);
+		}
+		
+		if (hotKeyDetection) {
+			cache.setHotKeyDetector(getOrCreateHotKeyDetector(pool));
+		}
+		
 		if(highLevelManager != null) {
 			Cache highLevelCache = highLevelManager.getCache(pool);
 			cache.setHighLevelCache(highLevelCache);
+			cache.setHighLevelWriter(highLevelWriter);
+			// 每次获取的缓存实例可能不同，断路器需要按缓存池共享
+			cache.setHighLevelBreaker(getOrCreateBreaker(pool));
+			if (backfill) {
+				cache.setBackfillPolicy(getOrCreateBackfillPolicy(pool));
+			}
 		}
 		
 		return cache;
@@ -0,0 +1,54 @@
+package net.energy.cache;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 按缓存池名（大写）保存当前级别缓存实例的管理类。
+ * 
+ * MultiLevelCacheManager.getCache每次调用都会获取当前级别的缓存，所以已经创建的缓存直接从ConcurrentMap中返回，
+ * 不需要加锁；只有第一次访问缓存池时加锁调用{@link #createCache(String)}，避免并发时重复创建客户端或者分配内存。
+ * 
+ * @author wuqh
+ * 
+ * @param <C>
+ *            当前级别缓存的类型
+ */
+public abstract class PooledCacheManager<C extends MultiLevelCache> extends MultiLevelCacheManager {
+	private final ConcurrentMap<String, C> cachePool = new ConcurrentHashMap<String, C>();
+
+	@Override
+	protected C getCurrentLevelCache(String poolName) {
+		String upperCase = poolName.toUpperCase();
+		C cache = cachePool.get(upperCase);
+		if (cache != null) {
+			return cache;
+		}
+		return createCacheIfAbsent(upperCase);
+	}
+
+	private synchronized C createCacheIfAbsent(String upperCase) {
+		C cache = cachePool.get(upperCase);
+		if (cache == null) {
+			cache = createCache(upperCase);
+			cachePool.put(upperCase, cache);
+		}
+		return cache;
+	}
+
+	/**
+	 * 创建缓存池对应的缓存，调用时已经持有当前对象的锁
+	 * 
+	 * @param poolName
+	 *            大写的缓存池名
+	 * @return
+	 */
+	protected abstract C createCache(String poolName);
+
+	/**
+	 * 清除所有已经创建的缓存，下次访问时重新创建。调用者需要持有当前对象的锁
+	 */
+	protected void clearCaches() {
+		cachePool.clear();
+	}
+}
@@ -0,0 +1,189 @@
+package net.energy.cache.codec;
+
+import java.beans.BeanInfo;
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.io.Serializable;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.energy.exception.CacheCodecException;
+
+/**
+ * 可以使用CompactBinaryCodec编码的Bean的描述信息，包含按名称排序的属性，以及属性的getter、setter方法。
+ * 
+ * <pre>
+ * 只有满足以下条件的类才能作为Bean编码：
+ * 1、实现了Serializable接口，并且不是抽象类；
+ * 2、包含无参构造函数；
+ * 3、类及其父类中所有非static、非transient的字段都有同名的getter和setter方法。
+ * </pre>
+ * 
+ * @author wuqh
+ * 
+ */
+class BeanDescriptor {
+	private static final Map<Class<?>, BeanDescriptor> DESCRIPTOR_CACHE = new ConcurrentHashMap<Class<?>, BeanDescriptor>();
+	/**
+	 * 无法作为Bean编码的类使用的占位对象，ConcurrentHashMap中不能存放null
+	 */
+	private static final BeanDescriptor UNSUPPORTED = new BeanDescriptor(null, new String[0], new Method[0],
+			new HashMap<String, Method>());
+
+	private final Constructor<?> constructor;
+	private final String[] propertyNames;
+	private final Method[] readMethods;
+	private final Map<String, Method> writeMethods;
+
+	private BeanDescriptor(Constructor<?> constructor, String[] propertyNames, Method[] readMethods,
+			Map<String, Method> writeMethods) {
+		this.constructor = constructor;
+		this.propertyNames = propertyNames;
+		this.readMethods = readMethods;
+		this.writeMethods = writeMethods;
+	}
+
+	/**
+	 * 获取类的Bean描述信息
+	 * 
+	 * @param clazz
+	 * @return 如果类无法作为Bean编码，则返回null
+	 */
+	static BeanDescriptor forClass(Class<?> clazz) {
+		BeanDescriptor descriptor = DESCRIPTOR_CACHE.get(clazz);
+		if (descriptor == null) {
+			descriptor = createDescriptor(clazz);
+			DESCRIPTOR_CACHE.put(clazz, descriptor);
+		}
+		return (descriptor == UNSUPPORTED) ? null : descriptor;
+	}
+
+	private static BeanDescriptor createDescriptor(Class<?> clazz) {
+		if (clazz.isInterface() || clazz.isArray() || Modifier.isAbstract(clazz.getModifiers())
+				|| !Serializable.class.isAssignableFrom(clazz)) {
+			return UNSUPPORTED;
+		}
+
+		Constructor<?> constructor;
+		try {
+			constructor = clazz.getDeclaredConstructor();
+			constructor.setAccessible(true);
+		} catch (Exception e) {
+			return UNSUPPORTED;
+		}
+
+		BeanInfo beanInfo;
+		try {
+			beanInfo = Introspector.getBeanInfo(clazz);
+		} catch (IntrospectionException e) {
+			return UNSUPPORTED;
+		}
+
+		Map<String, PropertyDescriptor> properties = new HashMap<String, PropertyDescriptor>();
+		for (PropertyDescriptor descriptor : beanInfo.getPropertyDescriptors()) {
+			if (descriptor.getReadMethod() != null && descriptor.getWriteMethod() != null) {
+				properties.put(descriptor.getName(), descriptor);
+			}
+		}
+
+		// 所有需要序列化的字段都必须能通过getter、setter访问，否则编码会丢失数据
+		for (String fieldName : getSerializableFieldNames(clazz)) {
+			if (!properties.containsKey(fieldName)) {
+				return UNSUPPORTED;
+			}
+		}
+
+		List<String> names = new ArrayList<String>(properties.keySet());
+		Collections.sort(names);
+
+		String[] propertyNames = names.toArray(new String[names.size()]);
+		Method[] readMethods = new Method[propertyNames.length];
+		Map<String, Method> writeMethods = new HashMap<String, Method>(propertyNames.length * 2);
+		for (int i = 0; i < propertyNames.length; i++) {
+			PropertyDescriptor descriptor = properties.get(propertyNames[i]);
+			Method readMethod = descriptor.getReadMethod();
+			Method writeMethod = descriptor.getWriteMethod();
+			readMethod.setAccessible(true);
+			writeMethod.setAccessible(true);
+			readMethods[i] = readMethod;
+			writeMethods.put(propertyNames[i], writeMethod);
+		}
+
+		return new BeanDescriptor(constructor, propertyNames, readMethods, writeMethods);
+	}
+
+	private static Set<String> getSerializableFieldNames(Class<?> clazz) {
+		Set<String> names = new HashSet<String>();
+		for (Class<?> current = clazz; current != null && current != Object.class; current = current.getSuperclass()) {
+			for (Field field : current.getDeclaredFields()) {
+				int modifiers = field.getModifiers();
+				if (!Modifier.isStatic(modifiers) && !Modifier.isTransient(modifiers)) {
+					names.add(field.getName());
+				}
+			}
+		}
+		return names;
+	}
+
+	Class<?> getBeanClass() {
+		return constructor.getDeclaringClass();
+	}
+
+	int getPropertyCount() {
+		return propertyNames.length;
+	}
+
+	String getPropertyName(int index) {
+		return propertyNames[index];
+	}
+
+	Object getValue(Object bean, int index) {
+		try {
+			return readMethods[index].invoke(bean);
+		} catch (Exception e) {
+			throw new CacheCodecException("读取[" + getBeanClass() + "]的属性[" + propertyNames[index] + "]失败", e);
+		}
+	}
+
+	/**
+	 * 设置属性值，如果属性不存在（类已经被修改）则忽略
+	 * 
+	 * @param bean
+	 * @param property
+	 * @param value
+	 */
+	void setValue(Object bean, String property, Object value) {
+		Method writeMethod = writeMethods.get(property);
+		if (writeMethod == null) {
+			return;
+		}
+		// 基本类型的属性不能设置为null，保持默认值
+		if (value == null && writeMethod.getParameterTypes()[0].isPrimitive()) {
+			return;
+		}
+		try {
+			writeMethod.invoke(bean, value);
+		} catch (Exception e) {
+			throw new CacheCodecException("设置[" + getBeanClass() + "]的属性[" + property + "]失败", e);
+		}
+	}
+
+	Object newInstance() {
+		try {
+			return constructor.newInstance();
+		} catch (Exception e) {
+			throw new CacheCodecException("创建[" + getBeanClass() + "]的实例失败", e);
+		}
+	}
+}
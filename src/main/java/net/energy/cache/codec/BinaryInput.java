@@ -0,0 +1,80 @@
+package net.energy.cache.codec;
+
+import java.util.Arrays;
+
+import net.energy.exception.CacheCodecException;
+
+/**
+ * 字节输入缓冲区，和{@link BinaryOutput}的写入方法一一对应
+ * 
+ * @author wuqh
+ * 
+ */
+class BinaryInput {
+	private final byte[] buffer;
+	private int position;
+
+	BinaryInput(byte[] buffer, int offset) {
+		this.buffer = buffer;
+		this.position = offset;
+	}
+
+	byte readByte() {
+		return buffer[position++];
+	}
+
+	int readInt() {
+		return ((buffer[position++] & 0xFF) << 24) | ((buffer[position++] & 0xFF) << 16)
+				| ((buffer[position++] & 0xFF) << 8) | (buffer[position++] & 0xFF);
+	}
+
+	long readLong() {
+		long high = readInt() & 0xFFFFFFFFL;
+		long low = readInt() & 0xFFFFFFFFL;
+		return (high << 32) | low;
+	}
+
+	int readVarInt() {
+		int result = 0;
+		for (int shift = 0; shift < 32; shift += 7) {
+			byte b = buffer[position++];
+			result |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return result;
+			}
+		}
+		throw new CacheCodecException("变长整数格式错误");
+	}
+
+	long readVarLong() {
+		long zigzag = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			byte b = buffer[position++];
+			zigzag |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return (zigzag >>> 1) ^ -(zigzag & 1);
+			}
+		}
+		throw new CacheCodecException("变长整数格式错误");
+	}
+
+	byte[] readBytes() {
+		int length = readVarInt();
+		if (length < 0 || position + length > buffer.length) {
+			throw new CacheCodecException("字节数组长度[" + length + "]超出数据范围");
+		}
+		byte[] bytes = Arrays.copyOfRange(buffer, position, position + length);
+		position += length;
+		return bytes;
+	}
+
+	String readString() {
+		int length = readVarInt();
+		if (length < 0 || position + length > buffer.length) {
+			throw new CacheCodecException("字符串长度[" + length + "]超出数据范围");
+		}
+		String value = new String(buffer, position, length, BinaryOutput.UTF8);
+		position += length;
+		return value;
+	}
+}
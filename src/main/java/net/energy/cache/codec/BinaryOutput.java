@@ -0,0 +1,99 @@
+package net.energy.cache.codec;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * 可自动扩容的字节输出缓冲区，提供变长整数（ZigZag + VarInt）等紧凑编码的写入方法
+ * 
+ * @author wuqh
+ * 
+ */
+class BinaryOutput {
+	static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final int INIT_SIZE = 256;
+
+	private byte[] buffer;
+	private int position = 0;
+
+	BinaryOutput() {
+		this(INIT_SIZE);
+	}
+
+	BinaryOutput(int size) {
+		buffer = new byte[size];
+	}
+
+	private void ensureCapacity(int required) {
+		if (position + required > buffer.length) {
+			int newLength = Math.max(buffer.length << 1, position + required);
+			buffer = Arrays.copyOf(buffer, newLength);
+		}
+	}
+
+	void writeByte(byte b) {
+		ensureCapacity(1);
+		buffer[position++] = b;
+	}
+
+	void writeInt(int value) {
+		ensureCapacity(4);
+		buffer[position++] = (byte) (value >>> 24);
+		buffer[position++] = (byte) (value >>> 16);
+		buffer[position++] = (byte) (value >>> 8);
+		buffer[position++] = (byte) value;
+	}
+
+	void writeLong(long value) {
+		writeInt((int) (value >>> 32));
+		writeInt((int) value);
+	}
+
+	/**
+	 * 写入非负的变长整数
+	 * 
+	 * @param value
+	 */
+	void writeVarInt(int value) {
+		ensureCapacity(5);
+		while ((value & ~0x7F) != 0) {
+			buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		buffer[position++] = (byte) value;
+	}
+
+	/**
+	 * 使用ZigZag编码写入有符号的变长整数，绝对值较小的负数同样只占用很少的字节
+	 * 
+	 * @param value
+	 */
+	void writeVarLong(long value) {
+		long zigzag = (value << 1) ^ (value >> 63);
+		ensureCapacity(10);
+		while ((zigzag & ~0x7FL) != 0) {
+			buffer[position++] = (byte) ((zigzag & 0x7F) | 0x80);
+			zigzag >>>= 7;
+		}
+		buffer[position++] = (byte) zigzag;
+	}
+
+	void writeBytes(byte[] bytes) {
+		writeVarInt(bytes.length);
+		ensureCapacity(bytes.length);
+		System.arraycopy(bytes, 0, buffer, position, bytes.length);
+		position += bytes.length;
+	}
+
+	void writeString(String value) {
+		writeBytes(value.getBytes(UTF8));
+	}
+
+	int size() {
+		return position;
+	}
+
+	byte[] toByteArray() {
+		return Arrays.copyOf(buffer, position);
+	}
+}
@@ -0,0 +1,30 @@
+package net.energy.cache.codec;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+
+import net.energy.utils.ClassHelper;
+
+/**
+ * 使用当前线程类加载器加载类的ObjectInputStream，避免在容器环境中反序列化时找不到应用的类
+ * 
+ * @author wuqh
+ * 
+ */
+class ClassLoaderObjectInputStream extends ObjectInputStream {
+
+	public ClassLoaderObjectInputStream(InputStream in) throws IOException {
+		super(in);
+	}
+
+	@Override
+	protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+		try {
+			return Class.forName(desc.getName(), false, ClassHelper.getClassLoader());
+		} catch (ClassNotFoundException e) {
+			return super.resolveClass(desc);
+		}
+	}
+}
@@ -0,0 +1,479 @@
+package net.energy.cache.codec;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import net.energy.cache.CacheCodec;
+import net.energy.cache.CacheObject;
+import net.energy.exception.CacheCodecException;
+import net.energy.utils.ClassHelper;
+import net.energy.utils.Page;
+
+/**
+ * 紧凑的二进制CacheCodec实现。对于缓存中最常见的类型使用紧凑的二进制格式，其他类型使用Java序列化：
+ * 
+ * <pre>
+ * 1、基本类型及其包装类、String、Date（包括java.sql.Date/Time/Timestamp）、BigDecimal、BigInteger、枚举、byte[]；
+ * 2、ArrayList、LinkedList、HashSet、LinkedHashSet、HashMap、LinkedHashMap；
+ * 3、CacheObject、Page；
+ * 4、属性类型为以上类型的Bean（即AutoDetectRowMapper、AutoDetectBeanMapper能够处理的Bean）。
+ *    Bean必须有无参构造函数，并且所有非static、非transient的字段都有对应的getter和setter，否则使用Java序列化。
+ * 
+ * 同一次编码中，类名和Bean的属性名只会写入一次，之后使用序号引用，所以对于List&lt;Bean&gt;这样的结果能大幅减少字节数。
+ * 解码时Bean按照属性名称赋值，新增或删除的属性会被忽略。
+ * 注意：对象的引用关系不会被保留，同一个对象被引用多次时解码后会变成多个对象。
+ * 
+ * 编码后的字节以0xEC开头，解码时如果遇到Java序列化的字节（0xACED开头）则直接使用Java反序列化，以兼容SerializableCodec的数据。
+ * </pre>
+ * 
+ * @author wuqh
+ * @see SerializableCodec
+ */
+public class CompactBinaryCodec implements CacheCodec {
+	static final byte MAGIC = (byte) 0xEC;
+	private static final byte FORMAT_VERSION = 1;
+	private static final byte JAVA_SERIALIZATION_MAGIC = (byte) 0xAC;
+	/**
+	 * 对象嵌套的最大深度，超过后使用Java序列化（Java序列化可以处理循环引用）
+	 */
+	private static final int MAX_DEPTH = 32;
+
+	private static final int T_NULL = 0;
+	private static final int T_TRUE = 1;
+	private static final int T_FALSE = 2;
+	private static final int T_BYTE = 3;
+	private static final int T_SHORT = 4;
+	private static final int T_INT = 5;
+	private static final int T_LONG = 6;
+	private static final int T_FLOAT = 7;
+	private static final int T_DOUBLE = 8;
+	private static final int T_CHAR = 9;
+	private static final int T_STRING = 10;
+	private static final int T_BYTES = 11;
+	private static final int T_DATE = 12;
+	private static final int T_SQL_DATE = 13;
+	private static final int T_SQL_TIME = 14;
+	private static final int T_TIMESTAMP = 15;
+	private static final int T_BIG_DECIMAL = 16;
+	private static final int T_BIG_INTEGER = 17;
+	private static final int T_ENUM = 18;
+	private static final int T_ARRAY_LIST = 19;
+	private static final int T_LINKED_LIST = 20;
+	private static final int T_HASH_SET = 21;
+	private static final int T_LINKED_HASH_SET = 22;
+	private static final int T_HASH_MAP = 23;
+	private static final int T_LINKED_HASH_MAP = 24;
+	private static final int T_CACHE_OBJECT = 25;
+	private static final int T_PAGE = 26;
+	private static final int T_BEAN = 27;
+	private static final int T_SERIALIZED = 28;
+
+	private final SerializableCodec serializableCodec = new SerializableCodec();
+
+	@Override
+	public byte[] encode(Object value) {
+		BinaryOutput out = new BinaryOutput();
+		out.writeByte(MAGIC);
+		out.writeByte(FORMAT_VERSION);
+		new Encoder(out).writeValue(value, 0);
+		return out.toByteArray();
+	}
+
+	@Override
+	public Object decode(byte[] data) {
+		if (data == null || data.length == 0) {
+			throw new CacheCodecException("解码的数据不能为空");
+		}
+		if (data[0] == JAVA_SERIALIZATION_MAGIC) {
+			return serializableCodec.decode(data);
+		}
+		if (data.length < 2 || data[0] != MAGIC || data[1] != FORMAT_VERSION) {
+			throw new CacheCodecException("无法识别的数据格式");
+		}
+
+		BinaryInput in = new BinaryInput(data, 2);
+		try {
+			return new Decoder(in).readValue();
+		} catch (CacheCodecException e) {
+			throw e;
+		} catch (IndexOutOfBoundsException e) {
+			throw new CacheCodecException("数据不完整，解码失败", e);
+		} catch (RuntimeException e) {
+			// 枚举常量被重命名、类型变化或者数据损坏（长度为负数等），都当作解码失败
+			throw new CacheCodecException("数据与当前的类定义不一致或者已经损坏，解码失败", e);
+		}
+	}
+
+	/**
+	 * 编码器，每次编码使用一个新的实例，记录已经写入的类信息
+	 */
+	private class Encoder {
+		private final BinaryOutput out;
+		private final Map<Class<?>, Integer> classIndexes = new IdentityHashMap<Class<?>, Integer>();
+
+		Encoder(BinaryOutput out) {
+			this.out = out;
+		}
+
+		void writeValue(Object value, int depth) {
+			if (value == null) {
+				out.writeVarInt(T_NULL);
+				return;
+			}
+
+			Class<?> clazz = value.getClass();
+			if (depth > MAX_DEPTH) {
+				writeSerialized(value);
+			} else if (clazz == String.class) {
+				out.writeVarInt(T_STRING);
+				out.writeString((String) value);
+			} else if (clazz == Long.class) {
+				out.writeVarInt(T_LONG);
+				out.writeVarLong(((Long) value).longValue());
+			} else if (clazz == Integer.class) {
+				out.writeVarInt(T_INT);
+				out.writeVarLong(((Integer) value).intValue());
+			} else if (clazz == Boolean.class) {
+				out.writeVarInt(((Boolean) value).booleanValue() ? T_TRUE : T_FALSE);
+			} else if (clazz == Short.class) {
+				out.writeVarInt(T_SHORT);
+				out.writeVarLong(((Short) value).shortValue());
+			} else if (clazz == Byte.class) {
+				out.writeVarInt(T_BYTE);
+				out.writeByte(((Byte) value).byteValue());
+			} else if (clazz == Double.class) {
+				out.writeVarInt(T_DOUBLE);
+				out.writeLong(Double.doubleToLongBits(((Double) value).doubleValue()));
+			} else if (clazz == Float.class) {
+				out.writeVarInt(T_FLOAT);
+				out.writeInt(Float.floatToIntBits(((Float) value).floatValue()));
+			} else if (clazz == Character.class) {
+				out.writeVarInt(T_CHAR);
+				out.writeVarLong(((Character) value).charValue());
+			} else if (clazz == byte[].class) {
+				out.writeVarInt(T_BYTES);
+				out.writeBytes((byte[]) value);
+			} else if (clazz == Date.class) {
+				out.writeVarInt(T_DATE);
+				out.writeVarLong(((Date) value).getTime());
+			} else if (clazz == java.sql.Date.class) {
+				out.writeVarInt(T_SQL_DATE);
+				out.writeVarLong(((Date) value).getTime());
+			} else if (clazz == java.sql.Time.class) {
+				out.writeVarInt(T_SQL_TIME);
+				out.writeVarLong(((Date) value).getTime());
+			} else if (clazz == java.sql.Timestamp.class) {
+				java.sql.Timestamp timestamp = (java.sql.Timestamp) value;
+				out.writeVarInt(T_TIMESTAMP);
+				out.writeVarLong(timestamp.getTime());
+				out.writeVarLong(timestamp.getNanos());
+			} else if (clazz == BigDecimal.class) {
+				BigDecimal decimal = (BigDecimal) value;
+				out.writeVarInt(T_BIG_DECIMAL);
+				out.writeVarLong(decimal.scale());
+				out.writeBytes(decimal.unscaledValue().toByteArray());
+			} else if (clazz == BigInteger.class) {
+				out.writeVarInt(T_BIG_INTEGER);
+				out.writeBytes(((BigInteger) value).toByteArray());
+			} else if (value instanceof Enum<?>) {
+				Enum<?> e = (Enum<?>) value;
+				out.writeVarInt(T_ENUM);
+				writeClass(e.getDeclaringClass(), null);
+				out.writeString(e.name());
+			} else if (clazz == ArrayList.class) {
+				writeCollection(T_ARRAY_LIST, (Collection<?>) value, depth);
+			} else if (clazz == LinkedList.class) {
+				writeCollection(T_LINKED_LIST, (Collection<?>) value, depth);
+			} else if (clazz == HashSet.class) {
+				writeCollection(T_HASH_SET, (Collection<?>) value, depth);
+			} else if (clazz == LinkedHashSet.class) {
+				writeCollection(T_LINKED_HASH_SET, (Collection<?>) value, depth);
+			} else if (clazz == HashMap.class) {
+				writeMap(T_HASH_MAP, (Map<?, ?>) value, depth);
+			} else if (clazz == LinkedHashMap.class) {
+				writeMap(T_LINKED_HASH_MAP, (Map<?, ?>) value, depth);
+			} else if (clazz == CacheObject.class) {
+				CacheObject cacheObject = (CacheObject) value;
+				out.writeVarInt(T_CACHE_OBJECT);
+				out.writeVarLong(cacheObject.getVersion());
+				out.writeVarLong(cacheObject.getCreateTime());
+				out.writeVarLong(cacheObject.getExpireTime());
+				writeValue(cacheObject.getCacheObject(), depth + 1);
+			} else if (clazz == Page.class) {
+				Page page = (Page) value;
+				out.writeVarInt(T_PAGE);
+				out.writeVarLong(page.getCurpage());
+				out.writeVarLong(page.getSize());
+				out.writeVarLong(page.getTotal());
+			} else {
+				BeanDescriptor descriptor = BeanDescriptor.forClass(clazz);
+				if (descriptor == null) {
+					writeSerialized(value);
+				} else {
+					writeBean(value, descriptor, depth);
+				}
+			}
+		}
+
+		private void writeCollection(int tag, Collection<?> collection, int depth) {
+			out.writeVarInt(tag);
+			out.writeVarInt(collection.size());
+			for (Object element : collection) {
+				writeValue(element, depth + 1);
+			}
+		}
+
+		private void writeMap(int tag, Map<?, ?> map, int depth) {
+			out.writeVarInt(tag);
+			out.writeVarInt(map.size());
+			for (Map.Entry<?, ?> entry : map.entrySet()) {
+				writeValue(entry.getKey(), depth + 1);
+				writeValue(entry.getValue(), depth + 1);
+			}
+		}
+
+		private void writeBean(Object bean, BeanDescriptor descriptor, int depth) {
+			out.writeVarInt(T_BEAN);
+			writeClass(descriptor.getBeanClass(), descriptor);
+			int count = descriptor.getPropertyCount();
+			for (int i = 0; i < count; i++) {
+				writeValue(descriptor.getValue(bean, i), depth + 1);
+			}
+		}
+
+		/**
+		 * 写入类信息：第一次出现时写入0和类名（Bean还需要写入属性名），之后只写入类的序号
+		 * 
+		 * @param clazz
+		 * @param descriptor
+		 */
+		private void writeClass(Class<?> clazz, BeanDescriptor descriptor) {
+			Integer index = classIndexes.get(clazz);
+			if (index != null) {
+				out.writeVarInt(index.intValue());
+				return;
+			}
+
+			classIndexes.put(clazz, classIndexes.size() + 1);
+			out.writeVarInt(0);
+			out.writeString(clazz.getName());
+			if (descriptor != null) {
+				int count = descriptor.getPropertyCount();
+				out.writeVarInt(count);
+				for (int i = 0; i < count; i++) {
+					out.writeString(descriptor.getPropertyName(i));
+				}
+			}
+		}
+
+		private void writeSerialized(Object value) {
+			if (!(value instanceof Serializable)) {
+				throw new CacheCodecException("对象[" + value.getClass() + "]没有实现Serializable接口，无法编码");
+			}
+			out.writeVarInt(T_SERIALIZED);
+			out.writeBytes(serializableCodec.encode(value));
+		}
+	}
+
+	/**
+	 * 解码器，每次解码使用一个新的实例，记录已经读取的类信息
+	 */
+	private class Decoder {
+		private final BinaryInput in;
+		private final List<Class<?>> classes = new ArrayList<Class<?>>();
+		private final List<String[]> classProperties = new ArrayList<String[]>();
+
+		Decoder(BinaryInput in) {
+			this.in = in;
+		}
+
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		Object readValue() {
+			int tag = in.readVarInt();
+			switch (tag) {
+			case T_NULL:
+				return null;
+			case T_TRUE:
+				return Boolean.TRUE;
+			case T_FALSE:
+				return Boolean.FALSE;
+			case T_BYTE:
+				return Byte.valueOf(in.readByte());
+			case T_SHORT:
+				return Short.valueOf((short) in.readVarLong());
+			case T_INT:
+				return Integer.valueOf((int) in.readVarLong());
+			case T_LONG:
+				return Long.valueOf(in.readVarLong());
+			case T_FLOAT:
+				return Float.valueOf(Float.intBitsToFloat(in.readInt()));
+			case T_DOUBLE:
+				return Double.valueOf(Double.longBitsToDouble(in.readLong()));
+			case T_CHAR:
+				return Character.valueOf((char) in.readVarLong());
+			case T_STRING:
+				return in.readString();
+			case T_BYTES:
+				return in.readBytes();
+			case T_DATE:
+				return new Date(in.readVarLong());
+			case T_SQL_DATE:
+				return new java.sql.Date(in.readVarLong());
+			case T_SQL_TIME:
+				return new java.sql.Time(in.readVarLong());
+			case T_TIMESTAMP:
+				java.sql.Timestamp timestamp = new java.sql.Timestamp(in.readVarLong());
+				timestamp.setNanos((int) in.readVarLong());
+				return timestamp;
+			case T_BIG_DECIMAL:
+				int scale = (int) in.readVarLong();
+				return new BigDecimal(new BigInteger(in.readBytes()), scale);
+			case T_BIG_INTEGER:
+				return new BigInteger(in.readBytes());
+			case T_ENUM:
+				Class enumClass = readClass(false);
+				return Enum.valueOf(enumClass, in.readString());
+			case T_ARRAY_LIST:
+				int listSize = in.readVarInt();
+				return readCollection(new ArrayList<Object>(listSize), listSize);
+			case T_LINKED_LIST:
+				int linkedListSize = in.readVarInt();
+				return readCollection(new LinkedList<Object>(), linkedListSize);
+			case T_HASH_SET:
+				int setSize = in.readVarInt();
+				return readCollection(new HashSet<Object>(capacity(setSize)), setSize);
+			case T_LINKED_HASH_SET:
+				int linkedSetSize = in.readVarInt();
+				return readCollection(new LinkedHashSet<Object>(capacity(linkedSetSize)), linkedSetSize);
+			case T_HASH_MAP:
+				int mapSize = in.readVarInt();
+				return readMap(new HashMap<Object, Object>(capacity(mapSize)), mapSize);
+			case T_LINKED_HASH_MAP:
+				int linkedMapSize = in.readVarInt();
+				return readMap(new LinkedHashMap<Object, Object>(capacity(linkedMapSize)), linkedMapSize);
+			case T_CACHE_OBJECT:
+				long version = in.readVarLong();
+				long createTime = in.readVarLong();
+				long expireTime = in.readVarLong();
+				Object cached = readValue();
+				return new CacheObject((Serializable) cached, version, createTime, expireTime);
+			case T_PAGE:
+				return readPage();
+			case T_BEAN:
+				return readBean();
+			case T_SERIALIZED:
+				return serializableCodec.decode(in.readBytes());
+			default:
+				throw new CacheCodecException("无法识别的数据类型[" + tag + "]");
+			}
+		}
+
+		private Object readCollection(Collection<Object> collection, int size) {
+			for (int i = 0; i < size; i++) {
+				collection.add(readValue());
+			}
+			return collection;
+		}
+
+		private Object readMap(Map<Object, Object> map, int size) {
+			for (int i = 0; i < size; i++) {
+				Object key = readValue();
+				map.put(key, readValue());
+			}
+			return map;
+		}
+
+		private Page readPage() {
+			int curpage = (int) in.readVarLong();
+			int size = (int) in.readVarLong();
+			int total = (int) in.readVarLong();
+
+			Page page = new Page();
+			page.setSize(size);
+			page.setCurpage(curpage);
+			if (total >= 0 && size > 0) {
+				page.setTotal(total);
+			}
+			return page;
+		}
+
+		private Object readBean() {
+			int index = in.readVarInt();
+			if (index == 0) {
+				readClassDefinition(true);
+				index = classes.size();
+			}
+			Class<?> clazz = getClass(index);
+			String[] properties = classProperties.get(index - 1);
+			if (properties == null) {
+				throw new CacheCodecException("类[" + clazz + "]没有属性信息，无法作为Bean解码");
+			}
+
+			BeanDescriptor descriptor = BeanDescriptor.forClass(clazz);
+			if (descriptor == null) {
+				throw new CacheCodecException("类[" + clazz + "]无法作为Bean解码");
+			}
+
+			Object bean = descriptor.newInstance();
+			for (String property : properties) {
+				Object value = readValue();
+				descriptor.setValue(bean, property, value);
+			}
+			return bean;
+		}
+
+		private Class<?> readClass(boolean bean) {
+			int index = in.readVarInt();
+			if (index == 0) {
+				return readClassDefinition(bean);
+			}
+			return getClass(index);
+		}
+
+		private Class<?> readClassDefinition(boolean bean) {
+			String className = in.readString();
+			Class<?> clazz;
+			try {
+				clazz = Class.forName(className, true, ClassHelper.getClassLoader());
+			} catch (ClassNotFoundException e) {
+				throw new CacheCodecException("找不到类[" + className + "]", e);
+			}
+
+			String[] properties = null;
+			if (bean) {
+				int count = in.readVarInt();
+				properties = new String[count];
+				for (int i = 0; i < count; i++) {
+					properties[i] = in.readString();
+				}
+			}
+
+			classes.add(clazz);
+			classProperties.add(properties);
+			return clazz;
+		}
+
+		private Class<?> getClass(int index) {
+			if (index < 1 || index > classes.size()) {
+				throw new CacheCodecException("无效的类序号[" + index + "]");
+			}
+			return classes.get(index - 1);
+		}
+
+		private int capacity(int size) {
+			return Math.max((int) (size / .75f) + 1, 16);
+		}
+	}
+}
@@ -0,0 +1,172 @@
+package net.energy.cache.codec;
+
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import net.energy.cache.CacheCodec;
+import net.energy.exception.CacheCodecException;
+
+/**
+ * 对大对象进行压缩的CacheCodec，在其他CacheCodec编码的结果上进行压缩。
+ * 
+ * <pre>
+ * 1、编码后的数据小于阈值时不压缩，压缩后没有变小时也不压缩；
+ * 2、使用Deflater的最快压缩级别，以减少CPU消耗；
+ * 3、经过本类编码的数据都以头部标识开始：[0xCF][标记位]，标记位为1时后面跟4个字节的原始长度以及压缩数据，
+ *    标记位为0时后面直接跟原始数据，读取时只有标记位为1才需要解压；
+ * 4、没有头部标识的数据（启用压缩前写入的数据）直接交给被包装的CacheCodec解码。
+ * </pre>
+ * 
+ * @author wuqh
+ * 
+ */
+public class CompressingCodec implements CacheCodec {
+	private static final byte MAGIC = (byte) 0xCF;
+	private static final byte FLAG_RAW = 0;
+	private static final byte FLAG_DEFLATE = 1;
+	private static final int RAW_HEADER_SIZE = 2;
+	private static final int DEFLATE_HEADER_SIZE = 6;
+
+	/**
+	 * Deflater、Inflater会占用本地内存，每个线程复用同一个实例
+	 */
+	private static final ThreadLocal<Deflater> DEFLATERS = new ThreadLocal<Deflater>() {
+		@Override
+		protected Deflater initialValue() {
+			return new Deflater(Deflater.BEST_SPEED, true);
+		}
+	};
+	private static final ThreadLocal<Inflater> INFLATERS = new ThreadLocal<Inflater>() {
+		@Override
+		protected Inflater initialValue() {
+			return new Inflater(true);
+		}
+	};
+
+	private final CacheCodec codec;
+	private final int threshold;
+	private final CompressionStats stats;
+
+	/**
+	 * @param codec
+	 *            被包装的CacheCodec
+	 * @param threshold
+	 *            压缩阈值，单位：字节
+	 */
+	public CompressingCodec(CacheCodec codec, int threshold) {
+		this(codec, threshold, new CompressionStats());
+	}
+
+	public CompressingCodec(CacheCodec codec, int threshold, CompressionStats stats) {
+		this.codec = codec;
+		this.threshold = threshold;
+		this.stats = stats;
+	}
+
+	public CompressionStats getStats() {
+		return stats;
+	}
+
+	@Override
+	public byte[] encode(Object value) {
+		byte[] data = codec.encode(value);
+		long start = System.nanoTime();
+		if (data.length >= threshold) {
+			byte[] compressed = compress(data);
+			if (compressed != null) {
+				stats.recordCompressed(data.length, compressed.length, System.nanoTime() - start);
+				return compressed;
+			}
+		}
+
+		byte[] result = new byte[RAW_HEADER_SIZE + data.length];
+		result[0] = MAGIC;
+		result[1] = FLAG_RAW;
+		System.arraycopy(data, 0, result, RAW_HEADER_SIZE, data.length);
+		stats.recordUncompressed(System.nanoTime() - start);
+		return result;
+	}
+
+	/**
+	 * 压缩数据，压缩后没有变小则返回null
+	 * 
+	 * @param data
+	 * @return
+	 */
+	private byte[] compress(byte[] data) {
+		Deflater deflater = DEFLATERS.get();
+		try {
+			deflater.setInput(data);
+			deflater.finish();
+
+			byte[] buffer = new byte[DEFLATE_HEADER_SIZE + data.length];
+			int length = DEFLATE_HEADER_SIZE;
+			while (!deflater.finished() && length < buffer.length) {
+				length += deflater.deflate(buffer, length, buffer.length - length);
+			}
+			if (!deflater.finished()) {
+				return null;
+			}
+
+			buffer[0] = MAGIC;
+			buffer[1] = FLAG_DEFLATE;
+			buffer[2] = (byte) (data.length >>> 24);
+			buffer[3] = (byte) (data.length >>> 16);
+			buffer[4] = (byte) (data.length >>> 8);
+			buffer[5] = (byte) data.length;
+			return Arrays.copyOf(buffer, length);
+		} finally {
+			deflater.reset();
+		}
+	}
+
+	@Override
+	public Object decode(byte[] data) {
+		if (data.length < RAW_HEADER_SIZE || data[0] != MAGIC) {
+			return codec.decode(data);
+		}
+
+		if (data[1] == FLAG_RAW) {
+			return codec.decode(Arrays.copyOfRange(data, RAW_HEADER_SIZE, data.length));
+		}
+		if (data[1] == FLAG_DEFLATE && data.length >= DEFLATE_HEADER_SIZE) {
+			long start = System.nanoTime();
+			byte[] original = decompress(data);
+			stats.recordDecompressed(System.nanoTime() - start);
+			return codec.decode(original);
+		}
+		throw new CacheCodecException("未知的压缩标记[" + data[1] + "]");
+	}
+
+	private byte[] decompress(byte[] data) {
+		int originalLength = ((data[2] & 0xFF) << 24) | ((data[3] & 0xFF) << 16) | ((data[4] & 0xFF) << 8)
+				| (data[5] & 0xFF);
+		if (originalLength < 0) {
+			throw new CacheCodecException("压缩数据的原始长度[" + originalLength + "]错误");
+		}
+
+		Inflater inflater = INFLATERS.get();
+		try {
+			inflater.setInput(data, DEFLATE_HEADER_SIZE, data.length - DEFLATE_HEADER_SIZE);
+			byte[] original = new byte[originalLength];
+			int length = 0;
+			while (!inflater.finished() && length < originalLength) {
+				int count = inflater.inflate(original, length, originalLength - length);
+				if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					break;
+				}
+				length += count;
+			}
+			if (length != originalLength) {
+				throw new CacheCodecException("解压数据失败，期望长度[" + originalLength + "]，实际长度[" + length + "]");
+			}
+			return original;
+		} catch (DataFormatException e) {
+			throw new CacheCodecException("解压数据失败", e);
+		} finally {
+			inflater.reset();
+		}
+	}
+}
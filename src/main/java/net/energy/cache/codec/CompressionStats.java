@@ -0,0 +1,114 @@
+package net.energy.cache.codec;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 缓存对象压缩的统计信息，包括压缩率以及压缩、解压所花费的CPU时间
+ * 
+ * @author wuqh
+ * @see CompressingCodec
+ */
+public class CompressionStats {
+	private final AtomicLong compressedCount = new AtomicLong();
+	private final AtomicLong uncompressedCount = new AtomicLong();
+	private final AtomicLong decompressedCount = new AtomicLong();
+	private final AtomicLong originalBytes = new AtomicLong();
+	private final AtomicLong compressedBytes = new AtomicLong();
+	private final AtomicLong compressNanos = new AtomicLong();
+	private final AtomicLong decompressNanos = new AtomicLong();
+
+	void recordCompressed(int original, int compressed, long nanos) {
+		compressedCount.incrementAndGet();
+		originalBytes.addAndGet(original);
+		compressedBytes.addAndGet(compressed);
+		compressNanos.addAndGet(nanos);
+	}
+
+	void recordUncompressed(long nanos) {
+		uncompressedCount.incrementAndGet();
+		compressNanos.addAndGet(nanos);
+	}
+
+	void recordDecompressed(long nanos) {
+		decompressedCount.incrementAndGet();
+		decompressNanos.addAndGet(nanos);
+	}
+
+	/**
+	 * 被压缩的对象个数
+	 * 
+	 * @return
+	 */
+	public long getCompressedCount() {
+		return compressedCount.get();
+	}
+
+	/**
+	 * 没有被压缩的对象个数（小于阈值或者压缩后没有变小）
+	 * 
+	 * @return
+	 */
+	public long getUncompressedCount() {
+		return uncompressedCount.get();
+	}
+
+	public long getDecompressedCount() {
+		return decompressedCount.get();
+	}
+
+	/**
+	 * 被压缩的对象压缩前的总字节数
+	 * 
+	 * @return
+	 */
+	public long getOriginalBytes() {
+		return originalBytes.get();
+	}
+
+	/**
+	 * 被压缩的对象压缩后的总字节数
+	 * 
+	 * @return
+	 */
+	public long getCompressedBytes() {
+		return compressedBytes.get();
+	}
+
+	/**
+	 * 压缩率（压缩后字节数/压缩前字节数），没有压缩过任何对象时返回1
+	 * 
+	 * @return
+	 */
+	public double getCompressionRatio() {
+		long original = originalBytes.get();
+		if (original == 0) {
+			return 1.0D;
+		}
+		return (double) compressedBytes.get() / original;
+	}
+
+	/**
+	 * 尝试压缩所花费的时间，单位：毫秒
+	 * 
+	 * @return
+	 */
+	public long getCompressTimeMillis() {
+		return compressNanos.get() / 1000000L;
+	}
+
+	/**
+	 * 解压所花费的时间，单位：毫秒
+	 * 
+	 * @return
+	 */
+	public long getDecompressTimeMillis() {
+		return decompressNanos.get() / 1000000L;
+	}
+
+	@Override
+	public String toString() {
+		return "压缩[" + getCompressedCount() + "]次，未压缩[" + getUncompressedCount() + "]次，解压["
+				+ getDecompressedCount() + "]次，压缩率[" + String.format("%.3f", getCompressionRatio()) + "]，压缩耗时["
+				+ getCompressTimeMillis() + "ms]，解压耗时[" + getDecompressTimeMillis() + "ms]";
+	}
+}
@@ -0,0 +1,50 @@
+package net.energy.cache.codec;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import net.energy.cache.CacheCodec;
+import net.energy.exception.CacheCodecException;
+
+/**
+ * 使用Java序列化实现的CacheCodec，可以处理任何实现了Serializable接口的对象
+ * 
+ * @author wuqh
+ * @see java.io.Serializable
+ */
+public class SerializableCodec implements CacheCodec {
+	private static final int INIT_BUFFER_SIZE = 256;
+
+	@Override
+	public byte[] encode(Object value) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(INIT_BUFFER_SIZE);
+		try {
+			ObjectOutputStream out = new ObjectOutputStream(bytes);
+			out.writeObject(value);
+			out.close();
+		} catch (IOException e) {
+			throw new CacheCodecException("序列化对象[" + value + "]失败", e);
+		}
+		return bytes.toByteArray();
+	}
+
+	@Override
+	public Object decode(byte[] data) {
+		try {
+			ObjectInputStream in = new ClassLoaderObjectInputStream(new ByteArrayInputStream(data));
+			try {
+				return in.readObject();
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			throw new CacheCodecException("反序列化对象失败", e);
+		} catch (ClassNotFoundException e) {
+			throw new CacheCodecException("反序列化对象失败", e);
+		}
+	}
+
+}
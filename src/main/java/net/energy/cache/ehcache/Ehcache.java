@@ -1,5 +1,10 @@
 package net.energy.cache.ehcache;
 
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
 import net.energy.cache.CacheErrorHandler;
 import net.energy.cache.MultiLevelCache;
 
@@ -29,7 +34,8 @@ public class Ehcache extends MultiLevelCache implements net.energy.cache.Cache {
 
 	@Override
 	protected void doAdd(final String key, final Object value, final long expiry) {
-		int timeToLiveSeconds = (int) (expiry / 1000);
+		// Ehcache的过期时间以秒为单位，不足1秒向上取整，否则会被设置为0而立即过期
+		int timeToLiveSeconds = (int) ((expiry + 999) / 1000);
 		Element element = new Element(key, value);
 		element.setEternal(false);
 		element.setTimeToLive(timeToLiveSeconds);
@@ -75,6 +81,67 @@ public class Ehcache extends MultiLevelCache implements net.energy.cache.Cache {
 		}
 	}
 
+	@Override
+	protected Map<String, Object> doGetMulti(final String... keys) {
+		Map<Object, Element> elements = null;
+		try {
+			elements = cache.getAll(Arrays.asList(keys));
+		} catch (Throwable e) {
+			CacheErrorHandler.handleError(e);
+		}
+
+		Map<String, Object> result = new HashMap<String, Object>(keys.length);
+		if (elements == null) {
+			return result;
+		}
+		for (Map.Entry<Object, Element> entry : elements.entrySet()) {
+			Element element = entry.getValue();
+			if (element != null) {
+				result.put((String) entry.getKey(), element.getObjectValue());
+			}
+		}
+		return result;
+	}
+
+	@Override
+	protected long doIncr(final String key, final long delta, final long initial, final long expiry) {
+		try {
+			while (true) {
+				Element element = cache.get(key);
+				if (element == null) {
+					if (cache.putIfAbsent(createCounter(key, initial, expiry)) == null) {
+						return initial;
+					}
+					continue;
+				}
+
+				Object value = element.getObjectValue();
+				if (value instanceof AtomicLong) {
+					return ((AtomicLong) value).addAndGet(delta);
+				}
+				// 从高级别缓存复制过来的普通数值（或者无法识别的值），需要替换为AtomicLong实现的计数器
+				long newValue = (value instanceof Number) ? ((Number) value).longValue() + delta : initial;
+				if (cache.replace(element, createCounter(key, newValue, expiry))) {
+					return newValue;
+				}
+			}
+		} catch (Throwable e) {
+			CacheErrorHandler.handleError(e);
+			return 0L;
+		}
+	}
+
+	private Element createCounter(String key, long value, long expiry) {
+		Element element = new Element(key, new AtomicLong(value));
+		if (expiry > 0) {
+			element.setEternal(false);
+			// 与doAdd相同，不足1秒向上取整，否则计数器会被设置为0而永不过期
+			element.setTimeToLive((int) ((expiry + 999) / 1000));
+		}
+		element.setVersion(element.getCreationTime());
+		return element;
+	}
+
 	@Override
 	protected boolean doKeyExists(final String key) {
 		try {
@@ -1,10 +1,21 @@
 package net.energy.cache.ehcache;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import net.energy.cache.CacheCodec;
 
 import net.energy.cache.CacheManager;
 import net.energy.cache.MultiLevelCache;
 import net.energy.cache.MultiLevelCacheManager;
+import net.energy.cache.codec.CompactBinaryCodec;
 import net.energy.exception.CacheUnreachableException;
 import net.energy.utils.ClassHelper;
 import net.sf.ehcache.store.MemoryStoreEvictionPolicy;
@@ -27,21 +38,71 @@ import org.slf4j.LoggerFactory;
  * 磁盘中数据过期检查线程的轮询时间间隔（单位：秒）（diskExpiryThreadIntervalSeconds）：120 ，
  * </pre>
  * 
+ * 设置了快照目录（snapshotDirectory）后，会定期将每个缓存池中最近访问过的缓存对象写入快照文件（缓存池名.snapshot），
+ * 缓存池第一次被使用时会从快照文件中恢复，以便重启后快速预热本地缓存，快照相关的参数以及默认值：
+ * 
+ * <pre>
+ * 快照的写入间隔（单位：毫秒）（snapshotInterval）：默认5分钟，
+ * 每个缓存池快照的最多记录数（snapshotMaxEntries）：默认10000，
+ * 每个缓存池快照的最大字节数（snapshotMaxBytes）：默认64M，
+ * 只写入多长时间内被访问过的缓存对象（单位：毫秒）（snapshotMaxIdle）：默认10分钟，小于等于0表示不限制，
+ * 快照的编解码器（snapshotCodec）：默认使用{@link CompactBinaryCodec}，
+ * </pre>
+ * 
+ * 快照只包含带有版本号的缓存对象，恢复后第一次访问时仍然会和当前版本号进行比较，应用关闭时需要调用{@link #shutdown()}写入最后一次快照。
+ * 
  * @author wuqh
  * @see net.sf.ehcache.CacheManager
  */
 public class EhcacheManager extends MultiLevelCacheManager implements CacheManager {
 	private static final String CLASSPATH_PREFIX = "classpath:";
 	private static final Logger LOGGER = LoggerFactory.getLogger(EhcacheManager.class);
+	private static final String SNAPSHOT_SUFFIX = ".snapshot";
 	private net.sf.ehcache.CacheManager cacheManager;
 
 	private String configLocation;
+	private String snapshotDirectory;
+	private long snapshotInterval = 300000L;
+	private int snapshotMaxEntries = 10000;
+	private long snapshotMaxBytes = 64L * 1024 * 1024;
+	private long snapshotMaxIdle = 600000L;
+	private CacheCodec snapshotCodec;
+	private EhcacheSnapshot snapshot;
+	private ScheduledExecutorService snapshotScheduler;
+	/**
+	 * 已经从快照中恢复过的缓存池，快照也只针对这些缓存池写入
+	 */
+	private final Map<String, net.sf.ehcache.Cache> snapshotCaches = new ConcurrentHashMap<String, net.sf.ehcache.Cache>();
 
 	public void setConfigLocation(String configLocation) {
 		this.configLocation = configLocation;
 	}
 
-	private boolean initialized = false;
+	public void setSnapshotDirectory(String snapshotDirectory) {
+		this.snapshotDirectory = snapshotDirectory;
+	}
+
+	public void setSnapshotInterval(long snapshotInterval) {
+		this.snapshotInterval = snapshotInterval;
+	}
+
+	public void setSnapshotMaxEntries(int snapshotMaxEntries) {
+		this.snapshotMaxEntries = snapshotMaxEntries;
+	}
+
+	public void setSnapshotMaxBytes(long snapshotMaxBytes) {
+		this.snapshotMaxBytes = snapshotMaxBytes;
+	}
+
+	public void setSnapshotMaxIdle(long snapshotMaxIdle) {
+		this.snapshotMaxIdle = snapshotMaxIdle;
+	}
+
+	public void setSnapshotCodec(CacheCodec snapshotCodec) {
+		this.snapshotCodec = snapshotCodec;
+	}
+
+	private volatile boolean initialized = false;
 
 	@Override
 	protected MultiLevelCache getCurrentLevelCache(String pool) {
@@ -52,6 +113,9 @@ public class EhcacheManager extends MultiLevelCacheManager implements CacheManag
 		} catch (Exception e) {
 			throw new CacheUnreachableException("创建Ehcache实例失败");
 		}
+		if (snapshot != null && !snapshotCaches.containsKey(cache.getName())) {
+			loadSnapshot(cache);
+		}
 		Ehcache ehcache = new Ehcache();
 		ehcache.setCache(cache);
 		return ehcache;
@@ -92,7 +156,100 @@ public class EhcacheManager extends MultiLevelCacheManager implements CacheManag
 
 	}
 
-	private void initialize() {
+	/**
+	 * 从快照文件中恢复缓存池，每个缓存池只恢复一次
+	 * 
+	 * @param cache
+	 */
+	private synchronized void loadSnapshot(net.sf.ehcache.Cache cache) {
+		String cacheName = cache.getName();
+		if (snapshotCaches.containsKey(cacheName)) {
+			return;
+		}
+		File file = getSnapshotFile(cacheName);
+		try {
+			long start = System.currentTimeMillis();
+			int loaded = snapshot.load(cache, file);
+			LOGGER.info("从快照文件[" + file + "]中恢复缓存池[" + cacheName + "]" + loaded + "条记录，耗时"
+					+ (System.currentTimeMillis() - start) + "毫秒");
+		} catch (IOException e) {
+			LOGGER.info("从快照文件[" + file + "]中恢复缓存池[" + cacheName + "]失败", e);
+		}
+		snapshotCaches.put(cacheName, cache);
+	}
+
+	/**
+	 * 将所有使用过的缓存池写入快照文件
+	 */
+	private void writeSnapshots() {
+		for (net.sf.ehcache.Cache cache : snapshotCaches.values()) {
+			File file = getSnapshotFile(cache.getName());
+			try {
+				int written = snapshot.write(cache, file);
+				if (LOGGER.isDebugEnabled()) {
+					LOGGER.debug("写入缓存池[" + cache.getName() + "]的快照文件[" + file + "]" + written + "条记录");
+				}
+			} catch (Exception e) {
+				LOGGER.info("写入缓存池[" + cache.getName() + "]的快照文件[" + file + "]失败", e);
+			}
+		}
+	}
+
+	private File getSnapshotFile(String cacheName) {
+		return new File(snapshotDirectory, cacheName + SNAPSHOT_SUFFIX);
+	}
+
+	/**
+	 * 启动定期写入快照的后台线程
+	 */
+	private void initializeSnapshot() {
+		if (StringUtils.isEmpty(snapshotDirectory)) {
+			return;
+		}
+		File directory = new File(snapshotDirectory);
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			LOGGER.info("无法创建快照目录[" + snapshotDirectory + "]，不使用快照");
+			return;
+		}
+
+		snapshot = new EhcacheSnapshot((snapshotCodec != null) ? snapshotCodec : new CompactBinaryCodec(),
+				snapshotMaxEntries, snapshotMaxBytes, snapshotMaxIdle);
+		snapshotScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "energy-ehcache-snapshot");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		snapshotScheduler.scheduleWithFixedDelay(new Runnable() {
+
+			@Override
+			public void run() {
+				writeSnapshots();
+			}
+		}, snapshotInterval, snapshotInterval, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * 停止定期写入快照，并写入最后一次快照
+	 */
+	public synchronized void shutdown() {
+		if (snapshotScheduler == null) {
+			return;
+		}
+		snapshotScheduler.shutdown();
+		try {
+			snapshotScheduler.awaitTermination(snapshotInterval, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		writeSnapshots();
+		snapshotScheduler = null;
+	}
+
+	private synchronized void initialize() {
 		if (initialized) {
 			return;
 		}
@@ -115,9 +272,9 @@ public class EhcacheManager extends MultiLevelCacheManager implements CacheManag
 			} catch (Exception e) {
 				throw new CacheUnreachableException(e);
 			}
-			this.initialized = true;
 		}
-
+		initializeSnapshot();
+		this.initialized = true;
 	}
 
 }
@@ -0,0 +1,279 @@
+package net.energy.cache.ehcache;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import net.energy.cache.CacheCodec;
+import net.energy.cache.CacheObject;
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.Element;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Ehcache缓存池的快照，用于在重启后预热本地缓存。快照顺序写入文件，恢复时通过内存映射文件读取，格式为：
+ * 
+ * <pre>
+ * [魔数 int][格式版本 int][快照时间 long][记录数 int]
+ * 每条记录：[key长度 int][key(UTF-8)][过期时间 long][value长度 int][value(codec编码后的CacheObject)]
+ * </pre>
+ * 
+ * 只有带有版本号的{@link CacheObject}才会写入快照，计数器（版本号）、分页对象等不会写入。
+ * 所以恢复后的缓存对象在第一次访问时，仍然会和当前的版本号进行比较，不会返回已经失效的数据。
+ * 
+ * 快照的大小受以下条件限制：
+ * 
+ * <pre>
+ * 1、只写入最近maxIdle毫秒内被访问（或者创建）过的缓存对象；
+ * 2、按最后访问时间从近到远依次写入，最多写入maxEntries条、maxBytes字节。
+ * </pre>
+ * 
+ * @author wuqh
+ * 
+ */
+class EhcacheSnapshot {
+	private static final Logger LOGGER = LoggerFactory.getLogger(EhcacheSnapshot.class);
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	private static final int MAGIC = 0x454E5331;
+	private static final int FORMAT_VERSION = 1;
+	private static final int HEADER_SIZE = 4 + 4 + 8 + 4;
+	private static final String TEMP_SUFFIX = ".tmp";
+	private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+	private final CacheCodec codec;
+	private final int maxEntries;
+	private final long maxBytes;
+	private final long maxIdle;
+
+	EhcacheSnapshot(CacheCodec codec, int maxEntries, long maxBytes, long maxIdle) {
+		this.codec = codec;
+		this.maxEntries = maxEntries;
+		this.maxBytes = maxBytes;
+		this.maxIdle = maxIdle;
+	}
+
+	/**
+	 * 将缓存池中最近访问过的缓存对象写入快照文件。先写入临时文件，完成后再替换原文件，以免留下不完整的快照
+	 * 
+	 * @param cache
+	 * @param file
+	 * @return 写入的记录数
+	 * @throws IOException
+	 */
+	int write(Cache cache, File file) throws IOException {
+		long now = System.currentTimeMillis();
+		List<Element> elements = selectElements(cache, now);
+
+		List<byte[]> keys = new ArrayList<byte[]>(elements.size());
+		List<byte[]> values = new ArrayList<byte[]>(elements.size());
+		List<Long> expireTimes = new ArrayList<Long>(elements.size());
+		long size = HEADER_SIZE;
+		for (Element element : elements) {
+			CacheObject item = (CacheObject) element.getObjectValue();
+			byte[] key;
+			byte[] value;
+			try {
+				key = ((String) element.getObjectKey()).getBytes(UTF_8);
+				value = codec.encode(item);
+			} catch (RuntimeException e) {
+				LOGGER.debug("缓存对象[" + element.getObjectKey() + "]无法编码，不写入快照", e);
+				continue;
+			}
+
+			long recordSize = 4 + key.length + 8 + 4 + value.length;
+			if (size + recordSize > maxBytes) {
+				break;
+			}
+			size += recordSize;
+			keys.add(key);
+			values.add(value);
+			expireTimes.add(getExpireTime(element, item));
+		}
+
+		File tempFile = new File(file.getPath() + TEMP_SUFFIX);
+		// 写入时不使用内存映射：MappedByteBuffer在被GC回收之前不会释放映射，每次保存都会占用地址空间，
+		// 在Windows上还会导致临时文件无法重命名
+		FileOutputStream fileOutput = new FileOutputStream(tempFile);
+		try {
+			DataOutputStream output = new DataOutputStream(new BufferedOutputStream(fileOutput, WRITE_BUFFER_SIZE));
+			output.writeInt(MAGIC);
+			output.writeInt(FORMAT_VERSION);
+			output.writeLong(now);
+			output.writeInt(keys.size());
+			for (int i = 0; i < keys.size(); i++) {
+				byte[] key = keys.get(i);
+				byte[] value = values.get(i);
+				output.writeInt(key.length);
+				output.write(key);
+				output.writeLong(expireTimes.get(i));
+				output.writeInt(value.length);
+				output.write(value);
+			}
+			output.flush();
+			fileOutput.getFD().sync();
+		} finally {
+			fileOutput.close();
+		}
+
+		if (file.exists() && !file.delete()) {
+			throw new IOException("无法删除旧的快照文件[" + file + "]");
+		}
+		if (!tempFile.renameTo(file)) {
+			throw new IOException("无法将快照文件[" + tempFile + "]重命名为[" + file + "]");
+		}
+		return keys.size();
+	}
+
+	/**
+	 * 从快照文件中恢复缓存对象，已经过期的对象以及缓存中已经存在的key会被忽略
+	 * 
+	 * @param cache
+	 * @param file
+	 * @return 恢复的记录数
+	 * @throws IOException
+	 */
+	int load(Cache cache, File file) throws IOException {
+		if (!file.isFile() || file.length() < HEADER_SIZE) {
+			return 0;
+		}
+
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) {
+				LOGGER.info("快照文件[" + file + "]格式不正确，忽略");
+				return 0;
+			}
+			buffer.getLong(); // 快照时间
+			int count = buffer.getInt();
+
+			long now = System.currentTimeMillis();
+			int loaded = 0;
+			for (int i = 0; i < count; i++) {
+				String key = new String(readBytes(buffer), UTF_8);
+				long expireTime = buffer.getLong();
+				byte[] value = readBytes(buffer);
+				if (expireTime > 0 && expireTime <= now) {
+					continue;
+				}
+
+				Object item;
+				try {
+					item = codec.decode(value);
+				} catch (RuntimeException e) {
+					LOGGER.debug("快照中的缓存对象[" + key + "]无法解码，忽略", e);
+					continue;
+				}
+				if (!(item instanceof CacheObject)) {
+					continue;
+				}
+
+				Element element = new Element(key, item);
+				if (expireTime > 0) {
+					element.setEternal(false);
+					element.setTimeToLive((int) Math.max(1L, (expireTime - now) / 1000));
+				}
+				element.setVersion(element.getCreationTime());
+				if (cache.putIfAbsent(element) == null) {
+					loaded++;
+				}
+			}
+			return loaded;
+		} catch (BufferUnderflowException e) {
+			throw new IOException("快照文件[" + file + "]不完整");
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * 选出需要写入快照的缓存对象：带有版本号的CacheObject，并且在maxIdle内被访问过，按最后访问时间从近到远排序
+	 * 
+	 * @param cache
+	 * @param now
+	 * @return
+	 */
+	private List<Element> selectElements(Cache cache, long now) {
+		List<?> keys = cache.getKeys();
+		List<Element> elements = new ArrayList<Element>(Math.min(keys.size(), maxEntries));
+		for (Object key : keys) {
+			if (!(key instanceof String)) {
+				continue;
+			}
+			Element element = cache.getQuiet(key);
+			if (element == null || element.isExpired()) {
+				continue;
+			}
+			Object value = element.getObjectValue();
+			if (!(value instanceof CacheObject) || ((CacheObject) value).getVersion() == 0) {
+				continue;
+			}
+			if (maxIdle > 0 && now - getLastUsedTime(element) > maxIdle) {
+				continue;
+			}
+			elements.add(element);
+		}
+
+		Collections.sort(elements, new Comparator<Element>() {
+
+			@Override
+			public int compare(Element e1, Element e2) {
+				long t1 = getLastUsedTime(e1);
+				long t2 = getLastUsedTime(e2);
+				return (t1 > t2) ? -1 : ((t1 == t2) ? 0 : 1);
+			}
+		});
+
+		if (elements.size() > maxEntries) {
+			return elements.subList(0, maxEntries);
+		}
+		return elements;
+	}
+
+	private static long getLastUsedTime(Element element) {
+		return Math.max(element.getLastAccessTime(), element.getCreationTime());
+	}
+
+	/**
+	 * 快照中对象的过期时间：取缓存对象本身和Ehcache元素中较早的一个，为0表示不过期
+	 * 
+	 * @param element
+	 * @param item
+	 * @return
+	 */
+	private static long getExpireTime(Element element, CacheObject item) {
+		long expireTime = item.getExpireTime();
+		if (!element.isEternal() && element.getTimeToLive() > 0) {
+			long elementExpireTime = element.getExpirationTime();
+			if (expireTime <= 0 || elementExpireTime < expireTime) {
+				expireTime = elementExpireTime;
+			}
+		}
+		return expireTime;
+	}
+
+	private static byte[] readBytes(ByteBuffer buffer) {
+		int length = buffer.getInt();
+		if (length < 0 || length > buffer.remaining()) {
+			throw new BufferUnderflowException();
+		}
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return bytes;
+	}
+}
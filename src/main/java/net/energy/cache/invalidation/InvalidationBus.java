@@ -0,0 +1,40 @@
+package net.energy.cache.invalidation;
+
+/**
+ * 缓存失效消息的广播接口。多个节点各自使用本地缓存（如：Ehcache）时，某个节点删除缓存或者更新版本号后，
+ * 需要通过此接口通知其他节点删除本地缓存中的副本，这样本地缓存就可以使用较长的缓存时间。
+ * 
+ * <pre>
+ * 实现需要满足：
+ * 1、消息至少送达一次（重复送达是安全的，因为删除操作是幂等的）；
+ * 2、无法保证送达时（如：消息丢失且无法重传），需要调用{@link InvalidationListener#onLoss()}，由订阅者清空本地缓存；
+ * 3、不需要将消息送达发布消息的节点自身。
+ * </pre>
+ * 
+ * @author wuqh
+ * @see MulticastInvalidationBus
+ * @see LoopbackInvalidationBus
+ */
+public interface InvalidationBus {
+	/**
+	 * 发布缓存失效消息
+	 * 
+	 * @param pool
+	 *            缓存池名
+	 * @param key
+	 *            失效的缓存key，为null表示整个缓存池失效
+	 */
+	void publish(String pool, String key);
+
+	/**
+	 * 订阅其他节点发布的缓存失效消息
+	 * 
+	 * @param listener
+	 */
+	void subscribe(InvalidationListener listener);
+
+	/**
+	 * 关闭，释放相关资源
+	 */
+	void close();
+}
@@ -0,0 +1,24 @@
+package net.energy.cache.invalidation;
+
+/**
+ * 缓存失效消息的订阅者
+ * 
+ * @author wuqh
+ * @see InvalidationBus
+ */
+public interface InvalidationListener {
+	/**
+	 * 收到缓存失效消息
+	 * 
+	 * @param pool
+	 *            缓存池名
+	 * @param key
+	 *            失效的缓存key，为null表示整个缓存池失效
+	 */
+	void onInvalidate(String pool, String key);
+
+	/**
+	 * 有失效消息丢失并且无法恢复，订阅者需要清空所有的本地缓存
+	 */
+	void onLoss();
+}
@@ -0,0 +1,69 @@
+package net.energy.cache.invalidation;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 进程内的缓存失效消息广播，主要用于测试。通过{@link #LoopbackInvalidationBus(LoopbackInvalidationBus)}
+ * 加入同一个组的多个实例模拟多个节点，消息会同步送达同组中其他实例的订阅者。
+ * 
+ * @author wuqh
+ * 
+ */
+public class LoopbackInvalidationBus implements InvalidationBus {
+	private static final Logger LOGGER = LoggerFactory.getLogger(LoopbackInvalidationBus.class);
+
+	private final List<LoopbackInvalidationBus> group;
+	private final List<InvalidationListener> listeners = new CopyOnWriteArrayList<InvalidationListener>();
+
+	/**
+	 * 创建一个新的组
+	 */
+	public LoopbackInvalidationBus() {
+		this.group = new CopyOnWriteArrayList<LoopbackInvalidationBus>();
+		this.group.add(this);
+	}
+
+	/**
+	 * 加入peer所在的组
+	 * 
+	 * @param peer
+	 */
+	public LoopbackInvalidationBus(LoopbackInvalidationBus peer) {
+		this.group = peer.group;
+		this.group.add(this);
+	}
+
+	@Override
+	public void publish(String pool, String key) {
+		for (LoopbackInvalidationBus member : group) {
+			if (member != this) {
+				member.deliver(pool, key);
+			}
+		}
+	}
+
+	private void deliver(String pool, String key) {
+		for (InvalidationListener listener : listeners) {
+			try {
+				listener.onInvalidate(pool, key);
+			} catch (RuntimeException e) {
+				LOGGER.info("处理缓存失效消息[" + pool + ":" + key + "]失败", e);
+			}
+		}
+	}
+
+	@Override
+	public void subscribe(InvalidationListener listener) {
+		listeners.add(listener);
+	}
+
+	@Override
+	public void close() {
+		group.remove(this);
+		listeners.clear();
+	}
+}
@@ -0,0 +1,557 @@
+package net.energy.cache.invalidation;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.MulticastSocket;
+import java.net.SocketTimeoutException;
+import java.security.SecureRandom;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 基于UDP组播的缓存失效消息广播
+ * 
+ * <pre>
+ * 1、发布的消息先进入有界队列，由发送线程按{@link #setFlushInterval(long)}合并成数据包后发送，每个数据包带有节点ID和递增的序号；
+ * 2、发送过的数据包保存在环形缓冲区中，接收方根据序号发现丢包后发送NACK请求重传，空闲时发送方定期发送心跳（携带最新序号），以发现末尾的丢包；
+ * 3、无法恢复的丢包（缓冲区中已经没有、超过{@link #setRecoveryTimeout(long)}仍未收到、或者发送队列已满）会通知订阅者{@link InvalidationListener#onLoss()}，
+ *    由订阅者清空本地缓存。因此消息至少送达一次，否则本地缓存会被清空。
+ * </pre>
+ * 
+ * 配置完成后，第一次调用{@link #publish(String, String)}或{@link #subscribe(InvalidationListener)}时启动。
+ * 
+ * @author wuqh
+ * 
+ */
+public class MulticastInvalidationBus implements InvalidationBus {
+	private static final Logger LOGGER = LoggerFactory.getLogger(MulticastInvalidationBus.class);
+
+	private static final byte TYPE_DATA = 1;
+	private static final byte TYPE_HEARTBEAT = 2;
+	private static final byte TYPE_NACK = 3;
+	private static final byte TYPE_LOST = 4;
+	private static final byte ENTRY_POOL = 0;
+	private static final byte ENTRY_KEY = 1;
+	/**
+	 * 发送方自身丢弃了消息（发送队列已满），接收方需要清空本地缓存
+	 */
+	private static final byte ENTRY_LOSS = 2;
+	/**
+	 * 一次允许补齐的最大丢包数，超过后直接认为消息丢失
+	 */
+	private static final int MAX_MISSING = 1024;
+	private static final int HEADER_SIZE = 1 + 8 + 8 + 2;
+
+	private String group = "239.255.27.1";
+	private int port = 45654;
+	private int timeToLive = 1;
+	private long flushInterval = 5L;
+	private int maxPacketSize = 1400;
+	private int queueSize = 65536;
+	private int retransmitBufferSize = 4096;
+	private long heartbeatInterval = 1000L;
+	private long recoveryTimeout = 5000L;
+
+	private final long nodeId = new SecureRandom().nextLong();
+	private final List<InvalidationListener> listeners = new CopyOnWriteArrayList<InvalidationListener>();
+	private final AtomicBoolean overflow = new AtomicBoolean(false);
+	private final Map<Long, PeerState> peers = new HashMap<Long, PeerState>();
+
+	private BlockingQueue<Entry> queue;
+	private byte[][] retransmitBuffer;
+	private long[] retransmitSeqs;
+	private long nextSeq;
+	private MulticastSocket socket;
+	private InetAddress groupAddress;
+	private Thread sender;
+	private Thread receiver;
+	private volatile boolean running;
+	private volatile boolean initialized;
+
+	private synchronized void initialize() {
+		if (initialized) {
+			return;
+		}
+
+		queue = new ArrayBlockingQueue<Entry>(queueSize);
+		retransmitBuffer = new byte[retransmitBufferSize][];
+		retransmitSeqs = new long[retransmitBufferSize];
+		try {
+			groupAddress = InetAddress.getByName(group);
+			socket = new MulticastSocket(port);
+			socket.setTimeToLive(timeToLive);
+			socket.setSoTimeout((int) heartbeatInterval);
+			socket.joinGroup(groupAddress);
+		} catch (IOException e) {
+			throw new IllegalStateException("无法加入组播地址[" + group + ":" + port + "]", e);
+		}
+
+		running = true;
+		sender = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				sendLoop();
+			}
+		}, "energy-invalidation-sender");
+		sender.setDaemon(true);
+		sender.start();
+
+		receiver = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				receiveLoop();
+			}
+		}, "energy-invalidation-receiver");
+		receiver.setDaemon(true);
+		receiver.start();
+
+		initialized = true;
+		LOGGER.info("缓存失效消息广播已启动，组播地址[" + group + ":" + port + "]，节点[" + nodeId + "]");
+	}
+
+	@Override
+	public void publish(String pool, String key) {
+		if (!initialized) {
+			initialize();
+		}
+		if (!queue.offer(new Entry(pool, key))) {
+			// 丢弃的消息无法补发，只能通知其他节点清空本地缓存
+			overflow.set(true);
+			if (LOGGER.isDebugEnabled()) {
+				LOGGER.debug("缓存失效消息发送队列已满，丢弃消息[" + pool + ":" + key + "]");
+			}
+		}
+	}
+
+	@Override
+	public void subscribe(InvalidationListener listener) {
+		listeners.add(listener);
+		if (!initialized) {
+			initialize();
+		}
+	}
+
+	@Override
+	public synchronized void close() {
+		if (!initialized) {
+			return;
+		}
+		running = false;
+		sender.interrupt();
+		try {
+			socket.leaveGroup(groupAddress);
+		} catch (IOException e) {
+			LOGGER.info("退出组播地址[" + group + ":" + port + "]失败", e);
+		}
+		socket.close();
+		listeners.clear();
+		initialized = false;
+	}
+
+	private void sendLoop() {
+		Entry pending = null;
+		long lastSendTime = System.currentTimeMillis();
+		while (running) {
+			try {
+				if (overflow.compareAndSet(true, false)) {
+					// 作为普通数据包发送，丢失后可以重传
+					send(encodeData(1, Entry.LOSS.encode()));
+				}
+
+				Entry entry = (pending != null) ? pending : queue.poll(heartbeatInterval, TimeUnit.MILLISECONDS);
+				pending = null;
+				if (entry == null) {
+					if (System.currentTimeMillis() - lastSendTime >= heartbeatInterval) {
+						send(encodeControl(TYPE_HEARTBEAT, lastSeq(), 0L, 0L));
+						lastSendTime = System.currentTimeMillis();
+					}
+					continue;
+				}
+
+				// 在flushInterval内尽量合并更多的消息到一个数据包中
+				ByteArrayOutputStream body = new ByteArrayOutputStream(maxPacketSize);
+				int count = 0;
+				long deadline = System.currentTimeMillis() + flushInterval;
+				while (entry != null) {
+					byte[] encoded = entry.encode();
+					if (count > 0 && HEADER_SIZE + body.size() + encoded.length > maxPacketSize) {
+						pending = entry;
+						break;
+					}
+					body.write(encoded);
+					count++;
+					if (count == Short.MAX_VALUE) {
+						break;
+					}
+
+					long wait = deadline - System.currentTimeMillis();
+					entry = (wait > 0) ? queue.poll(wait, TimeUnit.MILLISECONDS) : queue.poll();
+				}
+
+				send(encodeData(count, body.toByteArray()));
+				lastSendTime = System.currentTimeMillis();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			} catch (Throwable e) {
+				if (running) {
+					LOGGER.info("发送缓存失效消息失败", e);
+				}
+			}
+		}
+	}
+
+	private void receiveLoop() {
+		byte[] buffer = new byte[65536];
+		long lastCheckTime = System.currentTimeMillis();
+		while (running) {
+			try {
+				DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+				try {
+					socket.receive(packet);
+					handle(new DataInputStream(new ByteArrayInputStream(packet.getData(), packet.getOffset(),
+							packet.getLength())));
+				} catch (SocketTimeoutException e) {
+					// 定期检查丢包
+				}
+
+				long now = System.currentTimeMillis();
+				if (now - lastCheckTime >= heartbeatInterval) {
+					checkMissing(now);
+					lastCheckTime = now;
+				}
+			} catch (Throwable e) {
+				if (running) {
+					LOGGER.info("接收缓存失效消息失败", e);
+				}
+			}
+		}
+	}
+
+	private void handle(DataInputStream in) throws IOException {
+		byte type = in.readByte();
+		long senderId = in.readLong();
+		if (type == TYPE_NACK) {
+			long target = in.readLong();
+			if (target == nodeId) {
+				retransmit(in.readLong(), in.readLong());
+			}
+			return;
+		}
+		if (senderId == nodeId) {
+			return;
+		}
+
+		long now = System.currentTimeMillis();
+		long seq = in.readLong();
+		PeerState peer = peers.get(senderId);
+		if (type == TYPE_DATA) {
+			if (peer == null) {
+				peer = new PeerState(seq - 1);
+				peers.put(senderId, peer);
+			}
+			peer.lastSeen = now;
+			if (seq > peer.highestSeq) {
+				addMissing(senderId, peer, seq - 1, now);
+				peer.highestSeq = seq;
+			} else if (peer.missing.remove(seq) == null) {
+				// 重复的数据包
+				return;
+			}
+			int count = in.readShort() & 0xFFFF;
+			for (int i = 0; i < count; i++) {
+				byte kind = in.readByte();
+				if (kind == ENTRY_LOSS) {
+					LOGGER.info("节点[" + senderId + "]丢弃了缓存失效消息");
+					fireLoss();
+					continue;
+				}
+				String pool = in.readUTF();
+				String key = (kind == ENTRY_KEY) ? in.readUTF() : null;
+				fireInvalidate(pool, key);
+			}
+		} else if (type == TYPE_HEARTBEAT) {
+			if (peer == null) {
+				peers.put(senderId, new PeerState(seq));
+				return;
+			}
+			peer.lastSeen = now;
+			if (seq > peer.highestSeq) {
+				addMissing(senderId, peer, seq, now);
+				peer.highestSeq = seq;
+			}
+		} else if (type == TYPE_LOST) {
+			if (peer != null && peer.missing.remove(seq) != null) {
+				LOGGER.info("节点[" + senderId + "]的缓存失效消息[" + seq + "]已经丢失");
+				fireLoss();
+			}
+		}
+	}
+
+	/**
+	 * 记录(highestSeq, upToSeq]之间缺失的序号，并请求重传
+	 */
+	private void addMissing(long senderId, PeerState peer, long upToSeq, long now) throws IOException {
+		long from = peer.highestSeq + 1;
+		if (upToSeq < from) {
+			return;
+		}
+		if (upToSeq - from + 1 > MAX_MISSING) {
+			LOGGER.info("节点[" + senderId + "]丢失缓存失效消息过多[" + from + "-" + upToSeq + "]");
+			peer.missing.clear();
+			fireLoss();
+			return;
+		}
+		for (long seq = from; seq <= upToSeq; seq++) {
+			peer.missing.put(seq, now);
+		}
+		send(encodeControl(TYPE_NACK, senderId, from, upToSeq));
+	}
+
+	private void checkMissing(long now) throws IOException {
+		for (Iterator<Map.Entry<Long, PeerState>> it = peers.entrySet().iterator(); it.hasNext();) {
+			Map.Entry<Long, PeerState> entry = it.next();
+			PeerState peer = entry.getValue();
+			if (peer.missing.isEmpty()) {
+				// 长时间没有消息（包括心跳）的节点认为已经下线
+				if (now - peer.lastSeen > recoveryTimeout + heartbeatInterval * 10) {
+					it.remove();
+				}
+				continue;
+			}
+
+			boolean lost = false;
+			for (Iterator<Long> times = peer.missing.values().iterator(); times.hasNext();) {
+				if (now - times.next() > recoveryTimeout) {
+					times.remove();
+					lost = true;
+				}
+			}
+			if (lost) {
+				LOGGER.info("节点[" + entry.getKey() + "]的缓存失效消息重传超时");
+				fireLoss();
+			}
+			if (!peer.missing.isEmpty()) {
+				send(encodeControl(TYPE_NACK, entry.getKey(), peer.missing.firstKey(), peer.missing.lastKey()));
+			}
+		}
+	}
+
+	private void retransmit(long from, long to) throws IOException {
+		for (long seq = from; seq <= to; seq++) {
+			byte[] data = null;
+			synchronized (retransmitBuffer) {
+				int index = (int) (seq % retransmitBufferSize);
+				if (retransmitSeqs[index] == seq) {
+					data = retransmitBuffer[index];
+				}
+			}
+			send((data != null) ? data : encodeControl(TYPE_LOST, seq, 0L, 0L));
+		}
+	}
+
+	private long lastSeq() {
+		synchronized (retransmitBuffer) {
+			return nextSeq - 1;
+		}
+	}
+
+	private byte[] encodeData(int count, byte[] body) throws IOException {
+		synchronized (retransmitBuffer) {
+			long seq = nextSeq++;
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(HEADER_SIZE + body.length);
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeByte(TYPE_DATA);
+			out.writeLong(nodeId);
+			out.writeLong(seq);
+			out.writeShort(count);
+			out.write(body);
+			byte[] data = bytes.toByteArray();
+
+			int index = (int) (seq % retransmitBufferSize);
+			retransmitBuffer[index] = data;
+			retransmitSeqs[index] = seq;
+			return data;
+		}
+	}
+
+	private byte[] encodeControl(byte type, long value, long from, long to) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(33);
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeByte(type);
+		out.writeLong(nodeId);
+		out.writeLong(value);
+		if (type == TYPE_NACK) {
+			out.writeLong(from);
+			out.writeLong(to);
+		}
+		return bytes.toByteArray();
+	}
+
+	private void send(byte[] data) throws IOException {
+		socket.send(new DatagramPacket(data, data.length, groupAddress, port));
+	}
+
+	private void fireInvalidate(String pool, String key) {
+		for (InvalidationListener listener : listeners) {
+			try {
+				listener.onInvalidate(pool, key);
+			} catch (RuntimeException e) {
+				LOGGER.info("处理缓存失效消息[" + pool + ":" + key + "]失败", e);
+			}
+		}
+	}
+
+	private void fireLoss() {
+		for (InvalidationListener listener : listeners) {
+			try {
+				listener.onLoss();
+			} catch (RuntimeException e) {
+				LOGGER.info("处理缓存失效消息丢失失败", e);
+			}
+		}
+	}
+
+	/**
+	 * 组播地址，默认为239.255.27.1
+	 * 
+	 * @param group
+	 */
+	public void setGroup(String group) {
+		this.group = group;
+	}
+
+	/**
+	 * 组播端口，默认为45654
+	 * 
+	 * @param port
+	 */
+	public void setPort(int port) {
+		this.port = port;
+	}
+
+	/**
+	 * 组播数据包的TTL，默认为1（只在本网段内传播）
+	 * 
+	 * @param timeToLive
+	 */
+	public void setTimeToLive(int timeToLive) {
+		this.timeToLive = timeToLive;
+	}
+
+	/**
+	 * 合并消息的最长等待时间，单位：毫秒，默认为5
+	 * 
+	 * @param flushInterval
+	 */
+	public void setFlushInterval(long flushInterval) {
+		this.flushInterval = flushInterval;
+	}
+
+	/**
+	 * 数据包的最大字节数，默认为1400（避免IP分片）
+	 * 
+	 * @param maxPacketSize
+	 */
+	public void setMaxPacketSize(int maxPacketSize) {
+		this.maxPacketSize = maxPacketSize;
+	}
+
+	/**
+	 * 发送队列的大小，默认为65536
+	 * 
+	 * @param queueSize
+	 */
+	public void setQueueSize(int queueSize) {
+		this.queueSize = queueSize;
+	}
+
+	/**
+	 * 保存用于重传的数据包个数，默认为4096
+	 * 
+	 * @param retransmitBufferSize
+	 */
+	public void setRetransmitBufferSize(int retransmitBufferSize) {
+		this.retransmitBufferSize = retransmitBufferSize;
+	}
+
+	/**
+	 * 心跳以及丢包检查的间隔，单位：毫秒，默认为1000
+	 * 
+	 * @param heartbeatInterval
+	 */
+	public void setHeartbeatInterval(long heartbeatInterval) {
+		this.heartbeatInterval = heartbeatInterval;
+	}
+
+	/**
+	 * 丢包等待重传的最长时间，单位：毫秒，默认为5000
+	 * 
+	 * @param recoveryTimeout
+	 */
+	public void setRecoveryTimeout(long recoveryTimeout) {
+		this.recoveryTimeout = recoveryTimeout;
+	}
+
+	/**
+	 * 每个发送节点的接收状态，只在接收线程中访问
+	 */
+	private static class PeerState {
+		private long highestSeq;
+		private long lastSeen = System.currentTimeMillis();
+		/**
+		 * 缺失的序号 -> 发现缺失的时间
+		 */
+		private final TreeMap<Long, Long> missing = new TreeMap<Long, Long>();
+
+		PeerState(long highestSeq) {
+			this.highestSeq = highestSeq;
+		}
+	}
+
+	private static class Entry {
+		static final Entry LOSS = new Entry(null, null);
+
+		private final String pool;
+		private final String key;
+
+		Entry(String pool, String key) {
+			this.pool = pool;
+			this.key = key;
+		}
+
+		byte[] encode() throws IOException {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			if (pool == null) {
+				out.writeByte(ENTRY_LOSS);
+			} else if (key == null) {
+				out.writeByte(ENTRY_POOL);
+				out.writeUTF(pool);
+			} else {
+				out.writeByte(ENTRY_KEY);
+				out.writeUTF(pool);
+				out.writeUTF(key);
+			}
+			return bytes.toByteArray();
+		}
+	}
+}
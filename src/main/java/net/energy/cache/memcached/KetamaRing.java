@@ -0,0 +1,273 @@
+package net.energy.cache.memcached;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * ketama一致性hash环，用于将缓存key路由到服务器。
+ * 
+ * <pre>
+ * 1、每台服务器按照权重生成虚拟节点（每个单位权重160个），虚拟节点只由服务器名称和权重决定，
+ *    增加或者删除一台服务器时，只有这台服务器上的key会被重新分配；
+ * 2、服务器被标记为失效后从环中移除，它的key由环上的下一台服务器接管，其他服务器上的key不受影响；
+ *    经过retryTime后重新加入环中，如果仍然失效，需要再次标记；
+ * 3、路由时只读取不可变的快照，不需要加锁。
+ * </pre>
+ * 
+ * @author wuqh
+ * 
+ * @param <T>
+ *            服务器对象
+ */
+public class KetamaRing<T> {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	/**
+	 * 每个单位权重的虚拟节点数，每个MD5摘要可以生成4个虚拟节点
+	 */
+	private static final int POINTS_PER_WEIGHT = 160;
+	private static final ThreadLocal<MessageDigest> MD5 = new ThreadLocal<MessageDigest>() {
+		@Override
+		protected MessageDigest initialValue() {
+			try {
+				return MessageDigest.getInstance("MD5");
+			} catch (NoSuchAlgorithmException e) {
+				throw new IllegalStateException("不支持MD5算法", e);
+			}
+		}
+	};
+
+	private final Map<T, Node<T>> nodes = new LinkedHashMap<T, Node<T>>();
+	private final long retryTime;
+	private volatile Snapshot aliveSnapshot = Snapshot.EMPTY;
+	private volatile Snapshot allSnapshot = Snapshot.EMPTY;
+	private volatile long nextRetryTime = Long.MAX_VALUE;
+
+	/**
+	 * @param retryTime
+	 *            失效的服务器重新加入的间隔，单位：毫秒
+	 */
+	public KetamaRing(long retryTime) {
+		this.retryTime = retryTime;
+	}
+
+	/**
+	 * 增加服务器
+	 * 
+	 * @param server
+	 * @param name
+	 *            服务器名称（如：host:port），用于生成虚拟节点
+	 * @param weight
+	 *            权重
+	 */
+	public synchronized void addNode(T server, String name, int weight) {
+		nodes.put(server, new Node<T>(server, name, Math.max(1, weight)));
+		rebuild();
+	}
+
+	public synchronized void removeNode(T server) {
+		if (nodes.remove(server) != null) {
+			rebuild();
+		}
+	}
+
+	/**
+	 * 将服务器标记为失效，从环中移除
+	 * 
+	 * @param server
+	 */
+	public synchronized void markDead(T server) {
+		Node<T> node = nodes.get(server);
+		if (node == null || node.deadTime > 0) {
+			return;
+		}
+		node.deadTime = System.currentTimeMillis();
+		nextRetryTime = Math.min(nextRetryTime, node.deadTime + retryTime);
+		rebuild();
+	}
+
+	public synchronized void markAlive(T server) {
+		Node<T> node = nodes.get(server);
+		if (node == null || node.deadTime == 0) {
+			return;
+		}
+		node.deadTime = 0;
+		rebuild();
+	}
+
+	/**
+	 * 根据key找到对应的服务器，所有服务器都失效时仍然按照全部服务器路由
+	 * 
+	 * @param key
+	 * @return 没有服务器时返回null
+	 */
+	public T locate(String key) {
+		return locate(key.getBytes(UTF8));
+	}
+
+	@SuppressWarnings("unchecked")
+	public T locate(byte[] key) {
+		if (System.currentTimeMillis() >= nextRetryTime) {
+			retryDeadNodes();
+		}
+
+		Snapshot snapshot = aliveSnapshot;
+		if (snapshot.points.length == 0) {
+			snapshot = allSnapshot;
+			if (snapshot.points.length == 0) {
+				return null;
+			}
+		}
+
+		long hash = hash(key);
+		int index = Arrays.binarySearch(snapshot.points, hash);
+		if (index < 0) {
+			index = -index - 1;
+			if (index == snapshot.points.length) {
+				index = 0;
+			}
+		}
+		return (T) snapshot.servers[index];
+	}
+
+	/**
+	 * 所有服务器（包括失效的）
+	 * 
+	 * @return
+	 */
+	public synchronized List<T> getNodes() {
+		return new ArrayList<T>(nodes.keySet());
+	}
+
+	public synchronized List<T> getAliveNodes() {
+		List<T> alive = new ArrayList<T>(nodes.size());
+		for (Node<T> node : nodes.values()) {
+			if (node.deadTime == 0) {
+				alive.add(node.server);
+			}
+		}
+		return alive;
+	}
+
+	private synchronized void retryDeadNodes() {
+		long now = System.currentTimeMillis();
+		if (now < nextRetryTime) {
+			return;
+		}
+
+		long next = Long.MAX_VALUE;
+		boolean changed = false;
+		for (Node<T> node : nodes.values()) {
+			if (node.deadTime == 0) {
+				continue;
+			}
+			if (node.deadTime + retryTime <= now) {
+				node.deadTime = 0;
+				changed = true;
+			} else {
+				next = Math.min(next, node.deadTime + retryTime);
+			}
+		}
+		nextRetryTime = next;
+		if (changed) {
+			rebuild();
+		}
+	}
+
+	private void rebuild() {
+		List<Node<T>> alive = new ArrayList<Node<T>>(nodes.size());
+		for (Node<T> node : nodes.values()) {
+			if (node.deadTime == 0) {
+				alive.add(node);
+			}
+		}
+		aliveSnapshot = Snapshot.build(alive);
+		allSnapshot = Snapshot.build(nodes.values());
+	}
+
+	/**
+	 * ketama hash：取MD5摘要的前4个字节（小端）
+	 * 
+	 * @param key
+	 * @return
+	 */
+	public static long hash(byte[] key) {
+		byte[] digest = md5(key);
+		return pointOf(digest, 0);
+	}
+
+	private static byte[] md5(byte[] data) {
+		MessageDigest md5 = MD5.get();
+		md5.reset();
+		return md5.digest(data);
+	}
+
+	private static long pointOf(byte[] digest, int group) {
+		return ((long) (digest[3 + group * 4] & 0xFF) << 24) | ((long) (digest[2 + group * 4] & 0xFF) << 16)
+				| ((long) (digest[1 + group * 4] & 0xFF) << 8) | (digest[group * 4] & 0xFF);
+	}
+
+	private static class Node<T> {
+		private final T server;
+		private final String name;
+		private final int weight;
+		/**
+		 * 被标记为失效的时间，为0表示有效
+		 */
+		private long deadTime = 0;
+
+		Node(T server, String name, int weight) {
+			this.server = server;
+			this.name = name;
+			this.weight = weight;
+		}
+	}
+
+	/**
+	 * 环的不可变快照，虚拟节点按hash值排序
+	 */
+	private static class Snapshot {
+		static final Snapshot EMPTY = new Snapshot(new long[0], new Object[0]);
+
+		final long[] points;
+		final Object[] servers;
+
+		Snapshot(long[] points, Object[] servers) {
+			this.points = points;
+			this.servers = servers;
+		}
+
+		static <T> Snapshot build(Iterable<Node<T>> nodes) {
+			Map<Long, Object> ring = new TreeMap<Long, Object>();
+			for (Node<T> node : nodes) {
+				int digests = node.weight * POINTS_PER_WEIGHT / 4;
+				for (int i = 0; i < digests; i++) {
+					byte[] digest = md5((node.name + "-" + i).getBytes(UTF8));
+					for (int group = 0; group < 4; group++) {
+						Long point = pointOf(digest, group);
+						// hash冲突时保留先加入的服务器
+						if (!ring.containsKey(point)) {
+							ring.put(point, node.server);
+						}
+					}
+				}
+			}
+
+			long[] points = new long[ring.size()];
+			Object[] servers = new Object[ring.size()];
+			int index = 0;
+			for (Map.Entry<Long, Object> entry : ring.entrySet()) {
+				points[index] = entry.getKey();
+				servers[index] = entry.getValue();
+				index++;
+			}
+			return new Snapshot(points, servers);
+		}
+	}
+}
@@ -1,10 +1,21 @@
 package net.energy.cache.memcached;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 import net.energy.cache.Cache;
+import net.energy.cache.CacheCodec;
 import net.energy.cache.CacheErrorHandler;
 import net.energy.cache.MultiLevelCache;
+import net.energy.exception.CacheCodecException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.danga.MemCached.MemCachedClient;
 
@@ -15,10 +26,73 @@ import com.danga.MemCached.MemCachedClient;
  * @see MemCachedClient
  */
 public class MemcachedCache extends MultiLevelCache implements Cache {
+	private static final Logger LOGGER = LoggerFactory.getLogger(MemcachedCache.class);
 	private final MemCachedClient client;
+	/**
+	 * 按一致性hash路由的多个客户端（每个客户端对应一台服务器），为null时使用单个客户端
+	 */
+	private final KetamaRing<MemCachedClient> ring;
+	/**
+	 * 缓存对象的编解码器，为null时使用MemCachedClient自带的序列化方式
+	 */
+	private CacheCodec codec;
+	/**
+	 * 缓存池的命名空间，为null时key不加前缀，清除缓存时使用flushAll
+	 */
+	private PoolNamespace namespace;
 
 	public MemcachedCache(MemCachedClient client) {
 		this.client = client;
+		this.ring = null;
+	}
+
+	public MemcachedCache(KetamaRing<MemCachedClient> ring) {
+		this.client = null;
+		this.ring = ring;
+	}
+
+	private MemCachedClient getClient(String key) {
+		return (ring == null) ? client : ring.locate(key);
+	}
+
+	private List<MemCachedClient> getClients() {
+		return (ring == null) ? Collections.singletonList(client) : ring.getNodes();
+	}
+
+	public void setCodec(CacheCodec codec) {
+		this.codec = codec;
+	}
+
+	public void setNamespace(PoolNamespace namespace) {
+		this.namespace = namespace;
+	}
+
+	/**
+	 * 将key转换为服务器上存放的key，启用命名空间时加上缓存池和代数的前缀
+	 * 
+	 * @param key
+	 * @return
+	 */
+	private String toServerKey(String key) {
+		if (namespace == null) {
+			return key;
+		}
+		return namespace.fold(key, getGeneration());
+	}
+
+	/**
+	 * 获取命名空间的当前代数，租约过期时从服务器重新获取
+	 * 
+	 * @return
+	 */
+	private long getGeneration() {
+		long generation = namespace.getLeasedGeneration();
+		if (generation > 0) {
+			return generation;
+		}
+		generation = incrCounter(namespace.getGenerationKey(), 0L, namespace.getInitialGeneration(), 0L);
+		namespace.lease(generation);
+		return generation;
 	}
 
 	@Override
@@ -31,26 +105,46 @@ public class MemcachedCache extends MultiLevelCache implements Cache {
 		if (value == null) { // can't set a null value to memcached
 			return;
 		}
+		Object storeValue = value;
+		if (codec != null) {
+			try {
+				storeValue = codec.encode(value);
+			} catch (CacheCodecException e) {
+				CacheErrorHandler.handleError(e);
+			}
+		}
 		Date expireDate = new Date(expiry);
-		;
-		boolean ok = client.set(key, value, expireDate);
+		String serverKey = toServerKey(key);
+		MemCachedClient target = getClient(serverKey);
+		boolean ok = target.set(serverKey, storeValue, expireDate);
 		if (!ok) {
-			CacheErrorHandler.handleError(new Exception("Memcached：缓存对象[" + value + "]到[" + key + "]失败"));
+			CacheErrorHandler.handleError(new Exception("Memcached：缓存对象[" + value + "]到[" + serverKey + "]失败"));
 		}
 	}
 
 	@Override
 	protected boolean doDelete(final String key) {
-		boolean ok = client.delete(key);
+		String serverKey = toServerKey(key);
+		boolean ok = getClient(serverKey).delete(serverKey);
 		if (!ok) {
-			CacheErrorHandler.handleError(new Exception("Memcached：删除缓存Key[" + key + "]对应的对象失败"));
+			CacheErrorHandler.handleError(new Exception("Memcached：删除缓存Key[" + serverKey + "]对应的对象失败"));
 		}
 		return ok;
 	}
 
 	@Override
 	protected void doRemoveAll() {
-		boolean ok = client.flushAll();
+		if (namespace != null) {
+			// 只清除当前缓存池：代数加1后旧的缓存对象不会再被访问
+			long generation = incrCounter(namespace.getGenerationKey(), 1L, namespace.getInitialGeneration(), 0L);
+			namespace.lease(generation);
+			return;
+		}
+
+		boolean ok = true;
+		for (MemCachedClient target : getClients()) {
+			ok &= target.flushAll();
+		}
 		if (!ok) {
 			CacheErrorHandler.handleError(new Exception("Memcached：清除所有缓存对象失败"));
 		}
@@ -58,12 +152,129 @@ public class MemcachedCache extends MultiLevelCache implements Cache {
 
 	@Override
 	protected Object doGet(final String key) {
-		return client.get(key);
+		String serverKey = toServerKey(key);
+		return decode(key, getClient(serverKey).get(serverKey));
+	}
+
+	@Override
+	protected Map<String, Object> doGetMulti(final String... keys) {
+		// 服务器上的key到原始key的映射
+		Map<String, String> originalKeys = null;
+		String[] serverKeys = keys;
+		if (namespace != null) {
+			long generation = getGeneration();
+			originalKeys = new HashMap<String, String>(keys.length * 2);
+			serverKeys = new String[keys.length];
+			for (int i = 0; i < keys.length; i++) {
+				serverKeys[i] = namespace.fold(keys[i], generation);
+				originalKeys.put(serverKeys[i], keys[i]);
+			}
+		}
+
+		Map<String, Object> values;
+		if (ring == null) {
+			values = client.getMulti(serverKeys);
+		} else {
+			values = getMultiFromRing(serverKeys);
+		}
+
+		// MemCachedClient对于不存在的key也会返回null值，需要过滤掉
+		Map<String, Object> result = new HashMap<String, Object>(keys.length);
+		if (values == null) {
+			return result;
+		}
+		for (Map.Entry<String, Object> entry : values.entrySet()) {
+			String key = (originalKeys == null) ? entry.getKey() : originalKeys.get(entry.getKey());
+			Object value = decode(key, entry.getValue());
+			if (value != null && key != null) {
+				result.put(key, value);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * 按服务器分组批量获取，每台服务器只需要访问一次
+	 * 
+	 * @param keys
+	 * @return
+	 */
+	private Map<String, Object> getMultiFromRing(String... keys) {
+		Map<MemCachedClient, List<String>> keysByClient = new LinkedHashMap<MemCachedClient, List<String>>();
+		for (String key : keys) {
+			MemCachedClient target = ring.locate(key);
+			List<String> clientKeys = keysByClient.get(target);
+			if (clientKeys == null) {
+				clientKeys = new ArrayList<String>();
+				keysByClient.put(target, clientKeys);
+			}
+			clientKeys.add(key);
+		}
+
+		Map<String, Object> values = new HashMap<String, Object>(keys.length);
+		for (Map.Entry<MemCachedClient, List<String>> entry : keysByClient.entrySet()) {
+			List<String> clientKeys = entry.getValue();
+			Map<String, Object> clientValues = entry.getKey().getMulti(clientKeys.toArray(new String[clientKeys.size()]));
+			if (clientValues != null) {
+				values.putAll(clientValues);
+			}
+		}
+		return values;
+	}
+
+	/**
+	 * 使用编解码器还原缓存对象，解码失败时当作缓存未命中处理。
+	 * 非字节数组的值（未使用编解码器写入的旧数据）直接返回。
+	 * 
+	 * @param key
+	 * @param value
+	 * @return
+	 */
+	private Object decode(String key, Object value) {
+		if (codec == null || !(value instanceof byte[])) {
+			return value;
+		}
+		try {
+			return codec.decode((byte[]) value);
+		} catch (CacheCodecException e) {
+			LOGGER.info("Memcached：解码缓存Key[" + key + "]对应的对象失败，当作未命中处理", e);
+			return null;
+		}
+	}
+
+	@Override
+	protected long doIncr(final String key, final long delta, final long initial, final long expiry) {
+		return incrCounter(toServerKey(key), delta, initial, expiry);
+	}
+
+	private long incrCounter(final String key, final long delta, final long initial, final long expiry) {
+		// 计数器以字符串的形式存放，不经过编解码器，incr在key不存在或者值不是数字时返回-1
+		MemCachedClient target = getClient(key);
+		long value = target.incr(key, delta);
+		if (value >= 0) {
+			return value;
+		}
+
+		Date expireDate = new Date(expiry);
+		if (target.add(key, String.valueOf(initial), expireDate)) {
+			return initial;
+		}
+		value = target.incr(key, delta);
+		if (value >= 0) {
+			return value;
+		}
+
+		// 旧版本以Long对象存放的版本号无法incr，直接覆盖
+		if (!target.set(key, String.valueOf(initial), expireDate)) {
+			CacheErrorHandler.handleError(new Exception("Memcached：增加计数器[" + key + "]失败"));
+		}
+		return initial;
 	}
 
 	@Override
 	protected boolean doKeyExists(final String key) {
-		return client.keyExists(key);
+		String serverKey = toServerKey(key);
+		return getClient(serverKey).keyExists(serverKey);
 	}
 
 }
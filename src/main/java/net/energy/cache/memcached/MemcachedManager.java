@@ -1,11 +1,14 @@
 package net.energy.cache.memcached;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
+import net.energy.cache.CacheCodec;
 import net.energy.cache.CacheManager;
-import net.energy.cache.MultiLevelCache;
-import net.energy.cache.MultiLevelCacheManager;
+import net.energy.cache.PooledCacheManager;
+import net.energy.cache.codec.CompressingCodec;
+import net.energy.cache.codec.CompressionStats;
+import net.energy.cache.codec.SerializableCodec;
 import net.energy.exception.CacheUnreachableException;
 import net.energy.utils.Assert;
 
@@ -24,13 +27,19 @@ import com.danga.MemCached.SockIOPool;
  * 是否启用nagle算法（nagle）：默认false ，
  * 读取超时时间（单位：毫秒）（readTimeout）：默认3秒 ，
  * 连接超时时间（单位：毫秒）（connectTimeout）：默认不超时 ，
+ * 缓存对象编解码器（codec）：默认null，使用MemCachedClient自带的序列化方式 ，
+ * 压缩阈值（单位：字节）（compressThreshold）：默认0，不压缩；大于0时编码后超过阈值的对象会被快速压缩 ，
+ * 是否使用ketama一致性hash路由（consistentHash）：默认false，使用SockIOPool自带的路由方式 ，
+ * 失效服务器重新加入一致性hash环的间隔（单位：毫秒）（deadRetryTime）：默认30秒 ，
+ * 是否按缓存池使用命名空间（namespaced）：默认false，key不加前缀，清除缓存时使用flushAll清除整个Memcached集群；为true时清除缓存只将缓存池的代数加1 ，
+ * 命名空间代数的本地租约时间（单位：毫秒）（namespaceLeaseTime）：默认1秒 ，
  * </pre>
  * 
  * @author wuqh
  * @see SockIOPool
  */
-public class MemcachedManager extends MultiLevelCacheManager implements CacheManager {
-	private final Map<String, MemcachedCache> clientPool = new HashMap<String, MemcachedCache>();
+public class MemcachedManager extends PooledCacheManager<MemcachedCache> implements CacheManager {
+	private final ConcurrentMap<String, CompressionStats> compressionStats = new ConcurrentHashMap<String, CompressionStats>();
 	private static final long DEFAULT_IDLE = 1000 * 60 * 60 * 6;
 
 	private String[] servers;
@@ -43,6 +52,12 @@ public class MemcachedManager extends MultiLevelCacheManager implements CacheMan
 	private boolean nagle = false;
 	private int readTimeout = 3000; // 3 secs
 	private int connectTimeout = 0; // no time out
+	private CacheCodec codec;
+	private int compressThreshold = 0;
+	private boolean consistentHash = false;
+	private long deadRetryTime = 30000L;
+	private boolean namespaced = false;
+	private long namespaceLeaseTime = 1000L;
 
 	public void setServers(String[] servers) {
 		this.servers = servers;
@@ -84,27 +99,95 @@ public class MemcachedManager extends MultiLevelCacheManager implements CacheMan
 		this.connectTimeout = connectTimeout;
 	}
 
+	public void setCodec(CacheCodec codec) {
+		this.codec = codec;
+	}
+
+	public void setCompressThreshold(int compressThreshold) {
+		this.compressThreshold = compressThreshold;
+	}
+
+	/**
+	 * 使用ketama一致性hash路由时，每台服务器使用独立的SockIOPool，由KetamaRing决定key对应的服务器，
+	 * 增加、删除或者失效一台服务器时只会影响这台服务器上的key
+	 * 
+	 * @param consistentHash
+	 */
+	public void setConsistentHash(boolean consistentHash) {
+		this.consistentHash = consistentHash;
+	}
+
+	public void setDeadRetryTime(long deadRetryTime) {
+		this.deadRetryTime = deadRetryTime;
+	}
+
+	/**
+	 * 启用命名空间时，每个缓存池的key都加上缓存池名称和代数的前缀，清除缓存池（removeAll）只需要将代数加1，
+	 * 不再使用flushAll清除共享Memcached集群上所有缓存池的数据。启用后key的格式发生变化，所有节点必须使用相同的配置
+	 * 
+	 * @param namespaced
+	 * @see PoolNamespace
+	 */
+	public void setNamespaced(boolean namespaced) {
+		this.namespaced = namespaced;
+	}
+
+	/**
+	 * 其他节点清除缓存池后，本节点最多在租约时间内仍然使用旧的代数
+	 * 
+	 * @param namespaceLeaseTime
+	 */
+	public void setNamespaceLeaseTime(long namespaceLeaseTime) {
+		this.namespaceLeaseTime = namespaceLeaseTime;
+	}
+
+	/**
+	 * 获取缓存池的压缩统计信息
+	 * 
+	 * @param poolName
+	 * @return 缓存池没有启用压缩时返回null
+	 */
+	public CompressionStats getCompressionStats(String poolName) {
+		return compressionStats.get(poolName.toUpperCase());
+	}
+
+	/**
+	 * 第一次访问缓存池时初始化SockIOPool和客户端
+	 */
 	@Override
-	protected MultiLevelCache getCurrentLevelCache(String poolName) {
-		String upperCase = poolName.toUpperCase();
-		SockIOPool pool = SockIOPool.getInstance(upperCase);
+	protected MemcachedCache createCache(String poolName) {
+		Assert.notNull(servers, "Servers必须设置");
+		if (consistentHash) {
+			for (String server : servers) {
+				getOrInitializePool(getServerPoolName(poolName, server), new String[] { server }, null);
+			}
+		} else {
+			getOrInitializePool(poolName, servers, weights);
+		}
+
+		return initializeClient(poolName);
+	}
+
+	private static String getServerPoolName(String poolName, String server) {
+		return poolName + "@" + server;
+	}
+
+	private void getOrInitializePool(String poolName, String[] poolServers, Integer[] poolWeights) {
+		SockIOPool pool = SockIOPool.getInstance(poolName);
 		if (!pool.isInitialized()) {
 			try {
-				initializePool(pool);
+				initializePool(pool, poolServers, poolWeights);
 			} catch (Exception e) {
 				throw new CacheUnreachableException("创建Memcached实例失败");
 			}
 
 		}
-
-		return initializeClient(upperCase);
 	}
 
-	private void initializePool(SockIOPool pool) {
-		Assert.notNull(servers, "Servers必须设置");
-		pool.setServers(servers);
-		if (weights != null) {
-			pool.setWeights(weights);
+	private void initializePool(SockIOPool pool, String[] poolServers, Integer[] poolWeights) {
+		pool.setServers(poolServers);
+		if (poolWeights != null) {
+			pool.setWeights(poolWeights);
 		}
 		pool.setInitConn(initConn);
 		pool.setMinConn(minConn);
@@ -121,14 +204,40 @@ public class MemcachedManager extends MultiLevelCacheManager implements CacheMan
 		pool.initialize();
 	}
 
+	@SuppressWarnings("deprecation")
 	private MemcachedCache initializeClient(String poolName) {
-		MemcachedCache cache = clientPool.get(poolName);
-		if (cache == null) {
-			// I don't know why binary protocol is invalid in my pc, so just
-			// use tcp ascii;
+		MemcachedCache cache;
+		// I don't know why binary protocol is invalid in my pc, so just
+		// use tcp ascii;
+		if (consistentHash) {
+			KetamaRing<MemCachedClient> ring = new KetamaRing<MemCachedClient>(deadRetryTime);
+			for (int i = 0; i < servers.length; i++) {
+				// 只有连接失败时才将服务器从环中移除；2.6版本的setErrorHandler会抛出UnsupportedOperationException，
+				// ErrorHandler只能通过这个已经废弃的构造函数传入
+				RingErrorHandler errorHandler = new RingErrorHandler(ring);
+				MemCachedClient client = new MemCachedClient(getServerPoolName(poolName, servers[i]), true, false,
+						null, errorHandler);
+				errorHandler.setServer(client);
+				int weight = (weights != null && i < weights.length && weights[i] != null) ? weights[i] : 1;
+				ring.addNode(client, servers[i], weight);
+			}
+			cache = new MemcachedCache(ring);
+		} else {
 			MemCachedClient client = new MemCachedClient(poolName, true, false);
 			cache = new MemcachedCache(client);
 		}
+		if (compressThreshold > 0) {
+			// 2.6版本的MemCachedClient写入时不会压缩，setCompressEnable会抛出UnsupportedOperationException，不需要关闭
+			CompressionStats stats = new CompressionStats();
+			CacheCodec delegate = (codec != null) ? codec : new SerializableCodec();
+			cache.setCodec(new CompressingCodec(delegate, compressThreshold, stats));
+			compressionStats.put(poolName, stats);
+		} else {
+			cache.setCodec(codec);
+		}
+		if (namespaced) {
+			cache.setNamespace(new PoolNamespace(poolName, namespaceLeaseTime));
+		}
 		return cache;
 	}
 
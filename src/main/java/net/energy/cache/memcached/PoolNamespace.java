@@ -0,0 +1,157 @@
+package net.energy.cache.memcached;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 缓存池的命名空间，用于在共享的Memcached服务器上按缓存池清除缓存对象：
+ * 
+ * <pre>
+ * 1、每个缓存池在服务器上有一个代数计数器（generationKey），所有key都加上“缓存池#代数:”前缀后再存取；
+ * 2、清除缓存池时只需要将代数加1，旧的缓存对象不会再被访问，由Memcached自然淘汰，不影响其他缓存池；
+ * 3、代数在本地缓存租约时间（leaseTime），其他节点清除缓存池后，本节点最多在租约时间内仍然使用旧的代数；
+ * 4、代数计数器不存在时以当前时间（秒）作为初始值，计数器被淘汰后重新创建的代数不会与旧的代数重复；
+ * 5、加上前缀后超过Memcached的250字节限制时，前缀后面的key转换为MD5摘要。
+ * </pre>
+ * 
+ * 注意：启用命名空间后key的格式发生变化，共享缓存池的所有节点必须使用相同的配置
+ * 
+ * @author wuqh
+ * @see MemcachedCache
+ */
+public class PoolNamespace {
+	private static final String GENERATION_KEY_PREFIX = "namespace:";
+	/**
+	 * Memcached允许的最大key长度（字节）
+	 */
+	private static final int MAX_KEY_LENGTH = 250;
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+	private static final ThreadLocal<MessageDigest> DIGESTS = new ThreadLocal<MessageDigest>() {
+		@Override
+		protected MessageDigest initialValue() {
+			try {
+				return MessageDigest.getInstance("MD5");
+			} catch (NoSuchAlgorithmException e) {
+				throw new IllegalStateException("当前JVM不支持MD5", e);
+			}
+		}
+	};
+
+	private final String pool;
+	private final String generationKey;
+	private final long leaseNanos;
+	private final AtomicReference<Lease> lease = new AtomicReference<Lease>();
+
+	/**
+	 * @param pool
+	 *            缓存池名称
+	 * @param leaseTime
+	 *            代数的本地租约时间，单位：毫秒
+	 */
+	public PoolNamespace(String pool, long leaseTime) {
+		this.pool = pool;
+		this.generationKey = GENERATION_KEY_PREFIX + pool;
+		this.leaseNanos = TimeUnit.MILLISECONDS.toNanos(leaseTime);
+	}
+
+	/**
+	 * 存放代数计数器的key，此key本身不加前缀
+	 * 
+	 * @return
+	 */
+	public String getGenerationKey() {
+		return generationKey;
+	}
+
+	/**
+	 * 代数计数器不存在时使用的初始值
+	 * 
+	 * @return
+	 */
+	public long getInitialGeneration() {
+		return System.currentTimeMillis() / 1000;
+	}
+
+	/**
+	 * 获取租约内的代数
+	 * 
+	 * @return 没有租约或者租约已经过期时返回0
+	 */
+	public long getLeasedGeneration() {
+		Lease current = lease.get();
+		if (current == null || current.isExpired(System.nanoTime())) {
+			return 0L;
+		}
+		return current.generation;
+	}
+
+	/**
+	 * 记录从服务器获取（或者更新）的代数，并开始新的租约。租约内的代数只增不减
+	 * 
+	 * @param generation
+	 */
+	public void lease(long generation) {
+		if (generation <= 0) {
+			return;
+		}
+		long now = System.nanoTime();
+		Lease updated = new Lease(generation, now + leaseNanos);
+		while (true) {
+			Lease current = lease.get();
+			if (current != null && !current.isExpired(now) && current.generation > generation) {
+				return;
+			}
+			if (lease.compareAndSet(current, updated)) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * 将代数加入key的前缀。key在生成时可能已经被摘要到250字节以内，加上前缀后仍然可能超过限制，
+	 * 此时将前缀后面的key转换为MD5摘要
+	 * 
+	 * @param key
+	 * @param generation
+	 * @return
+	 */
+	public String fold(String key, long generation) {
+		String folded = pool + "#" + generation + ":" + key;
+		// 字符数*3仍不超过限制时，UTF-8字节数一定不会超过限制，不需要编码
+		if (folded.length() * 3 <= MAX_KEY_LENGTH || folded.getBytes(UTF_8).length <= MAX_KEY_LENGTH) {
+			return folded;
+		}
+
+		MessageDigest digest = DIGESTS.get();
+		digest.reset();
+		byte[] md5 = digest.digest(key.getBytes(UTF_8));
+		StringBuilder builder = new StringBuilder(folded.length() - key.length() + md5.length * 2);
+		builder.append(folded, 0, folded.length() - key.length());
+		for (byte b : md5) {
+			builder.append(HEX[(b >> 4) & 0x0F]).append(HEX[b & 0x0F]);
+		}
+		return builder.toString();
+	}
+
+	public String getPool() {
+		return pool;
+	}
+
+	private static class Lease {
+		private final long generation;
+		private final long expireNanos;
+
+		Lease(long generation, long expireNanos) {
+			this.generation = generation;
+			this.expireNanos = expireNanos;
+		}
+
+		boolean isExpired(long now) {
+			return now - expireNanos >= 0;
+		}
+	}
+}
@@ -0,0 +1,91 @@
+package net.energy.cache.memcached;
+
+import java.io.IOException;
+import java.io.ObjectStreamException;
+import java.io.UnsupportedEncodingException;
+import java.nio.BufferUnderflowException;
+
+import com.danga.MemCached.ErrorHandler;
+import com.danga.MemCached.MemCachedClient;
+
+/**
+ * 一致性hash环上每台服务器的MemCachedClient使用的ErrorHandler，只有连接失败或者读写socket出错时才将服务器从环中移除。
+ * 
+ * <pre>
+ * 1、MemCachedClient在取不到连接、读写socket出错时会调用ErrorHandler，传入的IOException表示服务器不可用，
+ *    服务器关闭连接后读取响应会抛出BufferUnderflowException，同样表示服务器不可用；
+ * 2、服务器返回的SERVER_ERROR、CLIENT_ERROR（如：对象超过大小限制、key不合法）只会让操作返回false，不会调用ErrorHandler，
+ *    这些错误与服务器是否可用无关，一个过大的对象不能让正常的服务器失效并重新分配它的所有key；
+ * 3、序列化、反序列化失败（ObjectStreamException、ClassNotFoundException）以及编码错误同样不会移除服务器。
+ * </pre>
+ * 
+ * 注意：MemCachedClient回调时传入的是内部的客户端实例，所以每台服务器需要使用独立的ErrorHandler
+ * 
+ * @author wuqh
+ * @see KetamaRing
+ */
+class RingErrorHandler implements ErrorHandler {
+	private final KetamaRing<MemCachedClient> ring;
+	private volatile MemCachedClient server;
+
+	RingErrorHandler(KetamaRing<MemCachedClient> ring) {
+		this.ring = ring;
+	}
+
+	/**
+	 * MemCachedClient创建时需要传入ErrorHandler，所以创建后再设置对应的服务器
+	 * 
+	 * @param server
+	 */
+	void setServer(MemCachedClient server) {
+		this.server = server;
+	}
+
+	@Override
+	public void handleErrorOnInit(MemCachedClient client, Throwable error) {
+	}
+
+	@Override
+	public void handleErrorOnGet(MemCachedClient client, Throwable error, String key) {
+		markDeadIfUnreachable(error);
+	}
+
+	@Override
+	public void handleErrorOnGet(MemCachedClient client, Throwable error, String[] keys) {
+		markDeadIfUnreachable(error);
+	}
+
+	@Override
+	public void handleErrorOnSet(MemCachedClient client, Throwable error, String key) {
+		markDeadIfUnreachable(error);
+	}
+
+	@Override
+	public void handleErrorOnDelete(MemCachedClient client, Throwable error, String key) {
+		markDeadIfUnreachable(error);
+	}
+
+	@Override
+	public void handleErrorOnFlush(MemCachedClient client, Throwable error) {
+		markDeadIfUnreachable(error);
+	}
+
+	@Override
+	public void handleErrorOnStats(MemCachedClient client, Throwable error) {
+	}
+
+	private void markDeadIfUnreachable(Throwable error) {
+		MemCachedClient failed = server;
+		if (failed != null && isConnectionFailure(error)) {
+			ring.markDead(failed);
+		}
+	}
+
+	static boolean isConnectionFailure(Throwable error) {
+		if (error instanceof BufferUnderflowException) {
+			return true;
+		}
+		return (error instanceof IOException) && !(error instanceof ObjectStreamException)
+				&& !(error instanceof UnsupportedEncodingException);
+	}
+}
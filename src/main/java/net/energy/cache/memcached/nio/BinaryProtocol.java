@@ -0,0 +1,108 @@
+package net.energy.cache.memcached.nio;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Memcached二进制协议的常量定义以及请求的编码
+ * 
+ * <pre>
+ * 请求和响应的头部都是24个字节：
+ * magic(1) opcode(1) key长度(2) extras长度(1) 数据类型(1) vbucket/状态(2) body总长度(4) opaque(4) cas(8)
+ * </pre>
+ * 
+ * @author wuqh
+ * 
+ */
+final class BinaryProtocol {
+	static final Charset UTF8 = Charset.forName("UTF-8");
+
+	static final int HEADER_SIZE = 24;
+	static final int MAX_KEY_LENGTH = 250;
+
+	static final byte REQUEST_MAGIC = (byte) 0x80;
+	static final byte RESPONSE_MAGIC = (byte) 0x81;
+
+	static final byte OP_GET = 0x00;
+	static final byte OP_SET = 0x01;
+	static final byte OP_ADD = 0x02;
+	static final byte OP_DELETE = 0x04;
+	static final byte OP_INCREMENT = 0x05;
+	static final byte OP_FLUSH = 0x08;
+	static final byte OP_NOOP = 0x0a;
+	static final byte OP_GETKQ = 0x0d;
+	static final byte OP_DELETEQ = 0x14;
+
+	static final short STATUS_OK = 0x0000;
+	static final short STATUS_KEY_NOT_FOUND = 0x0001;
+	static final short STATUS_KEY_EXISTS = 0x0002;
+	static final short STATUS_NOT_STORED = 0x0005;
+	static final short STATUS_NON_NUMERIC = 0x0006;
+
+	private static final byte[] EMPTY = new byte[0];
+
+	private BinaryProtocol() {
+	}
+
+	/**
+	 * 将key编码为字节数组，key的长度不能超过250个字节
+	 * 
+	 * @param key
+	 * @return
+	 */
+	static byte[] encodeKey(String key) {
+		byte[] bytes = key.getBytes(UTF8);
+		if (bytes.length == 0 || bytes.length > MAX_KEY_LENGTH) {
+			throw new IllegalArgumentException("Memcached的Key[" + key + "]长度必须在1到" + MAX_KEY_LENGTH + "个字节之间");
+		}
+		return bytes;
+	}
+
+	static ByteBuffer request(byte opcode, int opaque, byte[] extras, byte[] key, byte[] value) {
+		ByteBuffer buffer = ByteBuffer.allocate(requestSize(extras, key, value));
+		writeRequest(buffer, opcode, opaque, extras, key, value);
+		buffer.flip();
+		return buffer;
+	}
+
+	static int requestSize(byte[] extras, byte[] key, byte[] value) {
+		return HEADER_SIZE + length(extras) + length(key) + length(value);
+	}
+
+	static void writeRequest(ByteBuffer buffer, byte opcode, int opaque, byte[] extras, byte[] key, byte[] value) {
+		buffer.put(REQUEST_MAGIC);
+		buffer.put(opcode);
+		buffer.putShort((short) length(key));
+		buffer.put((byte) length(extras));
+		buffer.put((byte) 0); // data type
+		buffer.putShort((short) 0); // vbucket
+		buffer.putInt(length(extras) + length(key) + length(value));
+		buffer.putInt(opaque);
+		buffer.putLong(0L); // cas
+		buffer.put(nullToEmpty(extras));
+		buffer.put(nullToEmpty(key));
+		buffer.put(nullToEmpty(value));
+	}
+
+	/**
+	 * set、add操作的extras：flags(4) 过期时间(4)
+	 */
+	static byte[] storeExtras(int flags, int expiration) {
+		return ByteBuffer.allocate(8).putInt(flags).putInt(expiration).array();
+	}
+
+	/**
+	 * incr操作的extras：增量(8) 初始值(8) 过期时间(4)
+	 */
+	static byte[] incrExtras(long delta, long initial, int expiration) {
+		return ByteBuffer.allocate(20).putLong(delta).putLong(initial).putInt(expiration).array();
+	}
+
+	private static int length(byte[] bytes) {
+		return (bytes == null) ? 0 : bytes.length;
+	}
+
+	private static byte[] nullToEmpty(byte[] bytes) {
+		return (bytes == null) ? EMPTY : bytes;
+	}
+}
@@ -0,0 +1,301 @@
+package net.energy.cache.memcached.nio;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.energy.exception.CacheUnreachableException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 到一台Memcached服务器的非阻塞连接。
+ * 
+ * <pre>
+ * 1、调用线程只负责把操作放入发送队列，连接的建立、数据的读写都在NioMemcachedClient的IO线程中完成；
+ * 2、请求连续发送而不等待响应（pipelining），多个请求合并为一次write；
+ * 3、Memcached按照请求的顺序返回响应，所以已发送的操作按顺序排队，依次处理响应；
+ * 4、连接出错时所有未完成的操作都会失败，重连间隔内新的操作直接失败。
+ * </pre>
+ * 
+ * @author wuqh
+ * 
+ */
+class NioConnection {
+	private static final Logger LOGGER = LoggerFactory.getLogger(NioConnection.class);
+	private static final int MAX_WRITE_BATCH = 64;
+	private static final int INIT_READ_BUFFER_SIZE = 64 * 1024;
+
+	private static final int DISCONNECTED = 0;
+	private static final int CONNECTING = 1;
+	private static final int CONNECTED = 2;
+
+	private final InetSocketAddress address;
+	private final long connectTimeout;
+	private final long reconnectTime;
+	private final int maxPendingOperations;
+
+	private final Queue<Operation> writeQueue = new ConcurrentLinkedQueue<Operation>();
+	private final AtomicInteger pendingOperations = new AtomicInteger();
+	private final AtomicBoolean writeRequested = new AtomicBoolean();
+	private volatile int state = DISCONNECTED;
+	private volatile long lastFailTime = 0L;
+
+	// 以下字段只在IO线程中访问
+	private final Queue<Operation> inflight = new ArrayDeque<Operation>();
+	private final ByteBuffer[] writeBatch = new ByteBuffer[MAX_WRITE_BATCH];
+	private int writeBatchStart = 0;
+	private int writeBatchSize = 0;
+	private ByteBuffer readBuffer = ByteBuffer.allocate(INIT_READ_BUFFER_SIZE);
+	private SocketChannel channel;
+	private SelectionKey selectionKey;
+	private long connectStartTime;
+
+	NioConnection(InetSocketAddress address, long connectTimeout, long reconnectTime, int maxPendingOperations) {
+		this.address = address;
+		this.connectTimeout = connectTimeout;
+		this.reconnectTime = reconnectTime;
+		this.maxPendingOperations = maxPendingOperations;
+	}
+
+	InetSocketAddress getAddress() {
+		return address;
+	}
+
+	boolean isConnected() {
+		return state == CONNECTED;
+	}
+
+	/**
+	 * 连接失败并且还在重连间隔内
+	 * 
+	 * @return
+	 */
+	boolean isFailed() {
+		return state == DISCONNECTED && System.currentTimeMillis() - lastFailTime < reconnectTime;
+	}
+
+	/**
+	 * 当前未完成的操作数
+	 * 
+	 * @return
+	 */
+	int getPendingOperations() {
+		return pendingOperations.get();
+	}
+
+	/**
+	 * 提交操作（在调用线程中执行）
+	 * 
+	 * @param operation
+	 * @return 是否需要唤醒IO线程
+	 */
+	boolean submit(Operation operation) {
+		if (isFailed()) {
+			throw new CacheUnreachableException("Memcached服务器[" + address + "]连接失败，等待重连");
+		}
+		if (pendingOperations.incrementAndGet() > maxPendingOperations) {
+			pendingOperations.decrementAndGet();
+			throw new CacheUnreachableException("Memcached服务器[" + address + "]未完成的操作超过" + maxPendingOperations);
+		}
+
+		writeQueue.add(operation);
+		return writeRequested.compareAndSet(false, true);
+	}
+
+	/**
+	 * 处理调用线程的写请求：未连接则建立连接，否则发送数据
+	 * 
+	 * @param selector
+	 */
+	void processWriteRequest(Selector selector) {
+		writeRequested.set(false);
+		if (state == DISCONNECTED) {
+			connect(selector);
+		} else if (state == CONNECTED) {
+			write();
+		}
+	}
+
+	private void connect(Selector selector) {
+		state = CONNECTING;
+		connectStartTime = System.currentTimeMillis();
+		try {
+			channel = SocketChannel.open();
+			channel.configureBlocking(false);
+			channel.socket().setTcpNoDelay(true);
+			channel.socket().setKeepAlive(true);
+			selectionKey = channel.register(selector, SelectionKey.OP_CONNECT, this);
+			if (channel.connect(address)) {
+				finishConnect();
+			}
+		} catch (IOException e) {
+			close(e);
+		}
+	}
+
+	void finishConnect() {
+		try {
+			if (!channel.finishConnect()) {
+				return;
+			}
+			state = CONNECTED;
+			selectionKey.interestOps(SelectionKey.OP_READ);
+			if (LOGGER.isDebugEnabled()) {
+				LOGGER.debug("连接Memcached服务器[" + address + "]成功");
+			}
+			write();
+		} catch (IOException e) {
+			close(e);
+		}
+	}
+
+	/**
+	 * 检查连接是否超时（在IO线程中定期调用）
+	 */
+	void checkConnectTimeout() {
+		if (state == CONNECTING && System.currentTimeMillis() - connectStartTime > connectTimeout) {
+			close(new IOException("连接Memcached服务器[" + address + "]超时"));
+		}
+	}
+
+	void write() {
+		try {
+			while (true) {
+				if (writeBatchStart == writeBatchSize) {
+					fillWriteBatch();
+					if (writeBatchSize == 0) {
+						selectionKey.interestOps(SelectionKey.OP_READ);
+						return;
+					}
+				}
+
+				channel.write(writeBatch, writeBatchStart, writeBatchSize - writeBatchStart);
+				while (writeBatchStart < writeBatchSize && !writeBatch[writeBatchStart].hasRemaining()) {
+					writeBatch[writeBatchStart++] = null;
+				}
+				if (writeBatchStart < writeBatchSize) {
+					// socket缓冲区已满，等待可写
+					selectionKey.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+					return;
+				}
+			}
+		} catch (IOException e) {
+			close(e);
+		}
+	}
+
+	private void fillWriteBatch() {
+		writeBatchStart = 0;
+		writeBatchSize = 0;
+		Operation operation;
+		while (writeBatchSize < MAX_WRITE_BATCH && (operation = writeQueue.poll()) != null) {
+			// 调用线程已经放弃等待的操作不再发送
+			if (operation.isCancelled()) {
+				pendingOperations.decrementAndGet();
+				continue;
+			}
+			inflight.add(operation);
+			writeBatch[writeBatchSize++] = operation.getRequest();
+		}
+	}
+
+	void read() {
+		try {
+			int count = channel.read(readBuffer);
+			if (count < 0) {
+				throw new IOException("Memcached服务器[" + address + "]关闭了连接");
+			}
+
+			readBuffer.flip();
+			while (true) {
+				int length = Response.peekLength(readBuffer);
+				if (length < 0) {
+					break;
+				}
+				if (length > readBuffer.capacity()) {
+					// 响应大于缓冲区，需要扩大缓冲区后继续读取
+					ByteBuffer larger = ByteBuffer.allocate(length);
+					larger.put(readBuffer);
+					larger.flip();
+					readBuffer = larger;
+					break;
+				}
+				Response response = Response.read(readBuffer);
+				if (response == null) {
+					break;
+				}
+				dispatch(response);
+			}
+			readBuffer.compact();
+		} catch (IOException e) {
+			close(e);
+		} catch (RuntimeException e) {
+			close(e);
+		}
+	}
+
+	private void dispatch(Response response) {
+		Operation operation = inflight.peek();
+		if (operation == null || operation.getOpaque() != response.getOpaque()) {
+			throw new IllegalStateException("Memcached服务器[" + address + "]的响应与请求不匹配");
+		}
+		if (operation.handle(response)) {
+			inflight.poll();
+			pendingOperations.decrementAndGet();
+			operation.complete();
+		}
+	}
+
+	/**
+	 * 关闭连接，所有未完成的操作都失败
+	 * 
+	 * @param cause
+	 */
+	void close(Throwable cause) {
+		if (state != DISCONNECTED) {
+			LOGGER.info("Memcached服务器[" + address + "]连接断开", cause);
+		}
+		state = DISCONNECTED;
+		lastFailTime = System.currentTimeMillis();
+		if (selectionKey != null) {
+			selectionKey.cancel();
+			selectionKey = null;
+		}
+		if (channel != null) {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				// ignore
+			}
+			channel = null;
+		}
+
+		readBuffer = ByteBuffer.allocate(INIT_READ_BUFFER_SIZE);
+		for (int i = 0; i < writeBatch.length; i++) {
+			writeBatch[i] = null;
+		}
+		writeBatchStart = 0;
+		writeBatchSize = 0;
+
+		failAll(inflight, cause);
+		failAll(writeQueue, cause);
+	}
+
+	private void failAll(Queue<Operation> operations, Throwable cause) {
+		Operation operation;
+		while ((operation = operations.poll()) != null) {
+			pendingOperations.decrementAndGet();
+			operation.fail(cause);
+		}
+	}
+}
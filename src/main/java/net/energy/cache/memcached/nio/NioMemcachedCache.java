@@ -0,0 +1,274 @@
+package net.energy.cache.memcached.nio;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import net.energy.cache.Cache;
+import net.energy.cache.CacheCodec;
+import net.energy.cache.CacheErrorHandler;
+import net.energy.cache.MultiLevelCache;
+import net.energy.cache.memcached.PoolNamespace;
+import net.energy.exception.CacheCodecException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 使用NioMemcachedClient实现的cache。
+ * 缓存对象使用CacheCodec编码后存放（flags为1），计数器以数字字符串的形式存放（flags为0）
+ * 
+ * @author wuqh
+ * @see NioMemcachedClient
+ */
+public class NioMemcachedCache extends MultiLevelCache implements Cache {
+	private static final Logger LOGGER = LoggerFactory.getLogger(NioMemcachedCache.class);
+	private static final int FLAG_ENCODED = 1;
+	/**
+	 * Memcached的过期时间超过30天时被当作绝对时间（秒）处理
+	 */
+	private static final long MAX_RELATIVE_EXPIRATION = 60L * 60 * 24 * 30;
+
+	private final NioMemcachedClient client;
+	private final CacheCodec codec;
+	/**
+	 * 缓存池的命名空间，为null时key不加前缀，清除缓存时使用flushAll
+	 */
+	private PoolNamespace namespace;
+
+	public NioMemcachedCache(NioMemcachedClient client, CacheCodec codec) {
+		this.client = client;
+		this.codec = codec;
+	}
+
+	public void setNamespace(PoolNamespace namespace) {
+		this.namespace = namespace;
+	}
+
+	/**
+	 * 将key转换为服务器上存放的key，启用命名空间时加上缓存池和代数的前缀
+	 * 
+	 * @param key
+	 * @return
+	 */
+	private String toServerKey(String key) {
+		if (namespace == null) {
+			return key;
+		}
+		return namespace.fold(key, getGeneration());
+	}
+
+	/**
+	 * 批量转换key，返回服务器上的key到原始key的映射（保持原始顺序）
+	 * 
+	 * @param keys
+	 * @return
+	 */
+	private Map<String, String> toServerKeys(String... keys) {
+		Map<String, String> serverKeys = new LinkedHashMap<String, String>(keys.length * 2);
+		long generation = (namespace == null) ? 0L : getGeneration();
+		for (String key : keys) {
+			serverKeys.put((namespace == null) ? key : namespace.fold(key, generation), key);
+		}
+		return serverKeys;
+	}
+
+	/**
+	 * 获取命名空间的当前代数，租约过期时从服务器重新获取
+	 * 
+	 * @return
+	 */
+	private long getGeneration() {
+		long generation = namespace.getLeasedGeneration();
+		if (generation > 0) {
+			return generation;
+		}
+		generation = incrCounter(namespace.getGenerationKey(), 0L, namespace.getInitialGeneration(), 0);
+		namespace.lease(generation);
+		return generation;
+	}
+
+	@Override
+	protected void doAdd(final String key, final Object value) {
+		doAdd(key, value, 0L);
+	}
+
+	@Override
+	protected void doAdd(final String key, final Object value, final long expiry) {
+		if (value == null) { // can't set a null value to memcached
+			return;
+		}
+		try {
+			boolean ok = client.set(toServerKey(key), FLAG_ENCODED, codec.encode(value), toExpiration(expiry));
+			if (!ok) {
+				CacheErrorHandler.handleError(new Exception("Memcached：缓存对象[" + value + "]到[" + key + "]失败"));
+			}
+		} catch (CacheCodecException e) {
+			CacheErrorHandler.handleError(e);
+		} catch (IllegalArgumentException e) {
+			CacheErrorHandler.handleError(e);
+		}
+	}
+
+	@Override
+	protected boolean doDelete(final String key) {
+		try {
+			return client.delete(toServerKey(key));
+		} catch (IllegalArgumentException e) {
+			CacheErrorHandler.handleError(e);
+			return false;
+		}
+	}
+
+	@Override
+	protected void doDeleteMulti(final String... keys) {
+		try {
+			client.deleteMulti(toServerKeys(keys).keySet());
+		} catch (IllegalArgumentException e) {
+			CacheErrorHandler.handleError(e);
+		}
+	}
+
+	@Override
+	protected void doRemoveAll() {
+		if (namespace != null) {
+			// 只清除当前缓存池：代数加1后旧的缓存对象不会再被访问
+			try {
+				namespace.lease(incrCounter(namespace.getGenerationKey(), 1L, namespace.getInitialGeneration(), 0));
+			} catch (IllegalArgumentException e) {
+				CacheErrorHandler.handleError(e);
+			}
+			return;
+		}
+
+		boolean ok = client.flushAll();
+		if (!ok) {
+			CacheErrorHandler.handleError(new Exception("Memcached：清除所有缓存对象失败"));
+		}
+	}
+
+	@Override
+	protected Object doGet(final String key) {
+		try {
+			return decode(key, client.get(toServerKey(key)));
+		} catch (IllegalArgumentException e) {
+			CacheErrorHandler.handleError(e);
+			return null;
+		}
+	}
+
+	@Override
+	protected Map<String, Object> doGetMulti(final String... keys) {
+		Map<String, String> serverKeys;
+		Map<String, Response> responses;
+		try {
+			serverKeys = toServerKeys(keys);
+			responses = client.getMulti(serverKeys.keySet());
+		} catch (IllegalArgumentException e) {
+			CacheErrorHandler.handleError(e);
+			return null;
+		}
+
+		Map<String, Object> result = new HashMap<String, Object>(responses.size() * 2);
+		for (Map.Entry<String, Response> entry : responses.entrySet()) {
+			String key = serverKeys.get(entry.getKey());
+			Object value = decode(key, entry.getValue());
+			if (value != null && key != null) {
+				result.put(key, value);
+			}
+		}
+		return result;
+	}
+
+	@Override
+	protected boolean doKeyExists(final String key) {
+		try {
+			return client.get(toServerKey(key)) != null;
+		} catch (IllegalArgumentException e) {
+			CacheErrorHandler.handleError(e);
+			return false;
+		}
+	}
+
+	@Override
+	protected long doIncr(final String key, final long delta, final long initial, final long expiry) {
+		try {
+			return incrCounter(toServerKey(key), delta, initial, toExpiration(expiry));
+		} catch (IllegalArgumentException e) {
+			CacheErrorHandler.handleError(e);
+			return 0L;
+		}
+	}
+
+	private long incrCounter(final String key, final long delta, final long initial, final int expiration) {
+		Long value = client.incr(key, delta, initial, expiration);
+		if (value != null) {
+			return value;
+		}
+
+		// 旧的非数字值无法incr，直接覆盖
+		if (!client.set(key, 0, String.valueOf(initial).getBytes(BinaryProtocol.UTF8), expiration)) {
+			CacheErrorHandler.handleError(new Exception("Memcached：增加计数器[" + key + "]失败"));
+		}
+		return initial;
+	}
+
+	@Override
+	protected Map<String, Long> doIncrMulti(final long delta, final long initial, final long expiry,
+			final String... keys) {
+		try {
+			int expiration = toExpiration(expiry);
+			Map<String, String> serverKeys = toServerKeys(keys);
+			Map<String, Long> values = client.incrMulti(serverKeys.keySet(), delta, initial, expiration);
+			Map<String, Long> result = new LinkedHashMap<String, Long>(values.size() * 2);
+			for (Map.Entry<String, Long> entry : values.entrySet()) {
+				Long value = entry.getValue();
+				if (value == null) {
+					// 旧的非数字值无法incr，直接覆盖
+					if (!client.set(entry.getKey(), 0, String.valueOf(initial).getBytes(BinaryProtocol.UTF8), expiration)) {
+						CacheErrorHandler.handleError(new Exception("Memcached：增加计数器[" + entry.getKey() + "]失败"));
+					}
+					value = initial;
+				}
+				result.put(serverKeys.get(entry.getKey()), value);
+			}
+			return result;
+		} catch (IllegalArgumentException e) {
+			CacheErrorHandler.handleError(e);
+			return null;
+		}
+	}
+
+	private Object decode(String key, Response response) {
+		if (response == null) {
+			return null;
+		}
+		if ((response.getFlags() & FLAG_ENCODED) == 0) {
+			// 计数器
+			return new String(response.getValue(), BinaryProtocol.UTF8);
+		}
+		try {
+			return codec.decode(response.getValue());
+		} catch (CacheCodecException e) {
+			LOGGER.info("Memcached：解码缓存Key[" + key + "]对应的对象失败，当作未命中处理", e);
+			return null;
+		}
+	}
+
+	/**
+	 * 将过期时间（毫秒）转换为Memcached的过期时间（秒）
+	 * 
+	 * @param expiry
+	 * @return
+	 */
+	private static int toExpiration(long expiry) {
+		if (expiry <= 0) {
+			return 0;
+		}
+		long seconds = (expiry + 999) / 1000;
+		if (seconds > MAX_RELATIVE_EXPIRATION) {
+			seconds += System.currentTimeMillis() / 1000;
+		}
+		return (int) seconds;
+	}
+}
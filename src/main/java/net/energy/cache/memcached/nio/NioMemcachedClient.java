@@ -0,0 +1,485 @@
+package net.energy.cache.memcached.nio;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.energy.cache.memcached.KetamaRing;
+import net.energy.exception.CacheUnreachableException;
+import net.energy.utils.Assert;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 基于NIO的Memcached客户端，使用二进制协议。
+ * 
+ * <pre>
+ * 1、所有连接共享一个IO线程（Selector），调用线程提交操作后等待结果，不占用连接；
+ * 2、每台服务器只需要很少的连接（默认1个），同一连接上的请求连续发送（pipelining）；
+ * 3、批量获取使用GETKQ + NOOP，一台服务器上的所有key只需要一次往返；
+ * 4、使用ketama一致性hash路由，连接失败的服务器暂时从环中移除，重连间隔之后再加入。
+ * </pre>
+ * 
+ * @author wuqh
+ * 
+ */
+public class NioMemcachedClient {
+	private static final Logger LOGGER = LoggerFactory.getLogger(NioMemcachedClient.class);
+	private static final long SELECT_TIMEOUT = 100L;
+	private static final AtomicInteger CLIENT_NUMBER = new AtomicInteger(1);
+
+	private final NioConnection[][] connections;
+	private final KetamaRing<NioConnection[]> ring;
+	private final long operationTimeout;
+	private final Selector selector;
+	private final Queue<NioConnection> writeRequests = new ConcurrentLinkedQueue<NioConnection>();
+	private final AtomicInteger opaqueGenerator = new AtomicInteger();
+	private final Thread ioThread;
+	private volatile boolean running = true;
+
+	/**
+	 * @param servers
+	 *            服务器地址，格式为host:port
+	 * @param weights
+	 *            服务器权重，为null时权重都为1
+	 * @param connectionsPerServer
+	 *            每台服务器的连接数
+	 * @param operationTimeout
+	 *            操作超时时间，单位：毫秒
+	 * @param connectTimeout
+	 *            连接超时时间，单位：毫秒
+	 * @param reconnectTime
+	 *            连接失败后的重连间隔，单位：毫秒
+	 * @param maxPendingOperations
+	 *            每个连接上最多未完成的操作数
+	 */
+	public NioMemcachedClient(String[] servers, Integer[] weights, int connectionsPerServer, long operationTimeout, long connectTimeout,
+			long reconnectTime, int maxPendingOperations) {
+		Assert.notNull(servers, "Servers必须设置");
+		this.operationTimeout = operationTimeout;
+
+		int perServer = Math.max(1, connectionsPerServer);
+		connections = new NioConnection[servers.length][perServer];
+		ring = new KetamaRing<NioConnection[]>(reconnectTime);
+		for (int i = 0; i < servers.length; i++) {
+			InetSocketAddress address = parseAddress(servers[i]);
+			for (int j = 0; j < perServer; j++) {
+				connections[i][j] = new NioConnection(address, connectTimeout, reconnectTime, maxPendingOperations);
+			}
+			int weight = (weights != null && i < weights.length && weights[i] != null) ? weights[i] : 1;
+			ring.addNode(connections[i], servers[i].trim(), weight);
+		}
+
+		try {
+			selector = Selector.open();
+		} catch (IOException e) {
+			throw new CacheUnreachableException("创建Selector失败", e);
+		}
+		ioThread = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				ioLoop();
+			}
+		}, "energy-memcached-io-" + CLIENT_NUMBER.getAndIncrement());
+		ioThread.setDaemon(true);
+		ioThread.start();
+	}
+
+	private static InetSocketAddress parseAddress(String server) {
+		int index = server.lastIndexOf(':');
+		if (index <= 0) {
+			throw new IllegalArgumentException("Memcached服务器地址[" + server + "]格式错误，应该为host:port");
+		}
+		return new InetSocketAddress(server.substring(0, index).trim(), Integer.parseInt(server.substring(index + 1)
+				.trim()));
+	}
+
+	/**
+	 * 关闭客户端，所有未完成的操作都会失败
+	 */
+	public void shutdown() {
+		running = false;
+		selector.wakeup();
+	}
+
+	private void ioLoop() {
+		while (running) {
+			try {
+				selector.select(SELECT_TIMEOUT);
+
+				NioConnection requested;
+				while ((requested = writeRequests.poll()) != null) {
+					requested.processWriteRequest(selector);
+				}
+
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					NioConnection connection = (NioConnection) key.attachment();
+					if (!key.isValid()) {
+						continue;
+					}
+					if (key.isConnectable()) {
+						connection.finishConnect();
+						continue;
+					}
+					if (key.isReadable()) {
+						connection.read();
+					}
+					if (key.isValid() && key.isWritable()) {
+						connection.write();
+					}
+				}
+
+				for (NioConnection[] serverConnections : connections) {
+					for (NioConnection connection : serverConnections) {
+						connection.checkConnectTimeout();
+					}
+				}
+			} catch (Throwable e) {
+				LOGGER.info("Memcached IO线程处理失败", e);
+			}
+		}
+
+		CacheUnreachableException cause = new CacheUnreachableException("Memcached客户端已经关闭");
+		for (NioConnection[] serverConnections : connections) {
+			for (NioConnection connection : serverConnections) {
+				connection.close(cause);
+			}
+		}
+		try {
+			selector.close();
+		} catch (IOException e) {
+			// ignore
+		}
+	}
+
+	/**
+	 * 根据key选择连接
+	 * 
+	 * @param key
+	 * @return
+	 */
+	NioConnection locate(byte[] key) {
+		NioConnection[] serverConnections = ring.locate(key);
+		if (serverConnections[0].isFailed()) {
+			// 服务器连接失败，暂时从环中移除，key由下一台服务器接管
+			ring.markDead(serverConnections);
+			serverConnections = ring.locate(key);
+		}
+		if (serverConnections.length == 1) {
+			return serverConnections[0];
+		}
+		return serverConnections[(int) (KetamaRing.hash(key) % serverConnections.length)];
+	}
+
+	private int nextOpaque() {
+		return opaqueGenerator.incrementAndGet();
+	}
+
+	private void submit(NioConnection connection, Operation operation) {
+		if (!running) {
+			throw new CacheUnreachableException("Memcached客户端已经关闭");
+		}
+		if (connection.submit(operation)) {
+			writeRequests.add(connection);
+			selector.wakeup();
+		}
+	}
+
+	private Response execute(byte[] key, byte opcode, byte[] extras, byte[] value) {
+		final int opaque = nextOpaque();
+		final Response[] holder = new Response[1];
+		Operation operation = new Operation(BinaryProtocol.request(opcode, opaque, extras, key, value), opaque) {
+
+			@Override
+			boolean handle(Response response) {
+				holder[0] = response;
+				return true;
+			}
+		};
+		submit(locate(key), operation);
+		operation.await(operationTimeout);
+		return holder[0];
+	}
+
+	/**
+	 * 获取缓存对象
+	 * 
+	 * @param key
+	 * @return 不存在时返回null
+	 */
+	Response get(String key) {
+		Response response = execute(BinaryProtocol.encodeKey(key), BinaryProtocol.OP_GET, null, null);
+		return response.isSuccess() ? response : null;
+	}
+
+	/**
+	 * 批量获取缓存对象，每台服务器（连接）上的key只需要一次往返
+	 * 
+	 * @param keys
+	 * @return 存在的key以及对应的响应
+	 */
+	Map<String, Response> getMulti(Collection<String> keys) {
+		Map<NioConnection, List<byte[]>> keysByConnection = groupByConnection(keys);
+
+		final Map<String, Response> result = new HashMap<String, Response>(keys.size());
+		List<Operation> operations = new ArrayList<Operation>(keysByConnection.size());
+		for (Map.Entry<NioConnection, List<byte[]>> entry : keysByConnection.entrySet()) {
+			final int opaque = nextOpaque();
+			List<byte[]> connectionKeys = entry.getValue();
+			int size = BinaryProtocol.requestSize(null, null, null);
+			for (byte[] key : connectionKeys) {
+				size += BinaryProtocol.requestSize(null, key, null);
+			}
+			ByteBuffer request = ByteBuffer.allocate(size);
+			for (byte[] key : connectionKeys) {
+				BinaryProtocol.writeRequest(request, BinaryProtocol.OP_GETKQ, opaque, null, key, null);
+			}
+			BinaryProtocol.writeRequest(request, BinaryProtocol.OP_NOOP, opaque, null, null, null);
+			request.flip();
+
+			Operation operation = new Operation(request, opaque) {
+
+				@Override
+				boolean handle(Response response) {
+					if (response.getOpcode() == BinaryProtocol.OP_NOOP) {
+						return true;
+					}
+					// GETKQ只返回命中的key，结果在IO线程中写入，调用线程在操作完成后才读取
+					if (response.isSuccess()) {
+						synchronized (result) {
+							result.put(response.getKey(), response);
+						}
+					}
+					return false;
+				}
+			};
+			submit(entry.getKey(), operation);
+			operations.add(operation);
+		}
+
+		awaitAll(operations);
+		synchronized (result) {
+			return result;
+		}
+	}
+
+	/**
+	 * 批量删除缓存对象，每台服务器（连接）上的key只需要一次往返
+	 * 
+	 * @param keys
+	 */
+	void deleteMulti(Collection<String> keys) {
+		Map<NioConnection, List<byte[]>> keysByConnection = groupByConnection(keys);
+
+		List<Operation> operations = new ArrayList<Operation>(keysByConnection.size());
+		for (Map.Entry<NioConnection, List<byte[]>> entry : keysByConnection.entrySet()) {
+			final int opaque = nextOpaque();
+			List<byte[]> connectionKeys = entry.getValue();
+			int size = BinaryProtocol.requestSize(null, null, null);
+			for (byte[] key : connectionKeys) {
+				size += BinaryProtocol.requestSize(null, key, null);
+			}
+			ByteBuffer request = ByteBuffer.allocate(size);
+			for (byte[] key : connectionKeys) {
+				BinaryProtocol.writeRequest(request, BinaryProtocol.OP_DELETEQ, opaque, null, key, null);
+			}
+			BinaryProtocol.writeRequest(request, BinaryProtocol.OP_NOOP, opaque, null, null, null);
+			request.flip();
+
+			Operation operation = new Operation(request, opaque) {
+
+				@Override
+				boolean handle(Response response) {
+					// DELETEQ只返回失败（如：key不存在）的响应，删除不存在的key不需要处理
+					return response.getOpcode() == BinaryProtocol.OP_NOOP;
+				}
+			};
+			submit(entry.getKey(), operation);
+			operations.add(operation);
+		}
+
+		awaitAll(operations);
+	}
+
+	/**
+	 * 批量增加计数器，每台服务器（连接）上的计数器只需要一次往返
+	 * 
+	 * @param keys
+	 * @param delta
+	 * @param initial
+	 * @param expiration
+	 * @return 计数器的值，值不是数字的计数器对应null
+	 */
+	Map<String, Long> incrMulti(Collection<String> keys, long delta, long initial, int expiration) {
+		Map<NioConnection, List<byte[]>> keysByConnection = groupByConnection(keys);
+		byte[] extras = BinaryProtocol.incrExtras(delta, initial, expiration);
+
+		final Map<String, Long> result = new HashMap<String, Long>(keys.size() * 2);
+		final List<String> failedKeys = new ArrayList<String>();
+		List<Operation> operations = new ArrayList<Operation>(keysByConnection.size());
+		for (Map.Entry<NioConnection, List<byte[]>> entry : keysByConnection.entrySet()) {
+			final int opaque = nextOpaque();
+			final List<byte[]> connectionKeys = entry.getValue();
+			int size = BinaryProtocol.requestSize(null, null, null);
+			for (byte[] key : connectionKeys) {
+				size += BinaryProtocol.requestSize(extras, key, null);
+			}
+			ByteBuffer request = ByteBuffer.allocate(size);
+			for (byte[] key : connectionKeys) {
+				BinaryProtocol.writeRequest(request, BinaryProtocol.OP_INCREMENT, opaque, extras, key, null);
+			}
+			BinaryProtocol.writeRequest(request, BinaryProtocol.OP_NOOP, opaque, null, null, null);
+			request.flip();
+
+			Operation operation = new Operation(request, opaque) {
+				/**
+				 * INCREMENT的响应中没有key，按请求的顺序对应（只在IO线程中访问）
+				 */
+				private int index;
+
+				@Override
+				boolean handle(Response response) {
+					if (response.getOpcode() == BinaryProtocol.OP_NOOP) {
+						return true;
+					}
+					String key = new String(connectionKeys.get(index++), BinaryProtocol.UTF8);
+					synchronized (result) {
+						if (response.isSuccess()) {
+							result.put(key, response.getCounter());
+						} else if (response.getStatus() == BinaryProtocol.STATUS_NON_NUMERIC) {
+							result.put(key, null);
+						} else {
+							failedKeys.add(key + "(" + response.getStatus() + ")");
+						}
+					}
+					return false;
+				}
+			};
+			submit(entry.getKey(), operation);
+			operations.add(operation);
+		}
+
+		awaitAll(operations);
+		synchronized (result) {
+			if (!failedKeys.isEmpty()) {
+				throw new CacheUnreachableException("增加计数器" + failedKeys + "失败");
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * 将key按照所在的连接分组
+	 * 
+	 * @param keys
+	 * @return
+	 */
+	private Map<NioConnection, List<byte[]>> groupByConnection(Collection<String> keys) {
+		Map<NioConnection, List<byte[]>> keysByConnection = new LinkedHashMap<NioConnection, List<byte[]>>();
+		for (String key : keys) {
+			byte[] keyBytes = BinaryProtocol.encodeKey(key);
+			NioConnection connection = locate(keyBytes);
+			List<byte[]> connectionKeys = keysByConnection.get(connection);
+			if (connectionKeys == null) {
+				connectionKeys = new ArrayList<byte[]>();
+				keysByConnection.put(connection, connectionKeys);
+			}
+			connectionKeys.add(keyBytes);
+		}
+		return keysByConnection;
+	}
+
+	/**
+	 * 在同一个超时时间内等待所有操作完成
+	 * 
+	 * @param operations
+	 */
+	private void awaitAll(List<Operation> operations) {
+		long deadline = System.currentTimeMillis() + operationTimeout;
+		for (Operation operation : operations) {
+			operation.await(Math.max(1L, deadline - System.currentTimeMillis()));
+		}
+	}
+
+	boolean set(String key, int flags, byte[] value, int expiration) {
+		return execute(BinaryProtocol.encodeKey(key), BinaryProtocol.OP_SET,
+				BinaryProtocol.storeExtras(flags, expiration), value).isSuccess();
+	}
+
+	boolean add(String key, int flags, byte[] value, int expiration) {
+		return execute(BinaryProtocol.encodeKey(key), BinaryProtocol.OP_ADD,
+				BinaryProtocol.storeExtras(flags, expiration), value).isSuccess();
+	}
+
+	boolean delete(String key) {
+		return execute(BinaryProtocol.encodeKey(key), BinaryProtocol.OP_DELETE, null, null).isSuccess();
+	}
+
+	/**
+	 * 原子的增加计数器，计数器不存在时以initial为初始值创建
+	 * 
+	 * @param key
+	 * @param delta
+	 * @param initial
+	 * @param expiration
+	 * @return 计数器的值不是数字时返回null
+	 */
+	Long incr(String key, long delta, long initial, int expiration) {
+		Response response = execute(BinaryProtocol.encodeKey(key), BinaryProtocol.OP_INCREMENT,
+				BinaryProtocol.incrExtras(delta, initial, expiration), null);
+		if (response.isSuccess()) {
+			return response.getCounter();
+		}
+		if (response.getStatus() == BinaryProtocol.STATUS_NON_NUMERIC) {
+			return null;
+		}
+		throw new CacheUnreachableException("增加计数器[" + key + "]失败，状态[" + response.getStatus() + "]");
+	}
+
+	/**
+	 * 清除所有服务器上的缓存对象
+	 * 
+	 * @return 是否全部成功
+	 */
+	boolean flushAll() {
+		List<Operation> operations = new ArrayList<Operation>();
+		final boolean[] success = { true };
+		for (NioConnection[] serverConnections : connections) {
+			int opaque = nextOpaque();
+			Operation operation = new Operation(BinaryProtocol.request(BinaryProtocol.OP_FLUSH, opaque, null, null,
+					null), opaque) {
+
+				@Override
+				boolean handle(Response response) {
+					if (!response.isSuccess()) {
+						success[0] = false;
+					}
+					return true;
+				}
+			};
+			submit(serverConnections[0], operation);
+			operations.add(operation);
+		}
+		for (Operation operation : operations) {
+			operation.await(operationTimeout);
+		}
+		return success[0];
+	}
+}
@@ -0,0 +1,147 @@
+package net.energy.cache.memcached.nio;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import net.energy.cache.CacheCodec;
+import net.energy.cache.CacheManager;
+import net.energy.cache.PooledCacheManager;
+import net.energy.cache.codec.CompressingCodec;
+import net.energy.cache.codec.CompressionStats;
+import net.energy.cache.codec.SerializableCodec;
+import net.energy.cache.memcached.PoolNamespace;
+
+/**
+ * 基于NIO的MemCached客户端的管理类，所有缓存池共享同一个客户端，此类包含了参数配置以及默认值：
+ * 
+ * <pre>
+ * 服务器权重（weights）：默认都为1，按ketama一致性hash路由，
+ * 每台服务器的连接数（connectionsPerServer）：默认1，
+ * 操作超时时间（单位：毫秒）（operationTimeout）：默认1秒 ，
+ * 连接超时时间（单位：毫秒）（connectTimeout）：默认1秒 ，
+ * 连接失败后的重连间隔（单位：毫秒）（reconnectTime）：默认1秒 ，
+ * 每个连接上最多未完成的操作数（maxPendingOperations）：默认16384 ，
+ * 缓存对象编解码器（codec）：默认使用Java序列化 ，
+ * 压缩阈值（单位：字节）（compressThreshold）：默认0，不压缩 ，
+ * 是否按缓存池使用命名空间（namespaced）：默认false，key不加前缀，清除缓存时使用flushAll清除整个Memcached集群；为true时清除缓存只将缓存池的代数加1 ，
+ * 命名空间代数的本地租约时间（单位：毫秒）（namespaceLeaseTime）：默认1秒 ，
+ * </pre>
+ * 
+ * @author wuqh
+ * @see NioMemcachedClient
+ */
+public class NioMemcachedManager extends PooledCacheManager<NioMemcachedCache> implements CacheManager {
+	private final ConcurrentMap<String, CompressionStats> compressionStats = new ConcurrentHashMap<String, CompressionStats>();
+	private NioMemcachedClient client;
+
+	private String[] servers;
+	private Integer[] weights;
+	private int connectionsPerServer = 1;
+	private long operationTimeout = 1000;
+	private long connectTimeout = 1000;
+	private long reconnectTime = 1000;
+	private int maxPendingOperations = 16384;
+	private CacheCodec codec;
+	private int compressThreshold = 0;
+	private boolean namespaced = false;
+	private long namespaceLeaseTime = 1000L;
+
+	public void setServers(String[] servers) {
+		this.servers = servers;
+	}
+
+	public void setWeights(Integer[] weights) {
+		this.weights = weights;
+	}
+
+	public void setConnectionsPerServer(int connectionsPerServer) {
+		this.connectionsPerServer = connectionsPerServer;
+	}
+
+	public void setOperationTimeout(long operationTimeout) {
+		this.operationTimeout = operationTimeout;
+	}
+
+	public void setConnectTimeout(long connectTimeout) {
+		this.connectTimeout = connectTimeout;
+	}
+
+	public void setReconnectTime(long reconnectTime) {
+		this.reconnectTime = reconnectTime;
+	}
+
+	public void setMaxPendingOperations(int maxPendingOperations) {
+		this.maxPendingOperations = maxPendingOperations;
+	}
+
+	public void setCodec(CacheCodec codec) {
+		this.codec = codec;
+	}
+
+	public void setCompressThreshold(int compressThreshold) {
+		this.compressThreshold = compressThreshold;
+	}
+
+	/**
+	 * 启用命名空间时，每个缓存池的key都加上缓存池名称和代数的前缀，清除缓存池（removeAll）只需要将代数加1，
+	 * 不再使用flushAll清除共享Memcached集群上所有缓存池的数据。启用后key的格式发生变化，所有节点必须使用相同的配置
+	 * 
+	 * @param namespaced
+	 * @see PoolNamespace
+	 */
+	public void setNamespaced(boolean namespaced) {
+		this.namespaced = namespaced;
+	}
+
+	/**
+	 * 其他节点清除缓存池后，本节点最多在租约时间内仍然使用旧的代数
+	 * 
+	 * @param namespaceLeaseTime
+	 */
+	public void setNamespaceLeaseTime(long namespaceLeaseTime) {
+		this.namespaceLeaseTime = namespaceLeaseTime;
+	}
+
+	/**
+	 * 获取缓存池的压缩统计信息
+	 * 
+	 * @param poolName
+	 * @return 没有启用压缩时返回null
+	 */
+	public CompressionStats getCompressionStats(String poolName) {
+		return compressionStats.get(poolName.toUpperCase());
+	}
+
+	/**
+	 * 第一次访问缓存池时创建缓存，所有缓存池共享的客户端在第一个缓存池创建时创建
+	 */
+	@Override
+	protected NioMemcachedCache createCache(String poolName) {
+		if (client == null) {
+			client = new NioMemcachedClient(servers, weights, connectionsPerServer, operationTimeout, connectTimeout,
+					reconnectTime, maxPendingOperations);
+		}
+		CacheCodec cacheCodec = (codec != null) ? codec : new SerializableCodec();
+		if (compressThreshold > 0) {
+			CompressionStats stats = new CompressionStats();
+			cacheCodec = new CompressingCodec(cacheCodec, compressThreshold, stats);
+			compressionStats.put(poolName, stats);
+		}
+		NioMemcachedCache cache = new NioMemcachedCache(client, cacheCodec);
+		if (namespaced) {
+			cache.setNamespace(new PoolNamespace(poolName, namespaceLeaseTime));
+		}
+		return cache;
+	}
+
+	/**
+	 * 关闭客户端，释放连接和IO线程
+	 */
+	public synchronized void shutdown() {
+		if (client != null) {
+			client.shutdown();
+			client = null;
+		}
+		clearCaches();
+	}
+}
@@ -0,0 +1,84 @@
+package net.energy.cache.memcached.nio;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import net.energy.exception.CacheUnreachableException;
+
+/**
+ * 一次发送给Memcached的操作，可能包含多个请求（如：批量获取），操作完成后唤醒等待的调用线程
+ * 
+ * @author wuqh
+ * 
+ */
+abstract class Operation {
+	private final ByteBuffer request;
+	private final int opaque;
+	private final CountDownLatch latch = new CountDownLatch(1);
+	private volatile Throwable error;
+	private volatile boolean cancelled;
+
+	Operation(ByteBuffer request, int opaque) {
+		this.request = request;
+		this.opaque = opaque;
+	}
+
+	ByteBuffer getRequest() {
+		return request;
+	}
+
+	int getOpaque() {
+		return opaque;
+	}
+
+	/**
+	 * 处理一个响应（在IO线程中调用）
+	 * 
+	 * @param response
+	 * @return 操作是否已经完成
+	 */
+	abstract boolean handle(Response response);
+
+	void complete() {
+		latch.countDown();
+	}
+
+	void fail(Throwable e) {
+		error = e;
+		latch.countDown();
+	}
+
+	/**
+	 * 调用线程已经不再等待结果（如：超时），还没有发送的请求可以直接丢弃
+	 * 
+	 * @return
+	 */
+	boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * 等待操作完成
+	 * 
+	 * @param timeout
+	 *            单位：毫秒
+	 */
+	void await(long timeout) {
+		boolean done;
+		try {
+			done = latch.await(timeout, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			cancelled = true;
+			throw new CacheUnreachableException("等待Memcached操作完成时被中断", e);
+		}
+		if (!done) {
+			cancelled = true;
+			throw new CacheUnreachableException("Memcached操作超过" + timeout + "毫秒没有完成");
+		}
+		if (error != null) {
+			throw new CacheUnreachableException("Memcached操作失败", error);
+		}
+	}
+}
@@ -0,0 +1,123 @@
+package net.energy.cache.memcached.nio;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Memcached二进制协议的响应
+ * 
+ * @author wuqh
+ * 
+ */
+class Response {
+	private final byte opcode;
+	private final short status;
+	private final int opaque;
+	private final byte[] extras;
+	private final byte[] key;
+	private final byte[] value;
+
+	private Response(byte opcode, short status, int opaque, byte[] extras, byte[] key, byte[] value) {
+		this.opcode = opcode;
+		this.status = status;
+		this.opaque = opaque;
+		this.extras = extras;
+		this.key = key;
+		this.value = value;
+	}
+
+	/**
+	 * 从缓冲区中读取一个完整的响应，缓冲区中的数据不完整时返回null并且不改变缓冲区的位置
+	 * 
+	 * @param buffer
+	 * @return
+	 */
+	static Response read(ByteBuffer buffer) {
+		if (buffer.remaining() < BinaryProtocol.HEADER_SIZE) {
+			return null;
+		}
+		int start = buffer.position();
+		int totalBody = buffer.getInt(start + 8);
+		if (buffer.remaining() < BinaryProtocol.HEADER_SIZE + totalBody) {
+			return null;
+		}
+
+		byte magic = buffer.get();
+		if (magic != BinaryProtocol.RESPONSE_MAGIC) {
+			throw new IllegalStateException("错误的响应标识[" + magic + "]");
+		}
+		byte opcode = buffer.get();
+		int keyLength = buffer.getShort() & 0xFFFF;
+		int extrasLength = buffer.get() & 0xFF;
+		buffer.get(); // data type
+		short status = buffer.getShort();
+		buffer.getInt(); // total body
+		int opaque = buffer.getInt();
+		buffer.getLong(); // cas
+
+		byte[] extras = new byte[extrasLength];
+		buffer.get(extras);
+		byte[] key = new byte[keyLength];
+		buffer.get(key);
+		byte[] value = new byte[totalBody - extrasLength - keyLength];
+		buffer.get(value);
+		return new Response(opcode, status, opaque, extras, key, value);
+	}
+
+	/**
+	 * 获取缓冲区中下一个响应的总长度，数据不足一个头部时返回-1
+	 * 
+	 * @param buffer
+	 * @return
+	 */
+	static int peekLength(ByteBuffer buffer) {
+		if (buffer.remaining() < BinaryProtocol.HEADER_SIZE) {
+			return -1;
+		}
+		return BinaryProtocol.HEADER_SIZE + buffer.getInt(buffer.position() + 8);
+	}
+
+	byte getOpcode() {
+		return opcode;
+	}
+
+	short getStatus() {
+		return status;
+	}
+
+	boolean isSuccess() {
+		return status == BinaryProtocol.STATUS_OK;
+	}
+
+	int getOpaque() {
+		return opaque;
+	}
+
+	/**
+	 * get操作返回的flags，没有时返回0
+	 * 
+	 * @return
+	 */
+	int getFlags() {
+		if (extras.length < 4) {
+			return 0;
+		}
+		return ByteBuffer.wrap(extras).getInt();
+	}
+
+	String getKey() {
+		return new String(key, BinaryProtocol.UTF8);
+	}
+
+	byte[] getValue() {
+		return value;
+	}
+
+	/**
+	 * incr操作返回的计数器值
+	 * 
+	 * @return
+	 */
+	long getCounter() {
+		return ByteBuffer.wrap(value).getLong();
+	}
+}
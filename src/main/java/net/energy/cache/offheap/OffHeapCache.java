@@ -0,0 +1,167 @@
+package net.energy.cache.offheap;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.energy.cache.Cache;
+import net.energy.cache.CacheCodec;
+import net.energy.cache.CacheErrorHandler;
+import net.energy.cache.MultiLevelCache;
+import net.energy.exception.CacheCodecException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 堆外内存实现的cache，缓存对象编码后存放在堆外内存中，不占用堆内存，可以用作大容量的本地缓存。
+ * 
+ * <pre>
+ * 1、容量按字节计算，空间不足时淘汰最早写入的对象；
+ * 2、每个对象可以设置独立的过期时间；
+ * 3、读取时需要解码，适合对象较大、数量较多，而且堆内存压力较大的场景。
+ * </pre>
+ * 
+ * @author wuqh
+ * @see OffHeapStore
+ */
+public class OffHeapCache extends MultiLevelCache implements Cache {
+	private static final Logger LOGGER = LoggerFactory.getLogger(OffHeapCache.class);
+	private static final int COUNTER_LOCKS = 64;
+
+	private final OffHeapStore store;
+	private final CacheCodec codec;
+	private final Object[] counterLocks = new Object[COUNTER_LOCKS];
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * @param capacity
+	 *            容量，单位：字节
+	 * @param concurrency
+	 *            分段数
+	 * @param codec
+	 */
+	public OffHeapCache(long capacity, int concurrency, CacheCodec codec) {
+		this.store = new OffHeapStore(capacity, concurrency);
+		this.codec = codec;
+		for (int i = 0; i < COUNTER_LOCKS; i++) {
+			counterLocks[i] = new Object();
+		}
+	}
+
+	@Override
+	protected void doAdd(final String key, final Object value) {
+		doAdd(key, value, 0L);
+	}
+
+	@Override
+	protected void doAdd(final String key, final Object value, final long expiry) {
+		byte[] keyBytes = OffHeapStore.encodeKey(key);
+		if (value == null) {
+			store.remove(keyBytes);
+			return;
+		}
+		try {
+			long expireAt = (expiry > 0) ? System.currentTimeMillis() + expiry : 0L;
+			if (!store.put(keyBytes, codec.encode(value), expireAt)) {
+				LOGGER.info("缓存对象[" + key + "]超过了堆外缓存分段的容量，无法缓存");
+				// 删除旧值，避免读到过期的数据
+				store.remove(keyBytes);
+			}
+		} catch (CacheCodecException e) {
+			CacheErrorHandler.handleError(e);
+		}
+	}
+
+	@Override
+	protected boolean doDelete(final String key) {
+		return store.remove(OffHeapStore.encodeKey(key));
+	}
+
+	@Override
+	protected void doRemoveAll() {
+		store.clear();
+	}
+
+	@Override
+	protected Object doGet(final String key) {
+		byte[] data = store.get(OffHeapStore.encodeKey(key), System.currentTimeMillis());
+		if (data == null) {
+			misses.incrementAndGet();
+			return null;
+		}
+		try {
+			Object value = codec.decode(data);
+			hits.incrementAndGet();
+			return value;
+		} catch (CacheCodecException e) {
+			LOGGER.info("堆外缓存：解码缓存Key[" + key + "]对应的对象失败，当作未命中处理", e);
+			misses.incrementAndGet();
+			doDelete(key);
+			return null;
+		}
+	}
+
+	@Override
+	protected Map<String, Object> doGetMulti(final String... keys) {
+		Map<String, Object> result = new HashMap<String, Object>(keys.length * 2);
+		for (String key : keys) {
+			Object value = doGet(key);
+			if (value != null) {
+				result.put(key, value);
+			}
+		}
+		return result;
+	}
+
+	@Override
+	protected boolean doKeyExists(final String key) {
+		return store.get(OffHeapStore.encodeKey(key), System.currentTimeMillis()) != null;
+	}
+
+	@Override
+	protected long doIncr(final String key, final long delta, final long initial, final long expiry) {
+		synchronized (counterLocks[(key.hashCode() & Integer.MAX_VALUE) % COUNTER_LOCKS]) {
+			Object current = doGet(key);
+			long value = (current instanceof Number) ? ((Number) current).longValue() + delta : initial;
+			doAdd(key, value, expiry);
+			return value;
+		}
+	}
+
+	/**
+	 * 缓存对象个数（包括已经过期但还没有被清除的对象）
+	 * 
+	 * @return
+	 */
+	public long getSize() {
+		return store.size();
+	}
+
+	/**
+	 * 已经使用的堆外内存，单位：字节
+	 * 
+	 * @return
+	 */
+	public long getUsedBytes() {
+		return store.usedBytes();
+	}
+
+	/**
+	 * 因为空间不足而被淘汰的对象个数
+	 * 
+	 * @return
+	 */
+	public long getEvictionCount() {
+		return store.evictions();
+	}
+
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	public long getMissCount() {
+		return misses.get();
+	}
+}
@@ -0,0 +1,46 @@
+package net.energy.cache.offheap;
+
+import net.energy.cache.CacheCodec;
+import net.energy.cache.CacheManager;
+import net.energy.cache.PooledCacheManager;
+import net.energy.cache.codec.SerializableCodec;
+
+/**
+ * 堆外缓存的管理类，每个缓存池使用独立的堆外内存，此类包含了参数配置以及默认值：
+ * 
+ * <pre>
+ * 每个缓存池的容量（单位：字节）（capacity）：默认256M，
+ * 分段数，即并发写入数（concurrency）：默认16，
+ * 缓存对象编解码器（codec）：默认使用Java序列化，
+ * </pre>
+ * 
+ * @author wuqh
+ * @see OffHeapCache
+ */
+public class OffHeapCacheManager extends PooledCacheManager<OffHeapCache> implements CacheManager {
+	private static final long DEFAULT_CAPACITY = 256L * 1024 * 1024;
+
+	private long capacity = DEFAULT_CAPACITY;
+	private int concurrency = 16;
+	private CacheCodec codec;
+
+	public void setCapacity(long capacity) {
+		this.capacity = capacity;
+	}
+
+	public void setConcurrency(int concurrency) {
+		this.concurrency = concurrency;
+	}
+
+	public void setCodec(CacheCodec codec) {
+		this.codec = codec;
+	}
+
+	/**
+	 * 第一次访问缓存池时分配堆外内存
+	 */
+	@Override
+	protected OffHeapCache createCache(String poolName) {
+		return new OffHeapCache(capacity, concurrency, (codec != null) ? codec : new SerializableCodec());
+	}
+}
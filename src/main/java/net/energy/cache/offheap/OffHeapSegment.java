@@ -0,0 +1,370 @@
+package net.energy.cache.offheap;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 堆外存储的一个分段，由一块堆外内存和一个开放地址的索引组成。
+ * 
+ * <pre>
+ * 1、堆外内存按照环形日志的方式使用：新记录总是追加在尾部，空间不足时从头部开始淘汰最早写入的记录（FIFO）；
+ * 2、记录格式：[记录长度(4)][key的hash(4)][过期时间(8)][key长度(2)][key][value]；
+ * 3、索引是long数组，每个元素由key的hash（高32位）和记录偏移量+1（低32位）组成，0表示空位，
+ *    使用线性探测，删除时后移元素，不需要墓碑；索引中没有任何对象，不会增加GC的负担；
+ * 4、更新和删除只修改索引，旧记录占用的空间在淘汰时回收。
+ * </pre>
+ * 
+ * @author wuqh
+ * 
+ */
+class OffHeapSegment {
+	static final int HEADER_SIZE = 18;
+	private static final int INIT_TABLE_SIZE = 1024;
+
+	private final ByteBuffer slab;
+	private final int capacity;
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	private long[] table = new long[INIT_TABLE_SIZE];
+	private int size = 0;
+
+	/**
+	 * 最早写入的记录的偏移量
+	 */
+	private int head = 0;
+	/**
+	 * 下一条记录写入的偏移量
+	 */
+	private int tail = 0;
+	/**
+	 * 写入位置回绕到开头后，[head, limit)为较早的记录，[0, tail)为较新的记录
+	 */
+	private int limit = 0;
+	private boolean wrapped = false;
+
+	private long evictions = 0;
+
+	OffHeapSegment(int capacity) {
+		this.capacity = capacity;
+		this.slab = ByteBuffer.allocateDirect(capacity);
+	}
+
+	/**
+	 * 获取key对应的value，过期的记录会被删除
+	 * 
+	 * @param key
+	 * @param hash
+	 * @param now
+	 * @return 不存在或者已经过期时返回null
+	 */
+	byte[] get(byte[] key, int hash, long now) {
+		boolean expired = false;
+		lock.readLock().lock();
+		try {
+			int slot = findSlot(key, hash);
+			if (slot < 0) {
+				return null;
+			}
+			int offset = offsetOf(table[slot]);
+			long expireAt = slab.getLong(offset + 8);
+			if (expireAt > 0 && expireAt <= now) {
+				expired = true;
+			} else {
+				int keyLength = slab.getShort(offset + 16);
+				int valueLength = slab.getInt(offset) - HEADER_SIZE - keyLength;
+				byte[] value = new byte[valueLength];
+				ByteBuffer view = slab.duplicate();
+				view.position(offset + HEADER_SIZE + keyLength);
+				view.get(value);
+				return value;
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+
+		if (expired) {
+			removeIfExpired(key, hash, now);
+		}
+		return null;
+	}
+
+	/**
+	 * 写入记录
+	 * 
+	 * @param key
+	 * @param hash
+	 * @param value
+	 * @param expireAt
+	 *            过期时间，0表示不过期
+	 * @return 记录超过分段容量时返回false
+	 */
+	boolean put(byte[] key, int hash, byte[] value, long expireAt) {
+		int recordLength = HEADER_SIZE + key.length + value.length;
+		if (recordLength > capacity || key.length > Short.MAX_VALUE) {
+			return false;
+		}
+
+		lock.writeLock().lock();
+		try {
+			int offset = allocate(recordLength);
+			slab.putInt(offset, recordLength);
+			slab.putInt(offset + 4, hash);
+			slab.putLong(offset + 8, expireAt);
+			slab.putShort(offset + 16, (short) key.length);
+			ByteBuffer view = slab.duplicate();
+			view.position(offset + HEADER_SIZE);
+			view.put(key);
+			view.put(value);
+
+			long entry = ((long) hash << 32) | ((offset + 1) & 0xFFFFFFFFL);
+			int slot = findSlot(key, hash);
+			if (slot >= 0) {
+				table[slot] = entry;
+			} else {
+				table[-slot - 1] = entry;
+				size++;
+				if (size * 2 > table.length) {
+					resize(table.length * 2);
+				}
+			}
+			return true;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	boolean remove(byte[] key, int hash) {
+		lock.writeLock().lock();
+		try {
+			int slot = findSlot(key, hash);
+			if (slot < 0) {
+				return false;
+			}
+			removeSlot(slot);
+			return true;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * 释放读锁后其他线程可能已经写入了新值，获得写锁后需要重新检查过期时间，避免删除新写入的记录
+	 * 
+	 * @param key
+	 * @param hash
+	 * @param now
+	 * @return
+	 */
+	boolean removeIfExpired(byte[] key, int hash, long now) {
+		lock.writeLock().lock();
+		try {
+			int slot = findSlot(key, hash);
+			if (slot < 0) {
+				return false;
+			}
+			long expireAt = slab.getLong(offsetOf(table[slot]) + 8);
+			if (expireAt <= 0 || expireAt > now) {
+				return false;
+			}
+			removeSlot(slot);
+			return true;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	void clear() {
+		lock.writeLock().lock();
+		try {
+			table = new long[INIT_TABLE_SIZE];
+			size = 0;
+			head = 0;
+			tail = 0;
+			limit = 0;
+			wrapped = false;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	int size() {
+		lock.readLock().lock();
+		try {
+			return size;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * 已经使用的字节数（包括已经删除或者被更新、但还没有被淘汰的记录）
+	 * 
+	 * @return
+	 */
+	long usedBytes() {
+		lock.readLock().lock();
+		try {
+			return wrapped ? (limit - head) + tail : tail - head;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	long evictions() {
+		lock.readLock().lock();
+		try {
+			return evictions;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * 分配记录需要的空间，空间不足时从头部淘汰最早写入的记录
+	 * 
+	 * @param recordLength
+	 * @return 记录的偏移量
+	 */
+	private int allocate(int recordLength) {
+		while (true) {
+			if (!wrapped) {
+				if (head == tail) {
+					// 没有任何记录
+					head = 0;
+					tail = 0;
+				}
+				// 分段容量接近Integer.MAX_VALUE时，tail + recordLength可能溢出
+				if (recordLength <= capacity - tail) {
+					int offset = tail;
+					tail += recordLength;
+					return offset;
+				}
+				// 尾部空间不足，回绕到开头
+				limit = tail;
+				tail = 0;
+				wrapped = true;
+			} else {
+				if (recordLength <= head - tail) {
+					int offset = tail;
+					tail += recordLength;
+					return offset;
+				}
+				if (head >= limit) {
+					// 较早的记录已经全部淘汰
+					head = 0;
+					wrapped = false;
+					continue;
+				}
+				head += evict(head);
+			}
+		}
+	}
+
+	/**
+	 * 淘汰偏移量上的记录，如果索引仍然指向这条记录则删除索引
+	 * 
+	 * @param offset
+	 * @return 记录长度
+	 */
+	private int evict(int offset) {
+		int recordLength = slab.getInt(offset);
+		int hash = slab.getInt(offset + 4);
+		long expected = ((long) hash << 32) | ((offset + 1) & 0xFFFFFFFFL);
+		int mask = table.length - 1;
+		for (int slot = indexOf(hash, mask);; slot = (slot + 1) & mask) {
+			long entry = table[slot];
+			if (entry == 0) {
+				break;
+			}
+			if (entry == expected) {
+				removeSlot(slot);
+				evictions++;
+				break;
+			}
+		}
+		return recordLength;
+	}
+
+	/**
+	 * 查找key在索引中的位置
+	 * 
+	 * @param key
+	 * @param hash
+	 * @return 存在时返回位置，不存在时返回(-插入位置-1)
+	 */
+	private int findSlot(byte[] key, int hash) {
+		int mask = table.length - 1;
+		for (int slot = indexOf(hash, mask);; slot = (slot + 1) & mask) {
+			long entry = table[slot];
+			if (entry == 0) {
+				return -slot - 1;
+			}
+			if ((int) (entry >>> 32) == hash && keyEquals(offsetOf(entry), key)) {
+				return slot;
+			}
+		}
+	}
+
+	private boolean keyEquals(int offset, byte[] key) {
+		if (slab.getShort(offset + 16) != key.length) {
+			return false;
+		}
+		int keyOffset = offset + HEADER_SIZE;
+		for (int i = 0; i < key.length; i++) {
+			if (slab.get(keyOffset + i) != key[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * 删除索引中的元素，并将后面探测链上的元素前移
+	 * 
+	 * @param slot
+	 */
+	private void removeSlot(int slot) {
+		int mask = table.length - 1;
+		int hole = slot;
+		table[hole] = 0;
+		size--;
+		for (int next = (hole + 1) & mask; table[next] != 0; next = (next + 1) & mask) {
+			int home = indexOf((int) (table[next] >>> 32), mask);
+			// home在(hole, next]之间（环形）时，元素不能移动到hole
+			boolean between = (hole <= next) ? (hole < home && home <= next) : (hole < home || home <= next);
+			if (!between) {
+				table[hole] = table[next];
+				table[next] = 0;
+				hole = next;
+			}
+		}
+	}
+
+	private void resize(int newSize) {
+		long[] oldTable = table;
+		long[] newTable = new long[newSize];
+		int mask = newSize - 1;
+		for (long entry : oldTable) {
+			if (entry == 0) {
+				continue;
+			}
+			int slot = indexOf((int) (entry >>> 32), mask);
+			while (newTable[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			newTable[slot] = entry;
+		}
+		table = newTable;
+	}
+
+	private static int indexOf(int hash, int mask) {
+		// 高位已经用于选择分段，这里打散后使用低位
+		int h = hash * 0x9E3779B9;
+		return (h ^ (h >>> 16)) & mask;
+	}
+
+	private static int offsetOf(long entry) {
+		return (int) (entry & 0xFFFFFFFFL) - 1;
+	}
+}
@@ -0,0 +1,113 @@
+package net.energy.cache.offheap;
+
+import java.nio.charset.Charset;
+
+/**
+ * 堆外存储，按照key的hash分为多个分段，每个分段有独立的锁和堆外内存
+ * 
+ * @author wuqh
+ * @see OffHeapSegment
+ */
+class OffHeapStore {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	/**
+	 * 单个分段最大容量，记录偏移量使用int表示
+	 */
+	private static final long MAX_SEGMENT_CAPACITY = Integer.MAX_VALUE - 8;
+
+	private final OffHeapSegment[] segments;
+	private final int segmentShift;
+
+	/**
+	 * @param capacity
+	 *            总容量，单位：字节
+	 * @param concurrency
+	 *            分段数，会调整为2的幂
+	 */
+	OffHeapStore(long capacity, int concurrency) {
+		int segmentCount = 1;
+		int shift = 0;
+		while (segmentCount < concurrency) {
+			segmentCount <<= 1;
+			shift++;
+		}
+		long segmentCapacity = Math.min(MAX_SEGMENT_CAPACITY, capacity / segmentCount);
+		if (segmentCapacity < OffHeapSegment.HEADER_SIZE) {
+			throw new IllegalArgumentException("堆外缓存容量[" + capacity + "]过小");
+		}
+
+		segments = new OffHeapSegment[segmentCount];
+		for (int i = 0; i < segmentCount; i++) {
+			segments[i] = new OffHeapSegment((int) segmentCapacity);
+		}
+		segmentShift = 32 - shift;
+	}
+
+	static byte[] encodeKey(String key) {
+		return key.getBytes(UTF8);
+	}
+
+	/**
+	 * FNV-1a hash
+	 * 
+	 * @param key
+	 * @return
+	 */
+	static int hash(byte[] key) {
+		int hash = 0x811C9DC5;
+		for (byte b : key) {
+			hash ^= b;
+			hash *= 0x01000193;
+		}
+		return hash;
+	}
+
+	private OffHeapSegment segmentFor(int hash) {
+		return (segments.length == 1) ? segments[0] : segments[hash >>> segmentShift];
+	}
+
+	byte[] get(byte[] key, long now) {
+		int hash = hash(key);
+		return segmentFor(hash).get(key, hash, now);
+	}
+
+	boolean put(byte[] key, byte[] value, long expireAt) {
+		int hash = hash(key);
+		return segmentFor(hash).put(key, hash, value, expireAt);
+	}
+
+	boolean remove(byte[] key) {
+		int hash = hash(key);
+		return segmentFor(hash).remove(key, hash);
+	}
+
+	void clear() {
+		for (OffHeapSegment segment : segments) {
+			segment.clear();
+		}
+	}
+
+	long size() {
+		long size = 0;
+		for (OffHeapSegment segment : segments) {
+			size += segment.size();
+		}
+		return size;
+	}
+
+	long usedBytes() {
+		long used = 0;
+		for (OffHeapSegment segment : segments) {
+			used += segment.usedBytes();
+		}
+		return used;
+	}
+
+	long evictions() {
+		long evictions = 0;
+		for (OffHeapSegment segment : segments) {
+			evictions += segment.evictions();
+		}
+		return evictions;
+	}
+}
@@ -0,0 +1,557 @@
+package net.energy.cache.tinylfu;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+import net.energy.cache.Cache;
+import net.energy.cache.CacheCodec;
+import net.energy.cache.FrequencySketch;
+import net.energy.cache.MultiLevelCache;
+import net.energy.exception.CacheCodecException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 使用W-TinyLFU淘汰策略的堆内缓存，相比LRU不容易被分页查询之类的扫描式访问污染：
+ * 
+ * <pre>
+ * 1、新写入的对象先进入窗口区（LRU，默认占容量的1%），从窗口区淘汰的对象作为候选者进入主区的试用段；
+ * 2、容量不足时，用{@link FrequencySketch}比较候选者与试用段中最久未访问对象（受害者）的访问频率，频率低的被淘汰；
+ * 3、试用段中再次被访问的对象晋升到保护段（占主区的80%），保护段溢出的对象降级回试用段；
+ * 4、容量按字节计算，对象的大小为编码后的字节数加上固定的额外开销（只在写入时计算一次）；
+ * 5、每个对象可以设置独立的过期时间，过期对象在读取时清除，写入时也会从各队列的尾部清除一部分；
+ * 6、读操作不加锁，访问记录写入按线程分段的有损环形缓冲区，由获得锁的线程批量处理。
+ * </pre>
+ * 
+ * @author wuqh
+ * @see TinyLfuCacheManager
+ */
+public class TinyLfuCache extends MultiLevelCache implements Cache {
+	private static final Logger LOGGER = LoggerFactory.getLogger(TinyLfuCache.class);
+
+	/**
+	 * 每个缓存对象在堆内的额外开销（Map的Entry、Node以及key对象），单位：字节
+	 */
+	private static final int ENTRY_OVERHEAD = 96;
+	private static final int COUNTER_WEIGHT = ENTRY_OVERHEAD + 24;
+	private static final int READ_BUFFER_STRIPES = 16;
+	private static final int READ_BUFFER_SIZE = 32;
+	private static final int READ_BUFFER_MASK = READ_BUFFER_SIZE - 1;
+	/**
+	 * 每个分段中写入多少次访问记录后尝试处理一次
+	 */
+	private static final int DRAIN_THRESHOLD_MASK = 15;
+	private static final double PROTECTED_RATIO = 0.8D;
+	/**
+	 * 每次维护时从各队列尾部检查的过期对象个数
+	 */
+	private static final int EXPIRE_SCAN_LIMIT = 16;
+
+	private static final int WINDOW = 1;
+	private static final int PROBATION = 2;
+	private static final int PROTECTED = 3;
+
+	private final ConcurrentMap<String, Node> data = new ConcurrentHashMap<String, Node>();
+	private final CacheCodec codec;
+	private final FrequencySketch sketch;
+	private final long maxWeight;
+	private final long maxWindowWeight;
+	private final long maxProtectedWeight;
+
+	private final ReentrantLock evictionLock = new ReentrantLock();
+	private final Deque window = new Deque();
+	private final Deque probation = new Deque();
+	private final Deque protectedDeque = new Deque();
+	private long windowWeight;
+	private long probationWeight;
+	private long protectedWeight;
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private final AtomicReferenceArray<Node>[] readBuffers = new AtomicReferenceArray[READ_BUFFER_STRIPES];
+	private final AtomicLong[] readCounts = new AtomicLong[READ_BUFFER_STRIPES];
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	/**
+	 * @param maxWeight
+	 *            容量，单位：字节
+	 * @param windowRatio
+	 *            窗口区占容量的比例
+	 * @param codec
+	 *            用于计算缓存对象的大小
+	 */
+	public TinyLfuCache(long maxWeight, double windowRatio, CacheCodec codec) {
+		this.maxWeight = maxWeight;
+		this.maxWindowWeight = Math.max(1L, (long) (maxWeight * windowRatio));
+		this.maxProtectedWeight = (long) ((maxWeight - maxWindowWeight) * PROTECTED_RATIO);
+		this.codec = codec;
+		// 按平均每个对象512字节估计对象个数，作为计数器的宽度
+		this.sketch = new FrequencySketch((int) Math.min(Math.max(maxWeight / 512, 1024), 1 << 22));
+		for (int i = 0; i < READ_BUFFER_STRIPES; i++) {
+			readBuffers[i] = new AtomicReferenceArray<Node>(READ_BUFFER_SIZE);
+			readCounts[i] = new AtomicLong();
+		}
+	}
+
+	@Override
+	protected void doAdd(final String key, final Object value) {
+		doAdd(key, value, 0L);
+	}
+
+	@Override
+	protected void doAdd(final String key, final Object value, final long expiry) {
+		if (value == null) {
+			doDelete(key);
+			return;
+		}
+
+		int weight = weigh(key, value);
+		if (weight > maxWeight - maxWindowWeight) {
+			LOGGER.info("缓存对象[" + key + "]的大小[" + weight + "]超过了缓存的容量，无法缓存");
+			doDelete(key);
+			return;
+		}
+
+		long expireAt = (expiry > 0) ? System.currentTimeMillis() + expiry : 0L;
+		Node node = new Node(key, value, weight, expireAt);
+		Node old = data.put(key, node);
+		afterWrite(old, node);
+	}
+
+	@Override
+	protected boolean doDelete(final String key) {
+		Node node = data.remove(key);
+		if (node == null) {
+			return false;
+		}
+		afterWrite(node, null);
+		return !node.isExpired(System.currentTimeMillis());
+	}
+
+	@Override
+	protected void doRemoveAll() {
+		evictionLock.lock();
+		try {
+			data.clear();
+			window.clear();
+			probation.clear();
+			protectedDeque.clear();
+			windowWeight = 0L;
+			probationWeight = 0L;
+			protectedWeight = 0L;
+			for (AtomicReferenceArray<Node> buffer : readBuffers) {
+				for (int i = 0; i < READ_BUFFER_SIZE; i++) {
+					buffer.set(i, null);
+				}
+			}
+		} finally {
+			evictionLock.unlock();
+		}
+	}
+
+	@Override
+	protected Object doGet(final String key) {
+		Node node = getNode(key, System.currentTimeMillis());
+		if (node == null) {
+			misses.incrementAndGet();
+			return null;
+		}
+		hits.incrementAndGet();
+		afterRead(node);
+		return node.value;
+	}
+
+	@Override
+	protected Map<String, Object> doGetMulti(final String... keys) {
+		Map<String, Object> result = new HashMap<String, Object>(keys.length * 2);
+		for (String key : keys) {
+			Object value = doGet(key);
+			if (value != null) {
+				result.put(key, value);
+			}
+		}
+		return result;
+	}
+
+	@Override
+	protected boolean doKeyExists(final String key) {
+		return getNode(key, System.currentTimeMillis()) != null;
+	}
+
+	@Override
+	protected long doIncr(final String key, final long delta, final long initial, final long expiry) {
+		long expireAt = (expiry > 0) ? System.currentTimeMillis() + expiry : 0L;
+		while (true) {
+			Node node = getNode(key, System.currentTimeMillis());
+			if (node == null) {
+				Node counter = new Node(key, new AtomicLong(initial), COUNTER_WEIGHT, expireAt);
+				Node old = data.putIfAbsent(key, counter);
+				if (old == null) {
+					afterWrite(null, counter);
+					return initial;
+				}
+				if (old.isExpired(System.currentTimeMillis()) && data.replace(key, old, counter)) {
+					afterWrite(old, counter);
+					return initial;
+				}
+				continue;
+			}
+
+			Object value = node.value;
+			if (value instanceof AtomicLong) {
+				afterRead(node);
+				return ((AtomicLong) value).addAndGet(delta);
+			}
+			// 从高级别缓存复制过来的普通数值（或者无法识别的值），需要替换为AtomicLong实现的计数器
+			long newValue = (value instanceof Number) ? ((Number) value).longValue() + delta : initial;
+			Node counter = new Node(key, new AtomicLong(newValue), COUNTER_WEIGHT, expireAt);
+			if (data.replace(key, node, counter)) {
+				afterWrite(node, counter);
+				return newValue;
+			}
+		}
+	}
+
+	/**
+	 * 获取未过期的节点，过期的节点会被清除
+	 * 
+	 * @param key
+	 * @param now
+	 * @return
+	 */
+	private Node getNode(String key, long now) {
+		Node node = data.get(key);
+		if (node == null) {
+			return null;
+		}
+		if (node.isExpired(now)) {
+			if (data.remove(key, node)) {
+				afterWrite(node, null);
+			}
+			return null;
+		}
+		return node;
+	}
+
+	private int weigh(String key, Object value) {
+		if (value instanceof Number) {
+			return COUNTER_WEIGHT;
+		}
+		try {
+			return ENTRY_OVERHEAD + key.length() * 2 + codec.encode(value).length;
+		} catch (CacheCodecException e) {
+			LOGGER.debug("无法计算缓存对象[" + key + "]的大小，按照额外开销计算", e);
+			return ENTRY_OVERHEAD + key.length() * 2;
+		}
+	}
+
+	/**
+	 * 记录一次访问，访问记录写满一定次数后尝试批量处理
+	 * 
+	 * @param node
+	 */
+	private void afterRead(Node node) {
+		int stripe = (int) Thread.currentThread().getId() & (READ_BUFFER_STRIPES - 1);
+		long count = readCounts[stripe].getAndIncrement();
+		// 有损的环形缓冲区，来不及处理的访问记录直接被覆盖
+		readBuffers[stripe].lazySet((int) (count & READ_BUFFER_MASK), node);
+		if ((count & DRAIN_THRESHOLD_MASK) == DRAIN_THRESHOLD_MASK && evictionLock.tryLock()) {
+			try {
+				drainReadBuffers();
+			} finally {
+				evictionLock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * 写操作后更新淘汰策略，写操作总是加锁执行
+	 * 
+	 * @param removed
+	 *            被替换或者删除的节点
+	 * @param added
+	 *            新增的节点
+	 */
+	private void afterWrite(Node removed, Node added) {
+		evictionLock.lock();
+		try {
+			if (removed != null) {
+				unlink(removed);
+			}
+			// 并发写入同一个key时，只有仍然在Map中的节点才进入队列
+			if (added != null && data.get(added.key) == added) {
+				sketch.increment(added.key);
+				added.queue = WINDOW;
+				window.addFirst(added);
+				windowWeight += added.weight;
+			}
+			drainReadBuffers();
+			expireTails(System.currentTimeMillis());
+			evict();
+		} finally {
+			evictionLock.unlock();
+		}
+	}
+
+	private void drainReadBuffers() {
+		for (AtomicReferenceArray<Node> buffer : readBuffers) {
+			for (int i = 0; i < READ_BUFFER_SIZE; i++) {
+				Node node = buffer.get(i);
+				if (node != null) {
+					buffer.lazySet(i, null);
+					onAccess(node);
+				}
+			}
+		}
+	}
+
+	private void onAccess(Node node) {
+		sketch.increment(node.key);
+		switch (node.queue) {
+		case WINDOW:
+			window.moveToFirst(node);
+			break;
+		case PROBATION:
+			// 试用段中再次被访问的对象晋升到保护段
+			probation.remove(node);
+			probationWeight -= node.weight;
+			node.queue = PROTECTED;
+			protectedDeque.addFirst(node);
+			protectedWeight += node.weight;
+			demoteProtected();
+			break;
+		case PROTECTED:
+			protectedDeque.moveToFirst(node);
+			break;
+		default:
+			// 已经被删除的节点
+			break;
+		}
+	}
+
+	private void demoteProtected() {
+		while (protectedWeight > maxProtectedWeight) {
+			Node node = protectedDeque.removeLast();
+			protectedWeight -= node.weight;
+			node.queue = PROBATION;
+			probation.addFirst(node);
+			probationWeight += node.weight;
+		}
+	}
+
+	/**
+	 * 从各队列的尾部清除一部分已经过期的对象
+	 * 
+	 * @param now
+	 */
+	private void expireTails(long now) {
+		expireTail(window, now);
+		expireTail(probation, now);
+		expireTail(protectedDeque, now);
+	}
+
+	private void expireTail(Deque deque, long now) {
+		Node node = deque.last();
+		for (int i = 0; i < EXPIRE_SCAN_LIMIT && node != null; i++) {
+			Node prev = node.prev;
+			if (node.isExpired(now) && data.remove(node.key, node)) {
+				unlink(node);
+			}
+			node = prev;
+		}
+	}
+
+	private void evict() {
+		// 窗口区溢出的对象作为候选者进入试用段的头部
+		while (windowWeight > maxWindowWeight) {
+			Node node = window.removeLast();
+			windowWeight -= node.weight;
+			node.queue = PROBATION;
+			probation.addFirst(node);
+			probationWeight += node.weight;
+		}
+
+		while (windowWeight + probationWeight + protectedWeight > maxWeight) {
+			Node candidate = probation.first();
+			Node victim = probation.last();
+			Node evicted;
+			if (candidate == null) {
+				evicted = (protectedDeque.last() != null) ? protectedDeque.last() : window.last();
+			} else if (candidate == victim) {
+				evicted = victim;
+			} else {
+				// 候选者的访问频率高于受害者时才被接纳
+				evicted = (sketch.frequency(candidate.key) > sketch.frequency(victim.key)) ? victim : candidate;
+			}
+			if (evicted == null) {
+				break;
+			}
+			data.remove(evicted.key, evicted);
+			unlink(evicted);
+			evictions.incrementAndGet();
+		}
+	}
+
+	private void unlink(Node node) {
+		switch (node.queue) {
+		case WINDOW:
+			window.remove(node);
+			windowWeight -= node.weight;
+			break;
+		case PROBATION:
+			probation.remove(node);
+			probationWeight -= node.weight;
+			break;
+		case PROTECTED:
+			protectedDeque.remove(node);
+			protectedWeight -= node.weight;
+			break;
+		default:
+			break;
+		}
+		node.queue = 0;
+	}
+
+	/**
+	 * 缓存对象个数（包括已经过期但还没有被清除的对象）
+	 * 
+	 * @return
+	 */
+	public long getSize() {
+		return data.size();
+	}
+
+	/**
+	 * 已经使用的容量，单位：字节
+	 * 
+	 * @return
+	 */
+	public long getWeightedSize() {
+		evictionLock.lock();
+		try {
+			return windowWeight + probationWeight + protectedWeight;
+		} finally {
+			evictionLock.unlock();
+		}
+	}
+
+	/**
+	 * 因为空间不足而被淘汰的对象个数
+	 * 
+	 * @return
+	 */
+	public long getEvictionCount() {
+		return evictions.get();
+	}
+
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	public long getMissCount() {
+		return misses.get();
+	}
+
+	private static class Node {
+		private final String key;
+		private final Object value;
+		private final int weight;
+		private final long expireAt;
+		/**
+		 * 以下字段只在持有evictionLock时访问
+		 */
+		private int queue;
+		private Node prev;
+		private Node next;
+
+		Node(String key, Object value, int weight, long expireAt) {
+			this.key = key;
+			this.value = value;
+			this.weight = weight;
+			this.expireAt = expireAt;
+		}
+
+		boolean isExpired(long now) {
+			return expireAt > 0 && now >= expireAt;
+		}
+	}
+
+	/**
+	 * 双向链表，头部为最近访问的节点
+	 */
+	private static class Deque {
+		private Node head;
+		private Node tail;
+
+		Node first() {
+			return head;
+		}
+
+		Node last() {
+			return tail;
+		}
+
+		void addFirst(Node node) {
+			node.prev = null;
+			node.next = head;
+			if (head == null) {
+				tail = node;
+			} else {
+				head.prev = node;
+			}
+			head = node;
+		}
+
+		void remove(Node node) {
+			if (node.prev == null) {
+				head = node.next;
+			} else {
+				node.prev.next = node.next;
+			}
+			if (node.next == null) {
+				tail = node.prev;
+			} else {
+				node.next.prev = node.prev;
+			}
+			node.prev = null;
+			node.next = null;
+		}
+
+		Node removeLast() {
+			Node node = tail;
+			remove(node);
+			return node;
+		}
+
+		void moveToFirst(Node node) {
+			if (node != head) {
+				remove(node);
+				addFirst(node);
+			}
+		}
+
+		/**
+		 * 清空链表，并将节点标记为已删除，之后再删除这些节点时不会修改链表
+		 */
+		void clear() {
+			Node node = head;
+			while (node != null) {
+				Node next = node.next;
+				node.queue = 0;
+				node.prev = null;
+				node.next = null;
+				node = next;
+			}
+			head = null;
+			tail = null;
+		}
+	}
+}
@@ -0,0 +1,43 @@
+package net.energy.cache.tinylfu;
+
+import net.energy.cache.CacheCodec;
+import net.energy.cache.CacheManager;
+import net.energy.cache.PooledCacheManager;
+import net.energy.cache.codec.SerializableCodec;
+
+/**
+ * W-TinyLFU堆内缓存的管理类，每个缓存池使用独立的容量，此类包含了参数配置以及默认值：
+ * 
+ * <pre>
+ * 每个缓存池的容量（单位：字节）（capacity）：默认64M，
+ * 窗口区占容量的比例（windowRatio）：默认0.01，
+ * 计算缓存对象大小的编解码器（codec）：默认使用Java序列化，
+ * </pre>
+ * 
+ * @author wuqh
+ * @see TinyLfuCache
+ */
+public class TinyLfuCacheManager extends PooledCacheManager<TinyLfuCache> implements CacheManager {
+	private static final long DEFAULT_CAPACITY = 64L * 1024 * 1024;
+
+	private long capacity = DEFAULT_CAPACITY;
+	private double windowRatio = 0.01D;
+	private CacheCodec codec;
+
+	public void setCapacity(long capacity) {
+		this.capacity = capacity;
+	}
+
+	public void setWindowRatio(double windowRatio) {
+		this.windowRatio = windowRatio;
+	}
+
+	public void setCodec(CacheCodec codec) {
+		this.codec = codec;
+	}
+
+	@Override
+	protected TinyLfuCache createCache(String poolName) {
+		return new TinyLfuCache(capacity, windowRatio, (codec != null) ? codec : new SerializableCodec());
+	}
+}
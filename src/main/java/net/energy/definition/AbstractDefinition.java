@@ -347,4 +347,20 @@ public abstract class AbstractDefinition {
 		}
 		return null;
 	}
+
+	/**
+	 * 复制一份参数，并将其中的分页对象置为null，用于执行不分页的查询
+	 * 
+	 * @param args
+	 * @return
+	 */
+	public Object[] removePageArgument(Object[] args) {
+		if (pageIndex == -1 || args[pageIndex] == null) {
+			return args;
+		}
+		Object[] newArgs = new Object[args.length];
+		System.arraycopy(args, 0, newArgs, 0, args.length);
+		newArgs[pageIndex] = null;
+		return newArgs;
+	}
 }
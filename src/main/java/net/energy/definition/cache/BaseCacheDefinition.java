@@ -1,7 +1,6 @@
 package net.energy.definition.cache;
 
 import java.lang.reflect.Method;
-import java.util.List;
 import java.util.Map;
 
 import net.energy.definition.AbstractDefinition;
@@ -12,7 +11,6 @@ import net.energy.expression.ParserFactory;
 import net.energy.expression.ParserFactory.ExpressionType;
 import net.energy.utils.Assert;
 import net.energy.utils.Page;
-import net.energy.utils.ReflectionUtils;
 
 import org.apache.commons.lang.StringUtils;
 
@@ -24,6 +22,27 @@ import org.apache.commons.lang.StringUtils;
  * 
  */
 public abstract class BaseCacheDefinition extends AbstractDefinition {
+	/**
+	 * 线程内复用的key拼接缓冲区，超过此容量后不再复用，以免长期占用过多内存
+	 */
+	private static final int MAX_BUILDER_CAPACITY = 1024;
+	private static final ThreadLocal<StringBuilder> KEY_BUILDER = new ThreadLocal<StringBuilder>() {
+		@Override
+		protected StringBuilder initialValue() {
+			return new StringBuilder(128);
+		}
+	};
+
+	/**
+	 * 标签代数在缓存中的key值前缀
+	 */
+	private static final String TAG_KEY_PREFIX = "tag-";
+
+	private CacheKeyTemplate keyTemplate;
+	private CacheKeyTemplate vkeyTemplate;
+	private CacheKeyTemplate[] tagTemplates;
+	private CacheKeyHasher keyHasher;
+
 	BaseCacheDefinition() throws DaoGenerateException {
 		// 使用空方法作为参数，延迟初始化
 		super(null);
@@ -38,8 +57,60 @@ public abstract class BaseCacheDefinition extends AbstractDefinition {
 			Map<String, Integer> batchParamIndexes) throws DaoGenerateException {
 	}
 
+	/**
+	 * 所有表达式都已解析完毕，在此预编译key和vkey的模板
+	 */
 	@Override
 	protected void checkAfterParse(Method method) throws DaoGenerateException {
+		keyTemplate = compileKeyTemplate();
+		vkeyTemplate = compileVkeyTemplate();
+	}
+
+	/**
+	 * 解析并编译标签表达式，由子类在parseInternal中调用
+	 * 
+	 * @param method
+	 * @param tags
+	 * @param paramIndexes
+	 * @param batchParamIndexes
+	 * @throws DaoGenerateException
+	 */
+	void parseTags(Method method, String[] tags, Map<String, Integer> paramIndexes,
+			Map<String, Integer> batchParamIndexes) throws DaoGenerateException {
+		if (tags == null || tags.length == 0) {
+			return;
+		}
+		ExpressionParser parser = ParserFactory.createExpressionParser(ExpressionType.CACHE_KEY);
+		CacheKeyTemplate[] templates = new CacheKeyTemplate[tags.length];
+		for (int i = 0; i < tags.length; i++) {
+			if (StringUtils.isBlank(tags[i])) {
+				throw new DaoGenerateException("方法[" + method + "]配置错误：缓存标签不能为空");
+			}
+			ParsedExpression parsedTag = parser.parse(tags[i]);
+			Object[] gettersAndIndexes = getGettersAndIndexes(method, parsedTag.getParameterNames(), paramIndexes,
+					batchParamIndexes);
+			templates[i] = CacheKeyTemplate.compile(parsedTag, (Method[]) gettersAndIndexes[0],
+					(Integer[]) gettersAndIndexes[1]);
+		}
+		tagTemplates = templates;
+	}
+
+	/**
+	 * 编译key的模板，不支持key的子类返回null
+	 * 
+	 * @return
+	 */
+	CacheKeyTemplate compileKeyTemplate() {
+		return CacheKeyTemplate.compile(getParsedKey(), getKeyGetterMethods(), getKeyParameterIndexes());
+	}
+
+	/**
+	 * 编译vkey的模板，不支持vkey的子类返回null
+	 * 
+	 * @return
+	 */
+	CacheKeyTemplate compileVkeyTemplate() {
+		return CacheKeyTemplate.compile(getParsedVkey(), getVkeyGetterMethods(), getVkeyParameterIndexes());
 	}
 
 	/**
@@ -67,47 +138,41 @@ public abstract class BaseCacheDefinition extends AbstractDefinition {
 	protected abstract String getSourceKey();
 
 	/**
-	 * 生成缓存的基本key值，这个过程只是将@Param中的值，结合key、vkey的配置来产生缓存key值，并不包含分页等的判断。
+	 * 设置长key的摘要器，为null时不对key进行摘要
 	 * 
-	 * @param args
-	 * @param parsedExpression
-	 * @param getterMethods
-	 * @param parameterIndexes
-	 * @return
+	 * @param keyHasher
 	 */
-	private String buildSimpleKey(Object[] args, ParsedExpression parsedExpression, Method[] getterMethods,
-			Integer[] parameterIndexes) {
-		Assert.notNull(parsedExpression, "ParsedExpression的值不能为null");
-
-		String oriKey = parsedExpression.getOriginalExpression();
-		List<String> parameterNames = parsedExpression.getParameterNames();
-
-		int length = parameterNames.size();
-
-		int lastIndex = 0;
-		StringBuilder builder = new StringBuilder();
-		for (int i = 0; i < length; i++) {
-			// 根据每个参数的起止位置，进行substring操作，将参数部分用实际值来不断替换，拼接key值。
-			int[] indexes = parsedExpression.getParameterIndexes(i);
-
-			int startIndex = indexes[0];
-			int endIndex = indexes[1];
-			builder.append(oriKey.substring(lastIndex, startIndex));
-
-			Method method = getterMethods[i];
-			Integer index = parameterIndexes[i];
-
-			Object value = ReflectionUtils.fetchValue(method, index, args, parameterNames);
-			if (value != null) {
-				builder.append(value.toString());
-			}
+	public void setKeyHasher(CacheKeyHasher keyHasher) {
+		this.keyHasher = keyHasher;
+	}
 
-			lastIndex = endIndex;
+	/**
+	 * 获取当前线程复用的StringBuilder
+	 * 
+	 * @return
+	 */
+	static StringBuilder acquireBuilder() {
+		StringBuilder builder = KEY_BUILDER.get();
+		if (builder.capacity() > MAX_BUILDER_CAPACITY) {
+			builder = new StringBuilder(128);
+			KEY_BUILDER.set(builder);
+		} else {
+			builder.setLength(0);
 		}
+		return builder;
+	}
 
-		builder.append(oriKey.substring(lastIndex));
-
-		return builder.toString();
+	/**
+	 * 生成最终的key值，如果配置了摘要器，超长的key会被转换为定长的摘要
+	 * 
+	 * @param builder
+	 * @return
+	 */
+	String toKey(StringBuilder builder) {
+		if (keyHasher == null) {
+			return builder.toString();
+		}
+		return keyHasher.hash(builder);
 	}
 
 	/**
@@ -117,18 +182,36 @@ public abstract class BaseCacheDefinition extends AbstractDefinition {
 	 * @return
 	 */
 	public String generateCacheKey(Object[] args) {
-		String oriKey = buildSimpleKey(args, getParsedKey(), getKeyGetterMethods(), getKeyParameterIndexes());
+		return generateCacheKey(args, null);
+	}
+
+	/**
+	 * 生成最终用于查询的key值，并将标签的当前代数拼接到key值中（@g1.g2...），标签代数变化后key值随之变化
+	 * 
+	 * @param args
+	 * @param tagGenerations
+	 *            与{@link #generateTagKeys(Object[])}一一对应的标签代数，为null表示没有标签
+	 * @return
+	 */
+	public String generateCacheKey(Object[] args, long[] tagGenerations) {
+		Assert.notNull(keyTemplate, "ParsedExpression的值不能为null");
 
-		StringBuilder cacheKey = new StringBuilder();
+		StringBuilder cacheKey = acquireBuilder();
+		keyTemplate.appendTo(cacheKey, args);
 
-		cacheKey.append(oriKey);
+		if (tagGenerations != null && tagGenerations.length > 0) {
+			cacheKey.append('@').append(tagGenerations[0]);
+			for (int i = 1; i < tagGenerations.length; i++) {
+				cacheKey.append('.').append(tagGenerations[i]);
+			}
+		}
 
 		Page page = getPageArgument(args);
-		if (page != null) {
+		if (page != null && !isPageSlice()) {
 			cacheKey.append("-p").append(page.getCurpage());
 		}
 
-		return cacheKey.toString();
+		return toKey(cacheKey);
 	}
 
 	/**
@@ -138,9 +221,41 @@ public abstract class BaseCacheDefinition extends AbstractDefinition {
 	 * @return
 	 */
 	public String generateVersionKey(Object[] args) {
-		String oriKey = buildSimpleKey(args, getParsedVkey(), getVkeyGetterMethods(), getVkeyParameterIndexes());
+		Assert.notNull(vkeyTemplate, "ParsedExpression的值不能为null");
+
+		StringBuilder versionKey = acquireBuilder();
+		vkeyTemplate.appendTo(versionKey, args);
 
-		return oriKey;
+		return toKey(versionKey);
+	}
+
+	/**
+	 * 是否配置了标签
+	 * 
+	 * @return
+	 */
+	public boolean hasTags() {
+		return tagTemplates != null;
+	}
+
+	/**
+	 * 生成所有标签代数的key值，即tag-拼接上标签的值
+	 * 
+	 * @param args
+	 * @return 没有配置标签时返回null
+	 */
+	public String[] generateTagKeys(Object[] args) {
+		if (tagTemplates == null) {
+			return null;
+		}
+		String[] tagKeys = new String[tagTemplates.length];
+		for (int i = 0; i < tagTemplates.length; i++) {
+			StringBuilder tagKey = acquireBuilder();
+			tagKey.append(TAG_KEY_PREFIX);
+			tagTemplates[i].appendTo(tagKey, args);
+			tagKeys[i] = toKey(tagKey);
+		}
+		return tagKeys;
 	}
 
 	/**
@@ -151,7 +266,7 @@ public abstract class BaseCacheDefinition extends AbstractDefinition {
 	 */
 	public String generatePageKey(Object[] args, String key) {
 		Page page = getPageArgument(args);
-		if (page == null) {
+		if (page == null || isPageSlice()) {
 			return null;
 		}
 		if (StringUtils.isEmpty(key)) {
@@ -160,9 +275,17 @@ public abstract class BaseCacheDefinition extends AbstractDefinition {
 		if (StringUtils.isEmpty(key)) { // 无法创建key
 			return null;
 		}
-		StringBuilder builder = new StringBuilder("page-");
-		builder.append(key);
-		return builder.toString();
+		String pageKey = "page-".concat(key);
+		return (keyHasher == null) ? pageKey : keyHasher.hash(pageKey);
+	}
+
+	/**
+	 * 是否缓存全部结果后在本地分页，此时缓存key不区分页码，也不需要分页对象的缓存
+	 * 
+	 * @return
+	 */
+	public boolean isPageSlice() {
+		return false;
 	}
 
 	protected abstract ParsedExpression getParsedKey();
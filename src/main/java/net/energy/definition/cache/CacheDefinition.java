@@ -64,6 +64,30 @@ public class CacheDefinition extends BaseCacheDefinition {
 	 * 缓存、版本缓存最大生存时间，单位：毫秒
 	 */
 	private final long expire;
+	/**
+	 * 缓存未命中时等待其他线程加载结果的最长时间，单位：毫秒
+	 */
+	private final long waitTimeout;
+	/**
+	 * 版本不一致的缓存对象仍然可以返回的最长存活时间，单位：毫秒
+	 */
+	private final long staleFor;
+	/**
+	 * 缓存对象在过期前多长时间内需要后台刷新，单位：毫秒
+	 */
+	private final long refreshAhead;
+	/**
+	 * 空结果的缓存最大生存时间，单位：毫秒
+	 */
+	private final long nullExpire;
+	/**
+	 * 分页查询时是否缓存全部结果，并在本地截取当前页
+	 */
+	private final boolean pageSlice;
+	/**
+	 * 缓存的标签
+	 */
+	private final String[] tags;
 
 	/**
 	 * 返回类型是否为集合
@@ -76,6 +100,12 @@ public class CacheDefinition extends BaseCacheDefinition {
 		expire = cache.expire();
 		key = cache.key();
 		vkey = cache.vkey();
+		waitTimeout = cache.waitTimeout();
+		staleFor = cache.staleFor();
+		refreshAhead = cache.refreshAhead();
+		nullExpire = cache.nullExpire();
+		pageSlice = cache.pageSlice();
+		tags = cache.tags();
 
 		initDefinition(method);
 	}
@@ -100,6 +130,8 @@ public class CacheDefinition extends BaseCacheDefinition {
 			vkeyGetterMethods = (Method[]) vkeyGettersAndIndexes[0];
 			vkeyParameterIndexes = (Integer[]) vkeyGettersAndIndexes[1];
 		}
+
+		parseTags(method, tags, paramIndexes, batchParamIndexes);
 	}
 
 	/**
@@ -123,7 +155,8 @@ public class CacheDefinition extends BaseCacheDefinition {
 		} else {
 			// 单个对象的返回值，特出处理，将返回值当做一个@Param("result")来处理
 
-			if (vkeyParameterNames.size() != 1 || !RESULT_PARAM_VALUE.equals(vkeyParameterNames.get(0))) {
+			if (vkeyParameterNames.size() != 1
+					|| !RESULT_PARAM_VALUE.equals(StringUtils.substringBefore(vkeyParameterNames.get(0), "."))) {
 				throw new DaoGenerateException("方法[" + method + "]配置错误： 对于返回非集合类型的方法，@Cache注解的vkey有且只能有一个参数\""
 						+ RESULT_PARAM_VALUE + "\"");
 			}
@@ -145,6 +178,9 @@ public class CacheDefinition extends BaseCacheDefinition {
 		if (isReturnCollection && StringUtils.isEmpty(vkey)) {
 			throw new DaoGenerateException("方法[" + method + "]配置错误： 对于返回集合类型的方法，@Cache注解中必须包含");
 		}
+		if (pageSlice && !ClassHelper.isTypeList(returnType)) {
+			throw new DaoGenerateException("方法[" + method + "]配置错误： pageSlice只能用于返回List的方法");
+		}
 	}
 
 	public String getPool() {
@@ -155,6 +191,36 @@ public class CacheDefinition extends BaseCacheDefinition {
 		return expire;
 	}
 
+	public long getWaitTimeout() {
+		return waitTimeout;
+	}
+
+	/**
+	 * 空结果的缓存时间，没有配置时和expire一致
+	 * 
+	 * @return
+	 */
+	public long getNullExpire() {
+		return (nullExpire > 0) ? nullExpire : expire;
+	}
+
+	public long getStaleFor() {
+		return staleFor;
+	}
+
+	public long getRefreshAhead() {
+		return refreshAhead;
+	}
+
+	public String[] getTags() {
+		return tags;
+	}
+
+	@Override
+	public boolean isPageSlice() {
+		return pageSlice;
+	}
+
 	public boolean isReturnCollection() {
 		return isReturnCollection;
 	}
@@ -2,10 +2,13 @@ package net.energy.definition.cache;
 
 import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import net.energy.annotation.cache.Cache;
 import net.energy.annotation.cache.CacheDelete;
+import net.energy.annotation.cache.CacheMulti;
+import net.energy.annotation.cache.CachePut;
 import net.energy.annotation.cache.CacheUpdate;
 import net.energy.annotation.cache.VerUpdate;
 import net.energy.exception.DaoGenerateException;
@@ -16,7 +19,7 @@ import org.slf4j.LoggerFactory;
 
 /**
  * 单个方法中所有Cache相关的配置。 由于{@link CacheUpdate}等更新、操作集的存在。其实一次方法的执行会包含： 1、一个缓存查询；
- * 2、N个缓存删除； 3、N个缓存版本更新； 因而，CacheDefinitionCollection就被定义为包含这些配置信息的集合。
+ * 2、N个缓存删除； 3、N个缓存版本更新； 4、N个缓存写入； 或者只包含一个批量查询的逐个缓存（{@link CacheMulti}）。 因而，CacheDefinitionCollection就被定义为包含这些配置信息的集合。
  * 
  * @author wuqh
  * 
@@ -24,8 +27,10 @@ import org.slf4j.LoggerFactory;
 public class CacheDefinitionCollection {
 	private static final Logger LOGGER = LoggerFactory.getLogger(CacheDefinitionCollection.class);
 	private CacheDefinition cacheDefinition = null;
+	private CacheMultiDefinition cacheMultiDefinition = null;
 	private List<CacheDeleteDefinition> cacheDeleteDefinitions = null;
 	private List<VersionUpdateDefinition> versionUpdateDefinitions = null;
+	private List<CachePutDefinition> cachePutDefinitions = null;
 
 	public CacheDefinitionCollection(Method method) throws DaoGenerateException {
 
@@ -34,6 +39,11 @@ public class CacheDefinitionCollection {
 			cacheDefinition = new CacheDefinition(cache, method);
 		}
 
+		CacheMulti cacheMulti = method.getAnnotation(CacheMulti.class);
+		if (cacheMulti != null) {
+			cacheMultiDefinition = new CacheMultiDefinition(cacheMulti, method);
+		}
+
 		CacheDelete cacheDelete = method.getAnnotation(CacheDelete.class);
 		if (cacheDelete != null) {
 			CacheDeleteDefinition definition = new CacheDeleteDefinition(cacheDelete, method);
@@ -48,27 +58,74 @@ public class CacheDefinitionCollection {
 			versionUpdateDefinitions.add(definition);
 		}
 
+		CachePut cachePut = method.getAnnotation(CachePut.class);
+		if (cachePut != null) {
+			CachePutDefinition definition = new CachePutDefinition(cachePut, method);
+			cachePutDefinitions = lazyInit(cachePutDefinitions);
+			cachePutDefinitions.add(definition);
+		}
+
 		CacheUpdate cacheUpdate = method.getAnnotation(CacheUpdate.class);
 		if (cacheUpdate != null) {
 			parseCacheUpdateDefinition(cacheUpdate, method);
 		}
 
-		if (cacheDefinition != null && (cacheDeleteDefinitions != null || versionUpdateDefinitions != null)) {
+		if (cacheDefinition != null
+				&& (cacheDeleteDefinitions != null || versionUpdateDefinitions != null || cachePutDefinitions != null)) {
 			throw new DaoGenerateException("方法[" + method
-					+ "]配置错误：方法中@Cache注解不能和其他的缓存更新类注解（@CacheDelete、@VerUpdate、@CacheUpdate）共存");
+					+ "]配置错误：方法中@Cache注解不能和其他的缓存更新类注解（@CacheDelete、@VerUpdate、@CachePut、@CacheUpdate）共存");
+		}
+		if (cacheMultiDefinition != null
+				&& (cacheDefinition != null || cacheDeleteDefinitions != null || versionUpdateDefinitions != null
+						|| cachePutDefinitions != null)) {
+			throw new DaoGenerateException("方法[" + method + "]配置错误：方法中@CacheMulti注解不能和其他的缓存注解共存");
 		}
 
 		logBindInfo(method);
 	}
 
+	/**
+	 * 为所有的缓存配置设置长key的摘要器
+	 * 
+	 * @param keyHasher
+	 */
+	public void setKeyHasher(CacheKeyHasher keyHasher) {
+		if (cacheDefinition != null) {
+			cacheDefinition.setKeyHasher(keyHasher);
+		}
+		if (cacheMultiDefinition != null) {
+			cacheMultiDefinition.setKeyHasher(keyHasher);
+		}
+		if (cacheDeleteDefinitions != null) {
+			for (CacheDeleteDefinition definition : cacheDeleteDefinitions) {
+				definition.setKeyHasher(keyHasher);
+			}
+		}
+		if (versionUpdateDefinitions != null) {
+			for (VersionUpdateDefinition definition : versionUpdateDefinitions) {
+				definition.setKeyHasher(keyHasher);
+			}
+		}
+		if (cachePutDefinitions != null) {
+			for (CachePutDefinition definition : cachePutDefinitions) {
+				definition.setKeyHasher(keyHasher);
+			}
+		}
+	}
+
 	public boolean needCacheOperation() {
-		return (cacheDefinition != null || cacheDeleteDefinitions != null || versionUpdateDefinitions != null);
+		return (cacheDefinition != null || cacheMultiDefinition != null || cacheDeleteDefinitions != null
+				|| versionUpdateDefinitions != null || cachePutDefinitions != null);
 	}
 
 	public CacheDefinition getCacheDefinition() {
 		return cacheDefinition;
 	}
 
+	public CacheMultiDefinition getCacheMultiDefinition() {
+		return cacheMultiDefinition;
+	}
+
 	public List<CacheDeleteDefinition> getCacheDeleteDefinitions() {
 		return cacheDeleteDefinitions;
 	}
@@ -77,6 +134,10 @@ public class CacheDefinitionCollection {
 		return versionUpdateDefinitions;
 	}
 
+	public List<CachePutDefinition> getCachePutDefinitions() {
+		return cachePutDefinitions;
+	}
+
 	private <T> List<T> lazyInit(List<T> list) {
 		if (list == null) {
 			return new ArrayList<T>(1);
@@ -88,6 +149,7 @@ public class CacheDefinitionCollection {
 	private void parseCacheUpdateDefinition(CacheUpdate cacheUpdate, Method method) throws DaoGenerateException {
 		CacheDelete[] deletes = cacheUpdate.delete();
 		VerUpdate[] updates = cacheUpdate.update();
+		CachePut[] puts = cacheUpdate.put();
 
 		for (CacheDelete delete : deletes) {
 			CacheDeleteDefinition definition = new CacheDeleteDefinition(delete, method);
@@ -100,15 +162,27 @@ public class CacheDefinitionCollection {
 			versionUpdateDefinitions = lazyInit(versionUpdateDefinitions);
 			versionUpdateDefinitions.add(definition);
 		}
+
+		for (CachePut put : puts) {
+			CachePutDefinition definition = new CachePutDefinition(put, method);
+			cachePutDefinitions = lazyInit(cachePutDefinitions);
+			cachePutDefinitions.add(definition);
+		}
 	}
 
 	private String getCacheDescription(CacheDefinition cache) {
 		String desc = "@Cache(key=[" + cache.getKey() + "],pool=[" + cache.getPool() + "],expire=[" + cache.getExpire()
-				+ "(毫秒)]";
+				+ "(毫秒)],nullExpire=[" + cache.getNullExpire() + "(毫秒)]";
 
 		if (StringUtils.isNotBlank(cache.getVkey())) {
 			desc = desc + ",vkey=[" + cache.getVkey() + "]";
 		}
+		if (cache.getTags().length > 0) {
+			desc = desc + ",tags=" + Arrays.toString(cache.getTags());
+		}
+		if (cache.isPageSlice()) {
+			desc = desc + ",pageSlice=[true]";
+		}
 
 		desc = desc + ")";
 
@@ -116,7 +190,20 @@ public class CacheDefinitionCollection {
 	}
 
 	private String getCacheDeleteDescription(CacheDeleteDefinition delete) {
-		return "@CacheDelete(key=[" + delete.getKey() + "],pool=[" + delete.getPool() + "])";
+		String desc = "@CacheDelete(key=[" + delete.getKey() + "],pool=[" + delete.getPool() + "]";
+		if (StringUtils.isNotEmpty(delete.getTag())) {
+			desc = desc + ",tag=[" + delete.getTag() + "]";
+		}
+		return desc + ")";
+	}
+
+	private String getCachePutDescription(CachePutDefinition put) {
+		String desc = "@CachePut(key=[" + put.getKey() + "],value=[" + put.getValue() + "],pool=[" + put.getPool()
+				+ "],expire=[" + put.getExpire() + "(毫秒)]";
+		if (StringUtils.isNotBlank(put.getVkey())) {
+			desc = desc + ",vkey=[" + put.getVkey() + "]";
+		}
+		return desc + ")";
 	}
 
 	private String getVerUpdateDescription(VersionUpdateDefinition update) {
@@ -131,6 +218,12 @@ public class CacheDefinitionCollection {
 			LOGGER.debug("绑定" + getCacheDescription(cacheDefinition) + "到方法[" + method + "]成功");
 		}
 
+		if (cacheMultiDefinition != null && debugEnable) {
+			LOGGER.debug("绑定@CacheMulti(key=[" + cacheMultiDefinition.getKey() + "],param=["
+					+ cacheMultiDefinition.getParam() + "],pool=[" + cacheMultiDefinition.getPool() + "],expire=["
+					+ cacheMultiDefinition.getExpire() + "(毫秒)])到方法[" + method + "]成功");
+		}
+
 		if (cacheDeleteDefinitions != null && debugEnable) {
 			for (CacheDeleteDefinition definition : cacheDeleteDefinitions) {
 				LOGGER.debug("绑定" + getCacheDeleteDescription(definition) + "到方法[" + method + "]成功");
@@ -142,5 +235,11 @@ public class CacheDefinitionCollection {
 				LOGGER.debug("绑定" + getVerUpdateDescription(definition) + "到方法[" + method + "]成功");
 			}
 		}
+
+		if (cachePutDefinitions != null && debugEnable) {
+			for (CachePutDefinition definition : cachePutDefinitions) {
+				LOGGER.debug("绑定" + getCachePutDescription(definition) + "到方法[" + method + "]成功");
+			}
+		}
 	}
 }
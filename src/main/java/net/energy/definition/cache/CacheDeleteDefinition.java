@@ -1,11 +1,14 @@
 package net.energy.definition.cache;
 
 import java.lang.reflect.Method;
+import java.util.Map;
 
 import net.energy.annotation.cache.CacheDelete;
 import net.energy.exception.DaoGenerateException;
 import net.energy.expression.ParsedExpression;
 
+import org.apache.commons.lang.StringUtils;
+
 /**
  * 通过对配置了@CacheDelete的方法的解析，产生需要在执行cache操作时必要用到的参数。
  * 
@@ -21,15 +24,39 @@ public class CacheDeleteDefinition extends BaseCacheDefinition {
 	 * 原始的key值
 	 */
 	private final String key;
+	/**
+	 * 需要失效的缓存标签
+	 */
+	private final String tag;
 
 	public CacheDeleteDefinition(CacheDelete cacheDelete, Method method) throws DaoGenerateException {
 		//CacheDelete信息获取必须放在initDefinition之前，以免调用getSourceKey时无法获取key值
 		pool = cacheDelete.pool();
 		key = cacheDelete.key();
+		tag = cacheDelete.tag();
 		
 		initDefinition(method);
 	}
 
+	@Override
+	protected void checkBeforeParse(Method method) throws DaoGenerateException {
+		super.checkBeforeParse(method);
+
+		if (StringUtils.isEmpty(key) && StringUtils.isEmpty(tag)) {
+			throw new DaoGenerateException("方法[" + method + "]配置错误：@CacheDelete注解中key和tag至少需要配置一个");
+		}
+	}
+
+	@Override
+	protected void parseInternal(Method method, Map<String, Integer> paramIndexes,
+			Map<String, Integer> batchParamIndexes) throws DaoGenerateException {
+		super.parseInternal(method, paramIndexes, batchParamIndexes);
+
+		if (StringUtils.isNotEmpty(tag)) {
+			parseTags(method, new String[] { tag }, paramIndexes, batchParamIndexes);
+		}
+	}
+
 	@Override
 	protected String getSourceKey() {
 		return key;
@@ -43,6 +70,19 @@ public class CacheDeleteDefinition extends BaseCacheDefinition {
 		return key;
 	}
 
+	public String getTag() {
+		return tag;
+	}
+
+	/**
+	 * 是否需要删除指定key的缓存
+	 * 
+	 * @return
+	 */
+	public boolean hasKey() {
+		return StringUtils.isNotEmpty(key);
+	}
+
 	@Override
 	public ParsedExpression getParsedKey() {
 		return getParsedExpression();
@@ -58,6 +98,11 @@ public class CacheDeleteDefinition extends BaseCacheDefinition {
 		return getParameterIndexes();
 	}
 
+	@Override
+	CacheKeyTemplate compileVkeyTemplate() {
+		return null;
+	}
+
 	@Override
 	public ParsedExpression getParsedVkey() {
 		throw new UnsupportedOperationException("CacheDeleteDefinition不支持调用此方法");
@@ -0,0 +1,118 @@
+package net.energy.definition.cache;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import net.energy.utils.Assert;
+
+/**
+ * 长缓存key的摘要器。超过阈值的key会被转换为定长的key：保留原始key的前缀，再拼接上完整key的MD5摘要，
+ * 以保证key不会超过Memcached的250字节限制，同时减少网络上传输的key字节数。
+ * 
+ * <pre>
+ * 例如：prefixLength=16时，
+ * photo-l-d-album1-u2-t3-...（超过阈值）会被转换为photo-l-d-album1#0cc175b9c0f1b6a831c399e269772661
+ * 
+ * 注意：同一个缓存池的读写必须使用相同的配置，否则@CacheDelete、@VerUpdate生成的key和@Cache生成的key将不一致。
+ * </pre>
+ * 
+ * @author wuqh
+ * 
+ */
+public class CacheKeyHasher {
+	/**
+	 * Memcached允许的最大key长度（字节）
+	 */
+	public static final int MAX_MEMCACHED_KEY_LENGTH = 250;
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+	private static final char SEPARATOR = '#';
+
+	private static final ThreadLocal<MessageDigest> DIGESTS = new ThreadLocal<MessageDigest>() {
+		@Override
+		protected MessageDigest initialValue() {
+			try {
+				return MessageDigest.getInstance("MD5");
+			} catch (NoSuchAlgorithmException e) {
+				throw new IllegalStateException("当前JVM不支持MD5", e);
+			}
+		}
+	};
+
+	private final int threshold;
+	private final int prefixLength;
+
+	/**
+	 * @param threshold
+	 *            key长度（UTF-8字节数）超过此值时进行摘要
+	 * @param prefixLength
+	 *            摘要后保留的原始key前缀长度（字符数），便于排查问题
+	 */
+	public CacheKeyHasher(int threshold, int prefixLength) {
+		Assert.isTrue(prefixLength >= 0, "prefixLength不能小于0");
+		// 摘要后的key最长为：前缀（每个字符最多3字节）+分隔符+32位十六进制摘要
+		Assert.isTrue(threshold >= prefixLength * 3 + 33, "threshold不能小于摘要后key的最大长度");
+		Assert.isTrue(threshold <= MAX_MEMCACHED_KEY_LENGTH, "threshold不能超过" + MAX_MEMCACHED_KEY_LENGTH);
+		this.threshold = threshold;
+		this.prefixLength = prefixLength;
+	}
+
+	/**
+	 * 对builder中的key进行摘要（如果需要）
+	 * 
+	 * @param builder
+	 * @return
+	 */
+	String hash(StringBuilder builder) {
+		int length = builder.length();
+		// 字符数*3仍不超过阈值时，UTF-8字节数一定不会超过阈值，不需要编码
+		if (length * 3 <= threshold) {
+			return builder.toString();
+		}
+
+		String key = builder.toString();
+		byte[] bytes = key.getBytes(UTF_8);
+		if (bytes.length <= threshold) {
+			return key;
+		}
+
+		MessageDigest digest = DIGESTS.get();
+		digest.reset();
+		byte[] md5 = digest.digest(bytes);
+
+		int keep = Math.min(prefixLength, length);
+		// 不截断代理对
+		if (keep > 0 && Character.isHighSurrogate(key.charAt(keep - 1))) {
+			keep--;
+		}
+
+		builder.setLength(keep);
+		builder.append(SEPARATOR);
+		for (byte b : md5) {
+			builder.append(HEX[(b >> 4) & 0x0F]).append(HEX[b & 0x0F]);
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * 对key进行摘要（如果需要）
+	 * 
+	 * @param key
+	 * @return
+	 */
+	public String hash(String key) {
+		if (key == null || key.length() * 3 <= threshold) {
+			return key;
+		}
+		return hash(new StringBuilder(key));
+	}
+
+	public int getThreshold() {
+		return threshold;
+	}
+
+	public int getPrefixLength() {
+		return prefixLength;
+	}
+}
@@ -0,0 +1,104 @@
+package net.energy.definition.cache;
+
+import java.lang.reflect.Method;
+import java.util.List;
+
+import net.energy.expression.ParsedExpression;
+import net.energy.utils.ReflectionUtils;
+
+/**
+ * 预编译的缓存key模板。在生成DAO时将解析后的key表达式拆分为常量片段和参数片段，
+ * 执行时只需要依次将常量片段和参数的实际值追加到StringBuilder中，不再需要每次对原始表达式做substring。
+ * 
+ * <pre>
+ * 例如：key="photo-l-d-album:albumId-u:userId"
+ * 会被拆分为常量片段["photo-l-d-album", "-u", ""]和参数片段[albumId, userId]
+ * </pre>
+ * 
+ * @author wuqh
+ * 
+ */
+final class CacheKeyTemplate {
+	/**
+	 * 常量片段，长度比参数个数多1
+	 */
+	private final String[] segments;
+	private final Method[] getterMethods;
+	private final Integer[] parameterIndexes;
+	private final List<String> parameterNames;
+	/**
+	 * 预估的key长度，用于初始化StringBuilder
+	 */
+	private final int estimatedLength;
+
+	private CacheKeyTemplate(String[] segments, Method[] getterMethods, Integer[] parameterIndexes,
+			List<String> parameterNames, int estimatedLength) {
+		this.segments = segments;
+		this.getterMethods = getterMethods;
+		this.parameterIndexes = parameterIndexes;
+		this.parameterNames = parameterNames;
+		this.estimatedLength = estimatedLength;
+	}
+
+	/**
+	 * 根据解析后的表达式编译key模板，表达式为null时返回null
+	 * 
+	 * @param parsedExpression
+	 * @param getterMethods
+	 * @param parameterIndexes
+	 * @return
+	 */
+	static CacheKeyTemplate compile(ParsedExpression parsedExpression, Method[] getterMethods,
+			Integer[] parameterIndexes) {
+		if (parsedExpression == null) {
+			return null;
+		}
+
+		String oriKey = parsedExpression.getOriginalExpression();
+		List<String> parameterNames = parsedExpression.getParameterNames();
+		int length = parameterNames.size();
+
+		String[] segments = new String[length + 1];
+		int literalLength = 0;
+		int lastIndex = 0;
+		for (int i = 0; i < length; i++) {
+			int[] indexes = parsedExpression.getParameterIndexes(i);
+			segments[i] = oriKey.substring(lastIndex, indexes[0]);
+			literalLength += segments[i].length();
+			lastIndex = indexes[1];
+		}
+		segments[length] = oriKey.substring(lastIndex);
+		literalLength += segments[length].length();
+
+		// 每个参数按平均16个字符预估
+		return new CacheKeyTemplate(segments, getterMethods, parameterIndexes, parameterNames, literalLength + length
+				* 16);
+	}
+
+	/**
+	 * 将参数的实际值按模板追加到builder中
+	 * 
+	 * @param builder
+	 * @param args
+	 */
+	void appendTo(StringBuilder builder, Object[] args) {
+		int length = segments.length - 1;
+		builder.ensureCapacity(builder.length() + estimatedLength);
+		for (int i = 0; i < length; i++) {
+			builder.append(segments[i]);
+
+			// 参数名按表达式中的位置获取，而不是按参数在args中的位置
+			Object value = ReflectionUtils.fetchValue(getterMethods[i], parameterIndexes[i], args,
+					parameterNames.get(i));
+			// 常见的整数类型直接追加，避免产生临时的String
+			if (value instanceof Long) {
+				builder.append(((Long) value).longValue());
+			} else if (value instanceof Integer) {
+				builder.append(((Integer) value).intValue());
+			} else if (value != null) {
+				builder.append(value.toString());
+			}
+		}
+		builder.append(segments[length]);
+	}
+}
@@ -0,0 +1,317 @@
+package net.energy.definition.cache;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.energy.annotation.cache.CacheMulti;
+import net.energy.exception.DaoGenerateException;
+import net.energy.expression.ParsedExpression;
+import net.energy.utils.ClassHelper;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * 通过对配置了@CacheMulti的方法的解析，产生需要在执行cache操作时必要用到的参数。
+ * 
+ * @author wuqh
+ * 
+ */
+public class CacheMultiDefinition extends BaseCacheDefinition {
+	/**
+	 * id集合参数为接口或者抽象类时，依次尝试使用的实现类
+	 */
+	private static final Class<?>[] DEFAULT_IDS_TYPES = { ArrayList.class, LinkedHashSet.class, TreeSet.class,
+			LinkedList.class };
+
+	/**
+	 * 缓存的pool
+	 */
+	private final String pool;
+	/**
+	 * 原始的key值
+	 */
+	private final String key;
+	/**
+	 * id集合参数的名称
+	 */
+	private final String param;
+	/**
+	 * 缓存最大生存时间，单位：毫秒
+	 */
+	private final long expire;
+	/**
+	 * 不存在的对象的缓存最大生存时间，单位：毫秒
+	 */
+	private final long nullExpire;
+
+	/**
+	 * key中参数前后的常量部分
+	 */
+	private String keyPrefix;
+	private String keySuffix;
+	/**
+	 * 返回对象中与id对应的属性名
+	 */
+	private String idProperty;
+	/**
+	 * id集合参数在args中的位置
+	 */
+	private int paramIndex;
+	/**
+	 * 重新绑定参数时创建id集合的构造函数
+	 */
+	private Constructor<?> idsConstructor;
+	/**
+	 * 返回对象类型对应的id属性的getter方法
+	 */
+	private final Map<Class<?>, Method> idGetters = new ConcurrentHashMap<Class<?>, Method>();
+
+	public CacheMultiDefinition(CacheMulti cacheMulti, Method method) throws DaoGenerateException {
+		// CacheMulti信息获取必须放在initDefinition之前，以免调用getSourceKey时无法获取key值
+		pool = cacheMulti.pool();
+		key = cacheMulti.key();
+		param = cacheMulti.param();
+		expire = cacheMulti.expire();
+		nullExpire = cacheMulti.nullExpire();
+
+		initDefinition(method);
+	}
+
+	@Override
+	protected void checkBeforeParse(Method method) throws DaoGenerateException {
+		super.checkBeforeParse(method);
+
+		if (!ClassHelper.isTypeList(method.getReturnType())) {
+			throw new DaoGenerateException("方法[" + method + "]配置错误：@CacheMulti只能用于返回List的方法");
+		}
+	}
+
+	/**
+	 * key中的参数代表集合中的每个元素，并不是方法的参数，所以不需要生成getter方法
+	 */
+	@Override
+	protected Object[] getGettersAndIndexes(Method method, List<String> parameterNames,
+			Map<String, Integer> paramIndexes, Map<String, Integer> batchParamIndexes) throws DaoGenerateException {
+		int length = parameterNames.size();
+		return new Object[] { new Method[length], new Integer[length] };
+	}
+
+	@Override
+	protected void parseInternal(Method method, Map<String, Integer> paramIndexes,
+			Map<String, Integer> batchParamIndexes) throws DaoGenerateException {
+		super.parseInternal(method, paramIndexes, batchParamIndexes);
+
+		ParsedExpression parsedKey = getParsedExpression();
+		if (parsedKey.getParameterNames().size() != 1) {
+			throw new DaoGenerateException("方法[" + method + "]配置错误：@CacheMulti注解的key有且只能有一个参数");
+		}
+		int[] indexes = parsedKey.getParameterIndexes(0);
+		keyPrefix = key.substring(0, indexes[0]);
+		keySuffix = key.substring(indexes[1]);
+		idProperty = parsedKey.getParameterNames().get(0);
+
+		Integer index = paramIndexes.get(param);
+		if (index == null) {
+			throw new DaoGenerateException("方法[" + method + "]配置错误：方法参数中必须包含@Param(\"" + param + "\")注解");
+		}
+		paramIndex = index;
+		Class<?> paramType = method.getParameterTypes()[paramIndex];
+		if (!ClassHelper.isTypeCollection(paramType)) {
+			throw new DaoGenerateException("方法[" + method + "]配置错误：@CacheMulti注解的param[" + param + "]必须为集合类型");
+		}
+		idsConstructor = findIdsConstructor(method, paramType);
+	}
+
+	/**
+	 * 在解析时确定重新绑定参数时使用的集合类型，接口和抽象类使用常用的实现类，具体的集合类型必须有无参的构造函数
+	 * 
+	 * @param method
+	 * @param paramType
+	 * @return
+	 * @throws DaoGenerateException
+	 */
+	private Constructor<?> findIdsConstructor(Method method, Class<?> paramType) throws DaoGenerateException {
+		Class<?> idsType = null;
+		if (paramType.isInterface() || Modifier.isAbstract(paramType.getModifiers())) {
+			for (Class<?> candidate : DEFAULT_IDS_TYPES) {
+				if (paramType.isAssignableFrom(candidate)) {
+					idsType = candidate;
+					break;
+				}
+			}
+		} else {
+			idsType = paramType;
+		}
+
+		if (idsType != null) {
+			try {
+				Constructor<?> constructor = idsType.getDeclaredConstructor();
+				constructor.setAccessible(true);
+				return constructor;
+			} catch (NoSuchMethodException e) {
+				// 没有无参的构造函数
+			}
+		}
+		throw new DaoGenerateException("方法[" + method + "]配置错误：@CacheMulti注解的param[" + param + "]的类型["
+				+ paramType.getName() + "]不支持，请使用List、Set、SortedSet、Collection或者有无参构造函数的集合类型");
+	}
+
+	/**
+	 * 获取参数中的id集合
+	 * 
+	 * @param args
+	 * @return
+	 */
+	public Collection<?> getIdsArgument(Object[] args) {
+		return (Collection<?>) args[paramIndex];
+	}
+
+	/**
+	 * 复制一份参数，并将id集合替换为指定的id
+	 * 
+	 * @param args
+	 * @param ids
+	 * @return
+	 */
+	public Object[] rebindIds(Object[] args, List<Object> ids) {
+		Collection<Object> newIds = newIdsCollection(args[paramIndex]);
+		newIds.addAll(ids);
+		Object[] newArgs = new Object[args.length];
+		System.arraycopy(args, 0, newArgs, 0, args.length);
+		newArgs[paramIndex] = newIds;
+		return newArgs;
+	}
+
+	/**
+	 * 创建与参数类型相同的空集合，排序的集合沿用原来的比较器
+	 * 
+	 * @param original
+	 * @return
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private Collection<Object> newIdsCollection(Object original) {
+		if (idsConstructor.getDeclaringClass() == TreeSet.class && original instanceof SortedSet) {
+			return new TreeSet<Object>(((SortedSet) original).comparator());
+		}
+		try {
+			return (Collection<Object>) idsConstructor.newInstance();
+		} catch (Exception e) {
+			throw new IllegalStateException("创建集合[" + idsConstructor.getDeclaringClass().getName() + "]失败", e);
+		}
+	}
+
+	/**
+	 * 生成单个对象的缓存key
+	 * 
+	 * @param id
+	 * @return
+	 */
+	public String generateElementKey(Object id) {
+		StringBuilder elementKey = acquireBuilder();
+		elementKey.append(keyPrefix).append(id).append(keySuffix);
+		return toKey(elementKey);
+	}
+
+	/**
+	 * 获取返回对象中的id
+	 * 
+	 * @param element
+	 * @return
+	 */
+	@SuppressWarnings("rawtypes")
+	public Object fetchElementId(Object element) {
+		if (element instanceof Map) {
+			return ((Map) element).get(idProperty);
+		}
+		Class<?> clazz = element.getClass();
+		Method getter = idGetters.get(clazz);
+		if (getter == null) {
+			getter = findIdGetter(clazz);
+			idGetters.put(clazz, getter);
+		}
+		try {
+			return getter.invoke(element);
+		} catch (Exception e) {
+			throw new IllegalStateException("获取对象[" + clazz.getName() + "]的属性[" + idProperty + "]失败", e);
+		}
+	}
+
+	private Method findIdGetter(Class<?> clazz) {
+		String name = StringUtils.capitalize(idProperty);
+		for (String prefix : new String[] { "get", "is" }) {
+			try {
+				Method getter = clazz.getMethod(prefix + name);
+				getter.setAccessible(true);
+				return getter;
+			} catch (NoSuchMethodException e) {
+				// 继续查找
+			}
+		}
+		throw new IllegalStateException("对象[" + clazz.getName() + "]中没有属性[" + idProperty + "]的getter方法");
+	}
+
+	@Override
+	protected String getSourceKey() {
+		return key;
+	}
+
+	public String getPool() {
+		return pool;
+	}
+
+	public String getKey() {
+		return key;
+	}
+
+	public String getParam() {
+		return param;
+	}
+
+	public long getExpire() {
+		return expire;
+	}
+
+	public long getNullExpire() {
+		return nullExpire;
+	}
+
+	@Override
+	public ParsedExpression getParsedKey() {
+		return getParsedExpression();
+	}
+
+	@Override
+	public Method[] getKeyGetterMethods() {
+		return getGetterMethods();
+	}
+
+	@Override
+	public Integer[] getKeyParameterIndexes() {
+		return getParameterIndexes();
+	}
+
+	@Override
+	public ParsedExpression getParsedVkey() {
+		return null;
+	}
+
+	@Override
+	public Method[] getVkeyGetterMethods() {
+		return null;
+	}
+
+	@Override
+	public Integer[] getVkeyParameterIndexes() {
+		return null;
+	}
+}
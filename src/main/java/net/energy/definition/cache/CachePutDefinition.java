@@ -0,0 +1,166 @@
+package net.energy.definition.cache;
+
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import net.energy.annotation.cache.CachePut;
+import net.energy.exception.DaoGenerateException;
+import net.energy.expression.ExpressionParser;
+import net.energy.expression.ParsedExpression;
+import net.energy.expression.ParserFactory;
+import net.energy.expression.ParserFactory.ExpressionType;
+import net.energy.utils.ReflectionUtils;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * 通过对配置了@CachePut的方法的解析，产生需要在执行cache操作时必要用到的参数。
+ * 
+ * @author wuqh
+ * 
+ */
+public class CachePutDefinition extends BaseCacheDefinition {
+	/**
+	 * 缓存的pool
+	 */
+	private final String pool;
+	/**
+	 * 原始的key值
+	 */
+	private final String key;
+	/**
+	 * 写入缓存的参数名
+	 */
+	private final String value;
+	/**
+	 * 原始的vkey值
+	 */
+	private final String vkey;
+	/**
+	 * 缓存最大生存时间，单位：毫秒
+	 */
+	private final long expire;
+
+	/**
+	 * 解析后的vkey值对象
+	 */
+	private ParsedExpression parsedVkey;
+	private Method[] vkeyGetterMethods;
+	private Integer[] vkeyParameterIndexes;
+
+	/**
+	 * 用于获取写入缓存对象的getter方法以及参数位置
+	 */
+	private Method valueGetterMethod;
+	private Integer valueParameterIndex;
+
+	public CachePutDefinition(CachePut cachePut, Method method) throws DaoGenerateException {
+		// CachePut信息获取必须放在initDefinition之前，以免调用getSourceKey时无法获取key值
+		pool = cachePut.pool();
+		key = cachePut.key();
+		value = cachePut.value();
+		vkey = cachePut.vkey();
+		expire = cachePut.expire();
+
+		initDefinition(method);
+	}
+
+	@Override
+	protected void checkBeforeParse(Method method) throws DaoGenerateException {
+		super.checkBeforeParse(method);
+
+		if (StringUtils.isBlank(value)) {
+			throw new DaoGenerateException("方法[" + method + "]配置错误：@CachePut注解中必须配置value");
+		}
+	}
+
+	@Override
+	protected void parseInternal(Method method, Map<String, Integer> paramIndexes,
+			Map<String, Integer> batchParamIndexes) throws DaoGenerateException {
+		super.parseInternal(method, paramIndexes, batchParamIndexes);
+
+		List<String> valueNames = Collections.singletonList(value);
+		Object[] valueGettersAndIndexes = getGettersAndIndexes(method, valueNames, paramIndexes, batchParamIndexes);
+		valueGetterMethod = ((Method[]) valueGettersAndIndexes[0])[0];
+		valueParameterIndex = ((Integer[]) valueGettersAndIndexes[1])[0];
+		if (valueParameterIndex == null || valueParameterIndex == -1) {
+			throw new DaoGenerateException("方法[" + method + "]配置错误：@CachePut注解中的value[" + value + "]没有对应的@Param");
+		}
+
+		if (StringUtils.isNotEmpty(vkey)) {
+			ExpressionParser parser = ParserFactory.createExpressionParser(ExpressionType.CACHE_KEY);
+			parsedVkey = parser.parse(vkey);
+			Object[] vkeyGettersAndIndexes = getGettersAndIndexes(method, parsedVkey.getParameterNames(),
+					paramIndexes, batchParamIndexes);
+			vkeyGetterMethods = (Method[]) vkeyGettersAndIndexes[0];
+			vkeyParameterIndexes = (Integer[]) vkeyGettersAndIndexes[1];
+		}
+	}
+
+	/**
+	 * 获取需要写入缓存的对象
+	 * 
+	 * @param args
+	 * @return
+	 */
+	public Object fetchPutValue(Object[] args) {
+		return ReflectionUtils.fetchValue(valueGetterMethod, valueParameterIndex, args, value);
+	}
+
+	@Override
+	protected String getSourceKey() {
+		return key;
+	}
+
+	public String getPool() {
+		return pool;
+	}
+
+	public String getKey() {
+		return key;
+	}
+
+	public String getValue() {
+		return value;
+	}
+
+	public String getVkey() {
+		return vkey;
+	}
+
+	public long getExpire() {
+		return expire;
+	}
+
+	@Override
+	public ParsedExpression getParsedKey() {
+		return getParsedExpression();
+	}
+
+	@Override
+	public Method[] getKeyGetterMethods() {
+		return getGetterMethods();
+	}
+
+	@Override
+	public Integer[] getKeyParameterIndexes() {
+		return getParameterIndexes();
+	}
+
+	@Override
+	public ParsedExpression getParsedVkey() {
+		return parsedVkey;
+	}
+
+	@Override
+	public Method[] getVkeyGetterMethods() {
+		return vkeyGetterMethods;
+	}
+
+	@Override
+	public Integer[] getVkeyParameterIndexes() {
+		return vkeyParameterIndexes;
+	}
+}
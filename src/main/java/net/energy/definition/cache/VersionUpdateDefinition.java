@@ -53,6 +53,11 @@ public class VersionUpdateDefinition extends BaseCacheDefinition {
 		return vkey;
 	}
 
+	@Override
+	CacheKeyTemplate compileKeyTemplate() {
+		return null;
+	}
+
 	@Override
 	public ParsedExpression getParsedKey() {
 		throw new UnsupportedOperationException("VersionUpdateDefinition不支持调用此方法");
@@ -0,0 +1,32 @@
+package net.energy.exception;
+
+/**
+ * 缓存对象编码、解码失败时，将抛出此异常
+ * 
+ * @author wuqh
+ * 
+ */
+public class CacheCodecException extends RuntimeException {
+	private static final long serialVersionUID = -3016533716840376214L;
+
+	public CacheCodecException() {
+		super();
+		
+	}
+
+	public CacheCodecException(String message, Throwable cause) {
+		super(message, cause);
+		
+	}
+
+	public CacheCodecException(String message) {
+		super(message);
+		
+	}
+
+	public CacheCodecException(Throwable cause) {
+		super(cause);
+		
+	}
+
+}
@@ -12,8 +12,10 @@ import net.energy.annotation.mongo.MongoInsert;
 import net.energy.annotation.mongo.MongoRemove;
 import net.energy.annotation.mongo.MongoUpdate;
 import net.energy.cache.CacheManager;
+import net.energy.definition.cache.CacheKeyHasher;
 import net.energy.exception.DaoGenerateException;
 import net.energy.executor.cache.CacheExecutor;
+import net.energy.executor.cache.VersionLeaseCache;
 import net.energy.executor.jdbc.AbstractJdbcExecutor;
 import net.energy.executor.jdbc.JdbcBatchUpdateExecutor;
 import net.energy.executor.jdbc.JdbcQueryExecutor;
@@ -50,9 +52,41 @@ public final class ExecutorFactory {
 	 */
 	public static DataAccessExecutor createJdbcExecutor(CacheManager cacheManager, JdbcDataAccessor dataAccessor,
 			Method method) throws DaoGenerateException {
+		return createJdbcExecutor(cacheManager, null, dataAccessor, method);
+	}
+
+	/**
+	 * 创建JDBC的DataAccessExecutor，并使用keyHasher对超长的缓存key进行摘要
+	 * 
+	 * @param cacheManager
+	 * @param keyHasher
+	 * @param dataAccessor
+	 * @param method
+	 * @return
+	 * @throws DaoGenerateException
+	 */
+	public static DataAccessExecutor createJdbcExecutor(CacheManager cacheManager, CacheKeyHasher keyHasher,
+			JdbcDataAccessor dataAccessor, Method method) throws DaoGenerateException {
+		return createJdbcExecutor(cacheManager, keyHasher, null, dataAccessor, method);
+	}
+
+	/**
+	 * 创建JDBC的DataAccessExecutor，使用keyHasher对超长的缓存key进行摘要，并使用versionLeaseCache减少获取版本号的次数
+	 * 
+	 * @param cacheManager
+	 * @param keyHasher
+	 * @param versionLeaseCache
+	 * @param dataAccessor
+	 * @param method
+	 * @return
+	 * @throws DaoGenerateException
+	 */
+	public static DataAccessExecutor createJdbcExecutor(CacheManager cacheManager, CacheKeyHasher keyHasher,
+			VersionLeaseCache versionLeaseCache, JdbcDataAccessor dataAccessor, Method method)
+			throws DaoGenerateException {
 		DataAccessExecutor executor;
 
-		CacheExecutor cacheExecutor = createCacheExecutor(cacheManager, method);
+		CacheExecutor cacheExecutor = createCacheExecutor(cacheManager, keyHasher, versionLeaseCache, method);
 		AbstractJdbcExecutor jdbcExecutor = createJdbcExecutor(dataAccessor, method);
 
 		if (jdbcExecutor == null) {
@@ -78,8 +112,40 @@ public final class ExecutorFactory {
 	 */
 	public static DataAccessExecutor createMongoExecutor(CacheManager cacheManager, MongoDataAccessor dataAccessor,
 			Method method) throws DaoGenerateException {
+		return createMongoExecutor(cacheManager, null, dataAccessor, method);
+	}
+
+	/**
+	 * 创建MongoDB的DataAccessExecutor，并使用keyHasher对超长的缓存key进行摘要
+	 * 
+	 * @param cacheManager
+	 * @param keyHasher
+	 * @param dataAccessor
+	 * @param method
+	 * @return
+	 * @throws DaoGenerateException
+	 */
+	public static DataAccessExecutor createMongoExecutor(CacheManager cacheManager, CacheKeyHasher keyHasher,
+			MongoDataAccessor dataAccessor, Method method) throws DaoGenerateException {
+		return createMongoExecutor(cacheManager, keyHasher, null, dataAccessor, method);
+	}
+
+	/**
+	 * 创建MongoDB的DataAccessExecutor，使用keyHasher对超长的缓存key进行摘要，并使用versionLeaseCache减少获取版本号的次数
+	 * 
+	 * @param cacheManager
+	 * @param keyHasher
+	 * @param versionLeaseCache
+	 * @param dataAccessor
+	 * @param method
+	 * @return
+	 * @throws DaoGenerateException
+	 */
+	public static DataAccessExecutor createMongoExecutor(CacheManager cacheManager, CacheKeyHasher keyHasher,
+			VersionLeaseCache versionLeaseCache, MongoDataAccessor dataAccessor, Method method)
+			throws DaoGenerateException {
 		DataAccessExecutor executor;
-		CacheExecutor cacheExecutor = createCacheExecutor(cacheManager, method);
+		CacheExecutor cacheExecutor = createCacheExecutor(cacheManager, keyHasher, versionLeaseCache, method);
 		AbstractMongoExecutor mongoExecutor = createMongoExecutor(dataAccessor, method);
 
 		if (mongoExecutor == null) {
@@ -115,9 +181,11 @@ public final class ExecutorFactory {
 		return executor;
 	}
 
-	private static CacheExecutor createCacheExecutor(CacheManager cacheManager, Method method)
-			throws DaoGenerateException {
+	private static CacheExecutor createCacheExecutor(CacheManager cacheManager, CacheKeyHasher keyHasher,
+			VersionLeaseCache versionLeaseCache, Method method) throws DaoGenerateException {
 		CacheExecutor executor = new CacheExecutor(cacheManager, method);
+		executor.setKeyHasher(keyHasher);
+		executor.setVersionLeaseCache(versionLeaseCache);
 
 		return executor;
 	}
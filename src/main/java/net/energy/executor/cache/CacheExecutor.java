@@ -2,7 +2,16 @@ package net.energy.executor.cache;
 
 import java.io.Serializable;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
 
 import net.energy.cache.Cache;
 import net.energy.cache.CacheManager;
@@ -11,9 +20,13 @@ import net.energy.cache.CacheResult;
 import net.energy.definition.cache.CacheDefinition;
 import net.energy.definition.cache.CacheDefinitionCollection;
 import net.energy.definition.cache.CacheDeleteDefinition;
+import net.energy.definition.cache.CacheKeyHasher;
+import net.energy.definition.cache.CacheMultiDefinition;
+import net.energy.definition.cache.CachePutDefinition;
 import net.energy.definition.cache.VersionUpdateDefinition;
 import net.energy.exception.CacheUnreachableException;
 import net.energy.exception.DaoGenerateException;
+import net.energy.exception.TaskNotReturnException;
 import net.energy.executor.DataAccessExecutor;
 import net.energy.utils.Page;
 
@@ -29,9 +42,15 @@ import org.slf4j.LoggerFactory;
  */
 public class CacheExecutor implements DataAccessExecutor {
 	private static final Logger LOGGER = LoggerFactory.getLogger(CacheExecutor.class);
+	private static final CacheMissCoalescer COALESCER = new CacheMissCoalescer();
+	private static final CacheRefresher REFRESHER = new CacheRefresher();
 	private CacheDefinitionCollection cacheDefinitionCollection;
 	private final CacheManager cacheManager;
 	private DataAccessExecutor dataAccessExecutor;
+	/**
+	 * 版本号的本地租约缓存，为null时每次都从缓存服务器获取版本号
+	 */
+	private VersionLeaseCache versionLeaseCache;
 
 	public CacheExecutor(CacheManager cacheManager, Method method) throws DaoGenerateException {
 		this.cacheManager = cacheManager;
@@ -42,6 +61,24 @@ public class CacheExecutor implements DataAccessExecutor {
 		this.dataAccessExecutor = dataAccessExecutor;
 	}
 
+	/**
+	 * 设置长key的摘要器，为null时不对key进行摘要
+	 * 
+	 * @param keyHasher
+	 */
+	public void setKeyHasher(CacheKeyHasher keyHasher) {
+		cacheDefinitionCollection.setKeyHasher(keyHasher);
+	}
+
+	/**
+	 * 设置版本号的本地租约缓存，为null时每次都从缓存服务器获取版本号
+	 * 
+	 * @param versionLeaseCache
+	 */
+	public void setVersionLeaseCache(VersionLeaseCache versionLeaseCache) {
+		this.versionLeaseCache = versionLeaseCache;
+	}
+
 	@Override
 	public Object execute(Object obj, Object[] args) {
 		// 如果没有配置Cache操作，则直接执行数据访问操作
@@ -49,32 +86,274 @@ public class CacheExecutor implements DataAccessExecutor {
 			return dataAccessExecutor.execute(obj, args);
 		}
 
-		boolean dataAccessed = false;
-		Object retVal = null;
+		CacheMultiDefinition cacheMultiDefinition = cacheDefinitionCollection.getCacheMultiDefinition();
+		if (cacheMultiDefinition != null) {
+			return executeMulti(obj, args, cacheMultiDefinition);
+		}
 
+		CacheResult cacheResult;
 		try {
-			CacheResult cacheResult = beforeDataAccess(args);
-			// 如果缓存命中
-			if (cacheResult.isHit()) {
-				return cacheResult.getRetVal();
+			cacheResult = beforeDataAccess(args);
+		} catch (CacheUnreachableException e) {
+			return dataAccessExecutor.execute(obj, args);
+		}
+
+		CacheDefinition cacheDefinition = cacheDefinitionCollection.getCacheDefinition();
+
+		// 如果缓存命中
+		if (cacheResult.isHit()) {
+			if (cacheResult.isRefresh()) {
+				refreshInBackground(obj, args, cacheResult, cacheDefinition);
 			}
+			return slicePage(cacheDefinition, args, cacheResult.getRetVal());
+		}
 
-			retVal = dataAccessExecutor.execute(obj, args);
-			dataAccessed = true;
-			cacheResult.setRetVal(retVal);
+		// 只有缓存查询才需要合并加载，缓存更新类的操作每次都必须执行
+		if (cacheDefinition == null || cacheResult.getKey() == null || cacheDefinition.getWaitTimeout() <= 0) {
+			return slicePage(cacheDefinition, args, accessAndCache(obj, args, cacheResult));
+		}
 
-			afterDataAccess(cacheResult, args);
+		return slicePage(cacheDefinition, args, coalescedAccessAndCache(obj, args, cacheResult, cacheDefinition));
+	}
 
-			return retVal;
+	/**
+	 * 批量查询的逐个缓存：批量获取每个id对应的缓存，只查询未命中的id，并将查询结果逐个缓存，最后按传入id的顺序返回
+	 * 
+	 * @param obj
+	 * @param args
+	 * @param definition
+	 * @return
+	 */
+	private Object executeMulti(Object obj, Object[] args, CacheMultiDefinition definition) {
+		Collection<?> ids = definition.getIdsArgument(args);
+		if (ids == null || ids.isEmpty()) {
+			return dataAccessExecutor.execute(obj, args);
+		}
+
+		// 去重后的id对应的缓存key
+		Map<Object, String> idKeys = new LinkedHashMap<Object, String>(ids.size() * 2);
+		for (Object id : ids) {
+			if (id != null && !idKeys.containsKey(id)) {
+				idKeys.put(id, definition.generateElementKey(id));
+			}
+		}
+
+		Cache cache;
+		Map<String, Object> cachedValues;
+		try {
+			cache = cacheManager.getCache(definition.getPool());
+			Collection<String> keys = idKeys.values();
+			cachedValues = cache.getMulti(keys.toArray(new String[keys.size()]));
 		} catch (CacheUnreachableException e) {
-			if (!dataAccessed) {
-				return dataAccessExecutor.execute(obj, args);
+			return dataAccessExecutor.execute(obj, args);
+		}
+
+		Map<String, Object> values = new HashMap<String, Object>(idKeys.size() * 2);
+		List<Object> missingIds = new ArrayList<Object>();
+		for (Map.Entry<Object, String> entry : idKeys.entrySet()) {
+			Object cachedValue = (cachedValues == null) ? null : cachedValues.get(entry.getValue());
+			if (cachedValue instanceof CacheObject) {
+				values.put(entry.getValue(), ((CacheObject) cachedValue).getCacheObject());
 			} else {
-				return retVal;
+				missingIds.add(entry.getKey());
 			}
+		}
+		if (LOGGER.isDebugEnabled()) {
+			LOGGER.debug("批量获取缓存" + idKeys.values() + "，命中[" + (idKeys.size() - missingIds.size()) + "]个，未命中的id"
+					+ missingIds);
+		}
+
+		if (!missingIds.isEmpty()) {
+			Object loaded = dataAccessExecutor.execute(obj, definition.rebindIds(args, missingIds));
+			cacheLoadedElements(cache, definition, idKeys, missingIds, (Collection<?>) loaded, values);
+		}
+
+		// 按传入id的顺序返回，不存在的对象不返回
+		List<Object> result = new ArrayList<Object>(ids.size());
+		for (Object id : ids) {
+			Object value = (id == null) ? null : values.get(idKeys.get(id));
+			if (value != null) {
+				result.add(value);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * 将查询出的对象逐个缓存，并记录到values中。配置了nullExpire时，不存在的对象同样缓存
+	 * 
+	 * @param cache
+	 * @param definition
+	 * @param idKeys
+	 * @param missingIds
+	 * @param loaded
+	 * @param values
+	 */
+	private void cacheLoadedElements(Cache cache, CacheMultiDefinition definition, Map<Object, String> idKeys,
+			List<Object> missingIds, Collection<?> loaded, Map<String, Object> values) {
+		long expire = definition.getExpire();
+		try {
+			if (loaded != null) {
+				for (Object element : loaded) {
+					if (element == null) {
+						continue;
+					}
+					Object id = definition.fetchElementId(element);
+					if (id == null) {
+						continue;
+					}
+					String key = definition.generateElementKey(id);
+					values.put(key, element);
+					if (element instanceof Serializable) {
+						cache.add(key, new CacheObject((Serializable) element, 0L, expire), expire);
+					}
+				}
+			}
+
+			long nullExpire = definition.getNullExpire();
+			if (nullExpire > 0) {
+				for (Object id : missingIds) {
+					String key = idKeys.get(id);
+					if (!values.containsKey(key)) {
+						cache.add(key, new CacheObject(null, 0L, nullExpire), nullExpire);
+					}
+				}
+			}
+		} catch (CacheUnreachableException e) {
+			LOGGER.debug("数据访问后更新缓存失败", e);
+		}
+	}
+
+	/**
+	 * 判断是否需要缓存全部结果后在本地分页
+	 * 
+	 * @param cacheDefinition
+	 * @param args
+	 * @return
+	 */
+	private static boolean isPageSlice(CacheDefinition cacheDefinition, Object[] args) {
+		return cacheDefinition != null && cacheDefinition.isPageSlice() && cacheDefinition.getPageArgument(args) != null;
+	}
+
+	/**
+	 * 从全部结果中截取当前页，并将结果集的大小作为总记录数设置到分页对象中。
+	 * 返回的是一个新的List，不会修改缓存中的结果
+	 * 
+	 * @param cacheDefinition
+	 * @param args
+	 * @param result
+	 * @return
+	 */
+	private static Object slicePage(CacheDefinition cacheDefinition, Object[] args, Object result) {
+		if (!isPageSlice(cacheDefinition, args)) {
+			return result;
+		}
+
+		Page page = cacheDefinition.getPageArgument(args);
+		List<?> list = (List<?>) result;
+		int total = (list == null) ? 0 : list.size();
+		page.setTotal(total);
+
+		int fromIndex = page.getStartIndex();
+		int toIndex = Math.min(fromIndex + page.getSize(), total);
+		if (fromIndex >= toIndex) {
+			return new ArrayList<Object>(0);
+		}
+		return new ArrayList<Object>(list.subList(fromIndex, toIndex));
+	}
+
+	/**
+	 * 执行数据访问操作，并在执行后更新缓存
+	 * 
+	 * @param obj
+	 * @param args
+	 * @param cacheResult
+	 * @return
+	 */
+	private Object accessAndCache(Object obj, Object[] args, CacheResult cacheResult) {
+		// 整体缓存后分页时，需要去掉分页对象查询全部结果，分页在返回前进行
+		if (isPageSlice(cacheDefinitionCollection.getCacheDefinition(), args)) {
+			args = cacheDefinitionCollection.getCacheDefinition().removePageArgument(args);
+		}
+		Object retVal = dataAccessExecutor.execute(obj, args);
+		cacheResult.setRetVal(retVal);
 
+		try {
+			afterDataAccess(cacheResult, args);
+		} catch (CacheUnreachableException e) {
+			LOGGER.debug("数据访问后更新缓存失败", e);
 		}
 
+		return retVal;
+	}
+
+	/**
+	 * 合并相同缓存key的数据访问：同一时刻只有一个线程执行数据访问并重建缓存，其他线程等待其结果。
+	 * 如果等待超时，则自行执行数据访问操作
+	 * 
+	 * @param obj
+	 * @param args
+	 * @param cacheResult
+	 * @param cacheDefinition
+	 * @return
+	 */
+	private Object coalescedAccessAndCache(final Object obj, final Object[] args, final CacheResult cacheResult,
+			final CacheDefinition cacheDefinition) {
+		String loadKey = cacheDefinition.getPool() + ":" + cacheResult.getKey();
+		CacheResult loadedResult;
+		try {
+			loadedResult = (CacheResult) COALESCER.load(loadKey, new Callable<Object>() {
+
+				@Override
+				public Object call() throws Exception {
+					accessAndCache(obj, args, cacheResult);
+					// 数据访问后分页对象中已经包含总记录数，等待的线程需要使用
+					cacheResult.setPage(cacheDefinition.getPageArgument(args));
+					return cacheResult;
+				}
+			}, cacheDefinition.getWaitTimeout());
+		} catch (TaskNotReturnException e) {
+			LOGGER.info("等待其他线程加载缓存失败，直接调用DAO方法", e);
+			return accessAndCache(obj, args, cacheResult);
+		}
+
+		// 其他线程加载的结果，需要同步分页信息（整体缓存后分页时，总记录数在截取当前页时设置）
+		if (loadedResult != cacheResult && !cacheDefinition.isPageSlice()) {
+			Page page = cacheDefinition.getPageArgument(args);
+			Page loadedPage = loadedResult.getPage();
+			if (page != null && loadedPage != null) {
+				page.setTotal(loadedPage.getTotal());
+			}
+		}
+
+		return loadedResult.getRetVal();
+	}
+
+	/**
+	 * 在后台重新执行数据访问操作并更新缓存，当前线程直接返回已经命中的（旧的）缓存对象
+	 * 
+	 * @param obj
+	 * @param args
+	 * @param cacheResult
+	 * @param cacheDefinition
+	 */
+	private void refreshInBackground(final Object obj, final Object[] args, CacheResult cacheResult,
+			CacheDefinition cacheDefinition) {
+		// 后台刷新使用独立的CacheResult，避免影响当前线程的返回值
+		final CacheResult refreshResult = new CacheResult(false);
+		refreshResult.setKey(cacheResult.getKey());
+		refreshResult.setCache(cacheResult.getCache());
+		refreshResult.setVersionKey(cacheResult.getVersionKey());
+		refreshResult.setCurrentVersion(cacheResult.getCurrentVersion());
+
+		String refreshKey = cacheDefinition.getPool() + ":" + cacheResult.getKey();
+		REFRESHER.refresh(refreshKey, new Runnable() {
+
+			@Override
+			public void run() {
+				accessAndCache(obj, args, refreshResult);
+			}
+		});
 	}
 
 	/**
@@ -93,32 +372,140 @@ public class CacheExecutor implements DataAccessExecutor {
 			return cacheResult;
 		}
 
-		// 生成缓存对象的key
-		String key = cacheDefinition.generateCacheKey(args);
+		// 获取缓存客户端
+		Cache cache = cacheManager.getCache(cacheDefinition.getPool());
+
+		// 生成缓存对象的key，配置了标签时key值中包含标签的当前代数
+		long[] tagGenerations = getTagGenerations(cacheDefinition, cache, args);
+		String key = cacheDefinition.generateCacheKey(args, tagGenerations);
 		if (StringUtils.isEmpty(key)) {
 			LOGGER.debug("创建缓存Key失败,不进行缓存");
 			return cacheResult;
 		}
 		cacheResult.setKey(key);
-
-		// 获取缓存客户端
-		Cache cache = cacheManager.getCache(cacheDefinition.getPool());
 		cacheResult.setCache(cache);
 
+		// 一次性批量获取所有能够预先生成key的缓存值，减少访问缓存的次数
+		prefetch(cacheDefinition, cacheResult, args);
+
 		// 获取当前缓存的对象
-		CacheObject oldItem = (CacheObject) cache.get(key);
+		CacheObject oldItem = (CacheObject) getCachedValue(cacheResult, key);
 		if (LOGGER.isDebugEnabled()) {
 			LOGGER.debug("从缓存中获取Key值[" + key + "]的对象[" + oldItem + "]");
 		}
 
 		// 比较缓存版本，看缓存是否有效
 		if (oldItem != null) {
-			return compareVersionKey(cacheDefinition, cacheResult, oldItem, args);
+			cacheResult = compareVersionKey(cacheDefinition, cacheResult, oldItem, args);
+			// 即将过期的缓存需要在后台提前刷新
+			if (cacheResult.isHit() && isRefreshAhead(cacheDefinition, oldItem, args)) {
+				cacheResult.setRefresh(true);
+			}
+			return cacheResult;
 		}
 
 		return cacheResult;
 	}
 
+	/**
+	 * 批量获取标签的当前代数，代数不存在时原子的创建
+	 * 
+	 * @param cacheDefinition
+	 * @param cache
+	 * @param args
+	 * @return 没有配置标签时返回null
+	 */
+	private long[] getTagGenerations(CacheDefinition cacheDefinition, Cache cache, Object[] args) {
+		String[] tagKeys = cacheDefinition.generateTagKeys(args);
+		if (tagKeys == null) {
+			return null;
+		}
+
+		// 标签代数与版本号一样，租约内直接使用本地记录的值
+		String pool = cacheDefinition.getPool();
+		long[] generations = new long[tagKeys.length];
+		List<String> unleasedKeys = new ArrayList<String>(tagKeys.length);
+		for (int i = 0; i < tagKeys.length; i++) {
+			generations[i] = getLeasedVersion(pool, tagKeys[i]);
+			if (generations[i] <= 0) {
+				unleasedKeys.add(tagKeys[i]);
+			}
+		}
+
+		Map<String, Object> values = unleasedKeys.isEmpty() ? null : cache.getMulti(unleasedKeys
+				.toArray(new String[unleasedKeys.size()]));
+		for (int i = 0; i < tagKeys.length; i++) {
+			if (generations[i] > 0) {
+				continue;
+			}
+			long generation = toVersion((values == null) ? null : values.get(tagKeys[i]));
+			if (generation <= 0) {
+				// 增加0相当于原子的“获取或者创建”
+				generation = cache.incr(tagKeys[i], 0L, newInitialVersion(), cacheDefinition.getExpire());
+			}
+			leaseVersion(pool, tagKeys[i], generation);
+			generations[i] = generation;
+		}
+
+		if (LOGGER.isDebugEnabled()) {
+			LOGGER.debug("获取标签" + Arrays.toString(tagKeys) + "的代数" + Arrays.toString(generations));
+		}
+		return generations;
+	}
+
+	/**
+	 * 预先批量获取缓存：对象缓存的key、集合的版本key、分页对象的key都可以在查询前生成，
+	 * 所以通过一次getMulti全部取回。单个对象的版本key依赖于缓存的对象，无法预先生成。
+	 * 
+	 * @param cacheDefinition
+	 * @param cacheResult
+	 * @param args
+	 */
+	private void prefetch(CacheDefinition cacheDefinition, CacheResult cacheResult, Object[] args) {
+		String key = cacheResult.getKey();
+		List<String> keys = new ArrayList<String>(3);
+		keys.add(key);
+
+		if (cacheDefinition.isReturnCollection()) {
+			String versionKey = cacheDefinition.generateVersionKey(args);
+			// 租约内的版本号不需要访问缓存
+			if (StringUtils.isNotEmpty(versionKey) && getLeasedVersion(cacheDefinition.getPool(), versionKey) <= 0) {
+				keys.add(versionKey);
+			}
+			String pageKey = cacheDefinition.generatePageKey(args, key);
+			if (StringUtils.isNotEmpty(pageKey)) {
+				keys.add(pageKey);
+			}
+		}
+
+		Map<String, Object> values = cacheResult.getCache().getMulti(keys.toArray(new String[keys.size()]));
+
+		// 记录所有预取的key，未命中的key对应null，以免之后重复访问缓存
+		Map<String, Object> prefetchedValues = new HashMap<String, Object>(keys.size());
+		for (String prefetchKey : keys) {
+			prefetchedValues.put(prefetchKey, (values == null) ? null : values.get(prefetchKey));
+		}
+		cacheResult.setPrefetchedValues(prefetchedValues);
+
+		if (LOGGER.isDebugEnabled()) {
+			LOGGER.debug("批量预取缓存Key值" + keys + "，结果" + prefetchedValues);
+		}
+	}
+
+	/**
+	 * 获取缓存值，如果已经预取过则直接使用预取的结果，否则访问缓存
+	 * 
+	 * @param cacheResult
+	 * @param key
+	 * @return
+	 */
+	private Object getCachedValue(CacheResult cacheResult, String key) {
+		if (cacheResult.isPrefetched(key)) {
+			return cacheResult.getPrefetchedValue(key);
+		}
+		return cacheResult.getCache().get(key);
+	}
+
 	/**
 	 * 比较缓存版本，看缓存是否有效
 	 * 
@@ -160,14 +547,20 @@ public class CacheExecutor implements DataAccessExecutor {
 		}
 		cacheResult.setVersionKey(versionKey);
 
-		Cache cache = cacheResult.getCache();
 		// 根据版本的key值，获取当前版本的值
-		long currentVersion = getCurrentVersion(cache, versionKey);
+		long currentVersion = getCurrentVersion(cacheResult, cacheDefinition.getPool(), versionKey);
 		cacheResult.setCurrentVersion(currentVersion);
 
 		// 如果当前版本值，和缓存中设置的值一致，说明这段时间没有更新，缓存有效。
 		if (currentVersion != 0 && currentVersion == itemVersion) {
 			return processCacheHit(cacheResult, cachedItem, args);
+		} else if (isStaleUsable(cacheDefinition, oldItem, args)) {
+			if (LOGGER.isDebugEnabled()) {
+				LOGGER.debug("当前版本为[" + currentVersion + "],缓存对象版本号为[" + itemVersion + "],返回旧的缓存对象并在后台刷新缓存");
+			}
+			cacheResult = processCacheHit(cacheResult, cachedItem, args);
+			cacheResult.setRefresh(cacheResult.isHit());
+			return cacheResult;
 		} else {
 			if (LOGGER.isDebugEnabled()) {
 				LOGGER.debug("当前版本为[" + currentVersion + "],缓存对象版本号为[" + itemVersion + "],Cache没有命中,直接调用DAO方法");
@@ -177,24 +570,130 @@ public class CacheExecutor implements DataAccessExecutor {
 	}
 
 	/**
-	 * 根据版本的key值，获取版本号
+	 * 判断版本不一致的缓存对象是否还可以返回：缓存对象的存活时间没有超过staleFor，并且不是分页查询
 	 * 
-	 * @param cache
+	 * @param cacheDefinition
+	 * @param oldItem
+	 * @param args
+	 * @return
+	 */
+	private boolean isStaleUsable(CacheDefinition cacheDefinition, CacheObject oldItem, Object[] args) {
+		long staleFor = cacheDefinition.getStaleFor();
+		if (staleFor <= 0 || oldItem.getCreateTime() <= 0 || isPagedPerPage(cacheDefinition, args)) {
+			return false;
+		}
+		return System.currentTimeMillis() - oldItem.getCreateTime() <= staleFor;
+	}
+
+	/**
+	 * 判断命中的缓存对象是否即将过期，需要提前刷新。分页查询的分页对象会在数据访问时被修改，所以不提前刷新
+	 * 
+	 * @param cacheDefinition
+	 * @param oldItem
+	 * @param args
+	 * @return
+	 */
+	private boolean isRefreshAhead(CacheDefinition cacheDefinition, CacheObject oldItem, Object[] args) {
+		long refreshAhead = cacheDefinition.getRefreshAhead();
+		if (refreshAhead <= 0 || oldItem.getExpireTime() <= 0 || isPagedPerPage(cacheDefinition, args)) {
+			return false;
+		}
+		return oldItem.getExpireTime() - System.currentTimeMillis() <= refreshAhead;
+	}
+
+	/**
+	 * 是否为按页缓存的分页查询。按页缓存的分页对象会在数据访问时被修改，所以不能返回旧的缓存对象，也不能提前刷新；
+	 * 整体缓存后分页的查询缓存的是全部结果，不受此限制
+	 * 
+	 * @param cacheDefinition
+	 * @param args
+	 * @return
+	 */
+	private static boolean isPagedPerPage(CacheDefinition cacheDefinition, Object[] args) {
+		return cacheDefinition.getPageArgument(args) != null && !cacheDefinition.isPageSlice();
+	}
+
+	/**
+	 * 根据版本的key值，获取版本号。租约内的版本号直接使用本地记录的值，否则访问缓存并开始新的租约
+	 * 
+	 * @param cacheResult
+	 * @param pool
 	 * @param versionKey
 	 * @return
 	 */
-	private long getCurrentVersion(Cache cache, String versionKey) {
-		Long cachedVersion = (Long) cache.get(versionKey);
-		if (LOGGER.isDebugEnabled()) {
-			LOGGER.debug("获取Key值为[" + versionKey + "]版本信息,版本号[" + cachedVersion + "]");
+	private long getCurrentVersion(CacheResult cacheResult, String pool, String versionKey) {
+		long currentVersion = getLeasedVersion(pool, versionKey);
+		if (currentVersion > 0) {
+			if (LOGGER.isDebugEnabled()) {
+				LOGGER.debug("获取Key值为[" + versionKey + "]版本信息,使用租约内的版本号[" + currentVersion + "]");
+			}
+			return currentVersion;
 		}
-		long currentVersion = 0;
-		if (cachedVersion != null) {
-			currentVersion = cachedVersion;
+
+		currentVersion = toVersion(getCachedValue(cacheResult, versionKey));
+		leaseVersion(pool, versionKey, currentVersion);
+		if (LOGGER.isDebugEnabled()) {
+			LOGGER.debug("获取Key值为[" + versionKey + "]版本信息,版本号[" + currentVersion + "]");
 		}
 		return currentVersion;
 	}
 
+	/**
+	 * 获取租约内的版本号
+	 * 
+	 * @param pool
+	 * @param versionKey
+	 * @return 没有设置租约缓存或者不在租约内时返回0
+	 */
+	private long getLeasedVersion(String pool, String versionKey) {
+		VersionLeaseCache leaseCache = versionLeaseCache;
+		return (leaseCache == null) ? 0L : leaseCache.get(pool, versionKey);
+	}
+
+	/**
+	 * 记录从缓存获取（或者更新）的版本号
+	 * 
+	 * @param pool
+	 * @param versionKey
+	 * @param version
+	 */
+	private void leaseVersion(String pool, String versionKey, long version) {
+		VersionLeaseCache leaseCache = versionLeaseCache;
+		if (leaseCache != null) {
+			leaseCache.put(pool, versionKey, version);
+		}
+	}
+
+	/**
+	 * 将缓存的版本信息转换为版本号。版本号由计数器维护，根据缓存实现的不同可能是Long、AtomicLong或者字符串
+	 * 
+	 * @param cachedVersion
+	 * @return 版本信息不存在或者无法识别时返回0
+	 */
+	private static long toVersion(Object cachedVersion) {
+		if (cachedVersion instanceof Number) {
+			return ((Number) cachedVersion).longValue();
+		}
+		if (cachedVersion instanceof String) {
+			try {
+				return Long.parseLong(((String) cachedVersion).trim());
+			} catch (NumberFormatException e) {
+				return 0L;
+			}
+		}
+		return 0L;
+	}
+
+	/**
+	 * 版本计数器不存在时的初始值。计数器可能因为过期或者被挤出缓存而重建，
+	 * 使用当前时间（放大1000倍）作为初始值，保证重建后的版本号不会与之前的版本号重复
+	 * 
+	 * @return
+	 */
+	private static long newInitialVersion() {
+		return System.currentTimeMillis() * 1000L;
+	}
+
 	/**
 	 * 缓存命中后的处理：缓存命中后需要判断是否为分页的数据，如果是分页查询的还需要取出缓存的分页数据（总记录数）
 	 * 
@@ -210,10 +709,9 @@ public class CacheExecutor implements DataAccessExecutor {
 		cacheResult.setRetVal(cachedItem);
 
 		CacheDefinition cacheDefinition = cacheDefinitionCollection.getCacheDefinition();
-		Cache cache = cacheResult.getCache();
 
-		// 判断是否存在分页，如果分页了还需要特殊处理
-		if (cacheDefinition.isReturnCollection()) {
+		// 判断是否存在分页，如果分页了还需要特殊处理（整体缓存后分页的查询在返回前截取当前页）
+		if (cacheDefinition.isReturnCollection() && !cacheDefinition.isPageSlice()) {
 			Page page = cacheDefinition.getPageArgument(args);
 			// 如果分页对象为空，表示此分页被复用与不分页的情况了，需要加以区分
 			if (page != null) {
@@ -221,7 +719,7 @@ public class CacheExecutor implements DataAccessExecutor {
 				if (LOGGER.isDebugEnabled()) {
 					LOGGER.debug("缓存为需要分页的缓存，页码[" + page.getCurpage() + "],对应的分页缓存Key为[" + pageKey + "]");
 				}
-				Page cachePage = (Page) cache.get(pageKey);
+				Page cachePage = (Page) getCachedValue(cacheResult, pageKey);
 				// 如果取不到分页数据，需要当做未命中处理
 				if (cachePage == null) {
 					cacheResult.setHit(false);
@@ -244,10 +742,11 @@ public class CacheExecutor implements DataAccessExecutor {
 	 */
 	private void afterDataAccess(CacheResult cacheResult, Object[] args) throws CacheUnreachableException {
 		CacheDefinition cacheDefinition = cacheDefinitionCollection.getCacheDefinition();
-		// 如果不是缓存获取操作，则只需要进行简单的缓存删除和版本信息更新
+		// 如果不是缓存获取操作，则只需要进行简单的缓存删除、版本信息更新以及缓存写入
 		if (cacheDefinition == null) {
-			updateVersion(args);
+			Map<String, Long> updatedVersions = updateVersion(args);
 			deleteCache(args);
+			putCache(args, updatedVersions);
 			return;
 		}
 		// 对于没有命中的缓存，需要进行缓存的更新以及版本信息的重新构建。
@@ -257,11 +756,18 @@ public class CacheExecutor implements DataAccessExecutor {
 		// 版本信息的重新构建
 		cacheResult = recacheVersionKey(cacheResult, args, cacheDefinition);
 
+		// 空结果使用单独的缓存时间
 		long expire = cacheDefinition.getExpire();
+		if (CacheObject.isEmptyResult(exeResult)) {
+			expire = cacheDefinition.getNullExpire();
+			if (LOGGER.isDebugEnabled()) {
+				LOGGER.debug("查询结果为空，按空结果缓存[" + expire + "]毫秒");
+			}
+		}
 
 		long currentVersion = cacheResult.getCurrentVersion();
-		// 缓存查询结果
-		CacheObject newItem = new CacheObject((Serializable) exeResult, currentVersion);
+		// 缓存查询结果，空结果同样使用CacheObject包装，所以能够存放到任何实现的Cache中
+		CacheObject newItem = new CacheObject((Serializable) exeResult, currentVersion, expire);
 		cache.add(key, newItem, expire);
 		if (LOGGER.isDebugEnabled()) {
 			LOGGER.debug("缓存对象到[" + key + "],缓存时间[" + expire + "]毫秒");
@@ -293,32 +799,97 @@ public class CacheExecutor implements DataAccessExecutor {
 	 * 
 	 *
 	 * @param args
+	 * @return 更新后的版本号，key为“缓存池:版本key”，没有更新版本号时返回null
 	 * @throws CacheUnreachableException
 	 */
-	private void updateVersion(Object[] args) throws CacheUnreachableException {
+	private Map<String, Long> updateVersion(Object[] args) throws CacheUnreachableException {
 		List<VersionUpdateDefinition> updates = cacheDefinitionCollection.getVersionUpdateDefinitions();
 		if (updates == null) {
-			return;
+			return null;
 		}
 
-		// 根据cacheDefinitionCollection中配置的所有更新版本操作，循环调用，更新版本号
+		// 按缓存池（以及缓存时间）分组，每组的版本号一次批量更新
+		Map<String, KeyBatch> batches = new LinkedHashMap<String, KeyBatch>();
 		for (VersionUpdateDefinition definition : updates) {
 			String versionKey = definition.generateVersionKey(args);
 			if (versionKey == null) {
 				LOGGER.info("无法生成更新版本信息缓存的Key,更新缓存版本失败");
+				continue;
 			}
-			// 使用系统时间作为版本号，防止当前版本号与之前某个版本号正好一致，而是对象无法失效
-			long currentVersion = System.currentTimeMillis();
-			if (versionKey != null) {
-				Cache cache = cacheManager.getCache(definition.getPool());
-				long expire = definition.getExpire();
-				cache.add(versionKey, currentVersion, expire);
+			addToBatch(batches, definition.getPool(), definition.getExpire(), versionKey);
+		}
+
+		Map<String, Long> updatedVersions = new HashMap<String, Long>(updates.size());
+		for (KeyBatch batch : batches.values()) {
+			Cache cache = cacheManager.getCache(batch.pool);
+			// 原子的增加版本号，避免并发更新（或者服务器之间的时钟偏差）导致版本号相同而使旧的缓存对象无法失效
+			Map<String, Long> versions = cache.incrMulti(1L, newInitialVersion(), batch.expire, batch.toArray());
+			for (Map.Entry<String, Long> entry : versions.entrySet()) {
+				String versionKey = entry.getKey();
+				long currentVersion = entry.getValue();
+				// 立即更新租约，本节点之后的查询不会使用旧的版本号
+				leaseVersion(batch.pool, versionKey, currentVersion);
+				updatedVersions.put(batch.pool + ":" + versionKey, currentVersion);
 				if (LOGGER.isDebugEnabled()) {
-					LOGGER.debug("更新版本信息,版本Key值[" + versionKey + "],版本号[" + currentVersion + "], 版本信息缓存时间[" + expire
-							+ "]毫秒");
+					LOGGER.debug("更新版本信息,版本Key值[" + versionKey + "],版本号[" + currentVersion + "], 版本信息缓存时间["
+							+ batch.expire + "]毫秒");
 				}
 			}
 		}
+		return updatedVersions;
+	}
+
+	/**
+	 * 将更新后的对象直接写入缓存，版本号使用本次更新后的版本号（或者当前版本号），使更新后的查询能够直接命中缓存
+	 * 
+	 * @param args
+	 * @param updatedVersions
+	 *            本次执行中更新过的版本号
+	 * @throws CacheUnreachableException
+	 */
+	private void putCache(Object[] args, Map<String, Long> updatedVersions) throws CacheUnreachableException {
+		List<CachePutDefinition> puts = cacheDefinitionCollection.getCachePutDefinitions();
+		if (puts == null) {
+			return;
+		}
+
+		for (CachePutDefinition definition : puts) {
+			Object value = definition.fetchPutValue(args);
+			if (value == null) {
+				LOGGER.debug("写入缓存的对象为null，忽略写入");
+				continue;
+			}
+			if (!(value instanceof Serializable)) {
+				LOGGER.info("写入缓存的对象[" + value.getClass().getName() + "]没有实现Serializable，忽略写入");
+				continue;
+			}
+			String key = definition.generateCacheKey(args);
+			if (StringUtils.isEmpty(key)) {
+				LOGGER.info("无法生成写入缓存的Key,忽略写入");
+				continue;
+			}
+
+			Cache cache = cacheManager.getCache(definition.getPool());
+			long expire = definition.getExpire();
+			long version = 0L;
+			if (StringUtils.isNotEmpty(definition.getVkey())) {
+				String versionKey = definition.generateVersionKey(args);
+				Long updatedVersion = (updatedVersions == null) ? null : updatedVersions.get(definition.getPool()
+						+ ":" + versionKey);
+				// 本次没有更新此版本号时，原子的“获取或者创建”当前版本号
+				if (updatedVersion != null) {
+					version = updatedVersion;
+				} else {
+					version = cache.incr(versionKey, 0L, newInitialVersion(), expire);
+					leaseVersion(definition.getPool(), versionKey, version);
+				}
+			}
+
+			cache.add(key, new CacheObject((Serializable) value, version, expire), expire);
+			if (LOGGER.isDebugEnabled()) {
+				LOGGER.debug("写入缓存对象到[" + key + "],版本号[" + version + "],缓存时间[" + expire + "]毫秒");
+			}
+		}
 	}
 
 	/**
@@ -334,17 +905,81 @@ public class CacheExecutor implements DataAccessExecutor {
 		if (deletes == null) {
 			return;
 		}
-		// 根据cacheDefinitionCollection中配置的所有删除缓存操作，循环调用，删除缓存
+		// 按缓存池分组，每个缓存池的删除和标签代数更新各自一次批量完成
+		Map<String, KeyBatch> deleteBatches = new LinkedHashMap<String, KeyBatch>();
+		Map<String, KeyBatch> tagBatches = new LinkedHashMap<String, KeyBatch>();
 		for (CacheDeleteDefinition definition : deletes) {
-			String key = definition.generateCacheKey(args);
-			Cache cache = cacheManager.getCache(definition.getPool());
-			cache.delete(key);
+			if (definition.hasKey()) {
+				addToBatch(deleteBatches, definition.getPool(), 0L, definition.generateCacheKey(args));
+			}
+			String[] tagKeys = definition.generateTagKeys(args);
+			if (tagKeys != null) {
+				for (String tagKey : tagKeys) {
+					addToBatch(tagBatches, definition.getPool(), 0L, tagKey);
+				}
+			}
+		}
+
+		for (KeyBatch batch : deleteBatches.values()) {
+			cacheManager.getCache(batch.pool).deleteMulti(batch.toArray());
+			if (LOGGER.isDebugEnabled()) {
+				LOGGER.debug("删除Key为" + batch.keys + "的缓存");
+			}
+		}
+
+		// 标签的代数加1，之后带有此标签的缓存都会使用新的key值
+		for (KeyBatch batch : tagBatches.values()) {
+			Cache cache = cacheManager.getCache(batch.pool);
+			Map<String, Long> generations = cache.incrMulti(1L, newInitialVersion(), 0L, batch.toArray());
+			for (Map.Entry<String, Long> entry : generations.entrySet()) {
+				leaseVersion(batch.pool, entry.getKey(), entry.getValue());
+			}
 			if (LOGGER.isDebugEnabled()) {
-				LOGGER.debug("删除Key为[" + key + "]的缓存");
+				LOGGER.debug("失效标签下的所有缓存，标签代数更新为" + generations);
 			}
 		}
 	}
 
+	/**
+	 * 将key加入所属缓存池（以及缓存时间）的批量操作中，无法生成的key直接忽略
+	 * 
+	 * @param batches
+	 * @param pool
+	 * @param expire
+	 * @param key
+	 */
+	private static void addToBatch(Map<String, KeyBatch> batches, String pool, long expire, String key) {
+		if (StringUtils.isEmpty(key)) {
+			LOGGER.info("无法生成缓存池[" + pool + "]中需要操作的缓存Key,忽略");
+			return;
+		}
+		String batchKey = pool + ":" + expire;
+		KeyBatch batch = batches.get(batchKey);
+		if (batch == null) {
+			batch = new KeyBatch(pool, expire);
+			batches.put(batchKey, batch);
+		}
+		batch.keys.add(key);
+	}
+
+	/**
+	 * 同一个缓存池（以及缓存时间）中需要批量操作的key，重复的key只操作一次
+	 */
+	private static class KeyBatch {
+		private final String pool;
+		private final long expire;
+		private final Set<String> keys = new LinkedHashSet<String>();
+
+		KeyBatch(String pool, long expire) {
+			this.pool = pool;
+			this.expire = expire;
+		}
+
+		String[] toArray() {
+			return keys.toArray(new String[keys.size()]);
+		}
+	}
+
 	/**
 	 * 对于判断为缓存失效的，需要在查询成功后重建版本信息。
 	 * 
@@ -363,7 +998,7 @@ public class CacheExecutor implements DataAccessExecutor {
 		// 原来的version已经因为时间等原因过期，需要重新缓存。
 		// 否则就不需要重新缓存，直接以当前的版本号作为缓存对象的版本号
 		if (currentVersion <= 0) {
-			Long cachedCurrentVersion = null;
+			long cachedCurrentVersion = 0L;
 			// versionKey为空表示beforeDataAccess执行过程中并没有到compareVersionKey这一步。
 			// 可以认为是第一次查询缓存，需要生产版本的key，来获取当前版本信息;
 			if (versionKey == null) {
@@ -384,17 +1019,17 @@ public class CacheExecutor implements DataAccessExecutor {
 					LOGGER.debug("第一次查询缓存，需要生成版本信息,版本信息缓存的Key[" + versionKey + "]");
 				}
 				// 由于第一次查询无法得知版本信息，所以在知道版本key后需要再查一次版本信息。
-				cachedCurrentVersion = (Long) cache.get(versionKey);
+				cachedCurrentVersion = getCurrentVersion(cacheResult, cacheDefinition.getPool(), versionKey);
 
 			}
 
 			// versionKey不为空但是对应的值却为空或者无意义，表明版本信息不存在，需要更新版本信息。
 			// 否则就可以将缓存的版本信息作为当前的版本信息
-			if ((cachedCurrentVersion == null || cachedCurrentVersion <= 0)) {
-				// 使用系统时间作为版本号，防止当前版本号与之前某个版本号正好一致，而是对象无法失效
-				currentVersion = System.currentTimeMillis();
+			if (cachedCurrentVersion <= 0) {
+				// 增加0相当于原子的“获取或者创建”，如果其他线程已经创建了版本信息，就直接使用已有的版本号
 				long expire = cacheDefinition.getExpire();
-				cache.add(versionKey, currentVersion, expire);
+				currentVersion = cache.incr(versionKey, 0L, newInitialVersion(), expire);
+				leaseVersion(cacheDefinition.getPool(), versionKey, currentVersion);
 
 				if (LOGGER.isDebugEnabled()) {
 					LOGGER.debug("更新版本信息，版本Key值[" + versionKey + "],版本号[" + currentVersion + "], 版本信息缓存时间[" + expire
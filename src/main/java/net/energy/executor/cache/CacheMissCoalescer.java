@@ -0,0 +1,97 @@
+package net.energy.executor.cache;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import net.energy.exception.TaskNotReturnException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 缓存未命中时的加载合并器。同一个缓存key同一时刻只允许一个线程去访问数据并重建缓存，
+ * 其他线程等待这个线程的执行结果，以免缓存失效时大量请求同时访问数据库。
+ *
+ * <pre>
+ * 等待的线程最多等待指定的时间，超时后抛出{@link TaskNotReturnException}，由调用方自行决定后续处理。
+ * 执行线程抛出的运行时异常会原样抛给所有等待的线程。
+ * </pre>
+ *
+ * @author wuqh
+ *
+ */
+class CacheMissCoalescer {
+	private static final Logger LOGGER = LoggerFactory.getLogger(CacheMissCoalescer.class);
+	private final ConcurrentMap<String, FutureTask<Object>> loadings = new ConcurrentHashMap<String, FutureTask<Object>>();
+
+	/**
+	 * 执行加载操作，如果相同key的加载已经在进行中，则等待其结果
+	 *
+	 * @param key
+	 * @param loader
+	 * @param timeout
+	 *            等待其他线程加载结果的最长时间（单位：毫秒）
+	 * @return
+	 */
+	public Object load(String key, Callable<Object> loader, long timeout) {
+		FutureTask<Object> task = new FutureTask<Object>(loader);
+		FutureTask<Object> loading = loadings.putIfAbsent(key, task);
+
+		if (loading == null) {
+			if (LOGGER.isDebugEnabled()) {
+				LOGGER.debug("Thread" + Thread.currentThread().getId() + ":加载缓存Key[" + key + "]对应的数据");
+			}
+			try {
+				task.run();
+			} finally {
+				loadings.remove(key, task);
+			}
+			return getResult(key, task);
+		}
+
+		if (LOGGER.isDebugEnabled()) {
+			LOGGER.debug("Thread" + Thread.currentThread().getId() + ":缓存Key[" + key + "]正在被其他线程加载，开始等待加载结果");
+		}
+		try {
+			return getResult(key, loading, timeout);
+		} catch (TimeoutException e) {
+			throw new TaskNotReturnException("等待缓存Key[" + key + "]加载超时[" + timeout + "]毫秒");
+		}
+	}
+
+	private Object getResult(String key, FutureTask<Object> task) {
+		try {
+			return getResult(key, task, 0);
+		} catch (TimeoutException e) {
+			// 不设置超时时间时不会发生
+			throw new TaskNotReturnException(e);
+		}
+	}
+
+	private Object getResult(String key, FutureTask<Object> task, long timeout) throws TimeoutException {
+		try {
+			if (timeout > 0) {
+				return task.get(timeout, TimeUnit.MILLISECONDS);
+			} else {
+				return task.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new TaskNotReturnException("等待缓存Key[" + key + "]加载时被中断");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new TaskNotReturnException(cause);
+		}
+	}
+}
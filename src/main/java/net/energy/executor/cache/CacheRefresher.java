@@ -0,0 +1,92 @@
+package net.energy.executor.cache;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 缓存的后台刷新器。用于在返回过期（或即将过期）的缓存对象后，异步重新加载数据并更新缓存。
+ * 
+ * <pre>
+ * 1、后台线程数和等待队列都是有界的，队列满时新的刷新请求会被直接丢弃；
+ * 2、同一个缓存key同一时刻只会有一个刷新任务。
+ * </pre>
+ * 
+ * @author wuqh
+ * 
+ */
+class CacheRefresher {
+	private static final Logger LOGGER = LoggerFactory.getLogger(CacheRefresher.class);
+	private static final int DEFAULT_THREADS = 4;
+	private static final int DEFAULT_QUEUE_SIZE = 1024;
+
+	private final ConcurrentMap<String, Boolean> refreshings = new ConcurrentHashMap<String, Boolean>();
+	private final ThreadPoolExecutor executor;
+
+	public CacheRefresher() {
+		this(DEFAULT_THREADS, DEFAULT_QUEUE_SIZE);
+	}
+
+	public CacheRefresher(int threads, int queueSize) {
+		executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(queueSize), new RefreshThreadFactory(),
+				new ThreadPoolExecutor.AbortPolicy());
+		executor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * 提交后台刷新任务，如果相同key的刷新任务正在执行或者队列已满，则忽略本次刷新
+	 * 
+	 * @param key
+	 * @param refresh
+	 * @return 是否成功提交
+	 */
+	public boolean refresh(final String key, final Runnable refresh) {
+		if (refreshings.putIfAbsent(key, Boolean.TRUE) != null) {
+			if (LOGGER.isDebugEnabled()) {
+				LOGGER.debug("缓存Key[" + key + "]正在后台刷新，忽略本次刷新");
+			}
+			return false;
+		}
+
+		try {
+			executor.execute(new Runnable() {
+
+				@Override
+				public void run() {
+					try {
+						refresh.run();
+					} catch (Throwable e) {
+						LOGGER.info("后台刷新缓存Key[" + key + "]失败", e);
+					} finally {
+						refreshings.remove(key);
+					}
+				}
+			});
+			return true;
+		} catch (RejectedExecutionException e) {
+			refreshings.remove(key);
+			LOGGER.info("后台刷新队列已满，忽略缓存Key[" + key + "]的刷新");
+			return false;
+		}
+	}
+
+	private static class RefreshThreadFactory implements ThreadFactory {
+		private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "energy-cache-refresh-" + threadNumber.getAndIncrement());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
@@ -0,0 +1,145 @@
+package net.energy.executor.cache;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 版本号的本地租约缓存。在租约时间内直接使用本地记录的版本号，不再访问缓存服务器获取版本号。
+ * 
+ * <pre>
+ * 1、其他节点更新版本号后，本节点最多在租约时间（leaseTime）内仍然使用旧的版本号，即租约时间就是允许的最大延迟；
+ * 2、本节点更新版本号（@VerUpdate）后立即更新租约，本节点的查询不会读到旧的版本号；
+ * 3、租约内的版本号只增不减，避免并发时较慢的读取覆盖较新的版本号；
+ * 4、记录数超过maxEntries时，先清除过期的租约，仍然超出则任意清除一部分。
+ * </pre>
+ * 
+ * 同一个工厂创建的所有DAO共享同一个实例。
+ * 
+ * @author wuqh
+ * 
+ */
+public class VersionLeaseCache {
+	private static final int DEFAULT_MAX_ENTRIES = 10000;
+
+	private final ConcurrentMap<String, Lease> leases = new ConcurrentHashMap<String, Lease>();
+	private final long leaseNanos;
+	private final int maxEntries;
+
+	/**
+	 * @param leaseTime
+	 *            租约时间，单位：毫秒
+	 */
+	public VersionLeaseCache(long leaseTime) {
+		this(leaseTime, DEFAULT_MAX_ENTRIES);
+	}
+
+	/**
+	 * @param leaseTime
+	 *            租约时间，单位：毫秒
+	 * @param maxEntries
+	 *            最多记录的版本号个数
+	 */
+	public VersionLeaseCache(long leaseTime, int maxEntries) {
+		if (leaseTime <= 0) {
+			throw new IllegalArgumentException("租约时间必须大于0");
+		}
+		this.leaseNanos = TimeUnit.MILLISECONDS.toNanos(leaseTime);
+		this.maxEntries = maxEntries;
+	}
+
+	/**
+	 * 获取租约内的版本号
+	 * 
+	 * @param pool
+	 * @param versionKey
+	 * @return 没有租约或者租约已经过期时返回0
+	 */
+	public long get(String pool, String versionKey) {
+		Lease lease = leases.get(toLeaseKey(pool, versionKey));
+		if (lease == null || lease.isExpired(System.nanoTime())) {
+			return 0L;
+		}
+		return lease.version;
+	}
+
+	/**
+	 * 记录从缓存服务器获取（或者更新）的版本号，并开始新的租约
+	 * 
+	 * @param pool
+	 * @param versionKey
+	 * @param version
+	 */
+	public void put(String pool, String versionKey, long version) {
+		if (version <= 0) {
+			return;
+		}
+		String leaseKey = toLeaseKey(pool, versionKey);
+		long now = System.nanoTime();
+		Lease lease = new Lease(version, now + leaseNanos);
+		while (true) {
+			Lease existed = leases.putIfAbsent(leaseKey, lease);
+			if (existed == null) {
+				evictIfNecessary(now);
+				return;
+			}
+			// 租约内已经有更新的版本号，不能用旧的版本号覆盖
+			if (!existed.isExpired(now) && existed.version > version) {
+				return;
+			}
+			if (leases.replace(leaseKey, existed, lease)) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * 清除版本号的租约，之后会重新从缓存服务器获取
+	 * 
+	 * @param pool
+	 * @param versionKey
+	 */
+	public void invalidate(String pool, String versionKey) {
+		leases.remove(toLeaseKey(pool, versionKey));
+	}
+
+	public long getLeaseTime() {
+		return TimeUnit.NANOSECONDS.toMillis(leaseNanos);
+	}
+
+	private void evictIfNecessary(long now) {
+		if (leases.size() <= maxEntries) {
+			return;
+		}
+		for (Iterator<Lease> it = leases.values().iterator(); it.hasNext();) {
+			if (it.next().isExpired(now)) {
+				it.remove();
+			}
+		}
+		// 租约时间很短，任意清除的代价只是多访问一次缓存服务器
+		int excess = leases.size() - maxEntries * 3 / 4;
+		for (Iterator<Lease> it = leases.values().iterator(); excess > 0 && it.hasNext(); excess--) {
+			it.next();
+			it.remove();
+		}
+	}
+
+	private static String toLeaseKey(String pool, String versionKey) {
+		return pool + ":" + versionKey;
+	}
+
+	private static class Lease {
+		private final long version;
+		private final long expireNanos;
+
+		Lease(long version, long expireNanos) {
+			this.version = version;
+			this.expireNanos = expireNanos;
+		}
+
+		boolean isExpired(long now) {
+			return now - expireNanos >= 0;
+		}
+	}
+}
@@ -1,6 +1,8 @@
 package net.energy.factory;
 
 import net.energy.cache.CacheManager;
+import net.energy.definition.cache.CacheKeyHasher;
+import net.energy.executor.cache.VersionLeaseCache;
 
 /**
  * 用于创建带有缓存的DAO实例的工厂类
@@ -10,6 +12,8 @@ import net.energy.cache.CacheManager;
  */
 public abstract class AbstractCacheableFactory extends AbstractDaoFactory {
 	private CacheManager cacheManager;
+	private CacheKeyHasher keyHasher;
+	private VersionLeaseCache versionLeaseCache;
 
 	public void setCacheManager(CacheManager cacheManager) {
 		this.cacheManager = cacheManager;
@@ -18,4 +22,32 @@ public abstract class AbstractCacheableFactory extends AbstractDaoFactory {
 	CacheManager getCacheManager() {
 		return cacheManager;
 	}
+
+	/**
+	 * 设置长key的摘要器，超长的缓存key会被转换为定长的摘要，默认不进行摘要。
+	 * 注意：共享缓存池的所有DAO工厂必须使用相同的配置
+	 * 
+	 * @param keyHasher
+	 */
+	public void setKeyHasher(CacheKeyHasher keyHasher) {
+		this.keyHasher = keyHasher;
+	}
+
+	CacheKeyHasher getKeyHasher() {
+		return keyHasher;
+	}
+
+	/**
+	 * 设置版本号的本地租约缓存，租约内的查询不再访问缓存服务器获取版本号，默认不使用。
+	 * 其他节点更新版本号后，本节点最多在租约时间内仍然使用旧的版本号
+	 * 
+	 * @param versionLeaseCache
+	 */
+	public void setVersionLeaseCache(VersionLeaseCache versionLeaseCache) {
+		this.versionLeaseCache = versionLeaseCache;
+	}
+
+	VersionLeaseCache getVersionLeaseCache() {
+		return versionLeaseCache;
+	}
 }
@@ -22,7 +22,8 @@ public class CacheableJdbcFactory extends AbstractCacheableFactory {
 
 	@Override
 	protected DataAccessExecutor createDataAccessExecutor(Method method) throws DaoGenerateException {
-		DataAccessExecutor executor = ExecutorFactory.createJdbcExecutor(getCacheManager(), dataAccessor, method);
+		DataAccessExecutor executor = ExecutorFactory.createJdbcExecutor(getCacheManager(), getKeyHasher(),
+				getVersionLeaseCache(), dataAccessor, method);
 		return executor;
 	}
 }
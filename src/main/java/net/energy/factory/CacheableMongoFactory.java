@@ -22,7 +22,8 @@ public class CacheableMongoFactory extends AbstractCacheableFactory {
 
 	@Override
 	protected DataAccessExecutor createDataAccessExecutor(Method method) throws DaoGenerateException {
-		DataAccessExecutor executor = ExecutorFactory.createMongoExecutor(getCacheManager(), dataAccessor, method);
+		DataAccessExecutor executor = ExecutorFactory.createMongoExecutor(getCacheManager(), getKeyHasher(),
+				getVersionLeaseCache(), dataAccessor, method);
 		return executor;
 	}
 }
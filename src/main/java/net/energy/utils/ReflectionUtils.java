@@ -124,7 +124,7 @@ public class ReflectionUtils {
 	 * @return 提取到的值
 	 */
 	@SuppressWarnings("rawtypes")
-	private static Object fetchValue(Method getterMethod, Integer index, Object[] args, String paramName) {
+	public static Object fetchValue(Method getterMethod, Integer index, Object[] args, String paramName) {
 		if (index == null || index == -1) {
 			return null;
 		}
@@ -0,0 +1,186 @@
+package net.energy.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import net.energy.cache.codec.SerializableCodec;
+import net.energy.cache.tinylfu.TinyLfuCache;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * 测试AsyncCacheWriter的写操作合并、队列满时丢弃，以及同一个key的写操作按顺序执行
+ * 
+ * @author wuqh
+ */
+public class AsyncCacheWriterTest {
+	private Cache cache;
+	private CountDownLatch started;
+	private CountDownLatch release;
+
+	@Before
+	public void setUp() {
+		cache = new TinyLfuCache(1024 * 1024, 0.01, new SerializableCodec());
+		started = new CountDownLatch(1);
+		release = new CountDownLatch(1);
+	}
+
+	@After
+	public void tearDown() {
+		release.countDown();
+	}
+
+	@Test
+	public void testMergePendingWrites() throws Exception {
+		AsyncCacheWriter writer = new AsyncCacheWriter(1, 100);
+		block(writer);
+
+		List<String> executed = new CopyOnWriteArrayList<String>();
+		CountDownLatch done = new CountDownLatch(1);
+		assertTrue(writer.submit(cache, "k1", record(executed, "v1", null)));
+		assertTrue(writer.submit(cache, "k1", record(executed, "v2", null)));
+		assertTrue(writer.submit(cache, "k1", record(executed, "v3", done)));
+		assertEquals(1, writer.getQueueDepth());
+		release.countDown();
+
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		// 排队中的写操作只执行最后一次
+		assertEquals(1, executed.size());
+		assertEquals("v3", executed.get(0));
+		assertEquals(2L, writer.getMergedCount());
+		assertEquals(4L, writer.getSubmittedCount());
+	}
+
+	@Test
+	public void testDropWhenQueueFull() throws Exception {
+		AsyncCacheWriter writer = new AsyncCacheWriter(1, 1);
+		block(writer);
+
+		List<String> executed = new CopyOnWriteArrayList<String>();
+		assertTrue(writer.submit(cache, "k1", record(executed, "k1", null)));
+		assertFalse(writer.submit(cache, "k2", record(executed, "k2", null)));
+		// 队列满时仍然可以合并到排队中的写操作
+		assertTrue(writer.submit(cache, "k1", record(executed, "k1", null)));
+
+		assertEquals(1L, writer.getDroppedCount());
+		assertEquals(1L, writer.getMergedCount());
+		assertEquals(1, writer.getQueueDepth());
+	}
+
+	@Test
+	public void testSameCacheKeyInDifferentCachesNotMerged() throws Exception {
+		AsyncCacheWriter writer = new AsyncCacheWriter(1, 100);
+		block(writer);
+
+		Cache other = new TinyLfuCache(1024 * 1024, 0.01, new SerializableCodec());
+		List<String> executed = new CopyOnWriteArrayList<String>();
+		CountDownLatch done = new CountDownLatch(2);
+		assertTrue(writer.submit(cache, "k1", record(executed, "cache", done)));
+		assertTrue(writer.submit(other, "k1", record(executed, "other", done)));
+		release.countDown();
+
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		assertEquals(0L, writer.getMergedCount());
+		assertEquals(2, executed.size());
+	}
+
+	@Test
+	public void testWritesOfSameKeyRunInOrder() throws Exception {
+		AsyncCacheWriter writer = new AsyncCacheWriter(4, 10000);
+		int keys = 10;
+		int writes = 2000;
+		final List<List<Integer>> executed = new ArrayList<List<Integer>>();
+		for (int i = 0; i < keys; i++) {
+			executed.add(new CopyOnWriteArrayList<Integer>());
+		}
+
+		CountDownLatch done = new CountDownLatch(keys);
+		for (int i = 0; i < writes; i++) {
+			final List<Integer> values = executed.get(i % keys);
+			final Integer value = Integer.valueOf(i);
+			final CountDownLatch last = (i >= writes - keys) ? done : null;
+			assertTrue(writer.submit(cache, "k" + (i % keys), new Runnable() {
+
+				@Override
+				public void run() {
+					values.add(value);
+					if (last != null) {
+						last.countDown();
+					}
+				}
+			}));
+		}
+
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		for (int i = 0; i < keys; i++) {
+			List<Integer> values = executed.get(i);
+			for (int j = 1; j < values.size(); j++) {
+				assertTrue("k" + i + "的写操作乱序：" + values, values.get(j - 1) < values.get(j));
+			}
+			// 合并只会跳过中间的写操作，最后一次写操作一定执行
+			assertEquals(Integer.valueOf(writes - keys + i), values.get(values.size() - 1));
+		}
+		assertEquals((long) writes, writer.getSubmittedCount());
+	}
+
+	@Test
+	public void testFailedWriteDoesNotStopWriter() throws Exception {
+		AsyncCacheWriter writer = new AsyncCacheWriter(1, 100);
+		List<String> executed = new CopyOnWriteArrayList<String>();
+		CountDownLatch done = new CountDownLatch(1);
+
+		assertTrue(writer.submit(cache, "k1", new Runnable() {
+
+			@Override
+			public void run() {
+				throw new IllegalStateException("memcached down");
+			}
+		}));
+		assertTrue(writer.submit(cache, "k2", record(executed, "k2", done)));
+
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		assertEquals(1L, writer.getFailedCount());
+		assertEquals("k2", executed.get(0));
+	}
+
+	/**
+	 * 阻塞唯一的写线程，直到release
+	 */
+	private void block(AsyncCacheWriter writer) throws InterruptedException {
+		writer.submit(cache, "blocker", new Runnable() {
+
+			@Override
+			public void run() {
+				started.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+	}
+
+	private static Runnable record(final List<String> executed, final String value, final CountDownLatch done) {
+		return new Runnable() {
+
+			@Override
+			public void run() {
+				executed.add(value);
+				if (done != null) {
+					done.countDown();
+				}
+			}
+		};
+	}
+}
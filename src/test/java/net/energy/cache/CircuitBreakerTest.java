@@ -0,0 +1,112 @@
+package net.energy.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * 测试CircuitBreaker按错误率和耗时分位数打开，以及半开状态下的探测
+ * 
+ * @author wuqh
+ */
+public class CircuitBreakerTest {
+	private static final long WINDOW = 60000L;
+	private static final long OPEN_TIME = 50L;
+
+	@Test
+	public void testOpenOnErrorRate() {
+		CircuitBreaker breaker = new CircuitBreaker("test", 0.5D, 0L, 0.99D, 10, WINDOW, 2, WINDOW);
+		record(breaker, 5, 1L, false);
+		record(breaker, 4, 1L, true);
+		// 请求数不足minimumRequests时不打开
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+
+		breaker.record(1L, true);
+		assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+		assertFalse(breaker.allowRequest());
+		assertEquals(1L, breaker.getOpenedCount());
+		assertEquals(1L, breaker.getRejectedCount());
+	}
+
+	@Test
+	public void testOpenOnLatencyPercentile() {
+		CircuitBreaker breaker = new CircuitBreaker("test", 1.0D, 100L, 0.9D, 10, WINDOW, 2, WINDOW);
+		record(breaker, 9, 1L, false);
+		breaker.record(300L, false);
+		// 90分位仍然是快请求
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+		assertEquals(1L, breaker.getPercentileLatency());
+
+		breaker.record(300L, false);
+		assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+		assertTrue(breaker.getPercentileLatency() > 100L);
+	}
+
+	@Test
+	public void testHalfOpenProbesClose() throws Exception {
+		CircuitBreaker breaker = open(2);
+		assertFalse(breaker.allowRequest());
+		Thread.sleep(OPEN_TIME * 2);
+
+		// 只允许halfOpenProbes个探测请求
+		assertTrue(breaker.allowRequest());
+		assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+		assertTrue(breaker.allowRequest());
+		assertFalse(breaker.allowRequest());
+
+		breaker.record(1L, false);
+		assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+		breaker.record(1L, false);
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+		assertEquals(1L, breaker.getHalfOpenedCount());
+		assertEquals(1L, breaker.getClosedCount());
+
+		// 关闭后重新开始统计，之前的错误不再计算在内
+		assertEquals(0.0D, breaker.getErrorRate(), 0.0D);
+		assertTrue(breaker.allowRequest());
+	}
+
+	@Test
+	public void testFailedProbeReopens() throws Exception {
+		CircuitBreaker breaker = open(2);
+		Thread.sleep(OPEN_TIME * 2);
+
+		assertTrue(breaker.allowRequest());
+		breaker.record(1L, true);
+		assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+		assertEquals(2L, breaker.getOpenedCount());
+		assertFalse(breaker.allowRequest());
+	}
+
+	@Test
+	public void testSlowProbeReopens() throws Exception {
+		CircuitBreaker breaker = open(2);
+		Thread.sleep(OPEN_TIME * 2);
+
+		assertTrue(breaker.allowRequest());
+		breaker.record(1L, false);
+		assertTrue(breaker.allowRequest());
+		breaker.record(300L, false);
+		assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+		assertEquals(0L, breaker.getClosedCount());
+	}
+
+	/**
+	 * 创建一个已经因为错误率打开的断路器
+	 */
+	private static CircuitBreaker open(int halfOpenProbes) {
+		CircuitBreaker breaker = new CircuitBreaker("test", 0.5D, 100L, 0.99D, 4, OPEN_TIME, halfOpenProbes, WINDOW);
+		record(breaker, 4, 1L, true);
+		assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+		return breaker;
+	}
+
+	private static void record(CircuitBreaker breaker, int times, long latency, boolean failed) {
+		for (int i = 0; i < times; i++) {
+			assertTrue(breaker.allowRequest());
+			breaker.record(latency, failed);
+		}
+	}
+}
@@ -0,0 +1,206 @@
+package net.energy.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import net.energy.cache.codec.SerializableCodec;
+import net.energy.cache.ehcache.Ehcache;
+import net.energy.cache.invalidation.InvalidationBus;
+import net.energy.cache.invalidation.InvalidationListener;
+import net.energy.cache.tinylfu.TinyLfuCache;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.store.MemoryStoreEvictionPolicy;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * 测试MultiLevelCache写入和删除时广播失效消息的时机
+ * 
+ * @author wuqh
+ */
+public class MultiLevelCacheTest {
+	private TinyLfuCache local;
+	private TinyLfuCache high;
+	private RecordingBus bus;
+
+	@Before
+	public void setUp() {
+		local = new TinyLfuCache(1024 * 1024, 0.01, new SerializableCodec());
+		high = new TinyLfuCache(1024 * 1024, 0.01, new SerializableCodec());
+		bus = new RecordingBus(high);
+		local.setHighLevelCache(high);
+		local.setInvalidationBus(bus, "TEST");
+	}
+
+	@Test
+	public void testSyncDeletePublishesAfterHighLevelDelete() {
+		local.add("k1", "v1");
+		local.add("k2", "v2");
+		local.add("k3", "v3");
+		bus.reset();
+
+		local.delete("k1");
+		local.deleteMulti("k2", "k3");
+
+		assertEquals(3, bus.published.size());
+		assertTrue("广播时高级别缓存中仍然有旧数据：" + bus.stale, bus.stale.isEmpty());
+	}
+
+	@Test
+	public void testAsyncDeletePublishesAfterHighLevelDelete() throws Exception {
+		AsyncCacheWriter writer = new AsyncCacheWriter(1, 100);
+		local.setHighLevelWriter(writer);
+		bus.expect(3);
+		local.add("k1", "v1");
+		local.add("k2", "v2");
+		local.add("k3", "v3");
+		assertTrue(bus.await());
+		bus.reset();
+		bus.expect(3);
+
+		local.delete("k1");
+		local.deleteMulti("k2", "k3");
+
+		assertTrue(bus.await());
+		assertTrue("广播时高级别缓存中仍然有旧数据：" + bus.stale, bus.stale.isEmpty());
+	}
+
+	@Test
+	public void testAddPublishesAfterHighLevelWrite() {
+		local.add("k1", "v1");
+		local.add("k1", "v2", 60000L);
+
+		assertEquals(2, bus.published.size());
+		// 广播时高级别缓存中已经是新值，其他节点删除副本后不会再读到旧值
+		assertEquals("v2", bus.values.get(1));
+	}
+
+	@Test
+	public void testAsyncAddPublishesAfterHighLevelWrite() throws Exception {
+		AsyncCacheWriter writer = new AsyncCacheWriter(1, 100);
+		local.setHighLevelWriter(writer);
+		bus.expect(1);
+
+		local.add("k1", "v1");
+
+		assertTrue(bus.await());
+		assertEquals("v1", bus.values.get(0));
+	}
+
+	@Test
+	public void testMergedDeleteStillPublishes() throws Exception {
+		AsyncCacheWriter writer = new AsyncCacheWriter(1, 100);
+		local.setHighLevelWriter(writer);
+
+		// 阻塞唯一的写线程，让同一个key的delete和add在队列中合并
+		final CountDownLatch blocked = new CountDownLatch(1);
+		writer.submit(high, "blocker", new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					blocked.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+		bus.expect(1);
+
+		local.delete("k1");
+		local.add("k1", "v2");
+		assertEquals(0, bus.published.size());
+		blocked.countDown();
+
+		assertTrue(bus.await());
+		assertEquals("k1", bus.published.get(0));
+		assertEquals(1L, writer.getMergedCount());
+	}
+
+	@Test
+	public void testPinHotKeysOnlyForCacheObjects() {
+		CacheManager ehcacheManager = CacheManager.create();
+		net.sf.ehcache.Cache rawCache = new net.sf.ehcache.Cache("PINTEST", 1000, MemoryStoreEvictionPolicy.LRU,
+				false, null, false, 120, 120, false, 120, null, null);
+		ehcacheManager.addCache(rawCache);
+		try {
+			Ehcache ehcache = new Ehcache();
+			ehcache.setCache(rawCache);
+			ehcache.setHighLevelCache(high);
+			// 每个key第一次访问就是热点key，缓存时间不足1秒
+			ehcache.setHotKeyDetector(new HotKeyDetector("PINTEST", 10, 60000L, 1, 500L, 1024));
+
+			high.add("version", Long.valueOf(5L));
+			high.add("tag-photo", Long.valueOf(3L));
+			high.add("photo", new CacheObject("photo", 5L));
+
+			assertEquals(5L, ehcache.get("version"));
+			assertEquals(3L, ehcache.get("tag-photo"));
+			assertEquals("photo", ((CacheObject) ehcache.get("photo")).getCacheObject());
+
+			// 计数器以高级别缓存为准，不保留在本地
+			assertNull(rawCache.get("version"));
+			assertNull(rawCache.get("tag-photo"));
+			// 查询结果以不足1秒的时间写入Ehcache时不能立即过期
+			assertNotNull(rawCache.get("photo"));
+		} finally {
+			ehcacheManager.removeCache("PINTEST");
+		}
+	}
+
+	/**
+	 * 记录广播的key，以及广播时高级别缓存中仍然存在的key
+	 */
+	private static class RecordingBus implements InvalidationBus {
+		private final Cache high;
+		private final List<String> published = new CopyOnWriteArrayList<String>();
+		private final List<String> stale = new CopyOnWriteArrayList<String>();
+		private final List<Object> values = new CopyOnWriteArrayList<Object>();
+		private volatile CountDownLatch latch = new CountDownLatch(0);
+
+		RecordingBus(Cache high) {
+			this.high = high;
+		}
+
+		void reset() {
+			published.clear();
+			stale.clear();
+			values.clear();
+		}
+
+		void expect(int count) {
+			latch = new CountDownLatch(count);
+		}
+
+		boolean await() throws InterruptedException {
+			return latch.await(5, TimeUnit.SECONDS);
+		}
+
+		@Override
+		public void publish(String pool, String key) {
+			Object value = high.get(key);
+			if (value != null) {
+				stale.add(key);
+				values.add(value);
+			}
+			published.add(key);
+			latch.countDown();
+		}
+
+		@Override
+		public void subscribe(InvalidationListener listener) {
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+}
@@ -0,0 +1,73 @@
+package net.energy.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.energy.cache.codec.SerializableCodec;
+import net.energy.cache.tinylfu.TinyLfuCache;
+
+import org.junit.Test;
+
+/**
+ * 测试PooledCacheManager按缓存池创建并复用缓存
+ * 
+ * @author wuqh
+ */
+public class PooledCacheManagerTest {
+
+	@Test
+	public void testPoolNameIsCaseInsensitive() {
+		CountingManager manager = new CountingManager();
+		assertSame(manager.getCache("photo"), manager.getCache("PHOTO"));
+		assertNotSame(manager.getCache("photo"), manager.getCache("album"));
+		assertEquals(2, manager.created.get());
+	}
+
+	@Test
+	public void testConcurrentFirstAccessCreatesOnce() throws Exception {
+		final CountingManager manager = new CountingManager();
+		final CountDownLatch start = new CountDownLatch(1);
+		ExecutorService executor = Executors.newFixedThreadPool(16);
+		try {
+			List<Future<Cache>> futures = new ArrayList<Future<Cache>>();
+			for (int i = 0; i < 16; i++) {
+				futures.add(executor.submit(new Callable<Cache>() {
+
+					@Override
+					public Cache call() throws Exception {
+						start.await();
+						return manager.getCache("photo");
+					}
+				}));
+			}
+			start.countDown();
+			Cache first = futures.get(0).get();
+			for (Future<Cache> future : futures) {
+				assertSame(first, future.get());
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		assertEquals(1, manager.created.get());
+	}
+
+	private static class CountingManager extends PooledCacheManager<TinyLfuCache> {
+		private final AtomicInteger created = new AtomicInteger();
+
+		@Override
+		protected TinyLfuCache createCache(String poolName) {
+			created.incrementAndGet();
+			return new TinyLfuCache(1024 * 1024, 0.01, new SerializableCodec());
+		}
+	}
+}
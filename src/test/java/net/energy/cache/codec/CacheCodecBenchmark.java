@@ -0,0 +1,171 @@
+package net.energy.cache.codec;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import net.energy.cache.CacheCodec;
+import net.energy.cache.CacheObject;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 比较SerializableCodec和CompactBinaryCodec对List&lt;Bean&gt;查询结果的编解码耗时，编码后的字节数在Setup时输出。
+ * 
+ * <pre>
+ * mvn -Pbenchmark test-compile exec:exec -Dbenchmark=CacheCodecBenchmark
+ * </pre>
+ * 
+ * @author wuqh
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CacheCodecBenchmark {
+	@Param({ "serializable", "compact" })
+	private String codecName;
+
+	@Param({ "1", "100" })
+	private int rows;
+
+	private CacheCodec codec;
+	private CacheObject value;
+	private byte[] encoded;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		codec = "compact".equals(codecName) ? new CompactBinaryCodec() : new SerializableCodec();
+
+		ArrayList<User> users = new ArrayList<User>(rows);
+		for (int i = 0; i < rows; i++) {
+			users.add(User.sample(i));
+		}
+		value = new CacheObject(users, 1L);
+		encoded = codec.encode(value);
+		System.out.println("\n" + codecName + " rows=" + rows + " bytes=" + encoded.length);
+	}
+
+	@Benchmark
+	public byte[] encode() {
+		return codec.encode(value);
+	}
+
+	@Benchmark
+	public Object decode() {
+		return codec.decode(encoded);
+	}
+
+	public enum Status {
+		ACTIVE, LOCKED
+	}
+
+	/**
+	 * 与AutoDetectRowMapper映射的实体类相同形式的Bean
+	 */
+	public static class User implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		private long id;
+		private String name;
+		private String email;
+		private int age;
+		private boolean verified;
+		private Date createTime;
+		private BigDecimal balance;
+		private Status status;
+
+		static User sample(int i) {
+			User user = new User();
+			user.setId(100000L + i);
+			user.setName("user-" + i);
+			user.setEmail("user" + i + "@example.com");
+			user.setAge(20 + i % 50);
+			user.setVerified(i % 2 == 0);
+			user.setCreateTime(new Date(1380000000000L + i * 1000L));
+			user.setBalance(new BigDecimal("1024.5").add(BigDecimal.valueOf(i)));
+			user.setStatus(i % 10 == 0 ? Status.LOCKED : Status.ACTIVE);
+			return user;
+		}
+
+		public long getId() {
+			return id;
+		}
+
+		public void setId(long id) {
+			this.id = id;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public void setName(String name) {
+			this.name = name;
+		}
+
+		public String getEmail() {
+			return email;
+		}
+
+		public void setEmail(String email) {
+			this.email = email;
+		}
+
+		public int getAge() {
+			return age;
+		}
+
+		public void setAge(int age) {
+			this.age = age;
+		}
+
+		public boolean isVerified() {
+			return verified;
+		}
+
+		public void setVerified(boolean verified) {
+			this.verified = verified;
+		}
+
+		public Date getCreateTime() {
+			return createTime;
+		}
+
+		public void setCreateTime(Date createTime) {
+			this.createTime = createTime;
+		}
+
+		public BigDecimal getBalance() {
+			return balance;
+		}
+
+		public void setBalance(BigDecimal balance) {
+			this.balance = balance;
+		}
+
+		public Status getStatus() {
+			return status;
+		}
+
+		public void setStatus(Status status) {
+			this.status = status;
+		}
+	}
+}
@@ -0,0 +1,69 @@
+package net.energy.cache.ehcache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+
+import net.energy.cache.CacheObject;
+import net.energy.cache.codec.CompactBinaryCodec;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.store.MemoryStoreEvictionPolicy;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * 测试Ehcache快照的写入和恢复
+ * 
+ * @author wuqh
+ */
+public class EhcacheSnapshotTest {
+	private CacheManager ehcacheManager;
+	private File file;
+
+	@Before
+	public void setUp() throws Exception {
+		ehcacheManager = CacheManager.create();
+		file = File.createTempFile("ehcache", ".snapshot");
+	}
+
+	@After
+	public void tearDown() {
+		ehcacheManager.removeCache("SNAPSHOT-FROM");
+		ehcacheManager.removeCache("SNAPSHOT-TO");
+		file.delete();
+	}
+
+	@Test
+	public void testWriteAndLoad() throws Exception {
+		net.sf.ehcache.Cache from = createCache("SNAPSHOT-FROM");
+		from.put(new Element("photo-1", new CacheObject("photo-1", 3L)));
+		from.put(new Element("photo-2", new CacheObject("photo-2", 4L)));
+		// 计数器不写入快照
+		from.put(new Element("version", Long.valueOf(3L)));
+
+		EhcacheSnapshot snapshot = new EhcacheSnapshot(new CompactBinaryCodec(), 100, 1024 * 1024, 0);
+		assertEquals(2, snapshot.write(from, file));
+		// 覆盖已经存在的快照文件
+		assertEquals(2, snapshot.write(from, file));
+		assertFalse(new File(file.getPath() + ".tmp").exists());
+
+		net.sf.ehcache.Cache to = createCache("SNAPSHOT-TO");
+		assertEquals(2, snapshot.load(to, file));
+		CacheObject photo = (CacheObject) to.get("photo-2").getObjectValue();
+		assertEquals("photo-2", photo.getCacheObject());
+		assertEquals(4L, photo.getVersion());
+		assertNull(to.get("version"));
+	}
+
+	private net.sf.ehcache.Cache createCache(String name) {
+		net.sf.ehcache.Cache cache = new net.sf.ehcache.Cache(name, 1000, MemoryStoreEvictionPolicy.LRU, false, null,
+				false, 120, 120, false, 120, null, null);
+		ehcacheManager.addCache(cache);
+		return cache;
+	}
+}
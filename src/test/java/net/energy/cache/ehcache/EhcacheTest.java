@@ -0,0 +1,63 @@
+package net.energy.cache.ehcache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.store.MemoryStoreEvictionPolicy;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * 测试Ehcache的过期时间换算
+ * 
+ * @author wuqh
+ */
+public class EhcacheTest {
+	private static final String POOL = "EHCACHETEST";
+
+	private CacheManager ehcacheManager;
+	private net.sf.ehcache.Cache rawCache;
+	private Ehcache ehcache;
+
+	@Before
+	public void setUp() {
+		ehcacheManager = CacheManager.create();
+		rawCache = new net.sf.ehcache.Cache(POOL, 1000, MemoryStoreEvictionPolicy.LRU, false, null, false, 120, 120,
+				false, 120, null, null);
+		ehcacheManager.addCache(rawCache);
+		ehcache = new Ehcache();
+		ehcache.setCache(rawCache);
+	}
+
+	@After
+	public void tearDown() {
+		ehcacheManager.removeCache(POOL);
+	}
+
+	@Test
+	public void testSubSecondExpiryRoundsUp() {
+		ehcache.add("photo", "photo", 500L);
+		assertTimeToLive(1, rawCache.get("photo"));
+
+		ehcache.add("album", "album", 1500L);
+		assertTimeToLive(2, rawCache.get("album"));
+	}
+
+	@Test
+	public void testSubSecondCounterExpiryRoundsUp() {
+		assertEquals(1L, ehcache.incr("version", 1, 1, 500L));
+		assertTimeToLive(1, rawCache.get("version"));
+
+		assertEquals(2L, ehcache.incr("version", 1, 1, 500L));
+		assertTimeToLive(1, rawCache.get("version"));
+	}
+
+	private static void assertTimeToLive(int seconds, Element element) {
+		assertFalse(element.isEternal());
+		assertEquals(seconds, element.getTimeToLive());
+	}
+}
@@ -0,0 +1,521 @@
+package net.energy.cache.memcached;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 测试用的进程内Memcached服务器，同时支持二进制协议（NioMemcachedClient）和文本协议（MemCachedClient），
+ * 按照第一个字节区分。只实现了客户端用到的命令：
+ * 
+ * <pre>
+ * 二进制协议：GET、GETKQ、SET、ADD、DELETE、DELETEQ、INCREMENT、FLUSH、NOOP；
+ * 文本协议：get、set、add、delete、incr、flush_all、version。
+ * </pre>
+ * 
+ * 每个连接使用一个线程，响应在输入缓冲区读完后才写出，所以流水线上的请求会合并写出。
+ * 
+ * @author wuqh
+ */
+public class FakeMemcachedServer {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final long MAX_RELATIVE_EXPIRATION = 60L * 60 * 24 * 30;
+
+	private static final byte REQUEST_MAGIC = (byte) 0x80;
+	private static final byte RESPONSE_MAGIC = (byte) 0x81;
+	private static final int OP_GET = 0x00;
+	private static final int OP_SET = 0x01;
+	private static final int OP_ADD = 0x02;
+	private static final int OP_DELETE = 0x04;
+	private static final int OP_INCREMENT = 0x05;
+	private static final int OP_FLUSH = 0x08;
+	private static final int OP_NOOP = 0x0a;
+	private static final int OP_GETKQ = 0x0d;
+	private static final int OP_DELETEQ = 0x14;
+	private static final short STATUS_OK = 0x0000;
+	private static final short STATUS_KEY_NOT_FOUND = 0x0001;
+	private static final short STATUS_KEY_EXISTS = 0x0002;
+	private static final short STATUS_VALUE_TOO_LARGE = 0x0003;
+	private static final short STATUS_NON_NUMERIC = 0x0006;
+	private static final short STATUS_UNKNOWN_COMMAND = 0x0081;
+
+	private final ConcurrentMap<String, Item> items = new ConcurrentHashMap<String, Item>();
+	private final Set<Socket> clients = Collections.synchronizedSet(new HashSet<Socket>());
+	private final AtomicLong requestCount = new AtomicLong();
+	private final AtomicLong connectionCount = new AtomicLong();
+	private final ServerSocket serverSocket;
+	private volatile boolean running = true;
+	private volatile int maxItemSize = Integer.MAX_VALUE;
+
+	public FakeMemcachedServer() throws IOException {
+		serverSocket = new ServerSocket();
+		serverSocket.setReuseAddress(true);
+		serverSocket.bind(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0));
+		Thread acceptor = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				accept();
+			}
+		}, "fake-memcached-" + getPort());
+		acceptor.setDaemon(true);
+		acceptor.start();
+	}
+
+	public int getPort() {
+		return serverSocket.getLocalPort();
+	}
+
+	public String getAddress() {
+		return "127.0.0.1:" + getPort();
+	}
+
+	/**
+	 * 服务器上未过期的对象个数
+	 */
+	public int size() {
+		long now = System.currentTimeMillis();
+		int size = 0;
+		for (Item item : items.values()) {
+			if (!item.isExpired(now)) {
+				size++;
+			}
+		}
+		return size;
+	}
+
+	public boolean containsKey(String key) {
+		return getItem(key) != null;
+	}
+
+	/**
+	 * 收到的请求数（包括流水线中的每个请求）
+	 */
+	public long getRequestCount() {
+		return requestCount.get();
+	}
+
+	/**
+	 * 接受的连接数
+	 */
+	public long getConnectionCount() {
+		return connectionCount.get();
+	}
+
+	/**
+	 * 对象的最大字节数，超过时与memcached一样返回SERVER_ERROR（二进制协议返回Value too large）
+	 */
+	public void setMaxItemSize(int maxItemSize) {
+		this.maxItemSize = maxItemSize;
+	}
+
+	public void shutdown() {
+		running = false;
+		try {
+			serverSocket.close();
+		} catch (IOException e) {
+			// ignore
+		}
+		synchronized (clients) {
+			for (Socket socket : clients) {
+				closeQuietly(socket);
+			}
+			clients.clear();
+		}
+	}
+
+	private void accept() {
+		while (running) {
+			final Socket socket;
+			try {
+				socket = serverSocket.accept();
+				socket.setTcpNoDelay(true);
+			} catch (IOException e) {
+				return;
+			}
+			connectionCount.incrementAndGet();
+			clients.add(socket);
+			Thread worker = new Thread(new Runnable() {
+
+				@Override
+				public void run() {
+					serve(socket);
+				}
+			}, "fake-memcached-worker");
+			worker.setDaemon(true);
+			worker.start();
+		}
+	}
+
+	private void serve(Socket socket) {
+		try {
+			InputStream in = new BufferedInputStream(socket.getInputStream(), 64 * 1024);
+			OutputStream out = new BufferedOutputStream(socket.getOutputStream(), 64 * 1024);
+			in.mark(1);
+			int first = in.read();
+			if (first < 0) {
+				return;
+			}
+			in.reset();
+			if ((byte) first == REQUEST_MAGIC) {
+				serveBinary(new DataInputStream(in), new DataOutputStream(out));
+			} else {
+				serveText(in, out);
+			}
+		} catch (EOFException e) {
+			// 客户端关闭连接
+		} catch (SocketException e) {
+			// 客户端关闭连接或者服务器关闭
+		} catch (IOException e) {
+			e.printStackTrace();
+		} finally {
+			clients.remove(socket);
+			closeQuietly(socket);
+		}
+	}
+
+	private void serveBinary(DataInputStream in, DataOutputStream out) throws IOException {
+		while (running) {
+			byte magic = in.readByte();
+			if (magic != REQUEST_MAGIC) {
+				throw new IOException("错误的请求头[" + magic + "]");
+			}
+			int opcode = in.readUnsignedByte();
+			int keyLength = in.readUnsignedShort();
+			int extrasLength = in.readUnsignedByte();
+			in.readByte(); // data type
+			in.readShort(); // vbucket
+			int bodyLength = in.readInt();
+			int opaque = in.readInt();
+			in.readLong(); // cas
+			byte[] extras = readFully(in, extrasLength);
+			String key = new String(readFully(in, keyLength), UTF8);
+			byte[] value = readFully(in, bodyLength - extrasLength - keyLength);
+			requestCount.incrementAndGet();
+
+			handleBinary(out, opcode, opaque, extras, key, value);
+			if (in.available() == 0) {
+				out.flush();
+			}
+		}
+	}
+
+	private void handleBinary(DataOutputStream out, int opcode, int opaque, byte[] extras, String key, byte[] value)
+			throws IOException {
+		switch (opcode) {
+		case OP_GET:
+		case OP_GETKQ: {
+			Item item = getItem(key);
+			if (item == null) {
+				if (opcode == OP_GET) {
+					writeResponse(out, opcode, STATUS_KEY_NOT_FOUND, opaque, null, null, null);
+				}
+				return;
+			}
+			byte[] flags = intBytes(item.flags);
+			writeResponse(out, opcode, STATUS_OK, opaque, flags, (opcode == OP_GETKQ) ? key : null, item.value);
+			return;
+		}
+		case OP_SET:
+		case OP_ADD: {
+			if (value.length > maxItemSize) {
+				writeResponse(out, opcode, STATUS_VALUE_TOO_LARGE, opaque, null, null, null);
+				return;
+			}
+			int flags = readInt(extras, 0);
+			long expireAt = toExpireAt(readInt(extras, 4));
+			Item item = new Item(flags, value, expireAt);
+			if (opcode == OP_SET) {
+				items.put(key, item);
+			} else if (!addItem(key, item)) {
+				writeResponse(out, opcode, STATUS_KEY_EXISTS, opaque, null, null, null);
+				return;
+			}
+			writeResponse(out, opcode, STATUS_OK, opaque, null, null, null);
+			return;
+		}
+		case OP_DELETE:
+		case OP_DELETEQ: {
+			boolean deleted = (items.remove(key) != null);
+			if (!deleted) {
+				writeResponse(out, opcode, STATUS_KEY_NOT_FOUND, opaque, null, null, null);
+			} else if (opcode == OP_DELETE) {
+				writeResponse(out, opcode, STATUS_OK, opaque, null, null, null);
+			}
+			return;
+		}
+		case OP_INCREMENT: {
+			long delta = readLong(extras, 0);
+			long initial = readLong(extras, 8);
+			int expiration = readInt(extras, 16);
+			Long counter = increment(key, delta, initial, expiration, true);
+			if (counter == null) {
+				writeResponse(out, opcode, STATUS_NON_NUMERIC, opaque, null, null, null);
+			} else if (counter < 0) {
+				writeResponse(out, opcode, STATUS_KEY_NOT_FOUND, opaque, null, null, null);
+			} else {
+				writeResponse(out, opcode, STATUS_OK, opaque, null, null, longBytes(counter));
+			}
+			return;
+		}
+		case OP_FLUSH:
+			items.clear();
+			writeResponse(out, opcode, STATUS_OK, opaque, null, null, null);
+			return;
+		case OP_NOOP:
+			writeResponse(out, opcode, STATUS_OK, opaque, null, null, null);
+			return;
+		default:
+			writeResponse(out, opcode, STATUS_UNKNOWN_COMMAND, opaque, null, null, null);
+		}
+	}
+
+	private static void writeResponse(DataOutputStream out, int opcode, short status, int opaque, byte[] extras,
+			String key, byte[] value) throws IOException {
+		byte[] keyBytes = (key == null) ? new byte[0] : key.getBytes(UTF8);
+		int extrasLength = (extras == null) ? 0 : extras.length;
+		int valueLength = (value == null) ? 0 : value.length;
+		out.writeByte(RESPONSE_MAGIC);
+		out.writeByte(opcode);
+		out.writeShort(keyBytes.length);
+		out.writeByte(extrasLength);
+		out.writeByte(0);
+		out.writeShort(status);
+		out.writeInt(extrasLength + keyBytes.length + valueLength);
+		out.writeInt(opaque);
+		out.writeLong(0L);
+		if (extras != null) {
+			out.write(extras);
+		}
+		out.write(keyBytes);
+		if (value != null) {
+			out.write(value);
+		}
+	}
+
+	private void serveText(InputStream in, OutputStream out) throws IOException {
+		while (running) {
+			String line = readLine(in);
+			if (line == null) {
+				return;
+			}
+			String[] parts = line.trim().split(" +");
+			if (parts.length == 0 || parts[0].length() == 0) {
+				continue;
+			}
+			requestCount.incrementAndGet();
+			handleText(in, out, parts);
+			if (in.available() == 0) {
+				out.flush();
+			}
+		}
+	}
+
+	private void handleText(InputStream in, OutputStream out, String[] parts) throws IOException {
+		String command = parts[0];
+		if ("get".equals(command) || "gets".equals(command)) {
+			for (int i = 1; i < parts.length; i++) {
+				Item item = getItem(parts[i]);
+				if (item != null) {
+					writeLine(out, "VALUE " + parts[i] + " " + item.flags + " " + item.value.length);
+					out.write(item.value);
+					writeLine(out, "");
+				}
+			}
+			writeLine(out, "END");
+		} else if ("set".equals(command) || "add".equals(command)) {
+			int flags = Integer.parseInt(parts[2]);
+			long expireAt = toExpireAt(Integer.parseInt(parts[3]));
+			byte[] value = readFully(new DataInputStream(in), Integer.parseInt(parts[4]));
+			readLine(in);
+			if (value.length > maxItemSize) {
+				writeLine(out, "SERVER_ERROR object too large for cache");
+				return;
+			}
+			Item item = new Item(flags, value, expireAt);
+			if ("set".equals(command)) {
+				items.put(parts[1], item);
+				writeLine(out, "STORED");
+			} else {
+				writeLine(out, addItem(parts[1], item) ? "STORED" : "NOT_STORED");
+			}
+		} else if ("delete".equals(command)) {
+			writeLine(out, (items.remove(parts[1]) != null) ? "DELETED" : "NOT_FOUND");
+		} else if ("incr".equals(command)) {
+			Long counter = increment(parts[1], Long.parseLong(parts[2]), 0L, 0, false);
+			if (counter == null) {
+				writeLine(out, "CLIENT_ERROR cannot increment or decrement non-numeric value");
+			} else if (counter < 0) {
+				writeLine(out, "NOT_FOUND");
+			} else {
+				writeLine(out, String.valueOf(counter));
+			}
+		} else if ("flush_all".equals(command)) {
+			items.clear();
+			writeLine(out, "OK");
+		} else if ("version".equals(command)) {
+			writeLine(out, "VERSION 1.4.0-fake");
+		} else {
+			writeLine(out, "ERROR");
+		}
+	}
+
+	/**
+	 * @return 计数器的新值；值不是数字时返回null；不存在并且不允许创建时返回-1
+	 */
+	private Long increment(String key, long delta, long initial, int expiration, boolean create) {
+		while (true) {
+			Item item = getItem(key);
+			if (item == null) {
+				if (!create || expiration == -1) {
+					return -1L;
+				}
+				Item created = new Item(0, String.valueOf(initial).getBytes(UTF8), toExpireAt(expiration));
+				if (addItem(key, created)) {
+					return initial;
+				}
+				continue;
+			}
+
+			long current;
+			try {
+				current = Long.parseLong(new String(item.value, UTF8).trim());
+			} catch (NumberFormatException e) {
+				return null;
+			}
+			long next = current + delta;
+			Item updated = new Item(item.flags, String.valueOf(next).getBytes(UTF8), item.expireAt);
+			if (items.replace(key, item, updated)) {
+				return next;
+			}
+		}
+	}
+
+	private Item getItem(String key) {
+		Item item = items.get(key);
+		if (item != null && item.isExpired(System.currentTimeMillis())) {
+			items.remove(key, item);
+			return null;
+		}
+		return item;
+	}
+
+	private boolean addItem(String key, Item item) {
+		while (true) {
+			Item existed = items.putIfAbsent(key, item);
+			if (existed == null) {
+				return true;
+			}
+			if (!existed.isExpired(System.currentTimeMillis())) {
+				return false;
+			}
+			if (items.replace(key, existed, item)) {
+				return true;
+			}
+		}
+	}
+
+	private static long toExpireAt(int expiration) {
+		if (expiration == 0) {
+			return 0L;
+		}
+		long seconds = expiration & 0xFFFFFFFFL;
+		if (seconds > MAX_RELATIVE_EXPIRATION) {
+			return seconds * 1000;
+		}
+		return System.currentTimeMillis() + seconds * 1000;
+	}
+
+	private static String readLine(InputStream in) throws IOException {
+		ByteArrayOutputStream line = new ByteArrayOutputStream(64);
+		int b;
+		while ((b = in.read()) >= 0) {
+			if (b == '\n') {
+				break;
+			}
+			if (b != '\r') {
+				line.write(b);
+			}
+		}
+		if (b < 0 && line.size() == 0) {
+			return null;
+		}
+		return new String(line.toByteArray(), UTF8);
+	}
+
+	private static void writeLine(OutputStream out, String line) throws IOException {
+		out.write(line.getBytes(UTF8));
+		out.write('\r');
+		out.write('\n');
+	}
+
+	private static byte[] readFully(DataInputStream in, int length) throws IOException {
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return bytes;
+	}
+
+	private static int readInt(byte[] bytes, int offset) {
+		return ((bytes[offset] & 0xFF) << 24) | ((bytes[offset + 1] & 0xFF) << 16) | ((bytes[offset + 2] & 0xFF) << 8)
+				| (bytes[offset + 3] & 0xFF);
+	}
+
+	private static long readLong(byte[] bytes, int offset) {
+		return ((long) readInt(bytes, offset) << 32) | (readInt(bytes, offset + 4) & 0xFFFFFFFFL);
+	}
+
+	private static byte[] intBytes(int value) {
+		return new byte[] { (byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value };
+	}
+
+	private static byte[] longBytes(long value) {
+		byte[] bytes = new byte[8];
+		for (int i = 7; i >= 0; i--) {
+			bytes[i] = (byte) value;
+			value >>>= 8;
+		}
+		return bytes;
+	}
+
+	private static void closeQuietly(Socket socket) {
+		try {
+			socket.close();
+		} catch (IOException e) {
+			// ignore
+		}
+	}
+
+	private static class Item {
+		private final int flags;
+		private final byte[] value;
+		private final long expireAt;
+
+		Item(int flags, byte[] value, long expireAt) {
+			this.flags = flags;
+			this.value = value;
+			this.expireAt = expireAt;
+		}
+
+		boolean isExpired(long now) {
+			return expireAt > 0 && expireAt <= now;
+		}
+	}
+}
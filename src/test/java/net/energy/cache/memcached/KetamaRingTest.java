@@ -0,0 +1,120 @@
+package net.energy.cache.memcached;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * 测试KetamaRing在增加、删除、失效服务器时被重新分配的key的比例
+ * 
+ * @author wuqh
+ */
+public class KetamaRingTest {
+	private static final int KEYS = 100000;
+	private static final long RETRY_TIME = 60000L;
+
+	private KetamaRing<String> ring;
+
+	@Before
+	public void setUp() {
+		ring = new KetamaRing<String>(RETRY_TIME);
+		for (int i = 1; i <= 4; i++) {
+			ring.addNode(server(i), server(i), 1);
+		}
+	}
+
+	private static String server(int i) {
+		return "10.0.0." + i + ":11211";
+	}
+
+	private static String key(int i) {
+		return "user-" + i;
+	}
+
+	private Map<String, String> locateAll() {
+		Map<String, String> located = new HashMap<String, String>(KEYS * 2);
+		for (int i = 0; i < KEYS; i++) {
+			located.put(key(i), ring.locate(key(i)));
+		}
+		return located;
+	}
+
+	@Test
+	public void testKeysAreBalanced() {
+		Map<String, Integer> counts = new HashMap<String, Integer>();
+		for (String server : locateAll().values()) {
+			Integer count = counts.get(server);
+			counts.put(server, (count == null) ? 1 : count + 1);
+		}
+		assertEquals(4, counts.size());
+		for (Integer count : counts.values()) {
+			// 每台服务器期望25%，允许±5%
+			assertTrue("分布不均匀：" + counts, Math.abs(count - KEYS / 4) < KEYS / 20);
+		}
+	}
+
+	@Test
+	public void testAddNodeRemapsOnlyItsShare() {
+		Map<String, String> before = locateAll();
+		String added = server(5);
+		ring.addNode(added, added, 1);
+
+		int moved = 0;
+		for (int i = 0; i < KEYS; i++) {
+			String now = ring.locate(key(i));
+			if (!now.equals(before.get(key(i)))) {
+				// 只会移动到新增的服务器上
+				assertEquals(added, now);
+				moved++;
+			}
+		}
+		// 期望1/5的key被重新分配
+		double fraction = (double) moved / KEYS;
+		assertTrue("重新分配的比例：" + fraction, fraction > 0.15 && fraction < 0.25);
+	}
+
+	@Test
+	public void testRemoveNodeRemapsOnlyItsKeys() {
+		Map<String, String> before = locateAll();
+		String removed = server(2);
+		ring.removeNode(removed);
+
+		int moved = 0;
+		for (int i = 0; i < KEYS; i++) {
+			String now = ring.locate(key(i));
+			if (before.get(key(i)).equals(removed)) {
+				moved++;
+			} else {
+				assertEquals(before.get(key(i)), now);
+			}
+		}
+		double fraction = (double) moved / KEYS;
+		assertTrue("重新分配的比例：" + fraction, fraction > 0.20 && fraction < 0.30);
+	}
+
+	@Test
+	public void testMarkDeadAndAlive() {
+		Map<String, String> before = locateAll();
+		String dead = server(3);
+		ring.markDead(dead);
+		assertEquals(3, ring.getAliveNodes().size());
+		assertEquals(4, ring.getNodes().size());
+
+		for (int i = 0; i < KEYS; i++) {
+			String now = ring.locate(key(i));
+			if (before.get(key(i)).equals(dead)) {
+				assertTrue(!dead.equals(now));
+			} else {
+				assertEquals(before.get(key(i)), now);
+			}
+		}
+
+		ring.markAlive(dead);
+		assertEquals(before, locateAll());
+	}
+}
@@ -0,0 +1,101 @@
+package net.energy.cache.memcached;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import net.energy.cache.Cache;
+import net.energy.exception.CacheUnreachableException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.danga.MemCached.SockIOPool;
+
+/**
+ * 使用两台进程内的FakeMemcachedServer测试一致性hash路由的MemcachedCache在写入失败时是否移除服务器
+ * 
+ * @author wuqh
+ */
+public class MemcachedCacheTest {
+	private static final String POOL = "RINGTEST";
+
+	private FakeMemcachedServer first;
+	private FakeMemcachedServer second;
+	private Cache cache;
+
+	@Before
+	public void setUp() throws Exception {
+		first = new FakeMemcachedServer();
+		second = new FakeMemcachedServer();
+
+		MemcachedManager manager = new MemcachedManager();
+		manager.setServers(new String[] { first.getAddress(), second.getAddress() });
+		manager.setConsistentHash(true);
+		manager.setConnectTimeout(200);
+		manager.setReadTimeout(500);
+		manager.setDeadRetryTime(60000L);
+		cache = manager.getCache(POOL);
+	}
+
+	@After
+	public void tearDown() {
+		SockIOPool.getInstance(POOL + "@" + first.getAddress()).shutDown();
+		SockIOPool.getInstance(POOL + "@" + second.getAddress()).shutDown();
+		first.shutdown();
+		second.shutdown();
+	}
+
+	/**
+	 * 找到一个路由到指定服务器的key
+	 */
+	private String keyOn(FakeMemcachedServer server) {
+		for (int i = 0; i < 1000; i++) {
+			String key = "key-" + i;
+			cache.add(key, "probe");
+			boolean found = server.containsKey(key);
+			cache.delete(key);
+			if (found) {
+				return key;
+			}
+		}
+		throw new IllegalStateException("没有key路由到" + server.getAddress());
+	}
+
+	@Test
+	public void testTooLargeValueDoesNotEjectServer() {
+		String key = keyOn(first);
+		first.setMaxItemSize(1024);
+		try {
+			cache.add(key, new String(new char[4096]).replace('\0', 'x'));
+			fail("对象超过大小限制时应该抛出CacheUnreachableException");
+		} catch (CacheUnreachableException e) {
+			// expected
+		}
+		assertFalse(second.containsKey(key));
+
+		// 服务器仍然在环中，同一个key还是路由到原来的服务器
+		cache.add(key, "small");
+		assertTrue(first.containsKey(key));
+		assertEquals("small", cache.get(key));
+	}
+
+	@Test
+	public void testUnreachableServerIsEjected() {
+		String key = keyOn(second);
+		second.shutdown();
+		try {
+			cache.add(key, "value");
+			fail("服务器不可用时应该抛出CacheUnreachableException");
+		} catch (CacheUnreachableException e) {
+			// expected
+		}
+
+		// 服务器已经从环中移除，key由另一台服务器接管
+		cache.add(key, "value");
+		assertTrue(first.containsKey(key));
+		assertEquals("value", cache.get(key));
+	}
+}
@@ -0,0 +1,120 @@
+package net.energy.cache.memcached;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import net.energy.cache.Cache;
+import net.energy.cache.memcached.nio.NioMemcachedManager;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.danga.MemCached.SockIOPool;
+
+/**
+ * 比较MemcachedManager（SockIOPool，阻塞IO）和NioMemcachedManager（NIO流水线）的吞吐量和延迟分布（p99）。
+ * 默认使用进程内的FakeMemcachedServer，也可以通过-Dmemcached.servers=host:port指定真实的服务器。
+ * 
+ * <pre>
+ * mvn -Pbenchmark test-compile exec:exec -Dbenchmark=MemcachedClientBenchmark
+ * </pre>
+ * 
+ * @author wuqh
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(32)
+@Fork(1)
+public class MemcachedClientBenchmark {
+	private static final String POOL = "BENCHMARK";
+	private static final int KEYS = 1000;
+	private static final int MULTI_KEYS = 10;
+
+	@Param({ "danga", "nio" })
+	private String client;
+
+	private FakeMemcachedServer server;
+	private MemcachedManager dangaManager;
+	private NioMemcachedManager nioManager;
+	private Cache cache;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		String servers = System.getProperty("memcached.servers");
+		if (servers == null) {
+			server = new FakeMemcachedServer();
+			servers = server.getAddress();
+		}
+
+		if ("nio".equals(client)) {
+			nioManager = new NioMemcachedManager();
+			nioManager.setServers(servers.split(","));
+			cache = nioManager.getCache(POOL);
+		} else {
+			dangaManager = new MemcachedManager();
+			dangaManager.setServers(servers.split(","));
+			cache = dangaManager.getCache(POOL);
+		}
+
+		Random random = new Random(1);
+		char[] chars = new char[512];
+		for (int i = 0; i < KEYS; i++) {
+			for (int j = 0; j < chars.length; j++) {
+				chars[j] = (char) ('a' + random.nextInt(26));
+			}
+			cache.add(key(i), new String(chars));
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		if (nioManager != null) {
+			nioManager.shutdown();
+		}
+		if (dangaManager != null) {
+			SockIOPool.getInstance(POOL).shutDown();
+		}
+		if (server != null) {
+			server.shutdown();
+		}
+	}
+
+	@Benchmark
+	public Object get(ThreadState state) {
+		return cache.get(key(state.random.nextInt(KEYS)));
+	}
+
+	@Benchmark
+	public Object getMulti(ThreadState state) {
+		String[] keys = new String[MULTI_KEYS];
+		int start = state.random.nextInt(KEYS);
+		for (int i = 0; i < MULTI_KEYS; i++) {
+			keys[i] = key((start + i * 97) % KEYS);
+		}
+		return cache.getMulti(keys);
+	}
+
+	private static String key(int index) {
+		return "benchmark-" + index;
+	}
+
+	@State(Scope.Thread)
+	public static class ThreadState {
+		private final Random random = new Random();
+	}
+}
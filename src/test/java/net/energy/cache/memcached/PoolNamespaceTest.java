@@ -0,0 +1,51 @@
+package net.energy.cache.memcached;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.Charset;
+
+import org.junit.Test;
+
+/**
+ * 测试PoolNamespace加上前缀后的key长度
+ * 
+ * @author wuqh
+ */
+public class PoolNamespaceTest {
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private final PoolNamespace namespace = new PoolNamespace("PHOTO", 60000L);
+
+	private static String repeat(String s, int times) {
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < times; i++) {
+			builder.append(s);
+		}
+		return builder.toString();
+	}
+
+	@Test
+	public void testShortKeyIsOnlyPrefixed() {
+		assertEquals("PHOTO#1381234567:photo-l-d-album1", namespace.fold("photo-l-d-album1", 1381234567L));
+	}
+
+	@Test
+	public void testFoldedKeyNeverExceedsLimit() {
+		// CacheKeyHasher已经将key限制在250字节以内
+		String key = repeat("a", 250);
+		String folded = namespace.fold(key, 1381234567L);
+		assertTrue(folded.getBytes(UTF_8).length <= 250);
+		assertTrue(folded.startsWith("PHOTO#1381234567:"));
+		assertEquals(folded, namespace.fold(key, 1381234567L));
+
+		// 不同的代数、不同的key得到不同的摘要
+		assertFalse(folded.equals(namespace.fold(key, 1381234568L)));
+		assertFalse(folded.equals(namespace.fold(repeat("a", 249) + "b", 1381234567L)));
+
+		// 多字节字符按UTF-8字节数计算
+		String multiByte = repeat("相", 80);
+		assertTrue(namespace.fold(multiByte, 1381234567L).getBytes(UTF_8).length <= 250);
+	}
+}
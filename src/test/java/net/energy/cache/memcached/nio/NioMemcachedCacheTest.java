@@ -0,0 +1,208 @@
+package net.energy.cache.memcached.nio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import net.energy.cache.Cache;
+import net.energy.cache.memcached.FakeMemcachedServer;
+import net.energy.exception.CacheUnreachableException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * 使用进程内的FakeMemcachedServer测试NioMemcachedCache
+ * 
+ * @author wuqh
+ */
+public class NioMemcachedCacheTest {
+	private FakeMemcachedServer server;
+	private NioMemcachedManager manager;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new FakeMemcachedServer();
+		manager = createManager(false);
+	}
+
+	@After
+	public void tearDown() {
+		manager.shutdown();
+		server.shutdown();
+	}
+
+	private NioMemcachedManager createManager(boolean namespaced) {
+		NioMemcachedManager nioManager = new NioMemcachedManager();
+		nioManager.setServers(new String[] { server.getAddress() });
+		nioManager.setNamespaced(namespaced);
+		return nioManager;
+	}
+
+	@Test
+	public void testAddGetDelete() {
+		Cache cache = manager.getCache("test");
+		cache.add("user-1", "tom");
+		assertEquals("tom", cache.get("user-1"));
+		assertTrue(cache.keyExists("user-1"));
+
+		cache.delete("user-1");
+		assertNull(cache.get("user-1"));
+		assertFalse(cache.keyExists("user-1"));
+	}
+
+	@Test
+	public void testGetMultiSkipsMissingKeys() {
+		Cache cache = manager.getCache("test");
+		cache.add("a", "1");
+		cache.add("c", "3");
+
+		Map<String, Object> values = cache.getMulti("a", "b", "c");
+		assertEquals(2, values.size());
+		assertEquals("1", values.get("a"));
+		assertEquals("3", values.get("c"));
+	}
+
+	@Test
+	public void testIncr() {
+		Cache cache = manager.getCache("test");
+		assertEquals(10L, cache.incr("counter", 1, 10, 0));
+		assertEquals(11L, cache.incr("counter", 1, 10, 0));
+
+		// 旧的非数字值会被初始值覆盖
+		cache.add("legacy", "not-a-number");
+		assertEquals(5L, cache.incr("legacy", 1, 5, 0));
+		assertEquals(6L, cache.incr("legacy", 1, 5, 0));
+	}
+
+	@Test
+	public void testMultiOperations() {
+		Cache cache = manager.getCache("test");
+		cache.add("v1", "junk");
+		cache.incr("v2", 0, 100, 0);
+		Map<String, Long> versions = cache.incrMulti(1, 1, 0, "v1", "v2", "v3");
+		assertEquals(Long.valueOf(1L), versions.get("v1"));
+		assertEquals(Long.valueOf(101L), versions.get("v2"));
+		assertEquals(Long.valueOf(1L), versions.get("v3"));
+
+		cache.add("k1", "1");
+		cache.add("k2", "2");
+		cache.deleteMulti("k1", "k2", "missing");
+		assertTrue(cache.getMulti("k1", "k2").isEmpty());
+	}
+
+	@Test
+	public void testRemoveAllWithoutNamespaceFlushesServer() {
+		Cache a = manager.getCache("a");
+		Cache b = manager.getCache("b");
+		a.add("k", "va");
+		b.add("k2", "vb");
+
+		a.removeAll();
+		assertEquals(0, server.size());
+	}
+
+	@Test
+	public void testRemoveAllWithNamespaceKeepsOtherPools() {
+		NioMemcachedManager namespaced = createManager(true);
+		try {
+			Cache a = namespaced.getCache("a");
+			Cache b = namespaced.getCache("b");
+			a.add("k", "va");
+			b.add("k", "vb");
+			assertEquals("va", a.get("k"));
+			assertEquals("vb", b.get("k"));
+
+			a.removeAll();
+			assertNull(a.get("k"));
+			assertEquals("vb", b.get("k"));
+		} finally {
+			namespaced.shutdown();
+		}
+	}
+
+	@Test
+	public void testNamespacedKeyAtLengthLimit() {
+		NioMemcachedManager namespaced = createManager(true);
+		try {
+			Cache cache = namespaced.getCache("a");
+			// 不加前缀时刚好250字节
+			String key = new String(new char[250]).replace('\0', 'k');
+			cache.add(key, "v");
+			assertEquals("v", cache.get(key));
+			cache.delete(key);
+			assertNull(cache.get(key));
+		} finally {
+			namespaced.shutdown();
+		}
+	}
+
+	@Test
+	public void testConcurrentRequestsArePipelinedOnOneConnection() throws Exception {
+		final Cache cache = manager.getCache("test");
+		final int keys = 200;
+		for (int i = 0; i < keys; i++) {
+			cache.add("key-" + i, "value-" + i);
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(32);
+		try {
+			List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+			for (int t = 0; t < 32; t++) {
+				final int seed = t;
+				futures.add(executor.submit(new Callable<Integer>() {
+
+					@Override
+					public Integer call() {
+						int mismatches = 0;
+						for (int i = 0; i < 500; i++) {
+							int index = (seed * 31 + i) % keys;
+							if (!("value-" + index).equals(cache.get("key-" + index))) {
+								mismatches++;
+							}
+						}
+						return mismatches;
+					}
+				}));
+			}
+			for (Future<Integer> future : futures) {
+				assertEquals(Integer.valueOf(0), future.get());
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		// 默认每台服务器只使用一个连接
+		assertEquals(1L, server.getConnectionCount());
+	}
+
+	@Test
+	public void testUnreachableServer() throws Exception {
+		FakeMemcachedServer stopped = new FakeMemcachedServer();
+		String address = stopped.getAddress();
+		stopped.shutdown();
+
+		NioMemcachedManager unreachable = new NioMemcachedManager();
+		unreachable.setServers(new String[] { address });
+		unreachable.setOperationTimeout(200);
+		unreachable.setConnectTimeout(200);
+		try {
+			unreachable.getCache("test").get("key");
+			fail("服务器不可用时应该抛出CacheUnreachableException");
+		} catch (CacheUnreachableException e) {
+			// expected
+		} finally {
+			unreachable.shutdown();
+		}
+	}
+}
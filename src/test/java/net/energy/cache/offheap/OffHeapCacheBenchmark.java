@@ -0,0 +1,160 @@
+package net.energy.cache.offheap;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import net.energy.cache.Cache;
+import net.energy.cache.CacheObject;
+import net.energy.cache.codec.CompactBinaryCodec;
+import net.energy.cache.ehcache.Ehcache;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.store.MemoryStoreEvictionPolicy;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 比较堆外缓存（OffHeapCache）和Ehcache在缓存池中有100万个以上对象时的命中延迟和GC开销：
+ * 
+ * <pre>
+ * 1、get：全部命中的读取延迟（平均值和p99），堆外缓存包括解码的耗时；
+ * 2、getAndPut：90%读、10%写，缓存对象不断更新时的延迟；
+ * 3、GC：填充后Full GC的耗时和堆的使用量，以及每轮测量中GC的次数和耗时，在控制台输出。
+ * 
+ * mvn -Pbenchmark test-compile exec:exec -Dbenchmark=OffHeapCacheBenchmark
+ * </pre>
+ * 
+ * @author wuqh
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.AverageTime, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+@Fork(value = 1, jvmArgsAppend = { "-Xms2g", "-Xmx2g", "-XX:MaxDirectMemorySize=2g" })
+public class OffHeapCacheBenchmark {
+	private static final String POOL = "BENCHMARK";
+
+	@Param({ "ehcache", "offheap" })
+	private String tier;
+
+	@Param({ "1000000" })
+	private int entries;
+
+	private CacheManager ehcacheManager;
+	private Cache cache;
+	private long gcCount;
+	private long gcTime;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		if ("offheap".equals(tier)) {
+			cache = new OffHeapCache(1024L * 1024 * 1024, 16, new CompactBinaryCodec());
+		} else {
+			ehcacheManager = CacheManager.create();
+			net.sf.ehcache.Cache rawCache = new net.sf.ehcache.Cache(POOL, entries, MemoryStoreEvictionPolicy.LRU,
+					false, null, true, 0, 0, false, 120, null, null);
+			ehcacheManager.addCache(rawCache);
+			Ehcache ehcache = new Ehcache();
+			ehcache.setCache(rawCache);
+			cache = ehcache;
+		}
+
+		for (int i = 0; i < entries; i++) {
+			cache.add(key(i), value(i));
+		}
+
+		long start = System.nanoTime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		Runtime runtime = Runtime.getRuntime();
+		System.out.println("\n" + tier + " entries=" + entries + " fullGc="
+				+ TimeUnit.NANOSECONDS.toMillis((System.nanoTime() - start) / 3) + "ms heapUsed="
+				+ (runtime.totalMemory() - runtime.freeMemory()) / (1024 * 1024) + "MB");
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		cache.removeAll();
+		if (ehcacheManager != null) {
+			ehcacheManager.shutdown();
+		}
+	}
+
+	@Setup(Level.Iteration)
+	public void startIteration() {
+		gcCount = totalGcCount();
+		gcTime = totalGcTime();
+	}
+
+	@TearDown(Level.Iteration)
+	public void endIteration() {
+		System.out.println("\n" + tier + " gcCount=" + (totalGcCount() - gcCount) + " gcTime="
+				+ (totalGcTime() - gcTime) + "ms");
+	}
+
+	@Benchmark
+	public Object get(ThreadState state) {
+		return cache.get(key(state.random.nextInt(entries)));
+	}
+
+	@Benchmark
+	public Object getAndPut(ThreadState state) {
+		int index = state.random.nextInt(entries);
+		if (state.random.nextInt(10) == 0) {
+			cache.add(key(index), value(index));
+			return null;
+		}
+		return cache.get(key(index));
+	}
+
+	private static String key(int index) {
+		return "user-" + index;
+	}
+
+	private static CacheObject value(int index) {
+		StringBuilder builder = new StringBuilder(128);
+		builder.append("user-").append(index).append(':');
+		while (builder.length() < 128) {
+			builder.append('x');
+		}
+		return new CacheObject(builder.toString(), 1L);
+	}
+
+	private static long totalGcCount() {
+		long count = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			count += Math.max(0, gc.getCollectionCount());
+		}
+		return count;
+	}
+
+	private static long totalGcTime() {
+		long time = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			time += Math.max(0, gc.getCollectionTime());
+		}
+		return time;
+	}
+
+	@State(Scope.Thread)
+	public static class ThreadState {
+		private final Random random = new Random();
+	}
+}
@@ -0,0 +1,38 @@
+package net.energy.cache.offheap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import net.energy.cache.codec.SerializableCodec;
+
+import org.junit.Test;
+
+/**
+ * 测试OffHeapCache
+ * 
+ * @author wuqh
+ */
+public class OffHeapCacheTest {
+
+	@Test
+	public void testAddGetDelete() {
+		OffHeapCache cache = new OffHeapCache(1024L * 1024, 4, new SerializableCodec());
+		cache.add("user-1", "tom");
+		assertEquals("tom", cache.get("user-1"));
+
+		cache.delete("user-1");
+		assertNull(cache.get("user-1"));
+	}
+
+	@Test
+	public void testTooLargeValueRemovesOldValue() {
+		// 每个分段1K
+		OffHeapCache cache = new OffHeapCache(4 * 1024L, 4, new SerializableCodec());
+		cache.add("user-1", "tom");
+		assertEquals("tom", cache.get("user-1"));
+
+		// 新值超过分段的容量无法缓存，不能再读到旧值
+		cache.add("user-1", new String(new char[4096]).replace('\0', 'x'));
+		assertNull(cache.get("user-1"));
+	}
+}
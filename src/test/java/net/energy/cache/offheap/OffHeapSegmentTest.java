@@ -0,0 +1,43 @@
+package net.energy.cache.offheap;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * 测试OffHeapSegment的过期删除
+ * 
+ * @author wuqh
+ */
+public class OffHeapSegmentTest {
+	private static final byte[] KEY = { 'k', '1' };
+	private static final int HASH = 1;
+
+	@Test
+	public void testExpiredRecordIsRemovedOnGet() {
+		OffHeapSegment segment = new OffHeapSegment(1024);
+		segment.put(KEY, HASH, new byte[] { 1 }, 100L);
+
+		assertNull(segment.get(KEY, HASH, 200L));
+		assertEquals(0, segment.size());
+	}
+
+	@Test
+	public void testRemoveIfExpiredKeepsNewValue() {
+		OffHeapSegment segment = new OffHeapSegment(1024);
+		segment.put(KEY, HASH, new byte[] { 1 }, 100L);
+
+		// 读到过期记录之后、删除之前，其他线程写入了新值
+		segment.put(KEY, HASH, new byte[] { 2 }, 0L);
+		assertFalse(segment.removeIfExpired(KEY, HASH, 200L));
+		assertArrayEquals(new byte[] { 2 }, segment.get(KEY, HASH, 200L));
+
+		segment.put(KEY, HASH, new byte[] { 3 }, 100L);
+		assertTrue(segment.removeIfExpired(KEY, HASH, 200L));
+		assertEquals(0, segment.size());
+	}
+}
@@ -0,0 +1,91 @@
+package net.energy.cache.tinylfu;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import net.energy.cache.codec.SerializableCodec;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * 测试TinyLfuCache的容量限制、过期时间，以及热点对象不会被扫描式访问挤出
+ * 
+ * @author wuqh
+ */
+public class TinyLfuCacheTest {
+	/**
+	 * 数值类型的对象在TinyLfuCache中的固定大小，见TinyLfuCache.weigh
+	 */
+	private static final int ENTRY_WEIGHT = 96 + 24;
+	private static final int MAX_ENTRIES = 100;
+
+	private TinyLfuCache cache;
+
+	@Before
+	public void setUp() {
+		cache = new TinyLfuCache(MAX_ENTRIES * ENTRY_WEIGHT, 0.01D, new SerializableCodec());
+	}
+
+	@Test
+	public void testWeightBound() {
+		for (int i = 0; i < MAX_ENTRIES * 10; i++) {
+			cache.add("k" + i, Long.valueOf(i));
+			assertTrue(cache.getWeightedSize() <= MAX_ENTRIES * ENTRY_WEIGHT);
+		}
+
+		assertEquals(MAX_ENTRIES, cache.getSize());
+		assertEquals(MAX_ENTRIES * 9, cache.getEvictionCount());
+	}
+
+	@Test
+	public void testOversizedValueNotCached() {
+		StringBuilder value = new StringBuilder();
+		while (value.length() < MAX_ENTRIES * ENTRY_WEIGHT) {
+			value.append("oversized-");
+		}
+		cache.add("big", value.toString());
+
+		assertNull(cache.get("big"));
+		assertEquals(0L, cache.getWeightedSize());
+	}
+
+	@Test
+	public void testExpiry() throws Exception {
+		cache.add("short", Long.valueOf(1L), 50L);
+		cache.add("long", Long.valueOf(2L), 60000L);
+		cache.add("forever", Long.valueOf(3L));
+		assertEquals(1L, cache.get("short"));
+
+		Thread.sleep(100L);
+		assertNull(cache.get("short"));
+		assertEquals(2L, cache.get("long"));
+		assertEquals(3L, cache.get("forever"));
+		assertEquals(2, cache.getSize());
+		assertEquals(2 * ENTRY_WEIGHT, cache.getWeightedSize());
+	}
+
+	@Test
+	public void testHotKeysSurviveScan() {
+		int hotKeys = MAX_ENTRIES / 2;
+		for (int i = 0; i < hotKeys; i++) {
+			cache.add("hot" + i, Long.valueOf(i));
+		}
+		for (int round = 0; round < 20; round++) {
+			for (int i = 0; i < hotKeys; i++) {
+				assertEquals(Long.valueOf(i), cache.get("hot" + i));
+			}
+		}
+
+		// 只访问一次的key（如：翻页查询）
+		for (int i = 0; i < MAX_ENTRIES * 10; i++) {
+			cache.add("scan" + i, Long.valueOf(i));
+		}
+
+		for (int i = 0; i < hotKeys; i++) {
+			assertEquals("hot" + i + "被扫描式访问淘汰", Long.valueOf(i), cache.get("hot" + i));
+		}
+		assertTrue(cache.getWeightedSize() <= MAX_ENTRIES * ENTRY_WEIGHT);
+	}
+}
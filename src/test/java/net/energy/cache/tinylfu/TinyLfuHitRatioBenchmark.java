@@ -0,0 +1,218 @@
+package net.energy.cache.tinylfu;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import net.energy.cache.Cache;
+import net.energy.cache.codec.SerializableCodec;
+import net.energy.cache.ehcache.Ehcache;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.store.MemoryStoreEvictionPolicy;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 按访问序列（trace）回放，比较TinyLfuCache和Ehcache（LRU）在相同容量（对象个数）下的命中率，
+ * 未命中时写入缓存，命中率在每轮回放结束后输出到控制台。
+ * 
+ * <pre>
+ * 内置的访问序列（固定种子生成，每次结果相同）：
+ * 1、zipf：50万个key，Zipf分布（s=0.9），200万次访问；
+ * 2、scan：zipf中每隔5万次访问插入一次2万个只访问一次的key的顺序扫描（如：翻页查询）；
+ * 3、shift：每50万次访问热点key整体变化一次。
+ * 也可以通过-Dtrace.file=path指定真实的访问序列文件，每行一个key，此时忽略trace参数。
+ * 
+ * mvn -Pbenchmark test-compile exec:exec -Dbenchmark=TinyLfuHitRatioBenchmark
+ * </pre>
+ * 
+ * @author wuqh
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(1)
+public class TinyLfuHitRatioBenchmark {
+	private static final int KEYS = 500000;
+	private static final int REQUESTS = 2000000;
+	private static final double ZIPF_EXPONENT = 0.9D;
+	private static final int SCAN_INTERVAL = 50000;
+	private static final int SCAN_LENGTH = 20000;
+	private static final int SHIFT_INTERVAL = 500000;
+	/**
+	 * 计数器类型的对象在TinyLfuCache中的固定大小，见TinyLfuCache.weigh
+	 */
+	private static final int ENTRY_WEIGHT = 96 + 24;
+
+	@Param({ "ehcache", "tinylfu" })
+	private String policy;
+
+	@Param({ "zipf", "scan", "shift" })
+	private String trace;
+
+	@Param({ "10000" })
+	private int maximumSize;
+
+	private String[] requests;
+	private CacheManager ehcacheManager;
+	private Cache cache;
+	private long hits;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		String traceFile = System.getProperty("trace.file");
+		if (traceFile != null) {
+			requests = readTrace(traceFile);
+		} else if ("scan".equals(trace)) {
+			requests = scanTrace();
+		} else if ("shift".equals(trace)) {
+			requests = shiftTrace();
+		} else {
+			requests = zipfTrace();
+		}
+		if ("ehcache".equals(policy)) {
+			ehcacheManager = CacheManager.create();
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		if (ehcacheManager != null) {
+			ehcacheManager.shutdown();
+		}
+	}
+
+	@Setup(Level.Iteration)
+	public void createCache() {
+		hits = 0;
+		if ("tinylfu".equals(policy)) {
+			cache = new TinyLfuCache((long) maximumSize * ENTRY_WEIGHT, 0.01D, new SerializableCodec());
+		} else {
+			String name = "HITRATIO-" + trace;
+			ehcacheManager.removeCache(name);
+			net.sf.ehcache.Cache rawCache = new net.sf.ehcache.Cache(name, maximumSize, MemoryStoreEvictionPolicy.LRU,
+					false, null, true, 0, 0, false, 120, null, null);
+			ehcacheManager.addCache(rawCache);
+			Ehcache ehcache = new Ehcache();
+			ehcache.setCache(rawCache);
+			cache = ehcache;
+		}
+	}
+
+	@TearDown(Level.Iteration)
+	public void printHitRatio() {
+		System.out.println("\n" + policy + " trace=" + trace + " size=" + maximumSize + " hitRatio="
+				+ String.format("%.2f%%", hits * 100.0D / requests.length));
+	}
+
+	@Benchmark
+	public long replay() {
+		Long value = Long.valueOf(1L);
+		for (String key : requests) {
+			if (cache.get(key) != null) {
+				hits++;
+			} else {
+				cache.add(key, value);
+			}
+		}
+		return hits;
+	}
+
+	private static String[] zipfTrace() {
+		ZipfGenerator zipf = new ZipfGenerator(KEYS, ZIPF_EXPONENT, new Random(1));
+		String[] keys = new String[REQUESTS];
+		for (int i = 0; i < REQUESTS; i++) {
+			keys[i] = "k" + zipf.next();
+		}
+		return keys;
+	}
+
+	private static String[] scanTrace() {
+		ZipfGenerator zipf = new ZipfGenerator(KEYS, ZIPF_EXPONENT, new Random(1));
+		List<String> keys = new ArrayList<String>(REQUESTS * 2);
+		int scanned = 0;
+		for (int i = 0; i < REQUESTS; i++) {
+			if (i > 0 && i % SCAN_INTERVAL == 0) {
+				for (int j = 0; j < SCAN_LENGTH; j++) {
+					keys.add("s" + (scanned++));
+				}
+			}
+			keys.add("k" + zipf.next());
+		}
+		return keys.toArray(new String[keys.size()]);
+	}
+
+	private static String[] shiftTrace() {
+		ZipfGenerator zipf = new ZipfGenerator(KEYS, ZIPF_EXPONENT, new Random(1));
+		String[] keys = new String[REQUESTS];
+		for (int i = 0; i < REQUESTS; i++) {
+			// 每次变化后最热的key换成另一批key
+			int offset = (i / SHIFT_INTERVAL) * (KEYS / 7);
+			keys[i] = "k" + ((zipf.next() + offset) % KEYS);
+		}
+		return keys;
+	}
+
+	private static String[] readTrace(String file) throws IOException {
+		List<String> keys = new ArrayList<String>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				line = line.trim();
+				if (line.length() > 0) {
+					keys.add(line);
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		return keys.toArray(new String[keys.size()]);
+	}
+
+	/**
+	 * 按累积分布函数二分查找的Zipf分布生成器，返回0到n-1，0最热
+	 */
+	private static class ZipfGenerator {
+		private final double[] cdf;
+		private final Random random;
+
+		ZipfGenerator(int n, double exponent, Random random) {
+			this.random = random;
+			cdf = new double[n];
+			double sum = 0;
+			for (int i = 0; i < n; i++) {
+				sum += 1.0D / Math.pow(i + 1, exponent);
+				cdf[i] = sum;
+			}
+			for (int i = 0; i < n; i++) {
+				cdf[i] /= sum;
+			}
+		}
+
+		int next() {
+			int index = Arrays.binarySearch(cdf, random.nextDouble());
+			return (index >= 0) ? index : Math.min(-index - 1, cdf.length - 1);
+		}
+	}
+}
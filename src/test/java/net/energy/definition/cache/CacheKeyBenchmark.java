@@ -0,0 +1,137 @@
+package net.energy.definition.cache;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import net.energy.annotation.Param;
+import net.energy.annotation.cache.Cache;
+import net.energy.expression.ParsedExpression;
+import net.energy.utils.Page;
+import net.energy.utils.ReflectionUtils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 比较预编译的key模板与原来逐段substring拼接key的耗时和每次调用分配的字节数（gc.alloc.rate.norm）：
+ * 
+ * <pre>
+ * 1、substringKey：原来的拼接方式，每个常量片段substring一次，再复制到新的StringBuilder中加上分页后缀；
+ * 2、templateKey：预编译的模板，常量片段和参数值追加到线程内复用的StringBuilder中；
+ * 3、hashedKey：模板加上CacheKeyHasher，超过阈值的key转换为定长的摘要。
+ * 
+ * mvn -Pbenchmark test-compile exec:exec -Dbenchmark="CacheKeyBenchmark -prof gc"
+ * </pre>
+ * 
+ * @author wuqh
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CacheKeyBenchmark {
+	private CacheDefinition definition;
+	private CacheDefinition hashedDefinition;
+	private CacheDefinition longDefinition;
+	private Object[] args;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		Method method = PhotoDao.class.getMethod("getPhotos", long.class, long.class, String.class, Page.class);
+		definition = new CacheDefinition(method.getAnnotation(Cache.class), method);
+
+		Method longMethod = PhotoDao.class.getMethod("getPhotosByTitle", long.class, long.class, String.class,
+				Page.class);
+		longDefinition = new CacheDefinition(longMethod.getAnnotation(Cache.class), longMethod);
+		hashedDefinition = new CacheDefinition(longMethod.getAnnotation(Cache.class), longMethod);
+		hashedDefinition.setKeyHasher(new CacheKeyHasher(CacheKeyHasher.MAX_MEMCACHED_KEY_LENGTH, 32));
+
+		Page page = new Page();
+		page.setCurpage(3);
+		StringBuilder title = new StringBuilder();
+		while (title.length() < 240) {
+			title.append("summer-holiday-");
+		}
+		args = new Object[] { 1234567L, 7654321L, title.toString(), page };
+	}
+
+	@Benchmark
+	public String substringKey() {
+		return substringCacheKey(definition, args);
+	}
+
+	@Benchmark
+	public String templateKey() {
+		return definition.generateCacheKey(args);
+	}
+
+	@Benchmark
+	public String longSubstringKey() {
+		return substringCacheKey(longDefinition, args);
+	}
+
+	@Benchmark
+	public String longTemplateKey() {
+		return longDefinition.generateCacheKey(args);
+	}
+
+	@Benchmark
+	public String hashedKey() {
+		return hashedDefinition.generateCacheKey(args);
+	}
+
+	/**
+	 * 预编译模板之前的生成方式
+	 */
+	private static String substringCacheKey(CacheDefinition definition, Object[] args) {
+		ParsedExpression parsedExpression = definition.getParsedKey();
+		Method[] getterMethods = definition.getKeyGetterMethods();
+		Integer[] parameterIndexes = definition.getKeyParameterIndexes();
+		String oriKey = parsedExpression.getOriginalExpression();
+		List<String> parameterNames = parsedExpression.getParameterNames();
+
+		int lastIndex = 0;
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < parameterNames.size(); i++) {
+			int[] indexes = parsedExpression.getParameterIndexes(i);
+			builder.append(oriKey.substring(lastIndex, indexes[0]));
+			Object value = ReflectionUtils.fetchValue(getterMethods[i], parameterIndexes[i], args, parameterNames);
+			if (value != null) {
+				builder.append(value.toString());
+			}
+			lastIndex = indexes[1];
+		}
+		builder.append(oriKey.substring(lastIndex));
+		String simpleKey = builder.toString();
+
+		StringBuilder cacheKey = new StringBuilder();
+		cacheKey.append(simpleKey);
+		Page page = definition.getPageArgument(args);
+		if (page != null) {
+			cacheKey.append("-p").append(page.getCurpage());
+		}
+		return cacheKey.toString();
+	}
+
+	public interface PhotoDao {
+		@Cache(pool = "photo", key = "photo-l-d-album:albumId-u:userId", vkey = "photo-v-album:albumId")
+		List<Object> getPhotos(@Param("albumId") long albumId, @Param("userId") long userId,
+				@Param("title") String title, Page page);
+
+		@Cache(pool = "photo", key = "photo-l-d-album:albumId-u:userId-t:title", vkey = "photo-v-album:albumId")
+		List<Object> getPhotosByTitle(@Param("albumId") long albumId, @Param("userId") long userId,
+				@Param("title") String title, Page page);
+	}
+}
@@ -0,0 +1,111 @@
+package net.energy.definition.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.BlockingQueue;
+
+import net.energy.annotation.Param;
+import net.energy.annotation.cache.CacheMulti;
+import net.energy.exception.DaoGenerateException;
+
+import org.junit.Test;
+
+/**
+ * 测试CacheMultiDefinition重新绑定id集合参数
+ * 
+ * @author wuqh
+ */
+public class CacheMultiDefinitionTest {
+	private static final List<Object> IDS = Arrays.<Object> asList(3L, 1L, 2L);
+
+	@Test
+	public void testRebindInterfaceTypes() throws Exception {
+		assertRebind("getByList", new ArrayList<Long>(), ArrayList.class);
+		assertRebind("getByCollection", new ArrayList<Long>(), ArrayList.class);
+		assertRebind("getBySet", new LinkedHashSet<Long>(), LinkedHashSet.class);
+		assertRebind("getBySortedSet", new TreeSet<Long>(), TreeSet.class);
+	}
+
+	@Test
+	public void testRebindConcreteTypes() throws Exception {
+		assertRebind("getByLinkedList", new LinkedList<Long>(), LinkedList.class);
+		assertRebind("getByTreeSet", new TreeSet<Long>(), TreeSet.class);
+	}
+
+	@Test
+	public void testRebindKeepsComparator() throws Exception {
+		TreeSet<Long> ids = new TreeSet<Long>(Collections.reverseOrder());
+		Collection<?> rebound = assertRebind("getBySortedSet", ids, TreeSet.class);
+		assertSame(ids.comparator(), ((SortedSet<?>) rebound).comparator());
+		assertEquals(Arrays.asList(3L, 2L, 1L), new ArrayList<Object>(rebound));
+	}
+
+	@Test
+	public void testUnsupportedTypeIsRejectedAtParse() throws Exception {
+		try {
+			createDefinition("getByQueue");
+			fail("无法创建的集合类型应该在解析时报错");
+		} catch (DaoGenerateException e) {
+			// expected
+		}
+	}
+
+	private Collection<?> assertRebind(String methodName, Collection<Long> ids, Class<?> expectedType)
+			throws Exception {
+		CacheMultiDefinition definition = createDefinition(methodName);
+		Object[] args = new Object[] { ids, "keep" };
+		Object[] newArgs = definition.rebindIds(args, IDS);
+
+		assertEquals(expectedType, newArgs[0].getClass());
+		assertEquals("keep", newArgs[1]);
+		assertSame(ids, args[0]);
+		Collection<?> rebound = (Collection<?>) newArgs[0];
+		assertEquals(new TreeSet<Object>(IDS), new TreeSet<Object>(rebound));
+		return rebound;
+	}
+
+	private static CacheMultiDefinition createDefinition(String methodName) throws Exception {
+		for (Method method : UserDao.class.getMethods()) {
+			if (method.getName().equals(methodName)) {
+				return new CacheMultiDefinition(method.getAnnotation(CacheMulti.class), method);
+			}
+		}
+		throw new IllegalArgumentException(methodName);
+	}
+
+	public interface UserDao {
+		@CacheMulti(key = "user-:id", param = "ids")
+		List<Object> getByList(@Param("ids") List<Long> ids, @Param("name") String name);
+
+		@CacheMulti(key = "user-:id", param = "ids")
+		List<Object> getByCollection(@Param("ids") Collection<Long> ids, @Param("name") String name);
+
+		@CacheMulti(key = "user-:id", param = "ids")
+		List<Object> getBySet(@Param("ids") Set<Long> ids, @Param("name") String name);
+
+		@CacheMulti(key = "user-:id", param = "ids")
+		List<Object> getBySortedSet(@Param("ids") SortedSet<Long> ids, @Param("name") String name);
+
+		@CacheMulti(key = "user-:id", param = "ids")
+		List<Object> getByLinkedList(@Param("ids") LinkedList<Long> ids, @Param("name") String name);
+
+		@CacheMulti(key = "user-:id", param = "ids")
+		List<Object> getByTreeSet(@Param("ids") TreeSet<Long> ids, @Param("name") String name);
+
+		@CacheMulti(key = "user-:id", param = "ids")
+		List<Object> getByQueue(@Param("ids") BlockingQueue<Long> ids, @Param("name") String name);
+	}
+}
@@ -0,0 +1,489 @@
+package net.energy.executor.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.Serializable;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.energy.annotation.Param;
+import net.energy.annotation.cache.Cache;
+import net.energy.annotation.cache.CacheDelete;
+import net.energy.annotation.cache.CachePut;
+import net.energy.annotation.cache.CacheUpdate;
+import net.energy.annotation.cache.VerUpdate;
+import net.energy.cache.CacheManager;
+import net.energy.cache.codec.SerializableCodec;
+import net.energy.cache.tinylfu.TinyLfuCache;
+import net.energy.executor.DataAccessExecutor;
+import net.energy.utils.Page;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * 测试CacheExecutor的缓存读取、合并加载、后台刷新、空结果缓存、整体缓存后分页、标签失效以及缓存更新
+ * 
+ * @author wuqh
+ */
+public class CacheExecutorTest {
+	private RecordingCacheManager cacheManager;
+	private ExecutorService threads;
+
+	@Before
+	public void setUp() {
+		cacheManager = new RecordingCacheManager();
+		threads = Executors.newCachedThreadPool();
+	}
+
+	@After
+	public void tearDown() {
+		threads.shutdownNow();
+	}
+
+	@Test
+	public void testHitReadsAllKeysWithOneGetMulti() throws Exception {
+		FakeDataAccess dao = new FakeDataAccess(Arrays.asList("a", "b"));
+		CacheExecutor executor = executor("getPhotos", dao);
+
+		assertEquals(Arrays.asList("a", "b"), executor.execute(null, new Object[] { 1L, page(1, 10) }));
+		assertEquals("getMulti [photo-l-album1-p1, photo-v-album1, page-photo-l-album1-p1]", cache("photo")
+				.operations.get(0));
+		cache("photo").operations.clear();
+
+		assertEquals(Arrays.asList("a", "b"), executor.execute(null, new Object[] { 1L, page(1, 10) }));
+		// 缓存对象、版本号和分页对象一次取回
+		assertEquals(Arrays.asList("getMulti [photo-l-album1-p1, photo-v-album1, page-photo-l-album1-p1]"),
+				cache("photo").operations);
+		assertEquals(1, dao.calls.get());
+	}
+
+	@Test
+	public void testConcurrentMissesLoadOnce() throws Exception {
+		FakeDataAccess dao = new FakeDataAccess(new Photo(1L, 1L, "v1"));
+		dao.block = new CountDownLatch(1);
+		CacheExecutor executor = executor("getCoalescedPhoto", dao);
+		List<Thread> loaders = new CopyOnWriteArrayList<Thread>();
+
+		Future<Object> leader = execute(executor, loaders, 1L);
+		assertTrue(dao.started.await(5, TimeUnit.SECONDS));
+		List<Future<Object>> followers = new ArrayList<Future<Object>>();
+		for (int i = 0; i < 3; i++) {
+			followers.add(execute(executor, loaders, 1L));
+		}
+		awaitWaiting(loaders, 3);
+		dao.block.countDown();
+
+		Object photo = leader.get(5, TimeUnit.SECONDS);
+		for (Future<Object> follower : followers) {
+			assertSame(photo, follower.get(5, TimeUnit.SECONDS));
+		}
+		assertEquals(1, dao.calls.get());
+	}
+
+	@Test
+	public void testWaitTimeoutFallsBackToDataAccess() throws Exception {
+		FakeDataAccess dao = new FakeDataAccess(new Photo(1L, 1L, "v1"));
+		dao.block = new CountDownLatch(1);
+		CacheExecutor executor = executor("getImpatientPhoto", dao);
+
+		Future<Object> leader = execute(executor, new CopyOnWriteArrayList<Thread>(), 1L);
+		assertTrue(dao.started.await(5, TimeUnit.SECONDS));
+
+		// 等待超时后自行访问数据
+		assertEquals("v1", ((Photo) executor.execute(null, new Object[] { 1L })).getTitle());
+		assertEquals(2, dao.calls.get());
+
+		dao.block.countDown();
+		assertEquals("v1", ((Photo) leader.get(5, TimeUnit.SECONDS)).getTitle());
+	}
+
+	@Test
+	public void testStaleResultReturnedWhileRefreshing() throws Exception {
+		FakeDataAccess dao = new FakeDataAccess(Arrays.asList("a"));
+		CacheExecutor executor = executor("getStalePhotos", dao);
+		assertEquals(Arrays.asList("a"), executor.execute(null, new Object[] { 1L }));
+
+		// 其他节点更新了版本号
+		cache("photo").incr("photo-v-album1", 1L, 1L, 0L);
+		dao.result = Arrays.asList("b");
+
+		assertEquals(Arrays.asList("a"), executor.execute(null, new Object[] { 1L }));
+		awaitResult(executor, Arrays.asList("b"), 1L);
+	}
+
+	@Test
+	public void testRefreshAheadBeforeExpire() throws Exception {
+		FakeDataAccess dao = new FakeDataAccess(Arrays.asList("a"));
+		CacheExecutor executor = executor("getRefreshedPhotos", dao);
+		assertEquals(Arrays.asList("a"), executor.execute(null, new Object[] { 1L }));
+
+		dao.result = Arrays.asList("b");
+		// 距离过期的时间小于refreshAhead，返回当前的缓存对象并在后台刷新
+		assertEquals(Arrays.asList("a"), executor.execute(null, new Object[] { 1L }));
+		awaitResult(executor, Arrays.asList("b"), 1L);
+	}
+
+	@Test
+	public void testEmptyResultCachedForNullExpire() throws Exception {
+		FakeDataAccess dao = new FakeDataAccess(null);
+		CacheExecutor executor = executor("getNullablePhoto", dao);
+
+		assertNull(executor.execute(null, new Object[] { 1L }));
+		assertNull(executor.execute(null, new Object[] { 1L }));
+		assertEquals(1, dao.calls.get());
+
+		Thread.sleep(100L);
+		dao.result = new Photo(1L, 1L, "v1");
+		assertEquals("v1", ((Photo) executor.execute(null, new Object[] { 1L })).getTitle());
+		assertEquals(2, dao.calls.get());
+
+		// 非空结果使用expire
+		Thread.sleep(100L);
+		assertEquals("v1", ((Photo) executor.execute(null, new Object[] { 1L })).getTitle());
+		assertEquals(2, dao.calls.get());
+	}
+
+	@Test
+	public void testPageSliceCachesWholeResult() throws Exception {
+		FakeDataAccess dao = new FakeDataAccess(Arrays.asList("a", "b", "c", "d", "e"));
+		CacheExecutor executor = executor("getPhotoPage", dao);
+
+		Page first = page(1, 2);
+		assertEquals(Arrays.asList("a", "b"), executor.execute(null, new Object[] { 1L, first }));
+		assertEquals(5, first.getTotal());
+		// 查询全部结果时不传入分页对象
+		assertNull(dao.arguments.get(0)[1]);
+		cache("photo").operations.clear();
+
+		Page last = page(3, 2);
+		assertEquals(Arrays.asList("e"), executor.execute(null, new Object[] { 1L, last }));
+		assertEquals(5, last.getTotal());
+		assertEquals(1, dao.calls.get());
+		// 不区分页码，也没有分页对象的缓存
+		assertEquals(Arrays.asList("getMulti [photo-all-album1, photo-v-album1]"), cache("photo").operations);
+	}
+
+	@Test
+	public void testDeleteTagInvalidatesTaggedCaches() throws Exception {
+		FakeDataAccess dao = new FakeDataAccess(new Photo(1L, 1L, "v1"));
+		CacheExecutor executor = executor("getTaggedPhoto", dao);
+		CacheExecutor clear = executor("clearAlbum", new FakeDataAccess(null));
+
+		executor.execute(null, new Object[] { 1L, 1L });
+		executor.execute(null, new Object[] { 2L, 2L });
+		executor.execute(null, new Object[] { 1L, 1L });
+		assertEquals(2, dao.calls.get());
+
+		cache("photo").operations.clear();
+		clear.execute(null, new Object[] { 1L });
+		assertEquals(Arrays.asList("incrMulti [tag-album-1]"), cache("photo").operations);
+
+		executor.execute(null, new Object[] { 1L, 1L });
+		assertEquals(3, dao.calls.get());
+		// 其他标签下的缓存不受影响
+		executor.execute(null, new Object[] { 2L, 2L });
+		assertEquals(3, dao.calls.get());
+	}
+
+	@Test
+	public void testPutWritesThroughToCache() throws Exception {
+		FakeDataAccess dao = new FakeDataAccess(null);
+		CacheExecutor executor = executor("getPhoto", dao);
+		CacheExecutor save = executor("savePhoto", new FakeDataAccess(null));
+
+		save.execute(null, new Object[] { new Photo(1L, 1L, "v1") });
+
+		assertEquals("v1", ((Photo) executor.execute(null, new Object[] { 1L })).getTitle());
+		assertEquals(0, dao.calls.get());
+	}
+
+	@Test
+	public void testPutUsesUpdatedVersion() throws Exception {
+		FakeDataAccess dao = new FakeDataAccess(new Photo(1L, 1L, "v1"));
+		CacheExecutor executor = executor("getPhoto", dao);
+		CacheExecutor update = executor("updatePhoto", new FakeDataAccess(null));
+		assertEquals("v1", ((Photo) executor.execute(null, new Object[] { 1L })).getTitle());
+
+		update.execute(null, new Object[] { new Photo(1L, 1L, "v2") });
+
+		// 写入的对象使用更新后的版本号，更新后的查询直接命中
+		assertEquals("v2", ((Photo) executor.execute(null, new Object[] { 1L })).getTitle());
+		assertEquals(1, dao.calls.get());
+	}
+
+	@Test
+	public void testUpdateBatchedPerPool() throws Exception {
+		CacheExecutor remove = executor("removePhoto", new FakeDataAccess(null));
+
+		remove.execute(null, new Object[] { 1L, 2L });
+
+		assertEquals(Arrays.asList("incrMulti [photo-v-album2, photo-v-1]", "deleteMulti [photo-d-1, photo-n-1]"),
+				cache("photo").operations);
+		assertEquals(Arrays.asList("deleteMulti [album-d-2]"), cache("album").operations);
+	}
+
+	private CacheExecutor executor(String methodName, DataAccessExecutor dao) throws Exception {
+		for (Method method : PhotoDao.class.getMethods()) {
+			if (method.getName().equals(methodName)) {
+				CacheExecutor executor = new CacheExecutor(cacheManager, method);
+				executor.setDataAccessExecutor(dao);
+				return executor;
+			}
+		}
+		throw new IllegalArgumentException(methodName);
+	}
+
+	private RecordingCache cache(String pool) {
+		return (RecordingCache) cacheManager.getCache(pool);
+	}
+
+	private Future<Object> execute(final CacheExecutor executor, final List<Thread> loaders, final long id) {
+		return threads.submit(new Callable<Object>() {
+
+			@Override
+			public Object call() throws Exception {
+				loaders.add(Thread.currentThread());
+				return executor.execute(null, new Object[] { id });
+			}
+		});
+	}
+
+	/**
+	 * 等待指定数量的线程进入限时等待（即正在等待其他线程的加载结果）
+	 */
+	private static void awaitWaiting(List<Thread> loaders, int count) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000L;
+		while (System.currentTimeMillis() < deadline) {
+			int waiting = 0;
+			for (Thread thread : loaders) {
+				if (thread.getState() == Thread.State.TIMED_WAITING) {
+					waiting++;
+				}
+			}
+			if (waiting >= count) {
+				return;
+			}
+			Thread.sleep(5L);
+		}
+		fail("等待加载结果的线程数不足" + count);
+	}
+
+	/**
+	 * 等待后台刷新完成，查询返回新的结果
+	 */
+	private static void awaitResult(CacheExecutor executor, Object expected, Object... args)
+			throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000L;
+		while (System.currentTimeMillis() < deadline) {
+			if (expected.equals(executor.execute(null, args))) {
+				return;
+			}
+			Thread.sleep(10L);
+		}
+		fail("后台刷新没有完成");
+	}
+
+	private static Page page(int curpage, int size) {
+		Page page = new Page();
+		page.setSize(size);
+		page.setCurpage(curpage);
+		return page;
+	}
+
+	public interface PhotoDao {
+		@Cache(pool = "photo", key = "photo-l-album:albumId", vkey = "photo-v-album:albumId")
+		List<String> getPhotos(@Param("albumId") long albumId, Page page);
+
+		@Cache(pool = "photo", key = "photo-c-:id", waitTimeout = 5000L)
+		Photo getCoalescedPhoto(@Param("id") long id);
+
+		@Cache(pool = "photo", key = "photo-w-:id", waitTimeout = 50L)
+		Photo getImpatientPhoto(@Param("id") long id);
+
+		@Cache(pool = "photo", key = "photo-s-album:albumId", vkey = "photo-v-album:albumId", staleFor = 60000L)
+		List<String> getStalePhotos(@Param("albumId") long albumId);
+
+		@Cache(pool = "photo", key = "photo-r-album:albumId", vkey = "photo-v-album:albumId", expire = 60000L, refreshAhead = 120000L)
+		List<String> getRefreshedPhotos(@Param("albumId") long albumId);
+
+		@Cache(pool = "photo", key = "photo-n-:id", nullExpire = 50L)
+		Photo getNullablePhoto(@Param("id") long id);
+
+		@Cache(pool = "photo", key = "photo-all-album:albumId", vkey = "photo-v-album:albumId", pageSlice = true)
+		List<String> getPhotoPage(@Param("albumId") long albumId, Page page);
+
+		@Cache(pool = "photo", key = "photo-t-:id", tags = { "album-:albumId" })
+		Photo getTaggedPhoto(@Param("id") long id, @Param("albumId") long albumId);
+
+		@CacheDelete(pool = "photo", tag = "album-:albumId")
+		void clearAlbum(@Param("albumId") long albumId);
+
+		@Cache(pool = "photo", key = "photo-d-:id", vkey = "photo-v-:result.id")
+		Photo getPhoto(@Param("id") long id);
+
+		@CachePut(pool = "photo", key = "photo-d-:photo.id", value = "photo", vkey = "photo-v-:photo.id")
+		void savePhoto(@Param("photo") Photo photo);
+
+		@CacheUpdate(update = @VerUpdate(pool = "photo", vkey = "photo-v-:photo.id"), put = @CachePut(pool = "photo", key = "photo-d-:photo.id", value = "photo", vkey = "photo-v-:photo.id"))
+		void updatePhoto(@Param("photo") Photo photo);
+
+		@CacheUpdate(delete = { @CacheDelete(pool = "photo", key = "photo-d-:id"),
+				@CacheDelete(pool = "photo", key = "photo-n-:id"), @CacheDelete(pool = "album", key = "album-d-:albumId") }, update = {
+				@VerUpdate(pool = "photo", vkey = "photo-v-album:albumId"), @VerUpdate(pool = "photo", vkey = "photo-v-:id") })
+		void removePhoto(@Param("id") long id, @Param("albumId") long albumId);
+	}
+
+	public static class Photo implements Serializable {
+		private static final long serialVersionUID = 1L;
+		private final long id;
+		private final long albumId;
+		private final String title;
+
+		public Photo(long id, long albumId, String title) {
+			this.id = id;
+			this.albumId = albumId;
+			this.title = title;
+		}
+
+		public long getId() {
+			return id;
+		}
+
+		public long getAlbumId() {
+			return albumId;
+		}
+
+		public String getTitle() {
+			return title;
+		}
+	}
+
+	/**
+	 * 记录调用次数的数据访问操作，设置block后第一次调用会等待block
+	 */
+	private static class FakeDataAccess implements DataAccessExecutor {
+		private final AtomicInteger calls = new AtomicInteger();
+		private final List<Object[]> arguments = new CopyOnWriteArrayList<Object[]>();
+		private final CountDownLatch started = new CountDownLatch(1);
+		private volatile CountDownLatch block;
+		private volatile Object result;
+
+		FakeDataAccess(Object result) {
+			this.result = result;
+		}
+
+		@Override
+		public Object execute(Object obj, Object[] args) {
+			int call = calls.incrementAndGet();
+			arguments.add(args);
+			Object value = result;
+			if (call == 1 && block != null) {
+				started.countDown();
+				try {
+					block.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			return value;
+		}
+	}
+
+	/**
+	 * 每个缓存池对应一个记录了批量操作的缓存
+	 */
+	private static class RecordingCacheManager implements CacheManager {
+		private final Map<String, RecordingCache> caches = new HashMap<String, RecordingCache>();
+
+		@Override
+		public synchronized net.energy.cache.Cache getCache(String pool) {
+			RecordingCache cache = caches.get(pool);
+			if (cache == null) {
+				cache = new RecordingCache();
+				caches.put(pool, cache);
+			}
+			return cache;
+		}
+	}
+
+	/**
+	 * 记录访问缓存的操作（读取单个key以及批量操作）的TinyLfuCache
+	 */
+	private static class RecordingCache implements net.energy.cache.Cache {
+		private final TinyLfuCache cache = new TinyLfuCache(1024 * 1024, 0.01, new SerializableCodec());
+		private final List<String> operations = new CopyOnWriteArrayList<String>();
+
+		@Override
+		public void add(String key, Object value) {
+			cache.add(key, value);
+		}
+
+		@Override
+		public void add(String key, Object value, long expiry) {
+			cache.add(key, value, expiry);
+		}
+
+		@Override
+		public boolean delete(String key) {
+			operations.add("delete " + key);
+			return cache.delete(key);
+		}
+
+		@Override
+		public void deleteMulti(String... keys) {
+			operations.add("deleteMulti " + Arrays.asList(keys));
+			cache.deleteMulti(keys);
+		}
+
+		@Override
+		public void removeAll() {
+			cache.removeAll();
+		}
+
+		@Override
+		public Object get(String key) {
+			operations.add("get " + key);
+			return cache.get(key);
+		}
+
+		@Override
+		public Map<String, Object> getMulti(String... keys) {
+			operations.add("getMulti " + Arrays.asList(keys));
+			return cache.getMulti(keys);
+		}
+
+		@Override
+		public long incr(String key, long delta, long initial, long expiry) {
+			return cache.incr(key, delta, initial, expiry);
+		}
+
+		@Override
+		public Map<String, Long> incrMulti(long delta, long initial, long expiry, String... keys) {
+			operations.add("incrMulti " + Arrays.asList(keys));
+			return cache.incrMulti(delta, initial, expiry, keys);
+		}
+
+		@Override
+		public boolean keyExists(String key) {
+			return cache.keyExists(key);
+		}
+	}
+}
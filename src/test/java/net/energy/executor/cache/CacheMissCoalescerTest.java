@@ -0,0 +1,180 @@
+package net.energy.executor.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.energy.exception.TaskNotReturnException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * 测试CacheMissCoalescer同一个key只加载一次，以及等待超时和异常时的行为
+ * 
+ * @author wuqh
+ */
+public class CacheMissCoalescerTest {
+	private static final String KEY = "photo-1";
+
+	private CacheMissCoalescer coalescer;
+	private ExecutorService threads;
+	private AtomicInteger loads;
+	private CountDownLatch started;
+	private CountDownLatch release;
+	private final List<Thread> loaders = new ArrayList<Thread>();
+
+	@Before
+	public void setUp() {
+		coalescer = new CacheMissCoalescer();
+		threads = Executors.newCachedThreadPool();
+		loads = new AtomicInteger();
+		started = new CountDownLatch(1);
+		release = new CountDownLatch(1);
+	}
+
+	@After
+	public void tearDown() {
+		release.countDown();
+		threads.shutdownNow();
+	}
+
+	@Test
+	public void testConcurrentLoadsShareOneResult() throws Exception {
+		Future<Object> leader = load(blockingLoader("v1"), 5000L);
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+
+		List<Future<Object>> followers = new ArrayList<Future<Object>>();
+		for (int i = 0; i < 4; i++) {
+			followers.add(load(blockingLoader("v2"), 5000L));
+		}
+		awaitWaiting(4);
+		release.countDown();
+
+		assertEquals("v1", leader.get(5, TimeUnit.SECONDS));
+		for (Future<Object> follower : followers) {
+			assertEquals("v1", follower.get(5, TimeUnit.SECONDS));
+		}
+		assertEquals(1, loads.get());
+	}
+
+	@Test
+	public void testFollowerTimesOut() throws Exception {
+		Future<Object> leader = load(blockingLoader("v1"), 5000L);
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+
+		try {
+			coalescer.load(KEY, blockingLoader("v2"), 50L);
+			fail();
+		} catch (TaskNotReturnException e) {
+			// 超时后由调用方自行访问数据
+		}
+
+		release.countDown();
+		assertEquals("v1", leader.get(5, TimeUnit.SECONDS));
+		assertEquals(1, loads.get());
+	}
+
+	@Test
+	public void testExceptionPropagatesToFollowers() throws Exception {
+		final IllegalStateException failure = new IllegalStateException("db down");
+		Future<Object> leader = load(new Callable<Object>() {
+
+			@Override
+			public Object call() throws Exception {
+				loads.incrementAndGet();
+				started.countDown();
+				release.await();
+				throw failure;
+			}
+		}, 5000L);
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+		Future<Object> follower = load(blockingLoader("v2"), 5000L);
+		awaitWaiting(1);
+		release.countDown();
+
+		assertSame(failure, causeOf(leader));
+		assertSame(failure, causeOf(follower));
+		assertEquals(1, loads.get());
+	}
+
+	@Test
+	public void testCompletedLoadIsNotReused() {
+		release.countDown();
+
+		assertEquals("v1", coalescer.load(KEY, blockingLoader("v1"), 5000L));
+		assertEquals("v2", coalescer.load(KEY, blockingLoader("v2"), 5000L));
+		assertEquals(2, loads.get());
+	}
+
+	private Callable<Object> blockingLoader(final Object value) {
+		return new Callable<Object>() {
+
+			@Override
+			public Object call() throws Exception {
+				loads.incrementAndGet();
+				started.countDown();
+				release.await();
+				return value;
+			}
+		};
+	}
+
+	private Future<Object> load(final Callable<Object> loader, final long timeout) {
+		return threads.submit(new Callable<Object>() {
+
+			@Override
+			public Object call() throws Exception {
+				synchronized (loaders) {
+					loaders.add(Thread.currentThread());
+				}
+				return coalescer.load(KEY, loader, timeout);
+			}
+		});
+	}
+
+	/**
+	 * 等待指定数量的线程进入限时等待（即正在等待其他线程的加载结果）
+	 */
+	private void awaitWaiting(int count) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000L;
+		while (System.currentTimeMillis() < deadline) {
+			int waiting = 0;
+			synchronized (loaders) {
+				for (Thread thread : loaders) {
+					if (thread.getState() == Thread.State.TIMED_WAITING) {
+						waiting++;
+					}
+				}
+			}
+			if (waiting >= count) {
+				return;
+			}
+			Thread.sleep(5L);
+		}
+		fail("等待加载结果的线程数不足" + count);
+	}
+
+	private static Throwable causeOf(Future<Object> future) throws Exception {
+		try {
+			future.get(5, TimeUnit.SECONDS);
+		} catch (ExecutionException e) {
+			return e.getCause();
+		}
+		fail();
+		return null;
+	}
+}
@@ -0,0 +1,85 @@
+package net.energy.executor.cache;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * 测试VersionLeaseCache的版本号只增不减，以及租约过期和清除
+ * 
+ * @author wuqh
+ */
+public class VersionLeaseCacheTest {
+	private static final String POOL = "photo";
+
+	@Test
+	public void testOlderVersionDoesNotOverrideNewer() {
+		VersionLeaseCache leases = new VersionLeaseCache(60000L);
+		leases.put(POOL, "photo-v-1", 5L);
+		// 较慢的读取带回来的旧版本号
+		leases.put(POOL, "photo-v-1", 3L);
+		assertEquals(5L, leases.get(POOL, "photo-v-1"));
+
+		leases.put(POOL, "photo-v-1", 6L);
+		assertEquals(6L, leases.get(POOL, "photo-v-1"));
+	}
+
+	@Test
+	public void testLeaseExpires() throws Exception {
+		VersionLeaseCache leases = new VersionLeaseCache(50L);
+		leases.put(POOL, "photo-v-1", 5L);
+		assertEquals(5L, leases.get(POOL, "photo-v-1"));
+
+		Thread.sleep(100L);
+		assertEquals(0L, leases.get(POOL, "photo-v-1"));
+		// 租约过期后可以记录任意版本号，如：缓存服务器重启后版本号重新计数
+		leases.put(POOL, "photo-v-1", 1L);
+		assertEquals(1L, leases.get(POOL, "photo-v-1"));
+	}
+
+	@Test
+	public void testInvalidate() {
+		VersionLeaseCache leases = new VersionLeaseCache(60000L);
+		leases.put(POOL, "photo-v-1", 5L);
+		leases.invalidate(POOL, "photo-v-1");
+		assertEquals(0L, leases.get(POOL, "photo-v-1"));
+
+		leases.put(POOL, "photo-v-1", 2L);
+		assertEquals(2L, leases.get(POOL, "photo-v-1"));
+	}
+
+	@Test
+	public void testNonPositiveVersionIgnored() {
+		VersionLeaseCache leases = new VersionLeaseCache(60000L);
+		leases.put(POOL, "photo-v-1", 0L);
+		leases.put(POOL, "photo-v-2", -1L);
+		assertEquals(0L, leases.get(POOL, "photo-v-1"));
+		assertEquals(0L, leases.get(POOL, "photo-v-2"));
+	}
+
+	@Test
+	public void testPoolsAreSeparated() {
+		VersionLeaseCache leases = new VersionLeaseCache(60000L);
+		leases.put(POOL, "v-1", 5L);
+		leases.put("album", "v-1", 2L);
+		assertEquals(5L, leases.get(POOL, "v-1"));
+		assertEquals(2L, leases.get("album", "v-1"));
+	}
+
+	@Test
+	public void testEvictWhenFull() {
+		VersionLeaseCache leases = new VersionLeaseCache(60000L, 100);
+		for (int i = 1; i <= 101; i++) {
+			leases.put(POOL, "photo-v-" + i, i);
+		}
+
+		int remained = 0;
+		for (int i = 1; i <= 101; i++) {
+			if (leases.get(POOL, "photo-v-" + i) == i) {
+				remained++;
+			}
+		}
+		// 超出后清除到maxEntries的3/4
+		assertEquals(75, remained);
+	}
+}